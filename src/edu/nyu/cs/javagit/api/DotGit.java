@@ -18,8 +18,8 @@ package edu.nyu.cs.javagit.api;
 
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.File;
 import java.io.IOException;
 import edu.nyu.cs.javagit.utilities.CheckUtilities;
@@ -36,7 +36,7 @@ import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
  */
 public final class DotGit {
   // This guy's a per-repository singleton, so we need a static place to store our instances.
-  private static final Map<String, DotGit> INSTANCES = new HashMap<String, DotGit>();
+  private static final ConcurrentMap<String, DotGit> INSTANCES = new ConcurrentHashMap<String, DotGit>();
 
   // The directory that contains the .git in question.
   private final File path;
@@ -68,7 +68,7 @@ public final class DotGit {
    * @return
    *          true if exits, false otherwise;
    */
-  public static synchronized boolean existsInstance(File path) {
+  public static boolean existsInstance(File path) {
     String canonicalPath = "";
 
     try {
@@ -88,7 +88,7 @@ public final class DotGit {
    *          <code>File</code> object representing the path to the repository.
    * @return The <code>DotGit</code> instance for this path
    */
-  public static synchronized DotGit getInstance(File path) {
+  public static DotGit getInstance(File path) {
     DotGit dotGit;
 
     // TODO (rs2705): make sure that path is valid
@@ -111,11 +111,14 @@ public final class DotGit {
       return null;
     }
 
-    if (!(INSTANCES.containsKey(canonicalPath))) {
+    dotGit = INSTANCES.get(canonicalPath);
+    if (dotGit == null) {
+      // Two threads can make one at the same time, both get the one that was put first
       dotGit = new DotGit(path, canonicalPath);
-      INSTANCES.put(canonicalPath, dotGit);
-    } else {
-      dotGit = INSTANCES.get(canonicalPath);
+      DotGit existing = INSTANCES.putIfAbsent(canonicalPath, dotGit);
+      if (existing != null) {
+        dotGit = existing;
+      }
     }
 
     return dotGit;
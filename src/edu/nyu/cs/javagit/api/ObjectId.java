@@ -0,0 +1,282 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The full name of a git object, kept as its 20 bytes instead of as a 40 character
+ * <code>String</code>. The hexadecimal name is only made when it is asked for.
+ *
+ * <code>ObjectId</code>s are values, two of them are equal when they name the same object. A
+ * {@link Table} shares one instance per object name.
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+  /**
+   * The length of the hexadecimal name of an object.
+   */
+  public static final int NAME_LENGTH = 40;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final int w1;
+  private final int w2;
+  private final int w3;
+  private final int w4;
+  private final int w5;
+  // the hexadecimal name, made when it is first asked for
+  private String name;
+
+  private ObjectId(int w1, int w2, int w3, int w4, int w5) {
+    this.w1 = w1;
+    this.w2 = w2;
+    this.w3 = w3;
+    this.w4 = w4;
+    this.w5 = w5;
+  }
+
+  /**
+   * @return true if the string is the full hexadecimal name of an object, not an abbreviation.
+   */
+  public static boolean isId(String name) {
+    if (name == null || name.length() != NAME_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < NAME_LENGTH; i++) {
+      if (digit(name.charAt(i)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param name
+   *          The full hexadecimal name of an object.
+   * @return The id, or null if the name isn't a full object name (for example an abbreviation).
+   */
+  public static ObjectId fromString(String name) {
+    if (name == null || name.length() != NAME_LENGTH) {
+      return null;
+    }
+    long[] words = new long[5];
+    for (int w = 0; w < 5; w++) {
+      long word = 0;
+      for (int i = w * 8; i < w * 8 + 8; i++) {
+        int digit = digit(name.charAt(i));
+        if (digit < 0) {
+          return null;
+        }
+        word = (word << 4) | digit;
+      }
+      words[w] = word;
+    }
+    return new ObjectId((int) words[0], (int) words[1], (int) words[2], (int) words[3], (int) words[4]);
+  }
+
+  /**
+   * Reads a hexadecimal name from a buffer without decoding it into a <code>String</code>.
+   *
+   * @param buffer
+   *          The buffer holding the name.
+   * @param offset
+   *          The position of the first of the 40 characters of the name.
+   * @return The id, or null if the 40 bytes aren't a hexadecimal name.
+   */
+  public static ObjectId fromHex(byte[] buffer, int offset) {
+    long w1 = hexWord(buffer, offset);
+    long w2 = hexWord(buffer, offset + 8);
+    long w3 = hexWord(buffer, offset + 16);
+    long w4 = hexWord(buffer, offset + 24);
+    long w5 = hexWord(buffer, offset + 32);
+    if ((w1 | w2 | w3 | w4 | w5) < 0) {
+      return null;
+    }
+    return new ObjectId((int) w1, (int) w2, (int) w3, (int) w4, (int) w5);
+  }
+
+  /**
+   * @return the value of 8 hexadecimal digits, or -1 if one isn't a digit.
+   */
+  private static long hexWord(byte[] buffer, int offset) {
+    long word = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      int digit = digit((char) buffer[i]);
+      if (digit < 0) {
+        return -1;
+      }
+      word = (word << 4) | digit;
+    }
+    return word;
+  }
+
+  /**
+   * Reads the 20 bytes of a binary name, as trees and pack indexes hold them.
+   */
+  public static ObjectId fromRaw(byte[] buffer, int offset) {
+    return new ObjectId(word(buffer, offset), word(buffer, offset + 4), word(buffer, offset + 8),
+        word(buffer, offset + 12), word(buffer, offset + 16));
+  }
+
+  /**
+   * Writes the 20 bytes of the binary name, the reverse of {@link #fromRaw(byte[], int)}.
+   */
+  public void copyRawTo(byte[] buffer, int offset) {
+    putWord(w1, buffer, offset);
+    putWord(w2, buffer, offset + 4);
+    putWord(w3, buffer, offset + 8);
+    putWord(w4, buffer, offset + 12);
+    putWord(w5, buffer, offset + 16);
+  }
+
+  private static void putWord(int word, byte[] buffer, int offset) {
+    buffer[offset] = (byte) (word >>> 24);
+    buffer[offset + 1] = (byte) (word >>> 16);
+    buffer[offset + 2] = (byte) (word >>> 8);
+    buffer[offset + 3] = (byte) word;
+  }
+
+  private static int word(byte[] buffer, int offset) {
+    return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16 | (buffer[offset + 2] & 0xff) << 8
+        | (buffer[offset + 3] & 0xff);
+  }
+
+  private static int digit(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+
+  /**
+   * @return true if this is the name git uses for "no object", forty zeros.
+   */
+  public boolean isZero() {
+    return (w1 | w2 | w3 | w4 | w5) == 0;
+  }
+
+  /**
+   * @return The 40 character hexadecimal name, made on the first call. Two threads may both make
+   *         it, they make the same name.
+   */
+  public String name() {
+    String made = name;
+    if (made == null) {
+      char[] chars = new char[NAME_LENGTH];
+      formatWord(w1, chars, 0);
+      formatWord(w2, chars, 8);
+      formatWord(w3, chars, 16);
+      formatWord(w4, chars, 24);
+      formatWord(w5, chars, 32);
+      made = new String(chars);
+      name = made;
+    }
+    return made;
+  }
+
+  private static void formatWord(int word, char[] name, int offset) {
+    for (int i = 7; i >= 0; i--) {
+      name[offset + i] = HEX[word & 0xf];
+      word >>>= 4;
+    }
+  }
+
+  /**
+   * @return true if the hexadecimal name of this object is the given name.
+   */
+  public boolean hasName(String name) {
+    return equals(fromString(name));
+  }
+
+  public int compareTo(ObjectId other) {
+    int[] mine = { w1, w2, w3, w4, w5 };
+    int[] theirs = { other.w1, other.w2, other.w3, other.w4, other.w5 };
+    for (int i = 0; i < mine.length; i++) {
+      if (mine[i] != theirs[i]) {
+        // unsigned, the order of the names
+        return (mine[i] ^ Integer.MIN_VALUE) < (theirs[i] ^ Integer.MIN_VALUE) ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ObjectId)) {
+      return false;
+    }
+    ObjectId other = (ObjectId) obj;
+    return w1 == other.w1 && w2 == other.w2 && w3 == other.w3 && w4 == other.w4 && w5 == other.w5;
+  }
+
+  @Override
+  public int hashCode() {
+    // the bytes of an object name are already evenly spread
+    return w2;
+  }
+
+  @Override
+  public String toString() {
+    return name();
+  }
+
+  /**
+   * Shares one <code>ObjectId</code>, and one value made from it, per object name. The table can
+   * be used by several threads at once.
+   *
+   * @param <V>
+   *          The values kept per object, for example the ids themselves.
+   */
+  public static class Table<V> {
+    private final ConcurrentMap<ObjectId, V> values = new ConcurrentHashMap<ObjectId, V>();
+
+    /**
+     * @return the value that was already kept for the id, or else the given value, which is kept
+     *         from now on.
+     */
+    public V intern(ObjectId id, V value) {
+      V existing = values.putIfAbsent(id, value);
+      return existing == null ? value : existing;
+    }
+
+    /**
+     * @return the value kept for the id, or null.
+     */
+    public V get(ObjectId id) {
+      return values.get(id);
+    }
+
+    public int size() {
+      return values.size();
+    }
+
+    public void clear() {
+      values.clear();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.api;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Test case for the <code>ObjectId</code> data object.
+ */
+public class TestObjectId extends TestCase {
+
+  private static final String NAME = "8734dca0f1e2d3c4b5a6978869504a3b2c1d0e0f";
+
+  @Test
+  public void testFromString() {
+    ObjectId id = ObjectId.fromString(NAME);
+    assertNotNull(id);
+    assertEquals(NAME, id.name());
+    assertEquals(NAME, id.toString());
+    assertTrue(id.hasName(NAME));
+    assertEquals(id, ObjectId.fromString(NAME.toUpperCase()));
+    assertFalse(id.isZero());
+
+    // Abbreviations and other names aren't ids
+    assertNull(ObjectId.fromString("8734dca"));
+    assertNull(ObjectId.fromString(null));
+    assertNull(ObjectId.fromString(NAME.substring(1) + "g"));
+    assertFalse(ObjectId.isId("8734dca"));
+    assertFalse(ObjectId.isId("HEAD"));
+    assertTrue(ObjectId.isId(NAME));
+  }
+
+  @Test
+  public void testFromHexAndRaw() {
+    byte[] buffer = ("commit " + NAME + "\n").getBytes();
+    ObjectId id = ObjectId.fromHex(buffer, 7);
+    assertEquals(ObjectId.fromString(NAME), id);
+    assertEquals(ObjectId.fromString(NAME).hashCode(), id.hashCode());
+    assertNull(ObjectId.fromHex(buffer, 0));
+
+    byte[] raw = new byte[20];
+    for (int i = 0; i < raw.length; i++) {
+      raw[i] = (byte) Integer.parseInt(NAME.substring(i * 2, i * 2 + 2), 16);
+    }
+    assertEquals(id, ObjectId.fromRaw(raw, 0));
+
+    assertTrue(ObjectId.fromString("0000000000000000000000000000000000000000").isZero());
+  }
+
+  @Test
+  public void testCompareTo() {
+    ObjectId low = ObjectId.fromString("0fffffffffffffffffffffffffffffffffffffff");
+    ObjectId high = ObjectId.fromString("f000000000000000000000000000000000000000");
+    assertTrue(low.compareTo(high) < 0);
+    assertTrue(high.compareTo(low) > 0);
+    assertEquals(0, low.compareTo(ObjectId.fromString(low.name())));
+  }
+
+  @Test
+  public void testTable() {
+    ObjectId.Table<ObjectId> table = new ObjectId.Table<ObjectId>();
+    ObjectId first = ObjectId.fromString(NAME);
+    ObjectId second = ObjectId.fromString(NAME);
+    assertNotSame(first, second);
+
+    assertSame(first, table.intern(first, first));
+    assertSame(first, table.intern(second, second));
+    assertSame(first, table.get(second));
+    assertEquals(1, table.size());
+
+    table.clear();
+    assertNull(table.get(first));
+  }
+}
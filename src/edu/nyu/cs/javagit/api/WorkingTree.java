@@ -18,9 +18,9 @@ package edu.nyu.cs.javagit.api;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import edu.nyu.cs.javagit.api.commands.GitAddResponse;
 import edu.nyu.cs.javagit.api.commands.GitBranch;
@@ -39,7 +39,7 @@ import edu.nyu.cs.javagit.utilities.CheckUtilities;
  */
 public final class WorkingTree {
   // This guy's a per-repository singleton, so we need a static place to store our instances.
-  private static final Map<String, WorkingTree> INSTANCES = new HashMap<String, WorkingTree>();
+  private static final ConcurrentMap<String, WorkingTree> INSTANCES = new ConcurrentHashMap<String, WorkingTree>();
 
   // The directory that contains the .git in question.
   private final File path;
@@ -79,7 +79,7 @@ public final class WorkingTree {
    *          <code>File</code> object representing the path to the repository.
    * @return The <code>WorkingTree</code> instance for this path
    */
-  public static synchronized WorkingTree getInstance(File path) {
+  public static WorkingTree getInstance(File path) {
     WorkingTree workingTree;
 
     // TODO (rs2705): make sure that path is valid
@@ -100,11 +100,14 @@ public final class WorkingTree {
       return null; // Temporary placeholder
     }
 
-    if (!(INSTANCES.containsKey(canonicalPath))) {
+    workingTree = INSTANCES.get(canonicalPath);
+    if (workingTree == null) {
+      // Two threads can make one at the same time, both get the one that was put first
       workingTree = new WorkingTree(path, canonicalPath);
-      INSTANCES.put(canonicalPath, workingTree);
-    } else {
-      workingTree = INSTANCES.get(canonicalPath);
+      WorkingTree existing = INSTANCES.putIfAbsent(canonicalPath, workingTree);
+      if (existing != null) {
+        workingTree = existing;
+      }
     }
 
     return workingTree;
@@ -108,4 +108,23 @@ public final class GitLog {
 		
 	}
 
+	/**
+	 * Counts the commits of the log, without reading them.
+	 *
+	 * @param repositoryPath	The path to the repository root or a sub-directory of its working tree.
+	 * @param options	Specify option used to collect logs, see <code>GitLogOptions</code>
+	 * @return The number of commits, after --skip and -n.
+	 * @throws JavaGitException
+	 * 			Thrown when there is an error executing git.
+	 * @throws IOException
+	 * 			Thrown when there is an error executing git.
+	 */
+	public int count(File repositoryPath, GitLogOptions options) throws JavaGitException, IOException {
+		CheckUtilities.checkNullArgument(repositoryPath, "repository");
+		
+		IClient client = ClientManager.getInstance().getPreferredClient();
+		IGitLog gitLog = client.getGitLogInstance();
+		return gitLog.count(repositoryPath, options);
+	}
+
 }
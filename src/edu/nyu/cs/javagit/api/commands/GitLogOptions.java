@@ -16,7 +16,11 @@
  */
 package edu.nyu.cs.javagit.api.commands;
 
-public class GitLogOptions {
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class GitLogOptions implements Cloneable {
 
 	// general options
 	private boolean optBreakRewriteChanges = false;
@@ -24,9 +28,15 @@ public class GitLogOptions {
 	private boolean optFindCopies = false;
 	private boolean optFindCopiesHarder = false;
 	private boolean optFileDetails = false;
+	private boolean optNameStatus = false;
+	private boolean optRaw = false;
+	private boolean optNumstat = false;
+	private boolean optRenameLimit = false;
+	private int optRenameLimitCount = 0;
 	private boolean optMergeDetails = false;
 	private boolean optRelative = false;
 	private String optRelativePath = null;
+	private boolean optMachineFormat = false;
 
 	// commit limiting options
 	private boolean optLimitRange = false;
@@ -58,7 +68,11 @@ public class GitLogOptions {
 	private boolean optLimitOnlyMerges = false;
 	private boolean optLimitFirstParent = false;
 	private boolean optLimitAll = false;
+	private boolean optLimitExclude = false;
+	private List<String> optLimitExcludeRevisions = null;
 	private boolean optLimiCherryPick = false;
+	private boolean optLimitCommits = false;
+	private List<String> optLimitCommitIds = null;
 
 	// commit ordering options
 	private boolean optOrderingTopological = false;
@@ -162,6 +176,86 @@ public class GitLogOptions {
 		this.optFileDetails = optFileDetails;
 	}
 	
+	/**
+	 * 
+	 * @return true If logs retrieve the names and change kinds of the changed files only.
+	 */
+	public boolean isOptNameStatus() {
+		return optNameStatus;
+	}
+	
+	/**
+	 * The cheapest file details, git doesn't have to read the contents of the files.
+	 * @param optNameStatus Enable/Disable logs to retrieve the names and change kinds of the changed files.
+	 */
+	public void setOptNameStatus(boolean optNameStatus) {
+		this.optNameStatus = optNameStatus;
+	}
+	
+	/**
+	 * 
+	 * @return true If logs retrieve the modes and contents ids of the changed files.
+	 */
+	public boolean isOptRaw() {
+		return optRaw;
+	}
+	
+	/**
+	 * Retrieves the name status, and the modes and ids of the old and new contents. Still doesn't
+	 * need the contents themselves.
+	 * @param optRaw Enable/Disable logs to retrieve the raw file details.
+	 */
+	public void setOptRaw(boolean optRaw) {
+		this.optRaw = optRaw;
+	}
+	
+	/**
+	 * 
+	 * @return true If logs retrieve the lines added and deleted per changed file.
+	 */
+	public boolean isOptNumstat() {
+		return optNumstat;
+	}
+	
+	/**
+	 * Retrieves the raw file details and the lines added and deleted, git has to diff the contents
+	 * of every changed file.
+	 * @param optNumstat Enable/Disable logs to retrieve the line counts of the changed files.
+	 */
+	public void setOptNumstat(boolean optNumstat) {
+		this.optNumstat = optNumstat;
+	}
+	
+	/**
+	 * 
+	 * @return true If the number of files considered by rename and copy detection is limited.
+	 */
+	public boolean isOptRenameLimit() {
+		return optRenameLimit;
+	}
+	
+	public int getOptRenameLimitCount() {
+		return optRenameLimitCount;
+	}
+	
+	/**
+	 * Rename and copy detection compares every deleted (or, for copies, every) file with every
+	 * added file. Above the limit of files git gives up and reports adds and deletes.
+	 * @param optRenameLimit Enable/Disable limiting rename and copy detection.
+	 * @param optRenameLimitCount The number of files, 0 is no limit.
+	 */
+	public void setOptRenameLimit(boolean optRenameLimit, int optRenameLimitCount) {
+		this.optRenameLimit = optRenameLimit;
+		this.optRenameLimitCount = optRenameLimitCount;
+	}
+	
+	/**
+	 * @return true If any details of the changed files are retrieved.
+	 */
+	public boolean hasFileDetails() {
+		return optFileDetails || optNameStatus || optRaw || optNumstat;
+	}
+	
 	/**
 	 * 
 	 * @param optMergeDetails Enable/Disable logs to retrieve additional merge details.
@@ -169,6 +263,24 @@ public class GitLogOptions {
 	public void setOptMergeDetails(boolean optMergeDetails) {
 		this.optMergeDetails = optMergeDetails;
 	}
+	
+	/**
+	 * 
+	 * @return	true If the log is read in the NUL delimited machine format instead of --pretty=fuller.
+	 */
+	public boolean isOptMachineFormat() {
+		return optMachineFormat;
+	}
+	
+	/**
+	 * The machine format asks git for NUL delimited fields, -z file details and raw dates, which are
+	 * parsed without regular expressions or date formats. File names with spaces or tabs survive it.
+	 * It is not used together with merge details, which need the "(from ...)" of --pretty=fuller.
+	 * @param optMachineFormat Enable/Disable the machine format.
+	 */
+	public void setOptMachineFormat(boolean optMachineFormat) {
+		this.optMachineFormat = optMachineFormat;
+	}
 		
 	/**
 	 * 
@@ -408,6 +520,50 @@ public class GitLogOptions {
 	public void setOptLimitAll(boolean optLimitAll) {
 		this.optLimitAll = optLimitAll;
 	}
+	/**
+	 * 
+	 * @return true if the commits reachable from some revisions are left out.
+	 */
+	public boolean isOptLimitExclude() {
+		return optLimitExclude;
+	}
+	/**
+	 * Leaves out the commits reachable from the given revisions, like <code>^rev</code> on the
+	 * command line. Unlike a range, any number of revisions can be given and they combine with
+	 * the range and with all the refs.
+	 * @param optLimitExclude Enable/Disable the excluded revisions.
+	 * @param optLimitExcludeRevisions the revisions whose history is left out.
+	 */
+	public void setOptLimitExclude(boolean optLimitExclude, List<String> optLimitExcludeRevisions) {
+		this.optLimitExclude = optLimitExclude;
+		this.optLimitExcludeRevisions = optLimitExcludeRevisions == null ? null 
+			: Collections.unmodifiableList(new ArrayList<String>(optLimitExcludeRevisions));
+	}
+	public List<String> getOptLimitExcludeRevisions() {
+		return optLimitExcludeRevisions;
+	}
+	/**
+	 * 
+	 * @return true if the log shows the given commits instead of walking the history.
+	 */
+	public boolean isOptLimitCommits() {
+		return optLimitCommits;
+	}
+	/**
+	 * Shows exactly the given commits in the given order instead of walking the history, like
+	 * <code>git log --no-walk=unsorted --stdin</code>. The ids are handed to git on its standard input,
+	 * so there can be any number of them. The other limiting options still apply to the commits.
+	 * @param optLimitCommits Enable/Disable the given commits.
+	 * @param optLimitCommitIds the ids of the commits to show.
+	 */
+	public void setOptLimitCommits(boolean optLimitCommits, List<String> optLimitCommitIds) {
+		this.optLimitCommits = optLimitCommits;
+		this.optLimitCommitIds = optLimitCommitIds == null ? null 
+			: Collections.unmodifiableList(new ArrayList<String>(optLimitCommitIds));
+	}
+	public List<String> getOptLimitCommitIds() {
+		return optLimitCommitIds;
+	}
 	public boolean isOptLimiCherryPick() {
 		return optLimiCherryPick;
 	}
@@ -501,5 +657,17 @@ public class GitLogOptions {
 		this.optLimitGrepPattern = optLimitGrepPattern;
 	}
 	
+	/**
+	 * 
+	 * @return A copy of these options, which can be changed for another run of git log.
+	 */
+	public GitLogOptions copy() {
+		try {
+			return (GitLogOptions) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
 
 }
\ No newline at end of file
@@ -20,7 +20,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import resource.versions.ScmEntryChangeKind;
+import edu.nyu.cs.javagit.api.ObjectId;
 import edu.nyu.cs.javagit.utilities.CheckUtilities;
+import edu.nyu.cs.javagit.utilities.LogUtilities;
 
 /**
  * 	A response data object for the git log command.
@@ -34,6 +36,10 @@ public class GitLogResponse implements CommandResponse {
 	private String sha = null;
 	private String parentSha = null;
 	private List<String> mergeDetails = null;
+	//set instead of the names above by parsers that read the object names as ids
+	private ObjectId id = null;
+	private ObjectId parentId = null;
+	private List<ObjectId> mergeParentIds = null;
 	private String message = null;
 	private List<CommitFile> files = null;
 	private String[] tags = null;
@@ -45,6 +51,11 @@ public class GitLogResponse implements CommandResponse {
 	private String commitDate = null;
 	private String mergeOrigin = null;
 	
+	private long authorTime = Commit.UNKNOWN_TIME;
+	private int authorTimeZone = 0;
+	private long commitTime = Commit.UNKNOWN_TIME;
+	private int commitTimeZone = 0;
+	
 	/**
 	 * 
 	 * @return true is the response object contain an error
@@ -73,6 +84,22 @@ public class GitLogResponse implements CommandResponse {
 		this.parentSha = sha;
 	}
 	
+	public void setId(ObjectId id) {
+		this.id = id;
+	}
+	
+	public void addParentId(ObjectId parentId) {
+		if (this.parentId == null) {
+			this.parentId = parentId;
+		} else {
+			if (this.mergeParentIds == null) {
+				this.mergeParentIds = new ArrayList<ObjectId>(2);
+				this.mergeParentIds.add(this.parentId);
+			}
+			this.mergeParentIds.add(parentId);
+		}
+	}
+	
 	/**
 	 * Adds the given parent of the commit. The first parent is always set on
 	 * parentSha. If this is set, the next parent(s) will be added to the
@@ -132,6 +159,28 @@ public class GitLogResponse implements CommandResponse {
 		this.committer = committer;
 	}
 	
+	/**
+	 * Sets the author date, saves parsing the date string. If no date string is set, the commit 
+	 * formats it from the time and timezone when it is asked for.
+	 * @param authorTime The author date in milliseconds since the epoch.
+	 * @param timeZone The offset from UTC of the author's timezone, in minutes.
+	 */
+	public void setAuthorTime(long authorTime, int timeZone) {
+		this.authorTime = authorTime;
+		this.authorTimeZone = timeZone;
+	}
+	
+	/**
+	 * Sets the commit date, saves parsing the date string. If no date string is set, the commit 
+	 * formats it from the time and timezone when it is asked for.
+	 * @param commitTime The commit date in milliseconds since the epoch.
+	 * @param timeZone The offset from UTC of the committer's timezone, in minutes.
+	 */
+	public void setCommitTime(long commitTime, int timeZone) {
+		this.commitTime = commitTime;
+		this.commitTimeZone = timeZone;
+	}
+	
 	/**
 	 * 
 	 * @param message This set the message for a commmit.
@@ -163,11 +212,21 @@ public class GitLogResponse implements CommandResponse {
 	 * @return the newly created commit object.
 	 */
 	public Commit addCommit(boolean addToList){
-		if(this.sha == null){
+		if(this.sha == null && this.id == null){
 			throw new IllegalStateException("Can't create a commit without a SHA1 code");
 		}
-		Commit commit = new Commit(this.sha, this.parentSha, this.mergeDetails, this.mergeOrigin, 
-			this.author, this.dateString, this.committer, this.commitDate, this.message, this.files, this.tags);
+		Commit commit;
+		if (this.id != null) {
+			commit = new Commit(this.id, this.parentId, this.mergeParentIds, null, 
+				this.author, this.dateString, this.authorTime, this.committer, this.commitDate, this.commitTime,
+				this.message, this.files, this.tags);
+		} else {
+			commit = new Commit(this.sha, this.parentSha, this.mergeDetails, this.mergeOrigin, 
+				this.author, this.dateString, this.authorTime, this.committer, this.commitDate, this.commitTime,
+				this.message, this.files, this.tags);
+		}
+		commit.authorTimeZone = this.authorTimeZone;
+		commit.commitTimeZone = this.commitTimeZone;
 		if (addToList) {
 			if (commitList == null){
 				commitList = new ArrayList<Commit>();
@@ -179,6 +238,9 @@ public class GitLogResponse implements CommandResponse {
 		this.sha = null;
 		this.parentSha = null;
 		this.mergeDetails = null;
+		this.id = null;
+		this.parentId = null;
+		this.mergeParentIds = null;
 		this.mergeOrigin = null;
 		this.message = null;
 		this.files = null;
@@ -187,11 +249,24 @@ public class GitLogResponse implements CommandResponse {
 		this.dateString = null;
 		this.committer = null;
 		this.commitDate = null;
+		this.authorTime = Commit.UNKNOWN_TIME;
+		this.authorTimeZone = 0;
+		this.commitTime = Commit.UNKNOWN_TIME;
+		this.commitTimeZone = 0;
 		
 		return commit;
 	
 	}
 	
+	/**
+	 * Adds an error reported while running or parsing git log.
+	 * @param lineNumber the line (or record) the error was found on.
+	 * @param error the error message.
+	 */
+	public void addError(int lineNumber, String error) {
+		errors.add(new ResponseString(lineNumber, error));
+	}
+	
 	/**
 	 * @param index 
 	 *          Returns the index of error.
@@ -211,7 +286,7 @@ public class GitLogResponse implements CommandResponse {
 	}
 	
 	public String getSha() {
-		return sha;
+		return id != null ? id.name() : sha;
 	}
 	
 	/**
@@ -221,16 +296,32 @@ public class GitLogResponse implements CommandResponse {
 	 */
 	public static class Commit{
 		
+		/**
+		 * Returned by {@link #getAuthorTime()} and {@link #getCommitTime()} when only the date strings are known.
+		 */
+		public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+		
+		//the commits are kept as ids, the names are only kept when they aren't full object names (abbreviations)
+		private final ObjectId id;
 		private final String sha;
+		private final ObjectId parentId;
 		private final String parentSha;
-		private final List<String> mergeDetails; 
+		private final List<ObjectId> mergeParentIds;
+		//the names of the merge parents, made from their ids when they are first asked for
+		private List<String> mergeDetails; 
+		private final ObjectId mergeOriginId;
 		private final String mergeOrigin;
 		
 		private final String author;
-		private final String date;
+		//formatted from authorTime on first use when not given
+		private String date;
+		private final long authorTime;
+		private int authorTimeZone = 0;
 		
 		private final String committer;
-		private final String commitDate;
+		private String commitDate;
+		private final long commitTime;
+		private int commitTimeZone = 0;
 
 		private final String message;
 		
@@ -253,14 +344,56 @@ public class GitLogResponse implements CommandResponse {
 		 */
 		public Commit(String sha, String parentSha, List<String> mergeDetails, String mergeOrigin, String author, String date, 
 				String committer, String commitDate, String message, List<CommitFile> files, String[] tags) {
+			this(sha, parentSha, mergeDetails, mergeOrigin, author, date, UNKNOWN_TIME, committer, commitDate, UNKNOWN_TIME, 
+				message, files, tags);
+		}
+		
+		/**
+		 * Constructor for creating a commit data structure of which the dates are also known in milliseconds 
+		 * since the epoch.
+		 * @param authorTime	The author date in milliseconds since the epoch, or UNKNOWN_TIME.
+		 * @param commitTime	The commit date in milliseconds since the epoch, or UNKNOWN_TIME.
+		 */
+		public Commit(String sha, String parentSha, List<String> mergeDetails, String mergeOrigin, String author, String date, 
+				long authorTime, String committer, String commitDate, long commitTime, String message, List<CommitFile> files, 
+				String[] tags) {
+			this(ObjectId.fromString(sha), nameIfNotId(sha), ObjectId.fromString(parentSha), nameIfNotId(parentSha), 
+				toIds(mergeDetails), mergeDetails, 
+				ObjectId.fromString(mergeOrigin), nameIfNotId(mergeOrigin), author, date, authorTime, committer, commitDate, 
+				commitTime, message, files, tags);
+		}
+		
+		/**
+		 * Constructor for creating a commit data structure out of the ids of the commits.
+		 * @param mergeParentIds	The ids of all parents of a merge, or null if the commit is not a merge.
+		 * @param mergeOriginId	The parent the files of this commit are compared with, or null.
+		 */
+		public Commit(ObjectId id, ObjectId parentId, List<ObjectId> mergeParentIds, ObjectId mergeOriginId, String author, 
+				String date, long authorTime, String committer, String commitDate, long commitTime, String message, 
+				List<CommitFile> files, String[] tags) {
+			this(id, null, parentId, null, mergeParentIds, null, mergeOriginId, null, author, date, authorTime, 
+				committer, commitDate, commitTime, message, files, tags);
+		}
+		
+		private Commit(ObjectId id, String sha, ObjectId parentId, String parentSha, List<ObjectId> mergeParentIds, 
+				List<String> mergeDetails, ObjectId mergeOriginId, String mergeOrigin, String author, String date, 
+				long authorTime, String committer, String commitDate, long commitTime, String message, List<CommitFile> files, 
+				String[] tags) {
+			this.id = id;
 			this.sha = sha;
+			this.parentId = parentId;
 			this.parentSha = parentSha;
-			this.mergeDetails = mergeDetails;
+			this.mergeParentIds = mergeParentIds;
+			//the names are only kept when they aren't all ids
+			this.mergeDetails = mergeParentIds == null ? mergeDetails : null;
+			this.mergeOriginId = mergeOriginId;
 			this.mergeOrigin = mergeOrigin;
 			this.author = author;
 			this.date = date;
+			this.authorTime = authorTime;
 			this.committer = committer;
 			this.commitDate = commitDate;
+			this.commitTime = commitTime;
 			this.message = message;
 			this.files = files;
 			this.tags = tags;
@@ -269,12 +402,45 @@ public class GitLogResponse implements CommandResponse {
 		}
 
 
+		/**
+		 * @return the name to keep, or null if the name is a full object name that is kept as an id.
+		 */
+		private static String nameIfNotId(String name) {
+			return ObjectId.isId(name) ? null : name;
+		}
+		
+		/**
+		 * @return the ids, or null if not all names are full object names.
+		 */
+		private static List<ObjectId> toIds(List<String> names) {
+			if (names == null) {
+				return null;
+			}
+			List<ObjectId> ids = new ArrayList<ObjectId>(names.size());
+			for (String name : names) {
+				ObjectId id = ObjectId.fromString(name);
+				if (id == null) {
+					return null;
+				}
+				ids.add(id);
+			}
+			return ids;
+		}
+
 		/**
 		 * 
 		 * @return This returns the SHA for each commit.
 		 */
 		public String getSha() {
-			return sha;
+			return id != null ? id.name() : sha;
+		}
+		
+		/**
+		 * 
+		 * @return The id of the commit, or null if only an abbreviated name is known.
+		 */
+		public ObjectId getId() {
+			return id;
 		}
 		
 		/**
@@ -282,7 +448,27 @@ public class GitLogResponse implements CommandResponse {
 		 * @return This returns the SHA of the parent commit.
 		 */
 		public String getParentSha() {
-			return parentSha;
+			return parentId != null ? parentId.name() : parentSha;
+		}
+		
+		/**
+		 * 
+		 * @return The id of the parent commit, or null if there is no parent or only an abbreviated name is known.
+		 */
+		public ObjectId getParentId() {
+			return parentId;
+		}
+		
+		/**
+		 * 
+		 * @return true if both are the same commit, which git log -m gives once per merge parent.
+		 */
+		public boolean isSameCommit(Commit other) {
+			if (id != null && other.id != null) {
+				return id.equals(other.id);
+			}
+			String name = getSha();
+			return name != null && name.equals(other.getSha());
 		}
 		
 		/**
@@ -290,11 +476,37 @@ public class GitLogResponse implements CommandResponse {
 		 * @return This returns the merge details for each commit. If the commit was not a merge it returns null.
 		 */
 		public List<String> getMergeDetails() {
+			if (mergeDetails == null && mergeParentIds != null) {
+				List<String> names = new ArrayList<String>(mergeParentIds.size());
+				for (ObjectId parent : mergeParentIds) {
+					names.add(parent.name());
+				}
+				mergeDetails = names;
+			}
 			return mergeDetails;
 		}
 		
+		/**
+		 * @return true if the commit is a merge, without making the names of its parents.
+		 */
+		public boolean isMerge() {
+			return mergeParentIds != null || mergeDetails != null;
+		}
+		
+		/**
+		 * 
+		 * @return The ids of the parents of a merge, or null if the commit is not a merge or only abbreviated names are known.
+		 */
+		public List<ObjectId> getMergeParentIds() {
+			return mergeParentIds;
+		}
+		
 		public String getMergeOrigin() {
-			return mergeOrigin;
+			return mergeOriginId != null ? mergeOriginId.name() : mergeOrigin;
+		}
+		
+		public ObjectId getMergeOriginId() {
+			return mergeOriginId;
 		}
 		/**
 		 * 
@@ -309,6 +521,9 @@ public class GitLogResponse implements CommandResponse {
 		 * @return This return the Date object for a particular commmit.
 		 */
 		public String getDateString() {
+			if (date == null && authorTime != UNKNOWN_TIME) {
+				date = LogUtilities.formatDate(authorTime / 1000, authorTimeZone);
+			}
 			return date;
 		}
 		
@@ -317,9 +532,28 @@ public class GitLogResponse implements CommandResponse {
 		}
 		
 		public String getCommitDate() {
+			if (commitDate == null && commitTime != UNKNOWN_TIME) {
+				commitDate = LogUtilities.formatDate(commitTime / 1000, commitTimeZone);
+			}
 			return commitDate;
 		}
 		
+		/**
+		 * 
+		 * @return The author date in milliseconds since the epoch, or UNKNOWN_TIME if only the date string is known.
+		 */
+		public long getAuthorTime() {
+			return authorTime;
+		}
+		
+		/**
+		 * 
+		 * @return The commit date in milliseconds since the epoch, or UNKNOWN_TIME if only the date string is known.
+		 */
+		public long getCommitTime() {
+			return commitTime;
+		}
+		
 		/**
 		 * 
 		 * @return	This returns the message of a commit.
@@ -401,7 +635,10 @@ public class GitLogResponse implements CommandResponse {
 
 		private final String oldPermissions;
 		private final String permissions;
+		//kept as ids, the names are only kept when they aren't full object names (abbreviations)
+		private final ObjectId oldId;
 		private final String oldSha;
+		private final ObjectId id;
 		private final String sha;
 		private final ScmEntryChangeKind changeStatus;
 		private final String originName;
@@ -419,10 +656,27 @@ public class GitLogResponse implements CommandResponse {
 		 * @param changeStatus the kind of change this commitfile represents.
 		 */
 		public CommitFile(String oldPermissions, String permissions, String oldSha, String sha, ScmEntryChangeKind changeStatus,  String originName, String name) {
+			this(oldPermissions, permissions, ObjectId.fromString(oldSha), ObjectId.isId(oldSha) ? null : oldSha, 
+				ObjectId.fromString(sha), ObjectId.isId(sha) ? null : sha, changeStatus, originName, name);
+		}
+		
+		/**
+		 * Constructor for a file of which the ids of the contents are known.
+		 * @param oldId the id of the previous contents, or null if none.
+		 * @param id the id of the contents, or null if none.
+		 */
+		public CommitFile(String oldPermissions, String permissions, ObjectId oldId, ObjectId id, ScmEntryChangeKind changeStatus, String originName, String name) {
+			this(oldPermissions, permissions, oldId, null, id, null, changeStatus, originName, name);
+		}
+		
+		private CommitFile(String oldPermissions, String permissions, ObjectId oldId, String oldSha, ObjectId id, String sha, 
+				ScmEntryChangeKind changeStatus, String originName, String name) {
 			this.oldPermissions = oldPermissions;
+			this.id = id;
 			this.sha = sha;
 			this.originName = originName;
 			this.permissions = permissions;
+			this.oldId = oldId;
 			this.oldSha = oldSha;
 			this.filename = name;
 			this.changeStatus = changeStatus;
@@ -469,7 +723,14 @@ public class GitLogResponse implements CommandResponse {
 		}
 		
 		public String getSha() {
-			return sha;
+			return id != null ? id.name() : sha;
+		}
+		
+		/**
+		 * @return the id of the contents, or null if there are none or only an abbreviated name is known.
+		 */
+		public ObjectId getId() {
+			return id;
 		}
 		
 		/**
@@ -479,7 +740,14 @@ public class GitLogResponse implements CommandResponse {
 		 * @return the previous hashcode, or NULL if none.
 		 */
 		public String getOldSha() {
-			return oldSha;
+			return oldId != null ? oldId.name() : oldSha;
+		}
+		
+		/**
+		 * @return the id of the previous contents, or null if there are none or only an abbreviated name is known.
+		 */
+		public ObjectId getOldId() {
+			return oldId;
 		}
 		
 		/**
@@ -515,7 +783,7 @@ public class GitLogResponse implements CommandResponse {
 		@Override
 		public String toString() {
 			return "+" + linesAdded + " -" + linesDeleted + " " + filename + 
-			" " + sha + "(" + oldSha + ")" + " " +  originName + " " + permissions + 
+			" " + getSha() + "(" + getOldSha() + ")" + " " +  originName + " " + permissions + 
 			"(" + oldPermissions + ")"; 
 		}
 
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import edu.nyu.cs.javagit.client.cli.CliClient;
+import edu.nyu.cs.javagit.client.odb.OdbClient;
 
 /**
  * This class manages the <code>IClient</code> instances of the various <code>ClientType</code>s.
@@ -30,7 +31,7 @@ public class ClientManager {
 
   // An enumeration of the available client types.
   public static enum ClientType {
-    CLI
+    CLI, ODB
   };
 
   // The singleton instance of the class <code>ClientManager</code>.
@@ -67,11 +68,13 @@ public class ClientManager {
    *          The type of client to get.
    * @return An instance of the specified client type.
    */
-  public IClient getClientInstance(ClientType clientType) {
+  public synchronized IClient getClientInstance(ClientType clientType) {
     IClient clientInstance = clientImpls.get(clientType);
     if (null == clientInstance) {
       if (ClientType.CLI == clientType) {
         clientInstance = new CliClient();
+      } else if (ClientType.ODB == clientType) {
+        clientInstance = new OdbClient();
       }
       if (null != clientInstance) {
         clientImpls.put(clientType, clientInstance);
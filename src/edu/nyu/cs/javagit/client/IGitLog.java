@@ -83,4 +83,17 @@ public interface IGitLog {
 	 * 			Thrown when there is an error executing git log.
 	 */
 	public List<Commit> log(File repositoryPath) throws JavaGitException, IOException;
+	
+	/**
+	 * Counts the commits the log with the options has, without reading them.
+	 *
+	 * @param repositoryPath	The path to the repository root or a sub-directory of its working tree.
+	 * @param options	Specify option used to collect logs, see <code>GitLogOptions</code>
+	 * @return The number of commits, after --skip and -n.
+	 * @throws JavaGitException
+	 * 			Thrown when there is an error executing git.
+	 * @throws IOException
+	 * 			Thrown when there is an error executing git.
+	 */
+	public int count(File repositoryPath, GitLogOptions options) throws JavaGitException, IOException;
 }
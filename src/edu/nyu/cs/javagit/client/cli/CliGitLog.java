@@ -16,8 +16,13 @@
  */
 package edu.nyu.cs.javagit.client.cli;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -26,6 +31,7 @@ import resource.versions.ScmEntryChangeKind;
 import resource.versions.ScmEntryChangeKind.GitChangeKind;
 import resource.versions.ScmLogEntryHandler;
 import edu.nyu.cs.javagit.api.JavaGitConfiguration;
+import edu.nyu.cs.javagit.api.ObjectId;
 import edu.nyu.cs.javagit.api.JavaGitException;
 import edu.nyu.cs.javagit.api.commands.CommandResponse;
 import edu.nyu.cs.javagit.api.commands.GitLogOptions;
@@ -34,40 +40,130 @@ import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
 import edu.nyu.cs.javagit.api.commands.GitLogResponse.CommitFile;
 import edu.nyu.cs.javagit.client.IGitLog;
 import edu.nyu.cs.javagit.utilities.CheckUtilities;
+import edu.nyu.cs.javagit.utilities.ExceptionMessageMap;
+import edu.nyu.cs.javagit.utilities.LogUtilities;
 
 /**
  * Command-line implementation of the <code>IGitLog</code> interface.
  */
 public class CliGitLog implements IGitLog{
 	
+	/**
+	 * The --pretty format of the machine format: a record separator, then the sha, parents, refs, 
+	 * author, author date, committer, commit date and message, each terminated by a NUL. With -z 
+	 * the raw and numstat entries that follow are NUL separated as well.
+	 */
+	static final String MACHINE_FORMAT = "%x1e%H%x00%P%x00%D%x00%an <%ae>%x00%ad%x00%cn <%ce>%x00%cd%x00%B%x00";
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// the modes of raw entries, shared instead of decoded for every file
+	private static final String[] MODES = { "100644", "100755", "120000", "160000", "040000" };
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
 	/**
 	 * Implementations of &lt;git log&gt; with options and ScmLogEntryHandler.
 	*/
 	public List<Commit> log(File repositoryPath, GitLogOptions options, ScmLogEntryHandler<Commit> handler)
 	throws JavaGitException, IOException {
 		CheckUtilities.checkFileValidity(repositoryPath);
+		List<String> command = buildCommand(repositoryPath, options);
+		if (useMachineFormat(options)) {
+			return logMachineFormat(repositoryPath, command, getInput(options), new GitLogMachineParser(handler));
+		}
 		GitLogParser parser = new GitLogParser(handler);
+		GitLogResponse response =  (GitLogResponse) ProcessUtilities.runCommand(repositoryPath,
+				command, getInput(options), parser);
+		if (response.containsError()) {
+			int line = response.getError(0).getLineNumber();
+			String error = response.getError(0).error();
+			throw new JavaGitException(420001, "Line " + line + ", " + error);
+		}
+		return response.getLog();
+	}
+	
+	/**
+	 * Like {@link #log(File, GitLogOptions, ScmLogEntryHandler)}, and writes the output of git to the
+	 * recording while it is parsed. {@link #replay(InputStream, GitLogOptions, ScmLogEntryHandler)}
+	 * gives the same commits from the recording, without git. The recording isn't closed.
+	 */
+	public List<Commit> log(File repositoryPath, GitLogOptions options, ScmLogEntryHandler<Commit> handler, 
+			OutputStream recording) throws JavaGitException, IOException {
+		CheckUtilities.checkFileValidity(repositoryPath);
 		List<String> command = buildCommand(repositoryPath, options);
+		if (useMachineFormat(options)) {
+			RecordingByteParser parser = new RecordingByteParser(new GitLogMachineParser(handler), recording);
+			List<Commit> log = logMachineFormat(repositoryPath, command, getInput(options), parser);
+			parser.checkRecorded();
+			return log;
+		}
+		RecordingParser parser = new RecordingParser(new GitLogParser(handler), recording);
 		GitLogResponse response =  (GitLogResponse) ProcessUtilities.runCommand(repositoryPath,
-				command, parser);
+				command, getInput(options), parser);
 		if (response.containsError()) {
 			int line = response.getError(0).getLineNumber();
 			String error = response.getError(0).error();
 			throw new JavaGitException(420001, "Line " + line + ", " + error);
 		}
+		parser.checkRecorded();
 		return response.getLog();
 	}
 	
+	/**
+	 * Parses the output of git that was recorded by 
+	 * {@link #log(File, GitLogOptions, ScmLogEntryHandler, OutputStream)} with the same options.
+	 */
+	public List<Commit> replay(InputStream recording, GitLogOptions options, ScmLogEntryHandler<Commit> handler)
+	throws JavaGitException, IOException {
+		GitLogResponse response;
+		if (useMachineFormat(options)) {
+			GitLogMachineParser parser = new GitLogMachineParser(handler);
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = recording.read(buffer)) >= 0) {
+				parser.parse(buffer, 0, read);
+			}
+			parser.processExitCode(0);
+			response = (GitLogResponse) parser.getResponse();
+		} else {
+			GitLogParser parser = new GitLogParser(handler);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(recording, UTF8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				parser.parseLine(line);
+			}
+			parser.processExitCode(0);
+			response = (GitLogResponse) parser.getResponse();
+		}
+		if (response.containsError()) {
+			int line = response.getError(0).getLineNumber();
+			String error = response.getError(0).error();
+			throw new JavaGitException(420001, "Line " + line + ", " + error);
+		}
+		return response.getLog();
+	}
+	
+	/**
+	 * @return the git log command the options give, for instance to tell if two logs give the same
+	 *         output.
+	 */
+	public List<String> getCommand(File repositoryPath, GitLogOptions options) {
+		return buildCommand(repositoryPath, options);
+	}
+	
 	/**
 	 * Implementations of &lt;git log&gt; with options and one file to be added to index.
 	 */
 	public List<Commit> log(File repositoryPath, GitLogOptions options)
 	throws JavaGitException, IOException {
 		CheckUtilities.checkFileValidity(repositoryPath);
-		GitLogParser parser = new GitLogParser();
 		List<String> command = buildCommand(repositoryPath, options);
+		if (useMachineFormat(options)) {
+			return logMachineFormat(repositoryPath, command, getInput(options), new GitLogMachineParser(null));
+		}
+		GitLogParser parser = new GitLogParser();
 		GitLogResponse response =  (GitLogResponse) ProcessUtilities.runCommand(repositoryPath,
-				command, parser);
+				command, getInput(options), parser);
 		if (response.containsError()) {
 			int line = response.getError(0).getLineNumber();
 			String error = response.getError(0).error();
@@ -90,6 +186,93 @@ public class CliGitLog implements IGitLog{
 		}
 		return response.getLog();
 	}
+	
+	/**
+	 * Counts the commits of the log with <code>git rev-list --count</code>, without the diffs.
+	 */
+	public int count(File repositoryPath, GitLogOptions options) throws JavaGitException, IOException {
+		CheckUtilities.checkFileValidity(repositoryPath);
+		List<String> command = new ArrayList<String>();
+		command.add(JavaGitConfiguration.getGitCommand());
+		command.add("rev-list");
+		command.add("--count");
+		if (options == null || !(options.isOptLimitRange() || options.isOptLimitAll() || options.isOptLimitExclude()
+				|| options.isOptLimitCommits())) {
+			//rev-list doesn't start at HEAD by itself
+			command.add("HEAD");
+		}
+		addRevisionOptions(command, options);
+		CountParser parser = new CountParser();
+		ProcessUtilities.runCommand(repositoryPath, command, getInput(options), parser);
+		if (parser.exitCode != 0 || parser.count < 0) {
+			throw new JavaGitException(420001, "git rev-list --count failed: " + parser.output.toString().trim());
+		}
+		return parser.count;
+	}
+	
+	/**
+	 * @return what git reads from its standard input for the options, or null if it reads nothing.
+	 */
+	private static byte[] getInput(GitLogOptions options) {
+		if (options == null || !options.isOptLimitCommits()) {
+			return null;
+		}
+		StringBuilder input = new StringBuilder();
+		for (String commit : options.getOptLimitCommitIds()) {
+			input.append(commit).append('\n');
+		}
+		return input.toString().getBytes(UTF8);
+	}
+	
+	/**
+	 * @return true for the name git gives when there is no object, abbreviated or not.
+	 */
+	private static boolean isZeros(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) != '0') {
+				return false;
+			}
+		}
+		return name.length() > 0;
+	}
+	
+	/**
+	 * @return true for a --name-status line, "M\tpath" or "R086\torigin\tpath". The lines of the 
+	 *         message are indented.
+	 */
+	private static boolean isNameStatus(String line) {
+		if ("ACDMRTUXB".indexOf(line.charAt(0)) < 0) {
+			return false;
+		}
+		int pos = 1;
+		while (pos < line.length() && Character.isDigit(line.charAt(pos))) {
+			pos++;
+		}
+		return pos < line.length() && line.charAt(pos) == '\t';
+	}
+	
+	/**
+	 * The machine format can't be used for merge details: git leaves out the diffs against parents 
+	 * without changes, and only the built-in formats say which parent a diff is against, "(from ...)".
+	 */
+	private boolean useMachineFormat(GitLogOptions options) {
+		return options != null && options.isOptMachineFormat() && !options.isOptMergeDetails();
+	}
+	
+	/**
+	 * Runs git log in the machine format. The output is handed to the parser as bytes, stderr is read 
+	 * separately so warnings can't end up in the middle of a record.
+	 */
+	private List<Commit> logMachineFormat(File repositoryPath, List<String> command, byte[] input, IByteParser parser)
+	throws JavaGitException, IOException {
+		GitLogResponse response = (GitLogResponse) ProcessUtilities.runCommand(repositoryPath, command, input, parser);
+		if (response.containsError()) {
+			int line = response.getError(0).getLineNumber();
+			String error = response.getError(0).error();
+			throw new JavaGitException(420001, "Record " + line + ", " + error);
+		}
+		return response.getLog();
+	}
 
 	/**
 	 * This function builds the git log commands with necessary options as specified by the user.
@@ -102,8 +285,14 @@ public class CliGitLog implements IGitLog{
 		command.add(JavaGitConfiguration.getGitCommand());
 		command.add("log");
 		command.add("--decorate=full");
-		command.add("--pretty=fuller");
-		command.add("--parents");
+		if (useMachineFormat(options)) {
+			command.add("--pretty=format:" + MACHINE_FORMAT);
+			command.add("--date=raw");
+			command.add("-z");
+		} else {
+			command.add("--pretty=fuller");
+			command.add("--parents");
+		}
 		if(options!=null){
 			//General Options
 			/**
@@ -130,27 +319,33 @@ public class CliGitLog implements IGitLog{
 			if (options.isOptFindCopiesHarder()) {
 				command.add("--find-copies-harder");
 			}
-			
 			/**
-			 * Only gets the logs if in the range.
+			 * Limits the files considered by rename and copy detection.
 			 */
-			if (options.isOptLimitRange()) {
-				command.add(options.getOptLimitRangePattern());
+			if (options.isOptRenameLimit()) {
+				command.add("-l" + options.getOptRenameLimitCount());
 			}
-			
 			/**
-			 * Pretend as if all the refs in refs/ are listed on the command line as <commit>.
+			 * Without detection asked for, the diff.renames setting of the user doesn't decide 
+			 * (and doesn't add to) the cost of the file details.
 			 */
-			if (options.isOptLimitAll()) {
-				command.add("--all");
+			if (options.hasFileDetails() && !options.isOptDetectRenames() && !options.isOptFindCopies() 
+					&& !options.isOptFindCopiesHarder()) {
+				command.add("--no-renames");
 			}
 			
 			/**
 			 *  List details about lines modified and files affected in a commit.
 			 */
-			if (options.isOptFileDetails()) {
+			if (options.isOptFileDetails() || options.isOptNumstat()) {
 				command.add("--numstat");
+			}
+			if (options.isOptFileDetails() || options.isOptNumstat() || options.isOptRaw()) {
 				command.add("--raw");
+				//the full names of the contents, so they can be kept as ids
+				command.add("--no-abbrev");
+			} else if (options.isOptNameStatus()) {
+				command.add("--name-status");
 			}
 			
 			
@@ -165,6 +360,67 @@ public class CliGitLog implements IGitLog{
 				command.add("--relative="+options.getOptRelativePath());
 			}
 
+			/**
+			 * 	Order commits topologically.
+			 */
+			if (options.isOptOrderingTopological()) {
+				command.add("--topo-order");
+			}
+
+			/**
+			 * 	Order commits in reverse
+			 */
+			if (options.isOptOrderingReverse()) {
+				command.add("--reverse");
+			}
+		}
+		addRevisionOptions(command, options);
+
+		return command;
+
+	}
+
+	/**
+	 * Adds the options that decide which commits are in the log, so <code>git rev-list</code> 
+	 * gives the same commits as the log.
+	 */
+	private void addRevisionOptions(List<String> command, GitLogOptions options) {
+		if (options != null) {
+			/**
+			 * Shows the given commits, in the given order, without walking their history.
+			 */
+			if (options.isOptLimitCommits()) {
+				command.add("--no-walk=unsorted");
+				command.add("--stdin");
+			}
+
+			/**
+			 * Only gets the logs if in the range.
+			 */
+			if (options.isOptLimitRange()) {
+				command.add(options.getOptLimitRangePattern());
+			}
+			
+			/**
+			 * Pretend as if all the refs in refs/ are listed on the command line as <commit>.
+			 */
+			if (options.isOptLimitAll()) {
+				command.add("--all");
+			}
+
+			/**
+			 * Leaves out the history of the excluded revisions.
+			 */
+			if (options.isOptLimitExclude()) {
+				if (!options.isOptLimitRange() && !options.isOptLimitAll()) {
+					//git only starts at HEAD when no revision is given at all
+					command.add("HEAD");
+				}
+				for (String revision : options.getOptLimitExcludeRevisions()) {
+					command.add("^" + revision);
+				}
+			}
+			
 			/**
 			 * 	List all logs since specified date.
 			 */
@@ -269,20 +525,6 @@ public class CliGitLog implements IGitLog{
 				command.add("--first-parent");
 			}
 
-			/**
-			 * 	Order commits topologically.
-			 */
-			if (options.isOptOrderingTopological()) {
-				command.add("--topo-order");
-			}
-
-			/**
-			 * 	Order commits in reverse
-			 */
-			if (options.isOptOrderingReverse()) {
-				command.add("--reverse");
-			}
-			
 			/**
 			 * 	Limits the number of commits to retrieve.
 			 */
@@ -296,9 +538,119 @@ public class CliGitLog implements IGitLog{
 			  command.add("--skip=" + options.getOptLimitSkip());
 			}
 		}
+	}
 
-		return command;
+	/**
+	 * Writes the lines of git to a recording before the parser gets them. The lines are written in
+	 * UTF-8, they were decoded already.
+	 */
+	private static class RecordingParser implements IParser {
+		private final IParser parser;
+		private final OutputStream recording;
+		private IOException failure = null;
+
+		RecordingParser(IParser parser, OutputStream recording) {
+			this.parser = parser;
+			this.recording = recording;
+		}
+
+		public void parseLine(String line) {
+			if (failure == null) {
+				try {
+					recording.write((line + "\n").getBytes(UTF8));
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			parser.parseLine(line);
+		}
+
+		public void processExitCode(int code) {
+			parser.processExitCode(code);
+		}
+
+		public CommandResponse getResponse() throws JavaGitException {
+			return parser.getResponse();
+		}
+
+		void checkRecorded() throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Writes the output of git to a recording, as it came, before the parser gets it.
+	 */
+	private static class RecordingByteParser implements IByteParser {
+		private final IByteParser parser;
+		private final OutputStream recording;
+		private IOException failure = null;
+
+		RecordingByteParser(IByteParser parser, OutputStream recording) {
+			this.parser = parser;
+			this.recording = recording;
+		}
+
+		public void parse(byte[] buffer, int offset, int length) {
+			if (failure == null) {
+				try {
+					recording.write(buffer, offset, length);
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			parser.parse(buffer, offset, length);
+		}
+
+		public void parseLine(String line) {
+			byte[] bytes = (line + "\n").getBytes(UTF8);
+			parse(bytes, 0, bytes.length);
+		}
+
+		public void processErrorOutput(String errorOutput) {
+			parser.processErrorOutput(errorOutput);
+		}
 
+		public void processExitCode(int code) {
+			parser.processExitCode(code);
+		}
+
+		public CommandResponse getResponse() throws JavaGitException {
+			return parser.getResponse();
+		}
+
+		void checkRecorded() throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Reads the number <code>git rev-list --count</code> gives, and keeps what else it says.
+	 */
+	private static class CountParser implements IParser {
+		private final StringBuilder output = new StringBuilder();
+		private int count = -1;
+		private int exitCode = -1;
+
+		public void parseLine(String line) {
+			try {
+				count = Integer.parseInt(line.trim());
+			} catch (NumberFormatException e) {
+				output.append(line).append('\n');
+			}
+		}
+
+		public void processExitCode(int code) {
+			exitCode = code;
+		}
+
+		public CommandResponse getResponse() {
+			return null;
+		}
 	}
 
 	/**
@@ -335,6 +687,11 @@ public class CliGitLog implements IGitLog{
 		}
 		
 		private void processCommit() {
+			//raw or name status entries without numstat entries
+			for (CommitFile file : tmpCommitFiles) {
+				response.addFile(file);
+			}
+			tmpCommitFiles.clear();
 			Commit commited = response.addCommit(handler == null);
 			if (handler != null) {
 				handler.handleLogEntry(commited);
@@ -517,6 +874,10 @@ public class CliGitLog implements IGitLog{
 				response.setMergeDetails(mergeDetails);
 				mergeDetails = null;
 			}
+			else if (line.startsWith("Merge: ")) {
+				//the parents already gave the merge details, the header is skipped so it isn't taken
+				//for a line of the message or of the file details
+			}
 			//Date , note that ordering is important (Author after the AuthorDate)
 			else if (line.startsWith("Date") || line.startsWith("AuthorDate")){
 				response.setDate(line.substring(line.indexOf(' ')).trim());
@@ -550,6 +911,16 @@ public class CliGitLog implements IGitLog{
 
 				 */
 
+				if (isNameStatus(line)) {
+					//R086	kok/kokok.txt	kok/hah.txt
+					String[] columns = line.split("\t");
+					ScmEntryChangeKind status = GitChangeKind.from(columns[0]);
+					String originName = columns.length > 2 ? columns[1] : null;
+					tmpCommitFiles.add(new CommitFile(null, null, (String) null, (String) null, status, originName, 
+						columns[columns.length - 1]));
+					return;
+				}
+				
 				tmp = line.split("\t|\n|\r|\f| ");
 				if (tmp.length > 0) {
 					String first = tmp[0];
@@ -568,14 +939,14 @@ public class CliGitLog implements IGitLog{
 						if (originHashcode.endsWith(".")) {
 							originHashcode = originHashcode.substring(0, originHashcode.indexOf('.'));
 						}
-						if (originHashcode.equals("0000000")) {
+						if (isZeros(originHashcode)) {
 							originHashcode = null;
 						}
 						String hashCode = tmp[pos++];
 						if (hashCode.endsWith(".")) {
 							hashCode = hashCode.substring(0, hashCode.indexOf('.'));
 						}
-						if (hashCode.equals("0000000")) {
+						if (isZeros(hashCode)) {
 							hashCode = null;
 						}
 						ScmEntryChangeKind status = GitChangeKind.from(tmp[pos++]);
@@ -662,4 +1033,444 @@ public class CliGitLog implements IGitLog{
 			
 		}
 	}
+
+	/**
+	 * Parser for the machine format of git log (see {@link CliGitLog#MACHINE_FORMAT}). It is a state 
+	 * machine over the bytes of the output: fields are cut at the NUL bytes, so no lines, regular 
+	 * expressions or date formats are involved. A field that lies within one slice of the output is 
+	 * decoded from that slice, only fields split over two slices are copied first. The date strings 
+	 * are left to the commits, which format them when asked for.
+	 */
+	public class GitLogMachineParser implements IByteParser {
+		
+		private static final byte RECORD_SEPARATOR = 0x1e;
+		
+		// states, the fields of a record in the order of MACHINE_FORMAT
+		private static final int START = 0;
+		private static final int SHA = 1;
+		private static final int PARENTS = 2;
+		private static final int REFS = 3;
+		private static final int AUTHOR = 4;
+		private static final int AUTHOR_DATE = 5;
+		private static final int COMMITTER = 6;
+		private static final int COMMIT_DATE = 7;
+		private static final int MESSAGE = 8;
+		// the -z raw and numstat entries after the message
+		private static final int FILES = 9;
+		
+		private final GitLogResponse response = new GitLogResponse();
+		private final ScmLogEntryHandler<Commit> handler;
+		
+		private int state = START;
+		// the start of a field that didn't end in the slice it started in
+		private byte[] field = new byte[1024];
+		private int fieldLength = 0;
+		private int records = 0;
+		
+		private ObjectId id = null;
+		
+		// raw entries waiting for their numstat entry
+		private final LinkedList<CommitFile> pendingFiles = new LinkedList<CommitFile>();
+		// the paths that still follow a raw entry or a numstat entry of a copy/rename
+		private int pathsExpected = 0;
+		private boolean numstatPaths = false;
+		private String oldPermissions;
+		private String permissions;
+		private ObjectId oldId;
+		private ObjectId newId;
+		private ScmEntryChangeKind status;
+		private String originName = null;
+		private int linesAdded;
+		private int linesDeleted;
+		
+		private int exitCode = 0;
+		private String errorOutput = "";
+		
+		public GitLogMachineParser(ScmLogEntryHandler<Commit> handler) {
+			this.handler = handler;
+		}
+		
+		/**
+		 * Parses the next slice of output. Fields may be split over several slices.
+		 */
+		public void parse(byte[] buffer, int offset, int length) {
+			int end = offset + length;
+			int start = offset;
+			for (int i = offset; i < end; i++) {
+				byte b = buffer[i];
+				if (b == 0) {
+					if (fieldLength == 0) {
+						endField(buffer, start, i - start);
+					} else {
+						append(buffer, start, i - start);
+						endField(field, 0, fieldLength);
+						fieldLength = 0;
+					}
+					start = i + 1;
+				} else if (b == RECORD_SEPARATOR && i == start && fieldLength == 0 && (state == FILES || state == START)) {
+					startRecord();
+					start = i + 1;
+				}
+			}
+			append(buffer, start, end - start);
+		}
+		
+		private void append(byte[] buffer, int offset, int length) {
+			if (fieldLength + length > field.length) {
+				byte[] larger = new byte[Math.max(field.length * 2, fieldLength + length)];
+				System.arraycopy(field, 0, larger, 0, fieldLength);
+				field = larger;
+			}
+			System.arraycopy(buffer, offset, field, fieldLength, length);
+			fieldLength += length;
+		}
+		
+		/**
+		 * Lines read elsewhere, for example from a file, are parsed as if they came from git.
+		 */
+		public void parseLine(String line) {
+			byte[] bytes = (line + "\n").getBytes(UTF8);
+			parse(bytes, 0, bytes.length);
+		}
+		
+		public void processExitCode(int code) {
+			this.exitCode = code;
+		}
+		
+		public void processErrorOutput(String errorOutput) {
+			this.errorOutput = errorOutput;
+		}
+		
+		public CommandResponse getResponse() throws JavaGitException {
+			if (exitCode != 0) {
+				throw new JavaGitException(420001, ExceptionMessageMap.getMessage("420001") + " { exitCode=[" 
+					+ exitCode + "], error=[" + errorOutput.trim() + "] }");
+			}
+			if (state != START) {
+				endRecord();
+				state = START;
+			}
+			return response;
+		}
+		
+		private void startRecord() {
+			if (state != START) {
+				endRecord();
+			}
+			records++;
+			state = SHA;
+		}
+		
+		private void endRecord() {
+			if (state != FILES) {
+				response.addError(records, "Incomplete log record" + (id == null ? "" : " for " + id));
+				return;
+			}
+			//entries without numstat (should not happen) are kept without line counts
+			for (CommitFile file : pendingFiles) {
+				response.addFile(file);
+			}
+			pendingFiles.clear();
+			pathsExpected = 0;
+			
+			Commit commit = response.addCommit(handler == null);
+			if (handler != null) {
+				handler.handleLogEntry(commit);
+			}
+			id = null;
+		}
+		
+		private void endField(byte[] data, int offset, int length) {
+			switch (state) {
+			case START:
+				//output before the first record
+				break;
+			case SHA:
+				id = length == ObjectId.NAME_LENGTH ? ObjectId.fromHex(data, offset) : null;
+				if (id != null) {
+					response.setId(id);
+				} else {
+					response.setSha(new String(data, offset, length, ASCII));
+				}
+				state = PARENTS;
+				break;
+			case PARENTS:
+				//40 character shas separated by a single space
+				for (int pos = 0; pos + ObjectId.NAME_LENGTH <= length; pos += ObjectId.NAME_LENGTH + 1) {
+					response.addParentId(ObjectId.fromHex(data, offset + pos));
+				}
+				state = REFS;
+				break;
+			case REFS:
+				if (length > 0) {
+					response.setTags(splitRefs(new String(data, offset, length, UTF8)));
+				}
+				state = AUTHOR;
+				break;
+			case AUTHOR:
+				response.setAuthor(new String(data, offset, length, UTF8));
+				state = AUTHOR_DATE;
+				break;
+			case AUTHOR_DATE:
+				response.setAuthorTime(parseEpoch(data, offset, length) * 1000, parseTimeZone(data, offset, length));
+				state = COMMITTER;
+				break;
+			case COMMITTER:
+				response.setCommitter(new String(data, offset, length, UTF8));
+				state = COMMIT_DATE;
+				break;
+			case COMMIT_DATE:
+				response.setCommitTime(parseEpoch(data, offset, length) * 1000, parseTimeZone(data, offset, length));
+				state = MESSAGE;
+				break;
+			case MESSAGE:
+				String message = LogUtilities.formatMessage(new String(data, offset, length, UTF8));
+				if (message != null) {
+					response.setMessage(message);
+				}
+				state = FILES;
+				break;
+			case FILES:
+				processFileField(data, offset, length);
+				break;
+			}
+		}
+		
+		/**
+		 * Splits the %D refs, "HEAD -> refs/heads/master, tag: refs/tags/v1", in the same names 
+		 * the fuller format and the object database client give.
+		 */
+		private String[] splitRefs(String refs) {
+			List<String> names = new ArrayList<String>(4);
+			int start = 0;
+			while (start < refs.length()) {
+				int end = refs.indexOf(", ", start);
+				if (end < 0) {
+					end = refs.length();
+				}
+				String name = refs.substring(start, end);
+				if (name.startsWith("tag: ")) {
+					name = name.substring(5);
+				}
+				names.add(name);
+				start = end + 2;
+			}
+			return names.toArray(new String[names.size()]);
+		}
+		
+		/**
+		 * @return the seconds since the epoch of a raw date, "1277472791 +0200".
+		 */
+		private long parseEpoch(byte[] data, int offset, int length) {
+			long value = 0;
+			int pos = offset;
+			int end = offset + length;
+			boolean negative = length > 0 && data[offset] == '-';
+			if (negative) {
+				pos++;
+			}
+			for (; pos < end && data[pos] != ' '; pos++) {
+				value = value * 10 + (data[pos] - '0');
+			}
+			return negative ? -value : value;
+		}
+		
+		/**
+		 * @return the timezone offset in minutes of a raw date.
+		 */
+		private int parseTimeZone(byte[] data, int offset, int length) {
+			int pos = offset + length - 5;
+			if (pos < offset + 1 || data[pos - 1] != ' ') {
+				return 0;
+			}
+			int hours = (data[pos + 1] - '0') * 10 + (data[pos + 2] - '0');
+			int minutes = (data[pos + 3] - '0') * 10 + (data[pos + 4] - '0');
+			int zone = hours * 60 + minutes;
+			return data[pos] == '-' ? -zone : zone;
+		}
+		
+		private void processFileField(byte[] data, int offset, int length) {
+			int end = offset + length;
+			if (pathsExpected > 0) {
+				pathsExpected--;
+				if (numstatPaths) {
+					//the names are already known from the raw entry, no need to decode them again
+					if (pathsExpected == 0) {
+						addNumstat();
+					}
+					return;
+				}
+				String path = new String(data, offset, length, UTF8);
+				if (pathsExpected == 1) {
+					originName = path;
+				} else {
+					pendingFiles.add(new CommitFile(oldPermissions, permissions, oldId, newId, status, originName, path));
+					originName = null;
+				}
+				return;
+			}
+			
+			int start = offset;
+			//the diff output is separated from the message by a newline
+			while (start < end && data[start] == '\n') {
+				start++;
+			}
+			if (start == end) {
+				return;
+			}
+			if (data[start] == ':') {
+				processRawEntry(data, start + 1, end);
+			} else if (data[start] >= 'A' && data[start] <= 'Z') {
+				processNameStatusEntry(data, start, end);
+			} else {
+				processNumstatEntry(data, start, end);
+			}
+		}
+		
+		/**
+		 * Parses the "M" or "R086" of --name-status, the paths follow as separate fields. There are
+		 * no modes or contents ids.
+		 */
+		private void processNameStatusEntry(byte[] data, int start, int end) {
+			String statusName = new String(data, start, end - start, ASCII);
+			status = GitChangeKind.from(statusName);
+			oldPermissions = null;
+			permissions = null;
+			oldId = null;
+			newId = null;
+			
+			char kind = statusName.charAt(0);
+			pathsExpected = (kind == 'C' || kind == 'R') ? 2 : 1;
+			numstatPaths = false;
+			originName = null;
+		}
+		
+		/**
+		 * Parses ":100644 100644 f792531... 575f1eb... C081" (with the full names of the contents), 
+		 * the paths follow as separate fields.
+		 */
+		private void processRawEntry(byte[] data, int start, int end) {
+			int pos = start;
+			int columnEnd = columnEnd(data, pos, end);
+			oldPermissions = permissions(data, pos, columnEnd);
+			pos = columnEnd + 1;
+			columnEnd = columnEnd(data, pos, end);
+			permissions = permissions(data, pos, columnEnd);
+			pos = columnEnd + 1;
+			columnEnd = columnEnd(data, pos, end);
+			oldId = contentId(data, pos, columnEnd);
+			pos = columnEnd + 1;
+			columnEnd = columnEnd(data, pos, end);
+			newId = contentId(data, pos, columnEnd);
+			pos = columnEnd + 1;
+			columnEnd = columnEnd(data, pos, end);
+			String statusName = new String(data, pos, columnEnd - pos, ASCII);
+			status = GitChangeKind.from(statusName);
+			
+			char kind = statusName.charAt(0);
+			pathsExpected = (kind == 'C' || kind == 'R') ? 2 : 1;
+			numstatPaths = false;
+			originName = null;
+		}
+		
+		private int columnEnd(byte[] data, int pos, int end) {
+			while (pos < end && data[pos] != ' ') {
+				pos++;
+			}
+			return pos;
+		}
+		
+		/**
+		 * @return the mode, shared for the usual modes, or null for "000000".
+		 */
+		private String permissions(byte[] data, int start, int end) {
+			if (isZeros(data, start, end)) {
+				return null;
+			}
+			for (String mode : MODES) {
+				if (mode.length() == end - start && startsWith(data, start, mode)) {
+					return mode;
+				}
+			}
+			return new String(data, start, end - start, ASCII);
+		}
+		
+		private boolean startsWith(byte[] data, int start, String prefix) {
+			for (int i = 0; i < prefix.length(); i++) {
+				if (data[start + i] != prefix.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * @return the id of the contents, or null when there are none (all zeros) or the name is abbreviated.
+		 */
+		private ObjectId contentId(byte[] data, int start, int end) {
+			if (end - start != ObjectId.NAME_LENGTH || isZeros(data, start, end)) {
+				return null;
+			}
+			return ObjectId.fromHex(data, start);
+		}
+		
+		/**
+		 * Parses "4\t0\tpath", or "4\t0\t" followed by the origin and the name of a copy/rename.
+		 * Binary files have "-" instead of the counts.
+		 */
+		private void processNumstatEntry(byte[] data, int start, int end) {
+			int pos = start;
+			linesAdded = -1;
+			if (data[pos] == '-') {
+				pos++;
+			} else {
+				linesAdded = 0;
+				for (; pos < end && data[pos] != '\t'; pos++) {
+					linesAdded = linesAdded * 10 + (data[pos] - '0');
+				}
+			}
+			pos++;
+			linesDeleted = -1;
+			if (pos < end && data[pos] == '-') {
+				pos++;
+			} else {
+				linesDeleted = 0;
+				for (; pos < end && data[pos] != '\t'; pos++) {
+					linesDeleted = linesDeleted * 10 + (data[pos] - '0');
+				}
+			}
+			pos++;
+			if (pos >= end) {
+				pathsExpected = 2;
+				numstatPaths = true;
+			} else {
+				//the path is the one of the raw entry, it isn't decoded again
+				addNumstat();
+			}
+		}
+		
+		private void addNumstat() {
+			numstatPaths = false;
+			CommitFile commitFile = pendingFiles.poll();
+			if (commitFile == null) {
+				return;
+			}
+			if (linesAdded >= 0) {
+				commitFile.setLinesAdded(linesAdded);
+			}
+			if (linesDeleted >= 0) {
+				commitFile.setLinesDeleted(linesDeleted);
+			}
+			response.addFile(commitFile);
+		}
+		
+		private boolean isZeros(byte[] data, int start, int end) {
+			for (int i = start; i < end; i++) {
+				if (data[i] != '0') {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
 }
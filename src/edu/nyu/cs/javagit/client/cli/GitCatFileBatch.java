@@ -0,0 +1,267 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.nyu.cs.javagit.api.JavaGitConfiguration;
+import edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * Reads objects through one long-lived <code>git cat-file --batch</code> process, instead of
+ * starting a git process per object. The contents are streamed from git's output as they are
+ * read, they are never held in memory as a whole.
+ *
+ * One object is read at a time, an object opened with {@link #open(String)} can be read until the
+ * next one is opened. The names of many objects can be sent ahead with {@link #request(String)},
+ * so git doesn't wait for every name. Instances are not thread safe, but they can be shared
+ * between callers one after the other through {@link GitCommandServer#acquireCatFile(File)}.
+ */
+public class GitCatFileBatch {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final Process process;
+  private final OutputStream requests;
+  private final InputStream output;
+
+  // what is left of the contents of the open object, and its terminating newline
+  private long remaining = 0;
+  private boolean open = false;
+  // counts the objects that were opened, a stream only reads the object it was opened for
+  private long generation = 0;
+  // the objects that were asked for but not opened yet
+  private int pending = 0;
+
+  private String type = null;
+  private long size = -1;
+  private boolean closed = false;
+
+  /**
+   * Starts git cat-file --batch in the repository.
+   *
+   * @param repositoryPath
+   *          The working tree or the git directory of the repository.
+   */
+  public GitCatFileBatch(File repositoryPath) throws JavaGitException, IOException {
+    List<String> command = new ArrayList<String>();
+    command.add(JavaGitConfiguration.getGitCommand());
+    command.add("cat-file");
+    command.add("--batch");
+    ProcessBuilder pb = new ProcessBuilder(command);
+    pb.directory(repositoryPath);
+    // errors (a repository that isn't one) end the process, which ends the output
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    process = ProcessUtilities.startProcess(pb);
+    requests = new BufferedOutputStream(process.getOutputStream());
+    output = new BufferedInputStream(process.getInputStream(), 64 * 1024);
+  }
+
+  /**
+   * Opens an object, what was left of the previous object is skipped.
+   *
+   * @param objectName
+   *          The name of the object, a sha or anything else git can resolve ("HEAD:README").
+   * @return The contents of the object, or null if there is no such object. The stream ends with
+   *         the contents, closing it isn't needed.
+   */
+  public InputStream open(String objectName) throws JavaGitException, IOException {
+    request(objectName);
+    return next();
+  }
+
+  /**
+   * Asks for an object without waiting for it, {@link #next()} opens the objects in the order they
+   * were asked for. Many objects can be asked for before they are read, as long as the names that
+   * weren't answered yet fit in the pipe to git: git stops reading names while its answers aren't
+   * read.
+   *
+   * @param objectName
+   *          The name of the object, a sha or anything else git can resolve ("HEAD:README").
+   */
+  public void request(String objectName) throws IOException {
+    if (objectName.indexOf('\n') >= 0) {
+      throw new IllegalArgumentException("An object name can't contain a newline: " + objectName);
+    }
+    requests.write((objectName + "\n").getBytes(UTF8));
+    pending++;
+  }
+
+  /**
+   * Opens the next object that was asked for, what was left of the previous object is skipped.
+   *
+   * @return The contents of the object, or null if there is no such object.
+   */
+  public InputStream next() throws JavaGitException, IOException {
+    if (pending == 0) {
+      throw new IllegalStateException("No object was asked for");
+    }
+    skipRemaining();
+    requests.flush();
+    pending--;
+    generation++;
+
+    // "<sha> <type> <size>" or "<name> missing"
+    String header = readLine();
+    if (header == null) {
+      throw new JavaGitException(420002, "git cat-file --batch ended before all objects were read");
+    }
+    if (header.endsWith(" missing") || header.endsWith(" ambiguous")) {
+      type = null;
+      size = -1;
+      return null;
+    }
+    int typeEnd = header.lastIndexOf(' ');
+    int typeStart = header.lastIndexOf(' ', typeEnd - 1);
+    if (typeStart < 0) {
+      throw new JavaGitException(420002, "Unexpected git cat-file --batch output: " + header);
+    }
+    type = header.substring(typeStart + 1, typeEnd);
+    size = Long.parseLong(header.substring(typeEnd + 1));
+    remaining = size;
+    open = true;
+    return new ContentStream();
+  }
+
+  /**
+   * @return The type of the last object that was opened, "blob", "tree", "commit" or "tag", or null
+   *         if it was missing.
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * @return The size in bytes of the last object that was opened, or -1 if it was missing.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return true if the process runs and there are no objects that were asked for and not opened,
+   *         so it can be used for other objects.
+   */
+  boolean isIdle() {
+    return !closed && pending == 0;
+  }
+
+  /**
+   * Skips what is left of the open object, and ends the streams that were opened.
+   */
+  void reset() throws IOException {
+    skipRemaining();
+    generation++;
+  }
+
+  /**
+   * Stops the git process.
+   */
+  public void close() {
+    closed = true;
+    try {
+      requests.close();
+    } catch (IOException e) {
+      // the process is already gone
+    }
+    try {
+      output.close();
+    } catch (IOException e) {
+      // the process is already gone
+    }
+    process.destroy();
+  }
+
+  private void skipRemaining() throws IOException {
+    if (!open) {
+      return;
+    }
+    while (remaining > 0) {
+      long skipped = output.skip(remaining);
+      if (skipped <= 0) {
+        if (output.read() < 0) {
+          throw new IOException("git cat-file --batch ended in the middle of an object");
+        }
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
+    // the newline after the contents
+    output.read();
+    open = false;
+  }
+
+  private String readLine() throws IOException {
+    StringBuilder line = new StringBuilder(64);
+    int b;
+    while ((b = output.read()) != '\n') {
+      if (b < 0) {
+        return line.length() == 0 ? null : line.toString();
+      }
+      line.append((char) b);
+    }
+    return line.toString();
+  }
+
+  /**
+   * The contents of the open object, it ends where the object ends.
+   */
+  private class ContentStream extends InputStream {
+    private final long objectGeneration = generation;
+
+    @Override
+    public int read() throws IOException {
+      if (!isCurrent() || remaining <= 0) {
+        return -1;
+      }
+      int b = output.read();
+      if (b >= 0) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (!isCurrent() || remaining <= 0) {
+        return -1;
+      }
+      int read = output.read(buffer, offset, (int) Math.min(length, remaining));
+      if (read > 0) {
+        remaining -= read;
+      }
+      return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return isCurrent() ? (int) Math.min(output.available(), remaining) : 0;
+    }
+
+    private boolean isCurrent() {
+      return open && objectGeneration == generation;
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * <code>GitCommandServer</code> keeps <code>git cat-file --batch</code> processes running between
+ * callers, so reading the objects of a repository many times doesn't start a git process every
+ * time. A process is lent out to one caller at a time with {@link #acquireCatFile(File)}, and kept
+ * for the next caller when it is given back. There is a pool of processes per repository;
+ * processes that weren't used for a while are stopped.
+ *
+ * Only git processes that answer a request before the next request is read can be kept running.
+ * <code>git rev-list --stdin</code> reads all its input before it answers, and commands like log,
+ * checkout, status or branch answer once and exit, they have to be run with
+ * {@link ProcessUtilities#runCommand(File, List, IParser)}. Revisions are resolved and objects
+ * are checked in the object database itself, see
+ * {@link edu.nyu.cs.javagit.client.odb.ObjectDatabase}.
+ */
+public class GitCommandServer {
+
+  private static final Map<String, List<IdleCatFile>> catFiles = new HashMap<String, List<IdleCatFile>>();
+
+  private static int maxProcesses = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  private static long idleTimeout = 60 * 1000;
+  private static Thread reaper;
+
+  /**
+   * Sets how many processes that aren't used are kept per repository.
+   */
+  public static synchronized void setMaxProcesses(int processes) {
+    if (processes < 1) {
+      throw new IllegalArgumentException("At least one process is needed");
+    }
+    maxProcesses = processes;
+  }
+
+  /**
+   * Sets how long a process can wait for a caller before it is stopped.
+   */
+  public static synchronized void setIdleTimeout(long millis) {
+    idleTimeout = millis;
+  }
+
+  /**
+   * Takes a <code>git cat-file --batch</code> of the repository that isn't used, or starts one if
+   * there is none. It is only used by the caller until it is given back with
+   * {@link #releaseCatFile(File, GitCatFileBatch)}.
+   *
+   * @param repositoryPath
+   *          The working tree or the git directory of the repository.
+   */
+  public static GitCatFileBatch acquireCatFile(File repositoryPath) throws IOException,
+      JavaGitException {
+    String key = getCatFileKey(repositoryPath);
+    synchronized (GitCommandServer.class) {
+      List<IdleCatFile> idle = catFiles.get(key);
+      if (idle != null && !idle.isEmpty()) {
+        GitCatFileBatch catFile = idle.remove(idle.size() - 1).catFile;
+        if (idle.isEmpty()) {
+          catFiles.remove(key);
+        }
+        return catFile;
+      }
+    }
+    return new GitCatFileBatch(repositoryPath);
+  }
+
+  /**
+   * Gives back a <code>git cat-file --batch</code> of {@link #acquireCatFile(File)}, the streams
+   * that were opened with it end. It is stopped if it can't be used anymore (objects were asked
+   * for and not opened), if as many processes as {@link #setMaxProcesses(int)} allows are kept
+   * already, or when it isn't used for the idle timeout.
+   */
+  public static void releaseCatFile(File repositoryPath, GitCatFileBatch catFile) throws IOException {
+    String key = getCatFileKey(repositoryPath);
+    if (catFile.isIdle()) {
+      try {
+        catFile.reset();
+      } catch (IOException e) {
+        catFile.close();
+        throw e;
+      }
+      synchronized (GitCommandServer.class) {
+        List<IdleCatFile> idle = catFiles.get(key);
+        if (idle == null) {
+          idle = new ArrayList<IdleCatFile>();
+          catFiles.put(key, idle);
+        }
+        if (idle.size() < maxProcesses) {
+          idle.add(new IdleCatFile(catFile));
+          startReaper();
+          return;
+        }
+      }
+    }
+    catFile.close();
+  }
+
+  /**
+   * Stops the processes of a repository.
+   */
+  public static void shutdown(File repositoryPath) throws IOException {
+    String path = repositoryPath.getCanonicalPath() + File.pathSeparator;
+    List<IdleCatFile> stopped = new ArrayList<IdleCatFile>();
+    synchronized (GitCommandServer.class) {
+      Iterator<Map.Entry<String, List<IdleCatFile>>> idle = catFiles.entrySet().iterator();
+      while (idle.hasNext()) {
+        Map.Entry<String, List<IdleCatFile>> entry = idle.next();
+        if (entry.getKey().startsWith(path)) {
+          stopped.addAll(entry.getValue());
+          idle.remove();
+        }
+      }
+    }
+    for (IdleCatFile catFile : stopped) {
+      catFile.catFile.close();
+    }
+  }
+
+  /**
+   * Stops the processes of every repository.
+   */
+  public static void shutdownAll() {
+    List<IdleCatFile> stopped = new ArrayList<IdleCatFile>();
+    synchronized (GitCommandServer.class) {
+      for (List<IdleCatFile> idle : catFiles.values()) {
+        stopped.addAll(idle);
+      }
+      catFiles.clear();
+    }
+    for (IdleCatFile catFile : stopped) {
+      catFile.catFile.close();
+    }
+  }
+
+  private static String getCatFileKey(File repositoryPath) throws IOException {
+    return repositoryPath.getCanonicalPath() + File.pathSeparator;
+  }
+
+  private static void startReaper() {
+    if (reaper != null) {
+      return;
+    }
+    reaper = new Thread("javagit command server reaper") {
+      @Override
+      public void run() {
+        while (true) {
+          long timeout;
+          synchronized (GitCommandServer.class) {
+            timeout = idleTimeout;
+          }
+          try {
+            Thread.sleep(Math.max(1000, timeout / 2));
+          } catch (InterruptedException e) {
+            return;
+          }
+          reap();
+        }
+      }
+    };
+    reaper.setDaemon(true);
+    reaper.start();
+  }
+
+  private static void reap() {
+    List<IdleCatFile> stopped = new ArrayList<IdleCatFile>();
+    synchronized (GitCommandServer.class) {
+      long now = System.currentTimeMillis();
+      for (Iterator<List<IdleCatFile>> pools = catFiles.values().iterator(); pools.hasNext();) {
+        List<IdleCatFile> idle = pools.next();
+        for (Iterator<IdleCatFile> i = idle.iterator(); i.hasNext();) {
+          IdleCatFile catFile = i.next();
+          if (now - catFile.since > idleTimeout) {
+            stopped.add(catFile);
+            i.remove();
+          }
+        }
+        if (idle.isEmpty()) {
+          pools.remove();
+        }
+      }
+    }
+    for (IdleCatFile catFile : stopped) {
+      catFile.catFile.close();
+    }
+  }
+
+  /**
+   * A <code>git cat-file --batch</code> that was given back, and since when.
+   */
+  private static class IdleCatFile {
+    final GitCatFileBatch catFile;
+    final long since = System.currentTimeMillis();
+
+    IdleCatFile(GitCatFileBatch catFile) {
+      this.catFile = catFile;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.cli;
+
+/**
+ * <code>IByteParser</code> is an <code>IParser</code> that takes the output of a git command as
+ * raw bytes instead of lines. The output is not decoded up front, the parser decides which parts
+ * of it are worth turning into <code>String</code>s.
+ *
+ * @see ProcessUtilities#runCommand(java.io.File, java.util.List, IByteParser)
+ */
+public interface IByteParser extends IParser {
+
+  /**
+   * Parses the next slice of output from a git command line output stream. The slice does not
+   * start or end at any particular boundary.
+   *
+   * @param buffer
+   *          The buffer holding the slice. It is reused for the next slice, so bytes that are
+   *          needed after this call returns have to be copied.
+   * @param offset
+   *          The position of the first byte of the slice in the buffer.
+   * @param length
+   *          The number of bytes in the slice.
+   */
+  public void parse(byte[] buffer, int offset, int length);
+
+  /**
+   * Takes the error stream of the process, which is read separately from the output.
+   *
+   * @param errorOutput
+   *          What the process wrote to its error stream.
+   */
+  public void processErrorOutput(String errorOutput);
+
+}
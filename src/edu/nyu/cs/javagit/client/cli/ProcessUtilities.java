@@ -17,9 +17,16 @@
 package edu.nyu.cs.javagit.client.cli;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.util.List;
 
 import edu.nyu.cs.javagit.api.JavaGitException;
@@ -33,6 +40,17 @@ public class ProcessUtilities {
 
   // TODO (jhl): add unit tests for this class.
 
+  // Size of the buffer the output for an IByteParser is read in.
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  /*
+   * The buffer of the last byte parser run on this thread, kept for the next one. A parser that
+   * runs another command while it is handed a slice gets a fresh buffer.
+   */
+  private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   /**
    * Start a process.
    * 
@@ -83,6 +101,43 @@ public class ProcessUtilities {
     }
   }
 
+  /**
+   * Reads the output from the process in slices of a reused buffer and hands them to the parser,
+   * without decoding the output or splitting it in lines.
+   * 
+   * @param p
+   *          The process from which to read the output.
+   * @exception IOException
+   *              An <code>IOException</code> is thrown if there is trouble reading input from the
+   *              sub-process.
+   */
+  public static void getProcessOutput(Process p, IByteParser parser) throws IOException {
+    ByteBuffer buffer = buffers.get();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    } else {
+      buffers.remove();
+    }
+    ReadableByteChannel channel = Channels.newChannel(p.getInputStream());
+    try {
+      while (true) {
+        buffer.clear();
+        int read = channel.read(buffer);
+        if (read < 0) {
+          break;
+        }
+        parser.parse(buffer.array(), buffer.arrayOffset(), buffer.position());
+      }
+    } catch (IOException e) {
+      IOException toThrow = new IOException(ExceptionMessageMap.getMessage("020101"));
+      toThrow.initCause(e);
+      throw toThrow;
+    } finally {
+      channel.close();
+      buffers.set(buffer);
+    }
+  }
+
   /**
    * Waits for a process to terminate and then destroys it.
    * 
@@ -130,6 +185,18 @@ public class ProcessUtilities {
    */
   public static CommandResponse runCommand(File workingDirectory, List<String> commandLine,
       IParser parser) throws IOException, JavaGitException {
+    return runCommand(workingDirectory, commandLine, null, parser);
+  }
+
+  /**
+   * Like {@link #runCommand(File, List, IParser)}, and writes the input to the standard input of
+   * the process first. The command must read all of its input before it writes its output.
+   * 
+   * @param input
+   *          The bytes the process reads, or null to leave its standard input alone.
+   */
+  public static CommandResponse runCommand(File workingDirectory, List<String> commandLine,
+      byte[] input, IParser parser) throws IOException, JavaGitException {
     ProcessBuilder pb = new ProcessBuilder(commandLine);
     
     if (workingDirectory != null) {
@@ -139,10 +206,136 @@ public class ProcessUtilities {
     pb.redirectErrorStream(true);
 
     Process p = startProcess(pb);
+    writeInput(p, input);
     getProcessOutput(p, parser);
     waitForAndDestroyProcess(p, parser);
 
     return parser.getResponse();
   }
 
+  /**
+   * Runs the command specified in the command line with the specified working directory. The
+   * output is handed to the <code>IByteParser</code> as bytes; the error stream is read on a
+   * separate thread and handed to the parser when the process has ended, so it can't end up in the
+   * middle of the output.
+   * 
+   * @param workingDirectory
+   *          The working directory in with which to start the process.
+   * @param commandLine
+   *          The command line to run.
+   * @param parser
+   *          The parser to use to parse the command line's response.
+   * @return The command response from the <code>IByteParser</code>.
+   * @throws IOException
+   *           Thrown if there are problems with the subprocess.
+   * @throws JavaGitException
+   */
+  public static CommandResponse runCommand(File workingDirectory, List<String> commandLine,
+      IByteParser parser) throws IOException, JavaGitException {
+    return runCommand(workingDirectory, commandLine, null, parser);
+  }
+
+  /**
+   * Like {@link #runCommand(File, List, IByteParser)}, and writes the input to the standard input
+   * of the process first. The command must read all of its input before it writes its output.
+   * 
+   * @param input
+   *          The bytes the process reads, or null to leave its standard input alone.
+   */
+  public static CommandResponse runCommand(File workingDirectory, List<String> commandLine,
+      byte[] input, IByteParser parser) throws IOException, JavaGitException {
+    ProcessBuilder pb = new ProcessBuilder(commandLine);
+
+    if (workingDirectory != null) {
+      pb.directory(workingDirectory);
+    }
+
+    Process p = startProcess(pb);
+    ErrorReader errorReader = new ErrorReader(p.getErrorStream());
+    errorReader.start();
+    String errorOutput;
+    boolean ended = false;
+    try {
+      writeInput(p, input);
+      getProcessOutput(p, parser);
+      // destroying the process closes its error stream, so finish reading it first
+      errorOutput = errorReader.getOutput();
+      waitForAndDestroyProcess(p, parser);
+      ended = true;
+    } finally {
+      if (!ended) {
+        // reading or parsing the output failed; stop the process, which ends the error reader too
+        p.destroy();
+      }
+    }
+    parser.processErrorOutput(errorOutput);
+
+    return parser.getResponse();
+  }
+
+  /**
+   * Writes the input to the process and closes its standard input, so it knows there is no more.
+   */
+  private static void writeInput(Process p, byte[] input) {
+    if (input == null) {
+      return;
+    }
+    OutputStream out = p.getOutputStream();
+    try {
+      out.write(input);
+    } catch (IOException e) {
+      // the process stopped reading, its output and exit code tell why
+    } finally {
+      try {
+        out.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Drains the error stream of a process, so the process can't block on a full pipe.
+   */
+  public static class ErrorReader extends Thread {
+    private final InputStream in;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    public ErrorReader(InputStream in) {
+      this.in = in;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      byte[] buffer = new byte[1024];
+      try {
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+          output.write(buffer, 0, read);
+        }
+      } catch (IOException e) {
+        // the process is gone, nothing more to read
+      } finally {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+
+    /**
+     * @return everything the process wrote to its error stream, when it has closed it.
+     */
+    public String getOutput() {
+      try {
+        join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new String(output.toByteArray(), UTF8);
+    }
+  }
+
 }
@@ -27,12 +27,15 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import resource.versions.ScmEntryChangeKind.ChangeCode;
+
 import edu.nyu.cs.javagit.api.JavaGitException;
 import edu.nyu.cs.javagit.api.commands.GitAdd;
 import edu.nyu.cs.javagit.api.commands.GitCommit;
 import edu.nyu.cs.javagit.api.commands.GitInit;
 import edu.nyu.cs.javagit.api.commands.GitLogOptions;
 import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
+import edu.nyu.cs.javagit.api.commands.GitLogResponse.CommitFile;
 import edu.nyu.cs.javagit.client.cli.CliGitLog;
 import edu.nyu.cs.javagit.test.utilities.FileUtilities;
 import edu.nyu.cs.javagit.test.utilities.HelperGitCommands;
@@ -190,6 +193,24 @@ public class TestCliGitLog {
 		}
 	}
 
+	/**
+	 * Test to verify if the commits are counted with the same limits as the log
+	 * 
+	 * @throws IOException
+	 * @throws JavaGitException
+	 */
+	@Test
+	public void testGitLogCount() throws IOException, JavaGitException {
+
+		CliGitLog gitLog = new CliGitLog();
+		GitLogOptions options = new GitLogOptions();
+		assertEquals(2, gitLog.count(repoDirectory, options));
+		options.setOptLimitCommitSkip(true, 1);
+		assertEquals(1, gitLog.count(repoDirectory, options));
+		options.setOptLimitCommitMax(true, 0);
+		assertEquals(0, gitLog.count(repoDirectory, options));
+	}
+
 	/**
 	 * 
 	 * Test to verify if git log get proper commit message after skipping
@@ -213,4 +234,76 @@ public class TestCliGitLog {
 			fail("Failed Log ,commit message does not match.");
 		}
 	}
+
+	/**
+	 * 
+	 * Test to verify if the machine format gives the same commits as the default format,
+	 * and keeps file names with spaces
+	 * 
+	 * @throws IOException
+	 * @throws JavaGitException
+	 */
+	@Test
+	public void testGitLogMachineFormat() throws IOException, JavaGitException {
+		File testFile = FileUtilities.createFile(repoDirectory, "log with spaces.txt", "README");
+		List<File> filesToAdd = new ArrayList<File>();
+		filesToAdd.add(testFile);
+		add.add(repoDirectory, null, filesToAdd);
+		commit.commit(repoDirectory, "Making a third test commit");
+
+		CliGitLog gitLog = new CliGitLog();
+		GitLogOptions options = new GitLogOptions();
+		options.setOptFileDetails(true);
+		List<Commit> expected = gitLog.log(repoDirectory, options);
+		options.setOptMachineFormat(true);
+		List<Commit> log = gitLog.log(repoDirectory, options);
+
+		assertEquals(expected.size(), log.size());
+		for (int i = 0; i < log.size(); i++) {
+			assertEquals(expected.get(i).getSha(), log.get(i).getSha());
+			assertEquals(expected.get(i).getParentSha(), log.get(i).getParentSha());
+			assertEquals(expected.get(i).getAuthor(), log.get(i).getAuthor());
+			assertEquals(expected.get(i).getDateString(), log.get(i).getDateString());
+			assertEquals(expected.get(i).getMessage(), log.get(i).getMessage());
+			assertEquals(1, log.get(i).getFiles().size());
+		}
+		assertEquals("log with spaces.txt", log.get(0).getFiles().get(0).getName());
+	}
+
+	/**
+	 * 
+	 * Test to verify if the cheaper file details only give what was asked for, in both formats
+	 * 
+	 * @throws IOException
+	 * @throws JavaGitException
+	 */
+	@Test
+	public void testGitLogDetailLevels() throws IOException, JavaGitException {
+		CliGitLog gitLog = new CliGitLog();
+		for (boolean machineFormat : new boolean[] { false, true }) {
+			GitLogOptions options = new GitLogOptions();
+			options.setOptMachineFormat(machineFormat);
+			options.setOptNameStatus(true);
+			List<Commit> log = gitLog.log(repoDirectory, options);
+			assertEquals(2, log.size());
+			CommitFile file = log.get(0).getFiles().get(0);
+			assertEquals("log1.txt", file.getName());
+			assertEquals(ChangeCode.ADDED, file.getChangeStatus());
+			assertNull(file.getSha());
+			assertEquals(-1, file.getLinesAdded());
+
+			options = new GitLogOptions();
+			options.setOptMachineFormat(machineFormat);
+			options.setOptRaw(true);
+			file = gitLog.log(repoDirectory, options).get(0).getFiles().get(0);
+			assertEquals("log1.txt", file.getName());
+			assertEquals(40, file.getSha().length());
+			assertEquals(-1, file.getLinesAdded());
+
+			options.setOptNumstat(true);
+			file = gitLog.log(repoDirectory, options).get(0).getFiles().get(0);
+			assertEquals(40, file.getSha().length());
+			assertEquals(1, file.getLinesAdded());
+		}
+	}
 }
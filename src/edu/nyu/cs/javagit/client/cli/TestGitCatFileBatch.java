@@ -0,0 +1,118 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.cli;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.commands.GitAdd;
+import edu.nyu.cs.javagit.api.commands.GitInit;
+import edu.nyu.cs.javagit.test.utilities.FileUtilities;
+
+public class TestGitCatFileBatch {
+  private File repoDirectory;
+  private GitCatFileBatch catFile;
+
+  @Before
+  public void setUp() throws IOException, JavaGitException {
+    repoDirectory = FileUtilities.createTempDirectory("GitCatFileBatchTestRepo");
+    new GitInit().init(repoDirectory);
+
+    // The staged files are objects as well, they can be read as ":<path>"
+    List<File> filesToAdd = new ArrayList<File>();
+    filesToAdd.add(FileUtilities.createFile(repoDirectory, "first.txt", "one\ntwo\n"));
+    filesToAdd.add(FileUtilities.createFile(repoDirectory, "second.txt", "three"));
+    new GitAdd().add(repoDirectory, null, filesToAdd);
+
+    catFile = new GitCatFileBatch(repoDirectory);
+  }
+
+  @After
+  public void tearDown() throws JavaGitException {
+    catFile.close();
+    FileUtilities.removeDirectoryRecursivelyAndForcefully(repoDirectory);
+  }
+
+  @Test
+  public void testReadObjects() throws IOException, JavaGitException {
+    assertEquals("one\ntwo\n", read(catFile.open(":first.txt")));
+    assertEquals("blob", catFile.getType());
+    assertEquals(8, catFile.getSize());
+    assertEquals("three", read(catFile.open(":second.txt")));
+
+    // The same process goes on after an object that wasn't there
+    assertNull(catFile.open(":missing.txt"));
+    assertEquals(-1, catFile.getSize());
+    assertEquals("three", read(catFile.open(":second.txt")));
+  }
+
+  @Test
+  public void testSkipUnreadContents() throws IOException, JavaGitException {
+    InputStream first = catFile.open(":first.txt");
+    assertEquals('o', first.read());
+
+    // The rest of the first object is skipped, and its stream ends
+    assertEquals("three", read(catFile.open(":second.txt")));
+    assertEquals(-1, first.read());
+    assertEquals("one\ntwo\n", read(catFile.open(":first.txt")));
+  }
+
+  @Test
+  public void testReopenSameSize() throws IOException, JavaGitException {
+    InputStream first = catFile.open(":first.txt");
+    assertEquals('o', first.read());
+
+    // An object of the same size doesn't continue the stream of the one before
+    InputStream again = catFile.open(":first.txt");
+    assertEquals(-1, first.read());
+    assertEquals("one\ntwo\n", read(again));
+  }
+
+  @Test
+  public void testRequestAhead() throws IOException, JavaGitException {
+    catFile.request(":second.txt");
+    catFile.request(":missing.txt");
+    catFile.request(":first.txt");
+
+    assertEquals("three", read(catFile.next()));
+    assertNull(catFile.next());
+    // The first object is skipped without reading it
+    assertNotNull(catFile.next());
+    assertEquals("one\ntwo\n", read(catFile.open(":first.txt")));
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[3];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return out.toString("UTF-8");
+  }
+}
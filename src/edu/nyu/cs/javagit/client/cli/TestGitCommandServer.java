@@ -0,0 +1,137 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.cli;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.commands.GitAdd;
+import edu.nyu.cs.javagit.api.commands.GitInit;
+import edu.nyu.cs.javagit.test.utilities.FileUtilities;
+
+public class TestGitCommandServer {
+  private File repoDirectory;
+
+  @Before
+  public void setUp() throws IOException, JavaGitException {
+    repoDirectory = FileUtilities.createTempDirectory("GitCommandServerTestRepo");
+    new GitInit().init(repoDirectory);
+
+    // The staged files are objects as well, they can be read as ":<path>"
+    List<File> filesToAdd = new ArrayList<File>();
+    filesToAdd.add(FileUtilities.createFile(repoDirectory, "first.txt", "one\ntwo\n"));
+    filesToAdd.add(FileUtilities.createFile(repoDirectory, "second.txt", "three"));
+    new GitAdd().add(repoDirectory, null, filesToAdd);
+  }
+
+  @After
+  public void tearDown() throws IOException, JavaGitException {
+    GitCommandServer.shutdown(repoDirectory);
+    FileUtilities.removeDirectoryRecursivelyAndForcefully(repoDirectory);
+  }
+
+  @Test
+  public void testReuseCatFile() throws IOException, JavaGitException {
+    GitCatFileBatch catFile = GitCommandServer.acquireCatFile(repoDirectory);
+    InputStream first = catFile.open(":first.txt");
+    GitCommandServer.releaseCatFile(repoDirectory, catFile);
+
+    // The process is lent out again, the stream of the caller before has ended
+    GitCatFileBatch again = GitCommandServer.acquireCatFile(repoDirectory);
+    assertSame(catFile, again);
+    assertEquals(-1, first.read());
+    assertNotNull(again.open(":second.txt"));
+    assertEquals(5, again.getSize());
+
+    // Objects were asked for and not opened, the process isn't lent out again
+    again.request(":first.txt");
+    GitCommandServer.releaseCatFile(repoDirectory, again);
+    GitCatFileBatch other = GitCommandServer.acquireCatFile(repoDirectory);
+    assertNotSame(again, other);
+    GitCommandServer.releaseCatFile(repoDirectory, other);
+  }
+
+  @Test
+  public void testConcurrentCallers() throws Exception {
+    final List<Throwable> failures = new ArrayList<Throwable>();
+
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final boolean odd = t % 2 == 1;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 50; i++) {
+              // Every caller has a process of its own until it gives it back
+              GitCatFileBatch catFile = GitCommandServer.acquireCatFile(repoDirectory);
+              if (odd) {
+                assertEquals("three", read(catFile.open(":second.txt")));
+              } else {
+                assertEquals("one\ntwo\n", read(catFile.open(":first.txt")));
+              }
+              GitCommandServer.releaseCatFile(repoDirectory, catFile);
+            }
+          } catch (Throwable e) {
+            synchronized (failures) {
+              failures.add(e);
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(new ArrayList<Throwable>(), failures);
+  }
+
+  @Test
+  public void testStartAfterShutdown() throws IOException, JavaGitException {
+    GitCatFileBatch catFile = GitCommandServer.acquireCatFile(repoDirectory);
+    GitCommandServer.releaseCatFile(repoDirectory, catFile);
+    GitCommandServer.shutdown(repoDirectory);
+
+    // The process that was kept is stopped, another one is started
+    GitCatFileBatch again = GitCommandServer.acquireCatFile(repoDirectory);
+    assertNotSame(catFile, again);
+    assertEquals("three", read(again.open(":second.txt")));
+    GitCommandServer.releaseCatFile(repoDirectory, again);
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return out.toString("UTF-8");
+  }
+}
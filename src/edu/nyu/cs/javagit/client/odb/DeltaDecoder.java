@@ -0,0 +1,109 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.odb;
+
+import java.io.IOException;
+
+/**
+ * <code>DeltaDecoder</code> applies a git pack delta to its base object.
+ */
+public final class DeltaDecoder {
+
+  private DeltaDecoder() {
+  }
+
+  /**
+   * Applies the delta instructions to the base.
+   *
+   * @param base
+   *          the content of the base object.
+   * @param delta
+   *          the inflated delta data: source size, target size and the copy/insert instructions.
+   * @return the content of the resulting object.
+   * @throws IOException
+   *           if the delta doesn't match the base or is corrupt.
+   */
+  public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+    int pos = 0;
+
+    long baseSize = 0;
+    int shift = 0;
+    int c;
+    do {
+      c = delta[pos++] & 0xff;
+      baseSize |= (long) (c & 0x7f) << shift;
+      shift += 7;
+    } while ((c & 0x80) != 0);
+    if (baseSize != base.length) {
+      throw new IOException("Delta base size " + baseSize + " doesn't match the base (" + base.length + ")");
+    }
+
+    long resultSize = 0;
+    shift = 0;
+    do {
+      c = delta[pos++] & 0xff;
+      resultSize |= (long) (c & 0x7f) << shift;
+      shift += 7;
+    } while ((c & 0x80) != 0);
+
+    byte[] result = new byte[(int) resultSize];
+    int out = 0;
+    while (pos < delta.length) {
+      int op = delta[pos++] & 0xff;
+      if ((op & 0x80) != 0) {
+        int copyOffset = 0;
+        if ((op & 0x01) != 0) {
+          copyOffset = delta[pos++] & 0xff;
+        }
+        if ((op & 0x02) != 0) {
+          copyOffset |= (delta[pos++] & 0xff) << 8;
+        }
+        if ((op & 0x04) != 0) {
+          copyOffset |= (delta[pos++] & 0xff) << 16;
+        }
+        if ((op & 0x08) != 0) {
+          copyOffset |= (delta[pos++] & 0xff) << 24;
+        }
+        int copySize = 0;
+        if ((op & 0x10) != 0) {
+          copySize = delta[pos++] & 0xff;
+        }
+        if ((op & 0x20) != 0) {
+          copySize |= (delta[pos++] & 0xff) << 8;
+        }
+        if ((op & 0x40) != 0) {
+          copySize |= (delta[pos++] & 0xff) << 16;
+        }
+        if (copySize == 0) {
+          copySize = 0x10000;
+        }
+        System.arraycopy(base, copyOffset, result, out, copySize);
+        out += copySize;
+      } else if (op != 0) {
+        System.arraycopy(delta, pos, result, out, op);
+        pos += op;
+        out += op;
+      } else {
+        throw new IOException("Corrupt delta, reserved instruction 0");
+      }
+    }
+    if (out != result.length) {
+      throw new IOException("Delta produced " + out + " bytes, expected " + result.length);
+    }
+    return result;
+  }
+}
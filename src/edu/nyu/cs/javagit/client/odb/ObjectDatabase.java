@@ -0,0 +1,408 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.odb;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.InflaterInputStream;
+
+import edu.nyu.cs.javagit.api.ObjectId;
+
+/**
+ * <code>ObjectDatabase</code> reads objects and refs straight from a <code>.git</code> directory,
+ * without starting a git process. Loose objects and packs (version 1 and 2 indexes) are
+ * supported. In a linked worktree HEAD is read from its own git directory, the objects and the
+ * other refs from the common directory of the repository.
+ */
+public class ObjectDatabase {
+
+  private final File gitDir;
+  private final File commonDir;
+  private final File objectsDir;
+  private final List<PackFile> packs = new ArrayList<PackFile>();
+
+  /**
+   * Opens the object database of a repository.
+   *
+   * @param repositoryPath
+   *          the working tree (containing <code>.git</code>) or the git directory itself, as in
+   *          bare repositories.
+   * @throws IOException
+   *           if the path is not a git repository or the packs can't be opened.
+   */
+  public ObjectDatabase(File repositoryPath) throws IOException {
+    gitDir = findGitDir(repositoryPath);
+    commonDir = findCommonDir(gitDir);
+    objectsDir = new File(commonDir, "objects");
+
+    File packDir = new File(objectsDir, "pack");
+    File[] indexes = packDir.listFiles();
+    if (indexes != null) {
+      for (File idx : indexes) {
+        String name = idx.getName();
+        if (name.endsWith(".idx")) {
+          File pack = new File(packDir, name.substring(0, name.length() - 4) + ".pack");
+          if (pack.isFile()) {
+            packs.add(new PackFile(this, idx, pack));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the git directory belonging to the given path.
+   *
+   * @return the git directory, following <code>gitdir:</code> files as used by worktrees and
+   *         submodules.
+   */
+  public static File findGitDir(File repositoryPath) throws IOException {
+    File dotGit = new File(repositoryPath, ".git");
+    if (dotGit.isDirectory()) {
+      return dotGit;
+    }
+    if (dotGit.isFile()) {
+      BufferedReader reader = new BufferedReader(new FileReader(dotGit));
+      try {
+        String line = reader.readLine();
+        if (line != null && line.startsWith("gitdir:")) {
+          File dir = new File(line.substring(7).trim());
+          if (!dir.isAbsolute()) {
+            dir = new File(repositoryPath, dir.getPath());
+          }
+          return dir;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    if (new File(repositoryPath, "objects").isDirectory() && new File(repositoryPath, "HEAD").isFile()) {
+      return repositoryPath;
+    }
+    throw new IOException(repositoryPath + " is not a git repository");
+  }
+
+  /**
+   * Finds the directory the objects and the shared refs of the git directory are in.
+   *
+   * @return the directory the <code>commondir</code> file of a linked worktree names, or the git
+   *         directory itself.
+   */
+  public static File findCommonDir(File gitDir) throws IOException {
+    File commonDirFile = new File(gitDir, "commondir");
+    if (!commonDirFile.isFile()) {
+      return gitDir;
+    }
+    BufferedReader reader = new BufferedReader(new FileReader(commonDirFile));
+    try {
+      String line = reader.readLine();
+      if (line == null || line.trim().length() == 0) {
+        return gitDir;
+      }
+      File dir = new File(line.trim());
+      if (!dir.isAbsolute()) {
+        dir = new File(gitDir, dir.getPath());
+      }
+      return dir;
+    } finally {
+      reader.close();
+    }
+  }
+
+  public File getGitDir() {
+    return gitDir;
+  }
+
+  public File getCommonDir() {
+    return commonDir;
+  }
+
+  /**
+   * Reads an object, from the packs or from the loose objects.
+   *
+   * @param id
+   *          the 20 byte object name.
+   * @return the object, or null if it doesn't exist in this database.
+   */
+  public RawObject open(byte[] id) throws IOException {
+    for (PackFile pack : packs) {
+      RawObject object = pack.get(id);
+      if (object != null) {
+        return object;
+      }
+    }
+    return openLoose(id);
+  }
+
+  /**
+   * @return the object, or null if the sha isn't a full object name or doesn't exist in this
+   *         database.
+   */
+  public RawObject open(String sha) throws IOException {
+    ObjectId id = ObjectId.fromString(sha);
+    if (id == null) {
+      return null;
+    }
+    byte[] raw = new byte[ObjectId.NAME_LENGTH / 2];
+    id.copyRawTo(raw, 0);
+    return open(raw);
+  }
+
+  private RawObject openLoose(byte[] id) throws IOException {
+    String hex = ObjectId.fromRaw(id, 0).name();
+    File file = new File(new File(objectsDir, hex.substring(0, 2)), hex.substring(2));
+    if (!file.isFile()) {
+      return null;
+    }
+    InputStream in = new InflaterInputStream(new FileInputStream(file));
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length() * 2);
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+      byte[] raw = out.toByteArray();
+      int space = indexOf(raw, (byte) ' ', 0);
+      int nul = indexOf(raw, (byte) 0, space);
+      if (space < 0 || nul < 0) {
+        throw new IOException("Corrupt loose object " + file);
+      }
+      int type = RawObject.typeFromName(new String(raw, 0, space, "US-ASCII"));
+      if (type < 0) {
+        throw new IOException("Unknown object type in " + file);
+      }
+      byte[] data = new byte[raw.length - nul - 1];
+      System.arraycopy(raw, nul + 1, data, 0, data.length);
+      return new RawObject(type, data);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Follows annotated tags until a non-tag object is found.
+   *
+   * @return the name of the tagged object, or null if the chain ends in a missing object.
+   */
+  public String peel(String sha) throws IOException {
+    String current = sha;
+    while (true) {
+      RawObject object = open(current);
+      if (object == null) {
+        return null;
+      }
+      if (object.getType() != RawObject.OBJ_TAG) {
+        return current;
+      }
+      byte[] data = object.getData();
+      // a tag object starts with "object <sha>\n"
+      current = new String(data, 7, 40, "US-ASCII");
+    }
+  }
+
+  /**
+   * Reads the refs of the repository, both loose and packed.
+   *
+   * @return a map from full ref name (for example <code>refs/heads/master</code>) to the object
+   *         the ref points at, sorted on the ref name.
+   */
+  public Map<String, String> readRefs() throws IOException {
+    Map<String, String> refs = readPackedRefs();
+    readLooseRefs(new File(commonDir, "refs"), "refs/", refs);
+    if (!commonDir.equals(gitDir)) {
+      // the refs of the worktree itself, like refs/bisect
+      readLooseRefs(new File(gitDir, "refs"), "refs/", refs);
+    }
+    return refs;
+  }
+
+  private Map<String, String> readPackedRefs() throws IOException {
+    Map<String, String> refs = new TreeMap<String, String>();
+    File packedRefs = new File(commonDir, "packed-refs");
+    if (packedRefs.isFile()) {
+      BufferedReader reader = new BufferedReader(new FileReader(packedRefs));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.length() < 42 || line.charAt(0) == '#' || line.charAt(0) == '^') {
+            continue;
+          }
+          refs.put(line.substring(41), line.substring(0, 40));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return refs;
+  }
+
+  private void readLooseRefs(File dir, String prefix, Map<String, String> refs) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        readLooseRefs(file, prefix + file.getName() + "/", refs);
+      } else {
+        String target = resolveRefFile(file, 0);
+        if (target != null) {
+          refs.put(prefix + file.getName(), target);
+        }
+      }
+    }
+  }
+
+  private String resolveRefFile(File file, int depth) throws IOException {
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    String line;
+    try {
+      line = reader.readLine();
+    } finally {
+      reader.close();
+    }
+    if (line == null) {
+      return null;
+    }
+    line = line.trim();
+    if (line.startsWith("ref: ")) {
+      return depth > 5 ? null : resolveRef(line.substring(5), depth + 1);
+    }
+    return line.length() == 40 ? line : null;
+  }
+
+  private String resolveRef(String refName, int depth) throws IOException {
+    File loose = new File(gitDir, refName);
+    if (!loose.isFile()) {
+      loose = new File(commonDir, refName);
+    }
+    if (loose.isFile()) {
+      return resolveRefFile(loose, depth);
+    }
+    // not loose, so packed; reading all refs would resolve this symbolic ref again
+    return readPackedRefs().get(refName);
+  }
+
+  /**
+   * @return the full name of the ref HEAD points at, or null if HEAD is detached.
+   */
+  public String getHeadRefName() throws IOException {
+    BufferedReader reader = new BufferedReader(new FileReader(new File(gitDir, "HEAD")));
+    try {
+      String line = reader.readLine();
+      if (line != null && line.startsWith("ref: ")) {
+        return line.substring(5).trim();
+      }
+      return null;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Resolves a revision name the way git does for plain names: a full object name, or a ref name
+   * tried as given and under <code>refs/</code>, <code>refs/tags/</code>,
+   * <code>refs/heads/</code> and <code>refs/remotes/</code>.
+   *
+   * @return the object name, or null if the revision can't be resolved without git (for example
+   *         abbreviated names or revision expressions).
+   */
+  public String resolve(String revision) throws IOException {
+    if (ObjectId.isId(revision)) {
+      return revision;
+    }
+    if (revision.equals("HEAD")) {
+      return resolveRefFile(new File(gitDir, "HEAD"), 0);
+    }
+    Map<String, String> refs = readRefs();
+    String[] candidates = new String[] { revision, "refs/" + revision, "refs/tags/" + revision,
+        "refs/heads/" + revision, "refs/remotes/" + revision, "refs/remotes/" + revision + "/HEAD" };
+    for (String candidate : candidates) {
+      String sha = refs.get(candidate);
+      if (sha != null) {
+        return sha;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the refs grouped on the commit they (after peeling tags) point at, in the same form
+   *         <code>git log --decorate=full</code> shows them.
+   */
+  public Map<String, List<String>> readDecorations() throws IOException {
+    Map<String, List<String>> decorations = new LinkedHashMap<String, List<String>>();
+    Map<String, String> refs = readRefs();
+    String headRef = getHeadRefName();
+    boolean attached = headRef != null && refs.containsKey(headRef);
+    String head = resolve("HEAD");
+    if (head != null) {
+      // git shows the branch HEAD is on together with it, "HEAD -> refs/heads/master"
+      addDecoration(decorations, head, attached ? "HEAD -> " + headRef : "HEAD");
+    }
+    // and the other refs after it, in the reverse order of their names
+    List<String> names = new ArrayList<String>(refs.keySet());
+    Collections.reverse(names);
+    for (String name : names) {
+      if (attached && name.equals(headRef)) {
+        continue;
+      }
+      String target = name.startsWith("refs/tags/") ? peel(refs.get(name)) : refs.get(name);
+      if (target != null) {
+        addDecoration(decorations, target, name);
+      }
+    }
+    return decorations;
+  }
+
+  private static void addDecoration(Map<String, List<String>> decorations, String sha, String name) {
+    List<String> names = decorations.get(sha);
+    if (names == null) {
+      names = new ArrayList<String>(2);
+      decorations.put(sha, names);
+    }
+    names.add(name);
+  }
+
+  public void close() throws IOException {
+    for (PackFile pack : packs) {
+      pack.close();
+    }
+    packs.clear();
+  }
+
+  private static int indexOf(byte[] data, byte b, int from) {
+    for (int i = from; i < data.length; i++) {
+      if (data[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.odb;
+
+import edu.nyu.cs.javagit.client.IClient;
+import edu.nyu.cs.javagit.client.IGitAdd;
+import edu.nyu.cs.javagit.client.IGitBranch;
+import edu.nyu.cs.javagit.client.IGitCheckout;
+import edu.nyu.cs.javagit.client.IGitClone;
+import edu.nyu.cs.javagit.client.IGitCommit;
+import edu.nyu.cs.javagit.client.IGitDiff;
+import edu.nyu.cs.javagit.client.IGitGrep;
+import edu.nyu.cs.javagit.client.IGitInit;
+import edu.nyu.cs.javagit.client.IGitLog;
+import edu.nyu.cs.javagit.client.IGitMv;
+import edu.nyu.cs.javagit.client.IGitReset;
+import edu.nyu.cs.javagit.client.IGitRevert;
+import edu.nyu.cs.javagit.client.IGitRm;
+import edu.nyu.cs.javagit.client.IGitShow;
+import edu.nyu.cs.javagit.client.IGitStatus;
+import edu.nyu.cs.javagit.client.cli.CliClient;
+
+/**
+ * Object database implementation of the <code>IClient</code> interface. Only git log reads the
+ * repository directly, all other commands are delegated to the command-line client.
+ */
+public class OdbClient implements IClient {
+
+  private final CliClient cli = new CliClient();
+
+  public IGitAdd getGitAddInstance() {
+    return cli.getGitAddInstance();
+  }
+
+  public IGitCommit getGitCommitInstance() {
+    return cli.getGitCommitInstance();
+  }
+
+  public IGitDiff getGitDiffInstance() {
+    return cli.getGitDiffInstance();
+  }
+
+  public IGitGrep getGitGrepInstance() {
+    return cli.getGitGrepInstance();
+  }
+
+  public IGitLog getGitLogInstance() {
+    return new OdbGitLog();
+  }
+
+  public IGitMv getGitMvInstance() {
+    return cli.getGitMvInstance();
+  }
+
+  public IGitReset getGitResetInstance() {
+    return cli.getGitResetInstance();
+  }
+
+  public IGitRevert getGitRevertInstance() {
+    return cli.getGitRevertInstance();
+  }
+
+  public IGitRm getGitRmInstance() {
+    return cli.getGitRmInstance();
+  }
+
+  public IGitShow getGitShowInstance() {
+    return cli.getGitShowInstance();
+  }
+
+  public IGitStatus getGitStatusInstance() {
+    return cli.getGitStatusInstance();
+  }
+
+  public IGitBranch getGitBranchInstance() {
+    return cli.getGitBranchInstance();
+  }
+
+  public IGitCheckout getGitCheckoutInstance() {
+    return cli.getGitCheckoutInstance();
+  }
+
+  public IGitInit getGitInitInstance() {
+    return cli.getGitInitInstance();
+  }
+
+  public IGitClone getGitCloneInstance() {
+    return cli.getGitCloneInstance();
+  }
+}
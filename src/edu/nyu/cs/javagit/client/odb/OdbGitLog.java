@@ -0,0 +1,333 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.odb;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import resource.versions.ScmLogEntryHandler;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.ObjectId;
+import edu.nyu.cs.javagit.api.commands.GitLogOptions;
+import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
+import edu.nyu.cs.javagit.client.IGitLog;
+import edu.nyu.cs.javagit.client.cli.CliGitLog;
+import edu.nyu.cs.javagit.utilities.CheckUtilities;
+import edu.nyu.cs.javagit.utilities.ExceptionMessageMap;
+import edu.nyu.cs.javagit.utilities.LogUtilities;
+
+/**
+ * Object database implementation of the <code>IGitLog</code> interface. The history is walked
+ * by reading the commits from the repository directly; the produced <code>Commit</code>s are the
+ * same as the ones <code>CliGitLog</code> parses from <code>git log --pretty=fuller</code>.
+ *
+ * Options that need diffs (file and merge details, rename and copy detection), path or pattern
+ * limiting, or revision expressions that can't be resolved without git are handed over to
+ * <code>CliGitLog</code>.
+ */
+public class OdbGitLog implements IGitLog {
+
+  // The format GitProvider uses for --after and --before.
+  private static final String OPTION_DATE_PATTERN = "EEE MMM dd HH:mm:ss yyyy Z";
+
+  public List<Commit> log(File repositoryPath, GitLogOptions options, ScmLogEntryHandler<Commit> handler)
+      throws JavaGitException, IOException {
+    CheckUtilities.checkFileValidity(repositoryPath);
+    if (!isSupported(options)) {
+      return new CliGitLog().log(repositoryPath, options, handler);
+    }
+
+    ObjectDatabase db;
+    try {
+      db = new ObjectDatabase(repositoryPath);
+    } catch (IOException e) {
+      return new CliGitLog().log(repositoryPath, options, handler);
+    }
+    try {
+      RevWalk walk = new RevWalk(db);
+      if (!configure(db, walk, options)) {
+        return new CliGitLog().log(repositoryPath, options, handler);
+      }
+      return walk(db, walk, options, handler);
+    } catch (IOException e) {
+      throw new JavaGitException(420002, ExceptionMessageMap.getMessage("420002") + " { message=["
+          + e.getMessage() + "] }", e);
+    } finally {
+      db.close();
+    }
+  }
+
+  public List<Commit> log(File repositoryPath, GitLogOptions options) throws JavaGitException, IOException {
+    return log(repositoryPath, options, null);
+  }
+
+  public List<Commit> log(File repositoryPath) throws JavaGitException, IOException {
+    return log(repositoryPath, null, null);
+  }
+
+  public int count(File repositoryPath, GitLogOptions options) throws JavaGitException, IOException {
+    // git counts without reading the commits
+    return new CliGitLog().count(repositoryPath, options);
+  }
+
+  /**
+   * Walks the history the options give without reading the commits, for the order of the log.
+   *
+   * @return the ids of the commits of the log in the order git log gives them, after
+   *         <code>--skip</code>, <code>-n</code> and <code>--reverse</code>, or null if the commits
+   *         can't be found without git.
+   */
+  public List<String> revList(File repositoryPath, GitLogOptions options) throws JavaGitException, IOException {
+    CheckUtilities.checkFileValidity(repositoryPath);
+    if (options != null && !isWalkSupported(options)) {
+      return null;
+    }
+
+    ObjectDatabase db;
+    try {
+      db = new ObjectDatabase(repositoryPath);
+    } catch (IOException e) {
+      return null;
+    }
+    try {
+      RevWalk walk = new RevWalk(db);
+      if (!configure(db, walk, options)) {
+        return null;
+      }
+      int skip = options != null && options.isOptLimitCommitSkip() ? options.getOptLimitSkip() : 0;
+      int max = options != null && options.isOptLimitCommitMax() ? options.getOptLimitMax() : -1;
+      List<String> ids = new ArrayList<String>();
+      RevCommit commit;
+      while ((max < 0 || ids.size() < max) && (commit = walk.next()) != null) {
+        if (skip > 0) {
+          skip--;
+          continue;
+        }
+        ids.add(commit.getSha());
+      }
+      if (options != null && options.isOptOrderingReverse()) {
+        Collections.reverse(ids);
+      }
+      return ids;
+    } catch (IOException e) {
+      throw new JavaGitException(420002, ExceptionMessageMap.getMessage("420002") + " { message=["
+          + e.getMessage() + "] }", e);
+    } finally {
+      db.close();
+    }
+  }
+
+  /**
+   * @return false if one of the options needs git itself.
+   */
+  private boolean isSupported(GitLogOptions options) {
+    if (options == null) {
+      return true;
+    }
+    return !(options.hasFileDetails() || options.isOptMergeDetails() || options.isOptBreakRewriteChanges()
+        || options.isOptDetectRenames() || options.isOptFindCopies() || options.isOptFindCopiesHarder())
+        && isWalkSupported(options);
+  }
+
+  /**
+   * @return false if the commits of the log can't be found without git.
+   */
+  private boolean isWalkSupported(GitLogOptions options) {
+    return !(options.isOptRelative() || options.isOptLimitAuthor() || options.isOptLimitCommitterPattern()
+        || options.isOptLimitGrep() || options.isOptLimiCherryPick() || options.isOptOrderingTopological()
+        || options.isOptLimitCommits());
+  }
+
+  /**
+   * Sets the start points and the limits of the walk.
+   *
+   * @return false if the range or the dates can't be handled without git.
+   */
+  private boolean configure(ObjectDatabase db, RevWalk walk, GitLogOptions options) throws IOException {
+    String include = "HEAD";
+    String exclude = null;
+    if (options != null && options.isOptLimitRange()) {
+      String range = options.getOptLimitRangePattern();
+      if (range.contains("...")) {
+        return false;
+      }
+      int dots = range.indexOf("..");
+      if (dots < 0) {
+        include = range;
+      } else {
+        exclude = dots == 0 ? "HEAD" : range.substring(0, dots);
+        include = dots + 2 == range.length() ? "HEAD" : range.substring(dots + 2);
+      }
+    }
+
+    List<String> starts = new ArrayList<String>();
+    String includeSha = db.resolve(include);
+    if (includeSha == null) {
+      return false;
+    }
+    starts.add(includeSha);
+    String excludeSha = null;
+    if (exclude != null) {
+      excludeSha = db.resolve(exclude);
+      if (excludeSha == null) {
+        return false;
+      }
+    }
+    if (options != null && options.isOptLimitAll()) {
+      starts.addAll(db.readRefs().values());
+    }
+    List<String> excludes = new ArrayList<String>();
+    if (excludeSha != null) {
+      excludes.add(excludeSha);
+    }
+    if (options != null && options.isOptLimitExclude()) {
+      for (String revision : options.getOptLimitExcludeRevisions()) {
+        String sha = db.resolve(revision);
+        if (sha == null) {
+          return false;
+        }
+        excludes.add(sha);
+      }
+    }
+
+    if (options != null) {
+      long since = -1;
+      if (options.isOptLimitCommitSince()) {
+        since = parseDate(options.getOptLimitSince());
+      } else if (options.isOptLimitCommitAfter()) {
+        since = parseDate(options.getOptLimitAfter());
+      }
+      long until = -1;
+      if (options.isOptLimitCommitUntil()) {
+        until = parseDate(options.getOptLimitUntil());
+      } else if (options.isOptLimitCommitBefore()) {
+        until = parseDate(options.getOptLimitBefore());
+      }
+      if (since == Long.MIN_VALUE || until == Long.MIN_VALUE) {
+        return false;
+      }
+      walk.setSince(since);
+      walk.setUntil(until);
+      walk.setFirstParent(options.isOptLimitFirstParent());
+      walk.setNoMerges(options.isOptLimitNoMerges());
+      walk.setOnlyMerges(options.isOptLimitOnlyMerges());
+    }
+
+    for (String start : starts) {
+      String commit = db.peel(start);
+      RawObject object = commit == null ? null : db.open(commit);
+      if (object != null && object.getType() == RawObject.OBJ_COMMIT) {
+        walk.markStart(commit);
+      }
+    }
+    for (String sha : excludes) {
+      String commit = db.peel(sha);
+      if (commit == null) {
+        // git knows whether a missing object is an error or a shallow boundary
+        return false;
+      }
+      walk.markUninteresting(commit);
+    }
+    return true;
+  }
+
+  /**
+   * @return the date in seconds since the epoch, or <code>Long.MIN_VALUE</code> if it isn't in
+   *         the format GitProvider passes dates in.
+   */
+  private long parseDate(String date) {
+    Locale[] locales = { Locale.getDefault(), Locale.ENGLISH };
+    for (Locale locale : locales) {
+      try {
+        return new SimpleDateFormat(OPTION_DATE_PATTERN, locale).parse(date).getTime() / 1000;
+      } catch (ParseException e) {
+        // try the next locale
+      }
+    }
+    return Long.MIN_VALUE;
+  }
+
+  private List<Commit> walk(ObjectDatabase db, RevWalk walk, GitLogOptions options, ScmLogEntryHandler<Commit> handler)
+      throws IOException {
+    int skip = options != null && options.isOptLimitCommitSkip() ? options.getOptLimitSkip() : 0;
+    int max = options != null && options.isOptLimitCommitMax() ? options.getOptLimitMax() : -1;
+    boolean reverse = options != null && options.isOptOrderingReverse();
+
+    Map<String, List<String>> decorations = db.readDecorations();
+    List<Commit> result = new ArrayList<Commit>();
+    // --reverse is applied after -n and --skip, keep the names only and read the commits again
+    List<String> reversed = reverse ? new ArrayList<String>() : null;
+
+    int count = 0;
+    RevCommit commit;
+    while ((max < 0 || count < max) && (commit = walk.next()) != null) {
+      if (skip > 0) {
+        skip--;
+        continue;
+      }
+      count++;
+      if (reverse) {
+        reversed.add(commit.getSha());
+      } else {
+        emit(toCommit(commit, decorations), result, handler);
+      }
+    }
+
+    if (reverse) {
+      for (int i = reversed.size() - 1; i >= 0; i--) {
+        String sha = reversed.get(i);
+        emit(toCommit(RevCommit.parse(sha, db.open(sha).getData()), decorations), result, handler);
+      }
+    }
+    return result;
+  }
+
+  private void emit(Commit commit, List<Commit> result, ScmLogEntryHandler<Commit> handler) {
+    if (handler != null) {
+      handler.handleLogEntry(commit);
+    } else {
+      result.add(commit);
+    }
+  }
+
+  private Commit toCommit(RevCommit commit, Map<String, List<String>> decorations) {
+    String[] parents = commit.getParents();
+    ObjectId parentId = parents.length > 0 ? ObjectId.fromString(parents[0]) : null;
+    List<ObjectId> mergeParentIds = null;
+    if (parents.length > 1) {
+      mergeParentIds = new ArrayList<ObjectId>(parents.length);
+      for (String parent : parents) {
+        mergeParentIds.add(ObjectId.fromString(parent));
+      }
+    }
+
+    List<String> refs = decorations.get(commit.getSha());
+    String[] tags = refs == null ? null : refs.toArray(new String[refs.size()]);
+
+    return new Commit(ObjectId.fromString(commit.getSha()), parentId, mergeParentIds, null, commit.getAuthor(), LogUtilities.formatDate(
+        commit.getAuthorTime(), commit.getAuthorTimeZone()), commit.getAuthorTime() * 1000, commit.getCommitter(),
+        LogUtilities.formatDate(commit.getCommitTime(), commit.getCommitTimeZone()), commit.getCommitTime() * 1000,
+        LogUtilities.formatMessage(commit.getMessage()), null, tags);
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.odb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import edu.nyu.cs.javagit.api.ObjectId;
+
+/**
+ * <code>PackFile</code> reads objects from a <code>.pack</code> file using its <code>.idx</code>
+ * file (version 1 or 2) to find them. Deltified objects (OFS_DELTA and REF_DELTA) are resolved
+ * against their base, recently resolved bases are kept in a small cache since long delta chains
+ * share them.
+ */
+public class PackFile {
+
+  private static final int IDX_V2_MAGIC = 0xff744f63;
+
+  private static final int READ_CHUNK = 8192;
+
+  // Upper bound of the inflated bytes held by the delta base cache.
+  private static final long BASE_CACHE_BYTES = 16 * 1024 * 1024;
+
+  private final ObjectDatabase db;
+  private final File packFile;
+  private final MappedByteBuffer idx;
+  private final int idxVersion;
+  private final int objectCount;
+  private final RandomAccessFile pack;
+  private final FileChannel channel;
+
+  private final BaseCache baseCache = new BaseCache();
+
+  // only used from load(), which is synchronized
+  private final Inflater inflater = new Inflater();
+  private final byte[] input = new byte[READ_CHUNK];
+
+  PackFile(ObjectDatabase db, File idxFile, File packFile) throws IOException {
+    this.db = db;
+    this.packFile = packFile;
+
+    RandomAccessFile idxRaf = new RandomAccessFile(idxFile, "r");
+    try {
+      idx = idxRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, idxRaf.length());
+    } finally {
+      idxRaf.close();
+    }
+    if (idx.getInt(0) == IDX_V2_MAGIC) {
+      idxVersion = idx.getInt(4);
+      if (idxVersion != 2) {
+        throw new IOException("Unsupported pack index version " + idxVersion + " in " + idxFile);
+      }
+    } else {
+      idxVersion = 1;
+    }
+    objectCount = idx.getInt(fanoutOffset() + 255 * 4);
+
+    pack = new RandomAccessFile(packFile, "r");
+    channel = pack.getChannel();
+  }
+
+  public File getFile() {
+    return packFile;
+  }
+
+  public int getObjectCount() {
+    return objectCount;
+  }
+
+  private int fanoutOffset() {
+    return idxVersion == 2 ? 8 : 0;
+  }
+
+  private int nameOffset(int position) {
+    if (idxVersion == 2) {
+      return 8 + 256 * 4 + position * 20;
+    }
+    return 256 * 4 + position * 24 + 4;
+  }
+
+  private int compareName(int position, byte[] id) {
+    int base = nameOffset(position);
+    for (int i = 0; i < 20; i++) {
+      int a = idx.get(base + i) & 0xff;
+      int b = id[i] & 0xff;
+      if (a != b) {
+        return a - b;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Finds the offset of the object in the pack file.
+   *
+   * @param id
+   *          the 20 byte object name.
+   * @return the offset of the object in the pack, or -1 if this pack doesn't contain the object.
+   */
+  public long findOffset(byte[] id) {
+    int first = id[0] & 0xff;
+    int fanout = fanoutOffset();
+    int low = first == 0 ? 0 : idx.getInt(fanout + (first - 1) * 4);
+    int high = idx.getInt(fanout + first * 4);
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareName(mid, id);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid;
+      } else {
+        return offsetAt(mid);
+      }
+    }
+    return -1;
+  }
+
+  private long offsetAt(int position) {
+    if (idxVersion == 1) {
+      return idx.getInt(256 * 4 + position * 24) & 0xffffffffL;
+    }
+    int offsetTable = 8 + 256 * 4 + objectCount * 20 + objectCount * 4;
+    int offset = idx.getInt(offsetTable + position * 4);
+    if ((offset & 0x80000000) == 0) {
+      return offset;
+    }
+    int largeTable = offsetTable + objectCount * 4;
+    return idx.getLong(largeTable + (offset & 0x7fffffff) * 8);
+  }
+
+  /**
+   * Reads the object with the given name from this pack.
+   *
+   * @return the object, or null if the pack doesn't contain it.
+   */
+  public RawObject get(byte[] id) throws IOException {
+    long offset = findOffset(id);
+    if (offset < 0) {
+      return null;
+    }
+    return load(offset);
+  }
+
+  /**
+   * Reads and, if needed, undeltifies the object at the given offset.
+   */
+  synchronized RawObject load(long offset) throws IOException {
+    RawObject cached = baseCache.get(offset);
+    if (cached != null) {
+      return cached;
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(32);
+    channel.read(header, offset);
+    header.flip();
+
+    int c = header.get() & 0xff;
+    int type = (c >> 4) & 7;
+    long size = c & 0x0f;
+    int shift = 4;
+    while ((c & 0x80) != 0) {
+      c = header.get() & 0xff;
+      size |= (long) (c & 0x7f) << shift;
+      shift += 7;
+    }
+
+    switch (type) {
+    case RawObject.OBJ_COMMIT:
+    case RawObject.OBJ_TREE:
+    case RawObject.OBJ_BLOB:
+    case RawObject.OBJ_TAG:
+      return new RawObject(type, inflate(offset + header.position(), size));
+    case RawObject.OBJ_OFS_DELTA: {
+      c = header.get() & 0xff;
+      long baseDistance = c & 0x7f;
+      while ((c & 0x80) != 0) {
+        c = header.get() & 0xff;
+        baseDistance = ((baseDistance + 1) << 7) | (c & 0x7f);
+      }
+      RawObject base = load(offset - baseDistance);
+      byte[] delta = inflate(offset + header.position(), size);
+      RawObject result = new RawObject(base.getType(), DeltaDecoder.apply(base.getData(), delta));
+      baseCache.put(offset, result);
+      return result;
+    }
+    case RawObject.OBJ_REF_DELTA: {
+      byte[] baseId = new byte[20];
+      header.get(baseId);
+      RawObject base = db.open(baseId);
+      if (base == null) {
+        throw new IOException("Missing delta base " + ObjectId.fromRaw(baseId, 0) + " in " + packFile);
+      }
+      byte[] delta = inflate(offset + header.position(), size);
+      RawObject result = new RawObject(base.getType(), DeltaDecoder.apply(base.getData(), delta));
+      baseCache.put(offset, result);
+      return result;
+    }
+    default:
+      throw new IOException("Unknown object type " + type + " at offset " + offset + " in " + packFile);
+    }
+  }
+
+  private byte[] inflate(long position, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Object at " + position + " in " + packFile + " is too large");
+    }
+    byte[] result = new byte[(int) size];
+    inflater.reset();
+    try {
+      ByteBuffer inputBuffer = ByteBuffer.wrap(input);
+      int produced = 0;
+      while (!inflater.finished()) {
+        if (inflater.needsInput()) {
+          inputBuffer.clear();
+          int read = channel.read(inputBuffer, position);
+          if (read <= 0) {
+            throw new IOException("Unexpected end of " + packFile);
+          }
+          position += read;
+          inflater.setInput(input, 0, read);
+        }
+        int n = inflater.inflate(result, produced, result.length - produced);
+        produced += n;
+        if (n == 0 && produced == result.length && !inflater.needsInput()) {
+          // only the zlib trailer is left
+          break;
+        }
+        if (inflater.needsDictionary()) {
+          throw new IOException("Corrupt object at " + position + " in " + packFile);
+        }
+      }
+      if (produced != result.length) {
+        throw new IOException("Object at " + position + " in " + packFile + " has a wrong size");
+      }
+      return result;
+    } catch (DataFormatException e) {
+      IOException toThrow = new IOException("Corrupt object at " + position + " in " + packFile);
+      toThrow.initCause(e);
+      throw toThrow;
+    }
+  }
+
+  public synchronized void close() throws IOException {
+    inflater.end();
+    pack.close();
+  }
+
+  /**
+   * Keeps recently resolved delta results, bounded by the amount of bytes held.
+   */
+  @SuppressWarnings("serial")
+  private static class BaseCache extends LinkedHashMap<Long, RawObject> {
+    private long bytes = 0;
+
+    BaseCache() {
+      super(256, 0.75f, true);
+    }
+
+    @Override
+    public RawObject put(Long key, RawObject value) {
+      RawObject old = super.put(key, value);
+      bytes += value.getData().length;
+      if (old != null) {
+        bytes -= old.getData().length;
+      }
+      return old;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, RawObject> eldest) {
+      if (bytes > BASE_CACHE_BYTES && size() > 1) {
+        bytes -= eldest.getValue().getData().length;
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.odb;
+
+/**
+ * <code>RawObject</code> holds the inflated content of a git object together with its type.
+ */
+public final class RawObject {
+
+  public static final int OBJ_COMMIT = 1;
+  public static final int OBJ_TREE = 2;
+  public static final int OBJ_BLOB = 3;
+  public static final int OBJ_TAG = 4;
+  public static final int OBJ_OFS_DELTA = 6;
+  public static final int OBJ_REF_DELTA = 7;
+
+  private final int type;
+  private final byte[] data;
+
+  public RawObject(int type, byte[] data) {
+    this.type = type;
+    this.data = data;
+  }
+
+  /**
+   * @return one of the <code>OBJ_*</code> constants, never a delta type.
+   */
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * @return the inflated content of the object, without the loose object header.
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * Maps the type name used in loose object headers to the numeric type used in packs.
+   *
+   * @param name
+   *          "commit", "tree", "blob" or "tag".
+   * @return the numeric type, or -1 if the name is unknown.
+   */
+  public static int typeFromName(String name) {
+    if (name.equals("commit")) {
+      return OBJ_COMMIT;
+    } else if (name.equals("tree")) {
+      return OBJ_TREE;
+    } else if (name.equals("blob")) {
+      return OBJ_BLOB;
+    } else if (name.equals("tag")) {
+      return OBJ_TAG;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.odb;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>RevCommit</code> is a parsed commit object: its parents, author and committer
+ * identities, timestamps and message.
+ */
+public class RevCommit {
+
+  private static final String[] NO_PARENTS = new String[0];
+
+  private final String sha;
+  private final String tree;
+  private final String[] parents;
+
+  private final String author;
+  private final long authorTime;
+  private final int authorTimeZone;
+
+  private final String committer;
+  private final long commitTime;
+  private final int commitTimeZone;
+
+  private final String message;
+
+  // order in which the walker queued this commit, breaks ties between equal commit times
+  int sequence;
+
+  private RevCommit(String sha, String tree, String[] parents, String author, long authorTime,
+      int authorTimeZone, String committer, long commitTime, int commitTimeZone, String message) {
+    this.sha = sha;
+    this.tree = tree;
+    this.parents = parents;
+    this.author = author;
+    this.authorTime = authorTime;
+    this.authorTimeZone = authorTimeZone;
+    this.committer = committer;
+    this.commitTime = commitTime;
+    this.commitTimeZone = commitTimeZone;
+    this.message = message;
+  }
+
+  /**
+   * Parses the content of a commit object.
+   *
+   * @param sha
+   *          the name of the commit.
+   * @param data
+   *          the inflated content of the commit object.
+   * @throws IOException
+   *           if the commit is malformed.
+   */
+  public static RevCommit parse(String sha, byte[] data) throws IOException {
+    String tree = null;
+    List<String> parents = null;
+    String author = null;
+    long authorTime = 0;
+    int authorTimeZone = 0;
+    String committer = null;
+    long commitTime = 0;
+    int commitTimeZone = 0;
+    String encoding = null;
+
+    int pos = 0;
+    while (pos < data.length && data[pos] != '\n') {
+      int end = lineEnd(data, pos);
+      if (startsWith(data, pos, "tree ")) {
+        tree = ascii(data, pos + 5, 40);
+      } else if (startsWith(data, pos, "parent ")) {
+        if (parents == null) {
+          parents = new ArrayList<String>(2);
+        }
+        parents.add(ascii(data, pos + 7, 40));
+      } else if (startsWith(data, pos, "author ")) {
+        int[] split = splitIdentity(data, pos + 7, end);
+        author = utf8(data, pos + 7, split[0] - pos - 7);
+        authorTime = parseLong(data, split[0] + 1, split[1]);
+        authorTimeZone = parseTimeZone(data, split[1] + 1, end);
+      } else if (startsWith(data, pos, "committer ")) {
+        int[] split = splitIdentity(data, pos + 10, end);
+        committer = utf8(data, pos + 10, split[0] - pos - 10);
+        commitTime = parseLong(data, split[0] + 1, split[1]);
+        commitTimeZone = parseTimeZone(data, split[1] + 1, end);
+      } else if (startsWith(data, pos, "encoding ")) {
+        encoding = ascii(data, pos + 9, end - pos - 9);
+      }
+      pos = end + 1;
+      // continuation lines of multi-line headers (gpgsig, mergetag) start with a space
+      while (pos < data.length && data[pos] == ' ') {
+        pos = lineEnd(data, pos) + 1;
+      }
+    }
+    if (tree == null || committer == null) {
+      throw new IOException("Malformed commit " + sha);
+    }
+
+    String message = "";
+    if (pos < data.length) {
+      pos++;
+      message = decode(data, pos, data.length - pos, encoding);
+    }
+    return new RevCommit(sha, tree, parents == null ? NO_PARENTS : parents.toArray(new String[parents.size()]),
+        author, authorTime, authorTimeZone, committer, commitTime, commitTimeZone, message);
+  }
+
+  private static int lineEnd(byte[] data, int pos) {
+    while (pos < data.length && data[pos] != '\n') {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean startsWith(byte[] data, int pos, String prefix) {
+    if (pos + prefix.length() > data.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (data[pos + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Splits "Name &lt;email&gt; epoch tz" from the end, since names may contain spaces.
+   *
+   * @return the positions of the space before the epoch and the space before the timezone.
+   */
+  private static int[] splitIdentity(byte[] data, int start, int end) throws IOException {
+    int tzSpace = end - 1;
+    while (tzSpace > start && data[tzSpace] != ' ') {
+      tzSpace--;
+    }
+    int timeSpace = tzSpace - 1;
+    while (timeSpace > start && data[timeSpace] != ' ') {
+      timeSpace--;
+    }
+    if (timeSpace <= start) {
+      throw new IOException("Malformed identity in commit");
+    }
+    return new int[] { timeSpace, tzSpace };
+  }
+
+  private static long parseLong(byte[] data, int start, int end) {
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      value = value * 10 + (data[i] - '0');
+    }
+    return value;
+  }
+
+  /**
+   * @return the offset in minutes of a "+hhmm" or "-hhmm" timezone.
+   */
+  private static int parseTimeZone(byte[] data, int start, int end) {
+    if (end - start < 5) {
+      return 0;
+    }
+    int hhmm = (int) parseLong(data, start + 1, start + 5);
+    int minutes = (hhmm / 100) * 60 + hhmm % 100;
+    return data[start] == '-' ? -minutes : minutes;
+  }
+
+  private static String ascii(byte[] data, int start, int length) throws UnsupportedEncodingException {
+    return new String(data, start, length, "US-ASCII");
+  }
+
+  private static String utf8(byte[] data, int start, int length) throws UnsupportedEncodingException {
+    return new String(data, start, length, "UTF-8");
+  }
+
+  private static String decode(byte[] data, int start, int length, String encoding) throws UnsupportedEncodingException {
+    if (encoding != null && Charset.isSupported(encoding)) {
+      return new String(data, start, length, encoding);
+    }
+    return utf8(data, start, length);
+  }
+
+  public String getSha() {
+    return sha;
+  }
+
+  public String getTree() {
+    return tree;
+  }
+
+  /**
+   * @return the parents in the order they are recorded in the commit, the first parent first.
+   */
+  public String[] getParents() {
+    return parents;
+  }
+
+  /**
+   * @return the author as "Name &lt;email&gt;".
+   */
+  public String getAuthor() {
+    return author;
+  }
+
+  /**
+   * @return the author time in seconds since the epoch.
+   */
+  public long getAuthorTime() {
+    return authorTime;
+  }
+
+  /**
+   * @return the offset from UTC of the author's timezone, in minutes.
+   */
+  public int getAuthorTimeZone() {
+    return authorTimeZone;
+  }
+
+  /**
+   * @return the committer as "Name &lt;email&gt;".
+   */
+  public String getCommitter() {
+    return committer;
+  }
+
+  /**
+   * @return the commit time in seconds since the epoch.
+   */
+  public long getCommitTime() {
+    return commitTime;
+  }
+
+  /**
+   * @return the offset from UTC of the committer's timezone, in minutes.
+   */
+  public int getCommitTimeZone() {
+    return commitTimeZone;
+  }
+
+  /**
+   * @return the raw message, as stored in the commit.
+   */
+  public String getMessage() {
+    return message;
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.odb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * <code>RevWalk</code> walks the commit graph in the order <code>git log</code> uses by default:
+ * newest commit time first, ties broken by the order in which commits were found.
+ *
+ * When commits are marked uninteresting (the <code>a</code> in <code>a..b</code>) the walk is
+ * limited: the interesting commits are collected first, while the uninteresting flag is
+ * propagated to the ancestors, just like git's own <code>limit_list</code>. Otherwise commits are
+ * produced while walking.
+ */
+public class RevWalk {
+
+  private static final int SEEN = 1;
+  private static final int UNINTERESTING = 2;
+
+  // Extra commits to walk once only uninteresting commits are left, to cope with clock skew.
+  private static final int SLOP = 5;
+
+  private final ObjectDatabase db;
+  private final Map<String, Integer> flags = new HashMap<String, Integer>();
+  // parents of the commits already taken from the queue by a limited walk
+  private final Map<String, String[]> walkedParents = new HashMap<String, String[]>();
+  private final PriorityQueue<RevCommit> queue = new PriorityQueue<RevCommit>(64, new Comparator<RevCommit>() {
+    public int compare(RevCommit a, RevCommit b) {
+      if (a.getCommitTime() != b.getCommitTime()) {
+        return a.getCommitTime() > b.getCommitTime() ? -1 : 1;
+      }
+      return a.sequence - b.sequence;
+    }
+  });
+  private int sequence = 0;
+  private boolean limited = false;
+  private Iterator<String> limitedResult = null;
+
+  private boolean firstParent = false;
+  private boolean noMerges = false;
+  private boolean onlyMerges = false;
+  private long since = -1;
+  private long until = -1;
+
+  public RevWalk(ObjectDatabase db) {
+    this.db = db;
+  }
+
+  /**
+   * Starts the walk at the given commit.
+   */
+  public void markStart(String sha) throws IOException {
+    add(sha, 0);
+  }
+
+  /**
+   * Excludes the given commit and all of its ancestors from the walk.
+   */
+  public void markUninteresting(String sha) throws IOException {
+    limited = true;
+    add(sha, UNINTERESTING);
+  }
+
+  public void setFirstParent(boolean firstParent) {
+    this.firstParent = firstParent;
+  }
+
+  public void setNoMerges(boolean noMerges) {
+    this.noMerges = noMerges;
+  }
+
+  public void setOnlyMerges(boolean onlyMerges) {
+    this.onlyMerges = onlyMerges;
+  }
+
+  /**
+   * Stops the walk at commits older than the given time, in seconds since the epoch.
+   */
+  public void setSince(long since) {
+    this.since = since;
+  }
+
+  /**
+   * Hides commits newer than the given time, in seconds since the epoch. Their ancestors are
+   * still walked.
+   */
+  public void setUntil(long until) {
+    this.until = until;
+  }
+
+  /**
+   * @return the next commit of the walk, or null when the walk is done.
+   */
+  public RevCommit next() throws IOException {
+    if (limited) {
+      if (limitedResult == null) {
+        limitedResult = limit().iterator();
+      }
+      while (limitedResult.hasNext()) {
+        String sha = limitedResult.next();
+        if ((flags.get(sha) & UNINTERESTING) == 0) {
+          return parse(sha);
+        }
+      }
+      return null;
+    }
+
+    while (!queue.isEmpty()) {
+      RevCommit commit = queue.poll();
+      if (since >= 0 && commit.getCommitTime() < since) {
+        continue;
+      }
+      addParents(commit, 0);
+      if (accept(commit)) {
+        return commit;
+      }
+    }
+    return null;
+  }
+
+  private List<String> limit() throws IOException {
+    List<String> result = new ArrayList<String>();
+    int slop = SLOP;
+    while (!queue.isEmpty()) {
+      RevCommit commit = queue.poll();
+      int commitFlags = flags.get(commit.getSha());
+      if (since >= 0 && commit.getCommitTime() < since) {
+        commitFlags |= UNINTERESTING;
+        flags.put(commit.getSha(), commitFlags);
+      }
+      addParents(commit, commitFlags & UNINTERESTING);
+      if ((commitFlags & UNINTERESTING) != 0) {
+        if (everythingUninteresting()) {
+          if (--slop == 0) {
+            break;
+          }
+        } else {
+          slop = SLOP;
+        }
+        continue;
+      }
+      if (accept(commit)) {
+        result.add(commit.getSha());
+      }
+    }
+    queue.clear();
+    return result;
+  }
+
+  private boolean everythingUninteresting() {
+    for (RevCommit commit : queue) {
+      if ((flags.get(commit.getSha()) & UNINTERESTING) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean accept(RevCommit commit) {
+    int parentCount = commit.getParents().length;
+    if (noMerges && parentCount > 1) {
+      return false;
+    }
+    if (onlyMerges && parentCount < 2) {
+      return false;
+    }
+    if (until >= 0 && commit.getCommitTime() > until) {
+      return false;
+    }
+    return true;
+  }
+
+  private void addParents(RevCommit commit, int inherited) throws IOException {
+    String[] parents = commit.getParents();
+    if (limited) {
+      walkedParents.put(commit.getSha(), parents);
+    }
+    int count = firstParent ? Math.min(1, parents.length) : parents.length;
+    for (int i = 0; i < count; i++) {
+      if (inherited != 0) {
+        markParentsUninteresting(parents[i]);
+      }
+      add(parents[i], inherited);
+    }
+  }
+
+  /**
+   * Propagates the uninteresting flag to ancestors that were already seen through an interesting
+   * path, so they don't show up in the result.
+   */
+  private void markParentsUninteresting(String sha) {
+    List<String> todo = new ArrayList<String>();
+    todo.add(sha);
+    while (!todo.isEmpty()) {
+      String current = todo.remove(todo.size() - 1);
+      Integer currentFlags = flags.get(current);
+      if (currentFlags == null || (currentFlags & UNINTERESTING) != 0) {
+        continue;
+      }
+      flags.put(current, currentFlags | UNINTERESTING);
+      String[] parents = walkedParents.get(current);
+      if (parents != null) {
+        for (String parent : parents) {
+          todo.add(parent);
+        }
+      }
+    }
+  }
+
+  private void add(String sha, int newFlags) throws IOException {
+    Integer current = flags.get(sha);
+    if (current != null) {
+      if ((newFlags & UNINTERESTING) != 0 && (current & UNINTERESTING) == 0) {
+        markParentsUninteresting(sha);
+      }
+      return;
+    }
+    flags.put(sha, SEEN | newFlags);
+    RevCommit commit = parse(sha);
+    commit.sequence = sequence++;
+    queue.add(commit);
+  }
+
+  private RevCommit parse(String sha) throws IOException {
+    RawObject object = db.open(sha);
+    if (object == null) {
+      throw new IOException("Missing commit " + sha);
+    }
+    if (object.getType() != RawObject.OBJ_COMMIT) {
+      throw new IOException(sha + " is not a commit");
+    }
+    return RevCommit.parse(sha, object.getData());
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.client.odb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.ObjectId;
+import edu.nyu.cs.javagit.api.commands.GitAdd;
+import edu.nyu.cs.javagit.api.commands.GitCommit;
+import edu.nyu.cs.javagit.api.commands.GitInit;
+import edu.nyu.cs.javagit.api.commands.GitLogOptions;
+import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
+import edu.nyu.cs.javagit.client.cli.CliGitLog;
+import edu.nyu.cs.javagit.test.utilities.FileUtilities;
+import edu.nyu.cs.javagit.test.utilities.HelperGitCommands;
+
+public class TestOdbGitLog {
+  private File repoDirectory;
+
+  @Before
+  public void setUp() throws IOException, JavaGitException {
+    repoDirectory = FileUtilities.createTempDirectory("OdbGitLogTestRepo");
+    GitInit gitInit = new GitInit();
+    gitInit.init(repoDirectory);
+    GitCommit commit = new GitCommit();
+    GitAdd add = new GitAdd();
+
+    for (int i = 0; i < 3; i++) {
+      File testFile = FileUtilities.createFile(repoDirectory, "log" + i + ".txt", "README " + i);
+      List<File> filesToAdd = new ArrayList<File>();
+      filesToAdd.add(testFile);
+      filesToAdd.add(FileUtilities.createFile(repoDirectory, "long.txt", longText(i)));
+      add.add(repoDirectory, null, filesToAdd);
+      commit.commit(repoDirectory, "Test commit " + i);
+    }
+
+    // a merge of a branch and an annotated tag
+    HelperGitCommands.runGit(repoDirectory, "checkout", "-q", "-b", "side", "HEAD~1");
+    FileUtilities.createFile(repoDirectory, "side.txt", "README side");
+    HelperGitCommands.runGit(repoDirectory, "add", "side.txt");
+    HelperGitCommands.runGit(repoDirectory, "commit", "-q", "-m", "Test commit side");
+    HelperGitCommands.runGit(repoDirectory, "checkout", "-q", "-");
+    HelperGitCommands.runGit(repoDirectory, "merge", "-q", "--no-ff", "-m", "Test merge", "side");
+    HelperGitCommands.runGit(repoDirectory, "tag", "-a", "-m", "Test tag", "v1", "HEAD~1");
+
+    // the objects in a pack, the similar versions of long.txt as deltas, and the refs packed
+    HelperGitCommands.runGit(repoDirectory, "repack", "-adf");
+    HelperGitCommands.runGit(repoDirectory, "pack-refs", "--all");
+  }
+
+  /**
+   * @return a text that is the same for every version but one line, so the pack has deltas.
+   */
+  private static String longText(int version) {
+    StringBuilder text = new StringBuilder();
+    for (int line = 0; line < 200; line++) {
+      text.append(line == 100 ? "version " + version : "line " + line + " of a file that is long enough to delta").append('\n');
+    }
+    return text.toString();
+  }
+
+  @After
+  public void tearDown() throws JavaGitException {
+    FileUtilities.removeDirectoryRecursivelyAndForcefully(repoDirectory);
+  }
+
+  private void assertSameLog(List<Commit> expected, List<Commit> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Commit cli = expected.get(i);
+      Commit odb = actual.get(i);
+      assertEquals(cli.getSha(), odb.getSha());
+      assertEquals(cli.getParentSha(), odb.getParentSha());
+      assertEquals(cli.getAuthor(), odb.getAuthor());
+      assertEquals(cli.getDateString(), odb.getDateString());
+      assertEquals(cli.getCommitter(), odb.getCommitter());
+      assertEquals(cli.getCommitDate(), odb.getCommitDate());
+      assertEquals(cli.getMessage(), odb.getMessage());
+      assertEquals(cli.getMergeParentIds(), odb.getMergeParentIds());
+      assertArrayEquals(cli.getTags(), odb.getTags());
+    }
+  }
+
+  /**
+   * Test to verify the object database log is the same as the command-line log
+   *
+   * @throws IOException
+   * @throws JavaGitException
+   */
+  @Test
+  public void testSameAsCliLog() throws IOException, JavaGitException {
+    List<Commit> cli = new CliGitLog().log(repoDirectory);
+    List<Commit> odb = new OdbGitLog().log(repoDirectory);
+    assertEquals(5, odb.size());
+    assertEquals(2, odb.get(0).getMergeParentIds().size());
+    assertSameLog(cli, odb);
+  }
+
+  /**
+   * Test to verify ranges, reverse and limits give the same commits as the command-line log
+   *
+   * @throws IOException
+   * @throws JavaGitException
+   */
+  @Test
+  public void testSameAsCliLogWithOptions() throws IOException, JavaGitException {
+    List<Commit> all = new OdbGitLog().log(repoDirectory);
+    String first = all.get(all.size() - 1).getSha();
+
+    GitLogOptions options = new GitLogOptions();
+    options.setOptLimitRange(true, first + "..");
+    options.setOptOrderingReverse(true);
+    options.setOptLimitCommitMax(true, 1);
+    List<Commit> odb = new OdbGitLog().log(repoDirectory, options);
+    assertEquals(1, odb.size());
+    assertSameLog(new CliGitLog().log(repoDirectory, options), odb);
+  }
+
+  /**
+   * Test to verify excluded revisions give the same commits as the command-line log
+   *
+   * @throws IOException
+   * @throws JavaGitException
+   */
+  @Test
+  public void testSameAsCliLogWithExcludes() throws IOException, JavaGitException {
+    List<Commit> all = new OdbGitLog().log(repoDirectory);
+    List<String> excludes = new ArrayList<String>();
+    // the first parent of the merge, what is left is the merge and the commit of the branch
+    excludes.add(all.get(0).getParentSha());
+
+    GitLogOptions options = new GitLogOptions();
+    options.setOptLimitExclude(true, excludes);
+    List<Commit> odb = new OdbGitLog().log(repoDirectory, options);
+    assertEquals(2, odb.size());
+    assertEquals(all.get(0).getSha(), odb.get(0).getSha());
+    assertSameLog(new CliGitLog().log(repoDirectory, options), odb);
+  }
+
+  /**
+   * Test to verify the log is the same when the deltas of the pack name their base instead of
+   * giving its offset
+   *
+   * @throws IOException
+   * @throws JavaGitException
+   */
+  @Test
+  public void testSameAsCliLogWithRefDeltas() throws IOException, JavaGitException {
+    HelperGitCommands.runGit(repoDirectory, "-c", "repack.useDeltaBaseOffset=false", "repack", "-adf");
+    List<Commit> cli = new CliGitLog().log(repoDirectory);
+    List<Commit> odb = new OdbGitLog().log(repoDirectory);
+    assertEquals(5, odb.size());
+    assertSameLog(cli, odb);
+  }
+
+  /**
+   * Test to verify the objects read from the pack, the ones stored as deltas included, have the
+   * contents their names are the hash of
+   *
+   * @throws IOException
+   * @throws JavaGitException
+   * @throws NoSuchAlgorithmException
+   */
+  @Test
+  public void testReadPackedObjects() throws IOException, JavaGitException, NoSuchAlgorithmException {
+    for (File dir : new File(repoDirectory, ".git/objects").listFiles()) {
+      assertTrue(dir.getName().equals("pack") || dir.getName().equals("info") || dir.list().length == 0);
+    }
+    assertFalse(new File(repoDirectory, ".git/refs/tags/v1").exists());
+
+    ObjectDatabase db = new ObjectDatabase(repoDirectory);
+    try {
+      String tag = db.resolve("v1");
+      assertNotNull(tag);
+      assertEquals(RawObject.OBJ_TAG, db.open(tag).getType());
+      assertEquals(db.resolve("side"), RevCommit.parse(db.resolve("HEAD"), db.open(db.resolve("HEAD")).getData()).getParents()[1]);
+
+      List<Commit> log = new OdbGitLog().log(repoDirectory);
+      for (Commit commit : log) {
+        RawObject object = db.open(commit.getSha());
+        assertObjectName("commit", commit.getSha(), object.getData());
+        String tree = RevCommit.parse(commit.getSha(), object.getData()).getTree();
+        byte[] treeData = db.open(tree).getData();
+        assertObjectName("tree", tree, treeData);
+
+        // a tree entry is "<mode> <name>\0" and the 20 byte name of the object
+        int pos = 0;
+        while (pos < treeData.length) {
+          int nul = pos;
+          while (treeData[nul] != 0) {
+            nul++;
+          }
+          String name = new String(treeData, pos, nul - pos, "UTF-8");
+          byte[] id = new byte[20];
+          System.arraycopy(treeData, nul + 1, id, 0, 20);
+          byte[] blob = db.open(id).getData();
+          assertObjectName("blob", ObjectId.fromRaw(id, 0).name(), blob);
+          if (commit == log.get(0) && name.endsWith(" long.txt")) {
+            assertEquals(longText(2), new String(blob, "UTF-8"));
+          }
+          pos = nul + 21;
+        }
+      }
+    } finally {
+      db.close();
+    }
+  }
+
+  private void assertObjectName(String type, String sha, byte[] data) throws NoSuchAlgorithmException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    digest.update((type + " " + data.length + "\0").getBytes());
+    digest.update(data);
+    assertEquals(sha, ObjectId.fromRaw(digest.digest(), 0).name());
+  }
+}
@@ -62,4 +62,44 @@ public class HelperGitCommands {
     });
   }
 
+  /**
+   * Runs a git command in the repository.
+   * 
+   * @param repoDirectory
+   *          The root directory of the repository.
+   * @param arguments
+   *          The git command and its arguments, for example "merge", "--no-ff", "side".
+   * @throws IOException
+   *           If IO errors happen or git exits with an error.
+   * @throws JavaGitException
+   *           If errors happen while running git.
+   */
+  public static void runGit(File repoDirectory, String... arguments) throws IOException, JavaGitException {
+    List<String> cmdLine = new ArrayList<String>();
+
+    cmdLine.add(JavaGitConfiguration.getGitCommand());
+    for (String argument : arguments) {
+      cmdLine.add(argument);
+    }
+
+    final StringBuilder output = new StringBuilder();
+    final int[] exitCode = new int[1];
+    ProcessUtilities.runCommand(repoDirectory, cmdLine, new IParser() {
+      public CommandResponse getResponse() {
+        return null;
+      }
+
+      public void processExitCode(int code) {
+        exitCode[0] = code;
+      }
+      
+      public void parseLine(String line) {
+        output.append(line).append('\n');
+      }
+    });
+    if (exitCode[0] != 0) {
+      throw new IOException(cmdLine + " failed: " + output);
+    }
+  }
+
 }
@@ -134,6 +134,7 @@ public class ExceptionMessageMap {
     MESSAGE_MAP.put("424001", "424001: Error calling git-mv for dry-run. ");
     
     MESSAGE_MAP.put("420001", "420001: Error calling git log");
+    MESSAGE_MAP.put("420002", "420002: Error reading the git object database");
 
     MESSAGE_MAP.put("432000", "432000: Error calling git-reset.");
     
@@ -0,0 +1,134 @@
+/*
+ * ====================================================================
+ * Copyright (c) 2008 JavaGit Project.  All rights reserved.
+ *
+ * This software is licensed using the GNU LGPL v2.1 license.  A copy
+ * of the license is included with the distribution of this source
+ * code in the LICENSE.txt file.  The text of the license can also
+ * be obtained at:
+ *
+ *   http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ *
+ * For more information on the JavaGit project, see:
+ *
+ *   http://www.javagit.com
+ * ====================================================================
+ */
+package edu.nyu.cs.javagit.utilities;
+
+/**
+ * This class provides utility methods to produce the fields of a log entry in the same form
+ * <code>git log --pretty=fuller</code> prints them.
+ */
+public class LogUtilities {
+
+  private static final String[] DAYS = { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+  private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug",
+      "Sep", "Oct", "Nov", "Dec" };
+
+  /**
+   * Formats a date the way git's default date format does, for example
+   * "Fri Jun 25 15:33:11 2010 +0200".
+   * 
+   * @param time
+   *          Seconds since the epoch.
+   * @param timeZone
+   *          Offset from UTC in minutes.
+   */
+  public static String formatDate(long time, int timeZone) {
+    long local = time + timeZone * 60L;
+    long days = floorDiv(local, 86400);
+    int secondOfDay = (int) (local - days * 86400);
+
+    // proleptic Gregorian date from the days since 1970-01-01 (Hinnant's civil_from_days)
+    long z = days + 719468;
+    long era = floorDiv(z, 146097);
+    int dayOfEra = (int) (z - era * 146097);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int mp = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+    int month = mp < 10 ? mp + 3 : mp - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    StringBuilder builder = new StringBuilder(32);
+    // 1970-01-01 was a Thursday
+    builder.append(DAYS[(int) floorMod(days + 4, 7)]).append(' ');
+    builder.append(MONTHS[month - 1]).append(' ');
+    builder.append(day).append(' ');
+    appendTwoDigits(builder, secondOfDay / 3600).append(':');
+    appendTwoDigits(builder, secondOfDay / 60 % 60).append(':');
+    appendTwoDigits(builder, secondOfDay % 60).append(' ');
+    builder.append(year).append(' ');
+    int offset = Math.abs(timeZone);
+    builder.append(timeZone < 0 ? '-' : '+');
+    appendTwoDigits(builder, offset / 60);
+    appendTwoDigits(builder, offset % 60);
+    return builder.toString();
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+  }
+
+  private static long floorMod(long x, long y) {
+    return x - floorDiv(x, y) * y;
+  }
+
+  private static StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+    if (value < 10) {
+      builder.append('0');
+    }
+    return builder.append(value);
+  }
+
+  /**
+   * Formats the message the way <code>CliGitLog.GitLogParser</code> collects it: every line
+   * indented by four spaces with tabs expanded, and blank lines left out.
+   *
+   * @return the message, or null if it has no non-blank lines.
+   */
+  public static String formatMessage(String message) {
+    StringBuilder builder = null;
+    int start = 0;
+    while (start < message.length()) {
+      int end = message.indexOf('\n', start);
+      if (end < 0) {
+        end = message.length();
+      }
+      if (!isBlank(message, start, end)) {
+        if (builder == null) {
+          builder = new StringBuilder(message.length() + 16);
+        } else {
+          builder.append('\n');
+        }
+        builder.append("    ");
+        int column = 0;
+        for (int i = start; i < end; i++) {
+          char c = message.charAt(i);
+          if (c == '\t') {
+            do {
+              builder.append(' ');
+              column++;
+            } while (column % 8 != 0);
+          } else {
+            builder.append(c);
+            column++;
+          }
+        }
+      }
+      start = end + 1;
+    }
+    return builder == null ? null : builder.toString();
+  }
+
+  private static boolean isBlank(String s, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(s.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
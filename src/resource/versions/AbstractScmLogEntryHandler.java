@@ -22,6 +22,10 @@ public abstract class AbstractScmLogEntryHandler<E> implements ScmLogEntryHandle
 	protected final IConstructor repository;
 	protected final RascalFunction factExtractor;
 	protected final IListWriter logEntriesWriter;
+	//the changesets the callback is done with, see ExtractionJournal
+	private ExtractionJournal journal = null;
+	//the parents of the changesets, see RevisionGraph
+	private RevisionGraph.Builder graph = null;
 //	protected IList logEntries;
 	
 	protected AbstractScmLogEntryHandler(IConstructor repository, RascalFunction factExtractor, IListWriter logEntriesWriter) {
@@ -36,18 +40,46 @@ public abstract class AbstractScmLogEntryHandler<E> implements ScmLogEntryHandle
 	 * @return the changeSet returned by the rascal function
 	 */
 	protected IConstructor callBack(IConstructor changeSet) {
+		//the callback may give another changeset back
+		String entry = journal != null ? getJournalEntry(changeSet) : null;
 		if (logEntriesWriter != null) {
 			logEntriesWriter.append(changeSet);
 		}
+		if (graph != null) {
+			graph.add(changeSet);
+		}
 		if (factExtractor != null) {
 			Type argumentTypes = factExtractor.getFunctionType().getArgumentTypes();
 	    	Type fieldType = argumentTypes.getFieldType(0);
 	    	changeSet = (IConstructor) factExtractor.call(new Type[] {fieldType}, new IValue[] {changeSet}, null).getValue();
 		}
+		if (entry != null) {
+			journal.record(entry);
+		}
     	
     	return changeSet;
 	}
 	
+	/**
+	 * @return true if the changesets are added to a list, which a journal can't resume.
+	 */
+	public boolean isCollecting() {
+		return logEntriesWriter != null;
+	}
+	
+	public void setJournal(ExtractionJournal journal) {
+		this.journal = journal;
+	}
+	
+	public void setGraph(RevisionGraph.Builder graph) {
+		this.graph = graph;
+	}
+	
+	/**
+	 * @return what the journal keeps of a changeset, so the extraction can go on after it.
+	 */
+	protected abstract String getJournalEntry(IConstructor changeSet);
+	
 	/*protected void addLogEntry(IConstructor logEntry) {
 		logEntriesWriter.append(logEntry);
 	}
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+
+import resource.versions.ScmTypes.Repository;
+import resource.versions.git.GitProvider;
+
+/**
+ * Working copies of one repository side by side in a directory, so several revisions can be
+ * checked out at the same time. A git repository gets a worktree per working copy, svn and cvs get
+ * a checkout in a workspace of its own.
+ *
+ * A working copy is used by one thread from {@link #checkout(IConstructor)} until
+ * {@link #release(File)}. Released working copies are checked out again for the next revision,
+ * which only changes the files that differ, as long as together they fit in the disk budget; the
+ * others are removed. A git repository forgets the worktrees that are gone when the pool starts, when
+ * a checkout fails and when the pool is closed.
+ */
+class CheckoutPool {
+
+  private final ScmProvider<?> provider;
+  private final IConstructor repository;
+  private final File root;
+  private long diskBudget;
+
+  private final LinkedList<File> released = new LinkedList<File>();
+  private final Map<File, Long> sizes = new HashMap<File, Long>();
+  private long releasedSize = 0;
+  private final Set<File> used = new HashSet<File>();
+  private int next = 0;
+  private boolean started = false;
+  private boolean closed = false;
+
+  /**
+   * @param root
+   *          the directory the working copies are made in.
+   * @param diskBudget
+   *          the number of bytes the released working copies can take.
+   */
+  CheckoutPool(ScmProvider<?> provider, IConstructor repository, File root, long diskBudget) {
+    this.provider = provider;
+    this.repository = repository;
+    this.root = root;
+    this.diskBudget = diskBudget;
+  }
+
+  synchronized void setDiskBudget(long diskBudget) {
+    this.diskBudget = diskBudget;
+  }
+
+  /**
+   * Checks the unit out in a working copy that no other thread uses.
+   *
+   * @return the directory of the working copy, for svn and cvs the module is in there.
+   */
+  File checkout(IConstructor checkoutUnit) throws ScmProviderException {
+    boolean starting;
+    synchronized (this) {
+      starting = !started;
+      started = true;
+    }
+    if (starting) {
+      //what an earlier run that was aborted left behind
+      prune();
+    }
+    File workspace = acquire();
+    try {
+      if (Repository.from(repository) == Repository.GIT) {
+        ((GitProvider) provider).checkoutWorktree(checkoutUnit, repository, workspace);
+      } else {
+        workspace.mkdirs();
+        provider.checkoutResources(checkoutUnit, Repository.setWorkspace(repository, Versions.location(workspace.toPath())));
+      }
+      return workspace;
+    } catch (ScmProviderException e) {
+      //what is left of it can't be trusted
+      synchronized (this) {
+        used.remove(workspace);
+      }
+      remove(workspace);
+      try {
+        prune();
+      } catch (ScmProviderException pruneFailed) {
+        //the failed checkout is what to report
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Gives the working copy back, it is kept for the next checkout if it fits in the disk budget.
+   */
+  void release(File workspace) throws ScmProviderException {
+    long size = sizeOf(workspace);
+    synchronized (this) {
+      if (!used.remove(workspace)) {
+        throw new IllegalArgumentException(workspace + " isn't checked out by this pool");
+      }
+      if (!closed && releasedSize + size <= diskBudget) {
+        released.add(workspace);
+        sizes.put(workspace, size);
+        releasedSize += size;
+        return;
+      }
+    }
+    remove(workspace);
+  }
+
+  /**
+   * Removes the released working copies, the ones that are in use are removed when they are
+   * released.
+   */
+  void close() throws ScmProviderException {
+    List<File> removed;
+    synchronized (this) {
+      closed = true;
+      removed = new ArrayList<File>(released);
+      released.clear();
+      sizes.clear();
+      releasedSize = 0;
+    }
+    for (File workspace : removed) {
+      remove(workspace);
+    }
+    prune();
+  }
+
+  synchronized boolean contains(File workspace) {
+    return used.contains(workspace) || released.contains(workspace);
+  }
+
+  private synchronized File acquire() throws ScmProviderException {
+    if (closed) {
+      throw new ScmProviderException("The working copies in " + root + " are removed");
+    }
+    File workspace = released.poll();
+    if (workspace != null) {
+      releasedSize -= sizes.remove(workspace);
+    } else {
+      //the ones that are left from before aren't ours
+      do {
+        workspace = new File(root, "checkout-" + next++);
+      } while (workspace.exists());
+    }
+    used.add(workspace);
+    return workspace;
+  }
+
+  private void prune() throws ScmProviderException {
+    if (Repository.from(repository) == Repository.GIT) {
+      ((GitProvider) provider).pruneWorktrees(repository);
+    }
+  }
+
+  private void remove(File workspace) throws ScmProviderException {
+    if (Repository.from(repository) == Repository.GIT && new File(workspace, ".git").exists()) {
+      ((GitProvider) provider).removeWorktree(repository, workspace);
+      return;
+    }
+    try {
+      if (workspace.exists()) {
+        delete(workspace.toPath());
+      }
+    } catch (IOException e) {
+      throw new ScmProviderException("Can't remove " + workspace + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static void delete(Path directory) throws IOException {
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private static long sizeOf(File workspace) throws ScmProviderException {
+    final long[] size = new long[1];
+    try {
+      Files.walkFileTree(workspace.toPath(), new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          size[0] += attrs.size();
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new ScmProviderException(e.getMessage(), e);
+    }
+    return size[0];
+  }
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The contents of files that were read recently, up to a number of bytes. When the contents don't
+ * fit anymore the ones that were used least recently are dropped. The keys name contents that never
+ * change, such as a blob id or a path at a revision.
+ */
+public class ContentCache {
+
+  private final long budget;
+  private long size = 0;
+  private final LinkedHashMap<String, byte[]> contents = new LinkedHashMap<String, byte[]>(256, 0.75f, true);
+
+  /**
+   * @param budget
+   *          the number of bytes of content that is kept.
+   */
+  public ContentCache(long budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * @return the contents, or null if they aren't kept.
+   */
+  public synchronized byte[] get(String key) {
+    return contents.get(key);
+  }
+
+  /**
+   * Keeps the contents, unless they take more than an eighth of the budget: one large file would
+   * drop everything else.
+   */
+  public synchronized void put(String key, byte[] content) {
+    if (content.length > budget / 8) {
+      return;
+    }
+    byte[] previous = contents.put(key, content);
+    if (previous != null) {
+      size -= previous.length;
+    }
+    size += content.length;
+
+    Iterator<Map.Entry<String, byte[]>> eldest = contents.entrySet().iterator();
+    while (size > budget && eldest.hasNext()) {
+      size -= eldest.next().getValue().length;
+      eldest.remove();
+    }
+  }
+
+  public synchronized void clear() {
+    contents.clear();
+    size = 0;
+  }
+}
@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.IValue;
+
+import resource.versions.ScmTypes.Annotation;
+import resource.versions.ScmTypes.Connection;
+import resource.versions.ScmTypes.LogOption;
+import resource.versions.ScmTypes.Repository;
+
+/**
+ * The progress of an extraction on disk, so an extraction that was interrupted goes on where it
+ * stopped instead of starting over. Every changeset the callback is done with is added to the
+ * journal, by its commit, revision or file; the providers start the next run after the last one.
+ *
+ * The journal starts with the fingerprint of the repository and its options, and the state the
+ * provider needs to extract the same log again, like the revision the log ended at. A journal of
+ * other options is started over. Every entry is written at once, a JVM that dies loses no more
+ * than the changeset it was busy with; a line that was only partly written is left out when the
+ * journal is read. The journal is removed when the extraction is done.
+ */
+public class ExtractionJournal {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String MAGIC = "rascal-msr journal 1";
+  private static final String STATE = "state ";
+  private static final String ENTRY = "+ ";
+
+  private final File file;
+  private final String fingerprint;
+  private final Map<String, String> state = new LinkedHashMap<String, String>();
+  private int size = 0;
+  private String last = null;
+  private FileOutputStream out;
+  //the first entry that couldn't be written, the callback can't be stopped by it
+  private IOException failure = null;
+
+  private ExtractionJournal(File file, String fingerprint) {
+    this.file = file;
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * Reads the journal that an interrupted extraction with the same fingerprint left, or starts a
+   * new one without state.
+   */
+  public static ExtractionJournal open(File file, String fingerprint) throws IOException {
+    ExtractionJournal journal = new ExtractionJournal(file, fingerprint);
+    long length = file.exists() ? journal.read() : -1;
+    if (length < 0) {
+      journal.restart(Collections.<String, String> emptyMap());
+    } else {
+      //a line that was only partly written is dropped, the next entry starts on a line of its own
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(length);
+      } finally {
+        raf.close();
+      }
+      journal.out = new FileOutputStream(file, true);
+    }
+    return journal;
+  }
+
+  /**
+   * @return the length of the complete lines, or -1 if it isn't a journal of the fingerprint.
+   */
+  private long read() throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+    try {
+      long length = 0;
+      boolean header = true;
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = reader.read()) >= 0) {
+        if (c != '\n') {
+          line.append((char) c);
+          continue;
+        }
+        String text = line.toString();
+        line.setLength(0);
+        if (length == 0 && !text.equals(MAGIC)) {
+          return -1;
+        }
+        if (length > 0 && header) {
+          if (!text.equals(fingerprint)) {
+            return -1;
+          }
+          header = false;
+        } else if (text.startsWith(STATE)) {
+          int space = text.indexOf(' ', STATE.length());
+          state.put(text.substring(STATE.length(), space), text.substring(space + 1));
+        } else if (text.startsWith(ENTRY)) {
+          last = text.substring(ENTRY.length());
+          size++;
+        }
+        length += (text + "\n").getBytes(UTF8).length;
+      }
+      return header ? -1 : length;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Starts the journal over, the entries of the run before are dropped.
+   *
+   * @param state
+   *          what the next runs need to extract the same log, the keys can't have spaces.
+   */
+  public synchronized void restart(Map<String, String> state) throws IOException {
+    if (out != null) {
+      out.close();
+    }
+    this.state.clear();
+    this.state.putAll(state);
+    size = 0;
+    last = null;
+    StringBuilder header = new StringBuilder(MAGIC).append('\n').append(fingerprint).append('\n');
+    for (Map.Entry<String, String> entry : state.entrySet()) {
+      header.append(STATE).append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+    }
+    file.getAbsoluteFile().getParentFile().mkdirs();
+    out = new FileOutputStream(file);
+    out.write(header.toString().getBytes(UTF8));
+    out.getFD().sync();
+  }
+
+  public Map<String, String> getState() {
+    return Collections.unmodifiableMap(state);
+  }
+
+  /**
+   * @return the number of changesets the runs before were done with.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the entry of the last changeset the runs before were done with, null if there is
+   *         none.
+   */
+  public String last() {
+    return last;
+  }
+
+  /**
+   * @return the entries of the changesets the runs before were done with, read from the file
+   *         again since a long journal isn't kept in memory.
+   */
+  public synchronized Set<String> readEntries() throws IOException {
+    Set<String> entries = new HashSet<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+    try {
+      String line;
+      int count = 0;
+      while (count < size && (line = reader.readLine()) != null) {
+        if (line.startsWith(ENTRY)) {
+          entries.add(line.substring(ENTRY.length()));
+          count++;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return entries;
+  }
+
+  /**
+   * Adds the changeset the callback is done with. When the journal can't be written the
+   * extraction goes on without it, {@link #finish()} reports it.
+   */
+  public synchronized void record(String entry) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      //one write per line, a JVM that dies can't leave half of the lines before it
+      out.write((ENTRY + entry + "\n").getBytes(UTF8));
+      size++;
+      last = entry;
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+
+  /**
+   * Removes the journal, the extraction is complete.
+   *
+   * @throws IOException
+   *           if an entry couldn't be written, the extraction couldn't have been resumed.
+   */
+  public synchronized void finish() throws IOException {
+    close();
+    file.delete();
+    if (failure != null) {
+      throw new IOException("Can't write the journal " + file + ": " + failure.getMessage(), failure);
+    }
+  }
+
+  /**
+   * Closes the journal and keeps it, so the next run resumes from it.
+   */
+  public synchronized void close() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        //every entry was written when it was recorded
+      }
+      out = null;
+    }
+  }
+
+  /**
+   * A journal only knows which changesets an interrupted run was done with, not the changesets
+   * themselves, so the run that resumes from it only gives the rest of the log. That is only right
+   * for a callback, the changesets can't be resumed into a list or a store.
+   *
+   * @param target
+   *          where the changesets would go, for the message.
+   * @throws ScmProviderException
+   *           if the connection of the repository has a journal.
+   */
+  public static void checkNoJournal(IConstructor repository, String target) throws ScmProviderException {
+    if (Annotation.JOURNAL.has(Repository.getConnection(repository))) {
+      throw new ScmProviderException("A journal can only resume an extraction for a callback, " + target
+          + " would only get the changesets after the interruption");
+    }
+  }
+
+  /**
+   * The fingerprint of everything that changes which changesets the extraction of the repository
+   * gives, for a journal or a watermark. The number of workers and the checkpoints don't: either
+   * way the changesets are those of a single log, in its order. The tags aren't in it either, the
+   * changesets of a watermark get the tags of the refs when they are read.
+   */
+  public static String fingerprint(IConstructor repository) {
+    List<String> parts = new ArrayList<String>();
+    parts.add(Repository.from(repository).name());
+    parts.add(Connection.getUrl(Repository.getConnection(repository)).getValue());
+    parts.add(Repository.getModule(repository).getValue());
+    List<String> options = new ArrayList<String>();
+    for (IValue value : Repository.getOptions(repository)) {
+      LogOption option = LogOption.from((IConstructor) value);
+      if (option != LogOption.PIPELINED && option != LogOption.PARALLEL && option != LogOption.CHECKPOINT) {
+        options.add(value.toString());
+      }
+    }
+    //the options are a set, their order doesn't matter
+    Collections.sort(options);
+    parts.addAll(options);
+    return RawOutputCache.key(parts.toArray(new String[parts.size()]));
+  }
+}
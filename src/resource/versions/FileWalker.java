@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.eclipse.imp.pdb.facts.IListWriter;
+
+/**
+ * Walks a directory tree and lists the files or the directories whose path matches. The matcher is
+ * made once for the walk, and the directories of version control systems aren't entered; a file
+ * with their name, like the .git file of a linked worktree, isn't listed either.
+ *
+ * A wide tree can be walked in parallel: every directory is listed by a task of its own, and the
+ * results are put together in the order a walk on one thread would give them.
+ */
+class FileWalker {
+
+  private static final Set<String> IGNORED = new HashSet<String>(Arrays.asList(".git", ".svn", "CVS"));
+
+  private static ForkJoinPool pool;
+
+  private final PathMatcher matcher;
+  //a glob is matched against the path below the directory that is walked
+  private final boolean relative;
+  private final boolean files;
+  private final int maxDepth;
+
+  /**
+   * @param pattern
+   *          "glob:&lt;pattern&gt;" or "regex:&lt;pattern&gt;", a pattern without a syntax is a
+   *          regular expression. A glob is matched against the path relative to the directory that
+   *          is walked ("*.java" are the java files in the directory itself), a regular expression
+   *          against the whole path.
+   * @param files
+   *          if true the files are listed, otherwise the directories.
+   * @param maxDepth
+   *          how many levels below the directory are listed, 1 only lists the content of the
+   *          directory itself, 0 or less doesn't limit the walk.
+   */
+  FileWalker(String pattern, boolean files, int maxDepth) {
+    if (!pattern.startsWith("glob:") && !pattern.startsWith("regex:")) {
+      pattern = "regex:" + pattern;
+    }
+    this.matcher = FileSystems.getDefault().getPathMatcher(pattern);
+    this.relative = pattern.startsWith("glob:");
+    this.files = files;
+    this.maxDepth = maxDepth <= 0 ? Integer.MAX_VALUE : maxDepth;
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+    return pool;
+  }
+
+  /**
+   * Appends the paths that match to the writer as they are found.
+   */
+  void walk(final Path directory, final IListWriter writer) throws IOException {
+    Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (dir.equals(directory)) {
+          return FileVisitResult.CONTINUE;
+        }
+        if (isIgnored(dir)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        if (!files && matches(directory, dir)) {
+          writer.append(Versions.location(dir));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (isIgnored(file)) {
+          return FileVisitResult.CONTINUE;
+        }
+        //the directories at the maximum depth are visited as files
+        if (attrs.isDirectory()) {
+          if (!files && matches(directory, file)) {
+            writer.append(Versions.location(file));
+          }
+        } else if (files && matches(directory, file)) {
+          writer.append(Versions.location(file));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException exc) {
+        //what can't be read isn't listed
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Lists every directory in a task of its own, and appends the paths that match once the walk is
+   * done.
+   */
+  void walkParallel(Path directory, IListWriter writer) {
+    for (Path path : getPool().invoke(new WalkTask(directory, directory, 1))) {
+      writer.append(Versions.location(path));
+    }
+  }
+
+  private boolean matches(Path root, Path path) {
+    return matcher.matches(relative ? root.relativize(path) : path);
+  }
+
+  private static boolean isIgnored(Path path) {
+    Path name = path.getFileName();
+    return name != null && IGNORED.contains(name.toString());
+  }
+
+  private class WalkTask extends RecursiveTask<List<Path>> {
+    private static final long serialVersionUID = 1L;
+
+    private final Path root;
+    private final Path directory;
+    private final int depth;
+
+    WalkTask(Path root, Path directory, int depth) {
+      this.root = root;
+      this.directory = directory;
+      this.depth = depth;
+    }
+
+    @Override
+    protected List<Path> compute() {
+      //the paths that match, and the walks of the subdirectories at the place they go
+      List<Object> content = new ArrayList<Object>();
+      try {
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        try {
+          for (Path path : stream) {
+            if (isIgnored(path)) {
+              continue;
+            }
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+              if (!files && matches(root, path)) {
+                content.add(path);
+              }
+              if (depth < maxDepth) {
+                WalkTask task = new WalkTask(root, path, depth + 1);
+                task.fork();
+                content.add(task);
+              }
+            } else if (files && matches(root, path)) {
+              content.add(path);
+            }
+          }
+        } finally {
+          stream.close();
+        }
+      } catch (IOException e) {
+        //what can't be read isn't listed
+      }
+      if (content.isEmpty()) {
+        return Collections.emptyList();
+      }
+
+      List<Path> result = new ArrayList<Path>();
+      for (Object item : content) {
+        if (item instanceof WalkTask) {
+          result.addAll(((WalkTask) item).join());
+        } else {
+          result.add((Path) item);
+        }
+      }
+      return result;
+    }
+  }
+}
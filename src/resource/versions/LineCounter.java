@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Counts the lines of many files at once on a fork/join pool. The bytes are counted as they are,
+ * without decoding them: a line ends at a "\n", a "\r\n" or a lone "\r", like
+ * {@link java.io.LineNumberReader} does, and a last line without a line end counts as well.
+ * Large files are memory-mapped, the others are read into a direct buffer per thread.
+ */
+public class LineCounter {
+
+  // files up to this size are read, larger ones are mapped
+  private static final int BUFFER_SIZE = 1 << 20;
+  // fewer files than this are counted by one task
+  private static final int FILES_PER_TASK = 16;
+
+  private static ForkJoinPool pool;
+
+  private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+  };
+
+  /**
+   * The counts of one file, or why it was skipped.
+   */
+  static class Counts {
+    long bytes;
+    int lines;
+    int nonBlankLines;
+    String skipped;
+  }
+
+  private final boolean nonBlank;
+
+  /**
+   * @param nonBlank
+   *          if true the lines with more than whitespace are counted as well, in the same pass.
+   */
+  LineCounter(boolean nonBlank) {
+    this.nonBlank = nonBlank;
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+    return pool;
+  }
+
+  /**
+   * @return the counts of every file, in the same order.
+   */
+  Counts[] count(File[] files) {
+    Counts[] counts = new Counts[files.length];
+    getPool().invoke(new CountTask(files, counts, 0, files.length));
+    return counts;
+  }
+
+  private class CountTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final File[] files;
+    private final Counts[] counts;
+    private final int from;
+    private final int to;
+
+    CountTask(File[] files, Counts[] counts, int from, int to) {
+      this.files = files;
+      this.counts = counts;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= FILES_PER_TASK) {
+        for (int i = from; i < to; i++) {
+          counts[i] = count(files[i]);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new CountTask(files, counts, from, middle), new CountTask(files, counts, middle, to));
+    }
+  }
+
+  Counts count(File file) {
+    Counts counts = new Counts();
+    if (file.isDirectory()) {
+      counts.skipped = "is a directory";
+      return counts;
+    }
+
+    FileInputStream in;
+    try {
+      in = new FileInputStream(file);
+    } catch (FileNotFoundException e) {
+      counts.skipped = "cannot find the file: " + e.getMessage();
+      return counts;
+    }
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      counts.bytes = size;
+      LineState state = new LineState();
+      if (size > BUFFER_SIZE) {
+        for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+          long length = Math.min(Integer.MAX_VALUE, size - position);
+          count(channel.map(FileChannel.MapMode.READ_ONLY, position, length), state);
+        }
+      } else {
+        ByteBuffer buffer = BUFFER.get();
+        buffer.clear();
+        while (channel.read(buffer) > 0 && buffer.hasRemaining()) {
+        }
+        buffer.flip();
+        count(buffer, state);
+      }
+      state.end();
+      counts.lines = state.lines;
+      counts.nonBlankLines = state.nonBlankLines;
+    } catch (IOException e) {
+      counts.skipped = "IO Exception: " + e.getMessage();
+    } finally {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // the counts are already there
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Counts the lines of a stream the way the files are counted, for contents that aren't in a
+   * file, such as a blob that git streams. The stream is read to its end but not closed.
+   */
+  public static int countLines(InputStream in) throws IOException {
+    LineCounter counter = new LineCounter(false);
+    LineState state = new LineState();
+    byte[] bytes = new byte[64 * 1024];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int read;
+    while ((read = in.read(bytes)) >= 0) {
+      buffer.clear();
+      buffer.limit(read);
+      counter.count(buffer, state);
+    }
+    state.end();
+    return state.lines;
+  }
+
+  /**
+   * The count so far, the line end or line of one buffer can continue in the next.
+   */
+  private static class LineState {
+    int lines = 0;
+    int nonBlankLines = 0;
+    // the last byte was a \r, a \n that follows doesn't end another line
+    boolean afterReturn = false;
+    // the current line has bytes, and bytes that aren't whitespace
+    boolean inLine = false;
+    boolean lineNonBlank = false;
+
+    void endLine() {
+      lines++;
+      if (lineNonBlank) {
+        nonBlankLines++;
+      }
+      inLine = false;
+      lineNonBlank = false;
+    }
+
+    void end() {
+      if (inLine) {
+        endLine();
+      }
+    }
+  }
+
+  private void count(ByteBuffer buffer, LineState state) {
+    int limit = buffer.limit();
+    if (!nonBlank) {
+      // only the line ends
+      int lines = state.lines;
+      boolean afterReturn = state.afterReturn;
+      boolean inLine = state.inLine;
+      for (int i = buffer.position(); i < limit; i++) {
+        byte b = buffer.get(i);
+        if (b == '\n') {
+          if (!afterReturn) {
+            lines++;
+          }
+          afterReturn = false;
+          inLine = false;
+        } else if (b == '\r') {
+          lines++;
+          afterReturn = true;
+          inLine = false;
+        } else {
+          afterReturn = false;
+          inLine = true;
+        }
+      }
+      state.lines = lines;
+      state.afterReturn = afterReturn;
+      state.inLine = inLine;
+      return;
+    }
+
+    for (int i = buffer.position(); i < limit; i++) {
+      byte b = buffer.get(i);
+      if (b == '\n') {
+        if (!state.afterReturn) {
+          state.endLine();
+        }
+        state.afterReturn = false;
+      } else if (b == '\r') {
+        state.endLine();
+        state.afterReturn = true;
+      } else {
+        state.afterReturn = false;
+        state.inLine = true;
+        if (b != ' ' && b != '\t' && b != '\f') {
+          state.lineNonBlank = true;
+        }
+      }
+    }
+  }
+}
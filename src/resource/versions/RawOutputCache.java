@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.nyu.cs.javagit.api.ObjectId;
+
+/**
+ * The output of git, the SVN server or the CVS server, compressed in a directory, so the log of a
+ * repository that didn't change is read from disk instead of asked for again. The key of the output
+ * is made of everything that changes it: the repository, the revisions its refs or head point to,
+ * and the options of the log. Output that has the same key is the same output.
+ *
+ * An output is only added to the cache when it was read completely, a run that fails leaves nothing
+ * behind. Nothing is ever removed from the cache, the directory can be deleted at any time.
+ */
+public class RawOutputCache {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String SUFFIX = ".gz";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File directory;
+
+  public RawOutputCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return the key of the output that the parts describe, the parts can't have line breaks. It is
+   *         the fingerprint of the journals and the watermarks as well.
+   */
+  public static String key(String... parts) {
+    StringBuilder builder = new StringBuilder();
+    for (String part : parts) {
+      builder.append(part).append('\n');
+    }
+    try {
+      return ObjectId.fromRaw(MessageDigest.getInstance("SHA-1").digest(builder.toString().getBytes(UTF8)), 0).name();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return the output of the key, or null if it isn't in the cache.
+   */
+  public InputStream open(String key) throws IOException {
+    File file = new File(directory, key + SUFFIX);
+    if (!file.isFile()) {
+      return null;
+    }
+    return new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE);
+  }
+
+  /**
+   * Starts to write the output of the key, it is added to the cache when it is committed.
+   */
+  public Recording record(String key) throws IOException {
+    directory.mkdirs();
+    //every recording has a file of its own, two runs of the same log don't write to the same file
+    File temporary = File.createTempFile(key, ".tmp", directory);
+    return new Recording(temporary, new File(directory, key + SUFFIX));
+  }
+
+  /**
+   * The output that is being written to the cache.
+   */
+  public static class Recording extends FilterOutputStream {
+
+    private final File temporary;
+    private final File file;
+    private boolean closed = false;
+
+    private Recording(File temporary, File file) throws IOException {
+      super(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), BUFFER_SIZE), BUFFER_SIZE));
+      this.temporary = temporary;
+      this.file = file;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      //FilterOutputStream writes the bytes one by one
+      out.write(b, off, len);
+    }
+
+    /**
+     * Adds the output to the cache, it was read completely.
+     */
+    public void commit() throws IOException {
+      close();
+      if (!temporary.renameTo(file)) {
+        //some platforms don't replace a file on rename, the other run gave the same output
+        file.delete();
+        if (!temporary.renameTo(file)) {
+          temporary.delete();
+          throw new IOException("Can't add " + file + " to the cache");
+        }
+      }
+    }
+
+    /**
+     * Drops the output, it wasn't read completely.
+     */
+    public void abort() {
+      try {
+        close();
+      } catch (IOException e) {
+        //the output is dropped anyway
+      }
+      temporary.delete();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        super.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.imp.pdb.facts.ISourceLocation;
+
+/**
+ * The locations of the files of one workspace, by their path in the workspace. The same paths come
+ * back in commit after commit, so every location is only made once, instead of encoding and
+ * parsing the whole path again for every change of a file.
+ *
+ * The locations are shared by the threads that extract the log of the workspace. When there are
+ * more paths than the capacity all of them are dropped, the ones that are still used are made
+ * again. Only the workspaces that were used last keep their locations.
+ */
+public class ResourceLocations {
+
+  private static final int DEFAULT_CAPACITY = 128 * 1024;
+  private static final int MAX_WORKSPACES = 8;
+  //in the order they were used, the one that wasn't used the longest is dropped
+  private static final Map<String, ResourceLocations> workspaces = new LinkedHashMap<String, ResourceLocations>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, ResourceLocations> eldest) {
+      return size() > MAX_WORKSPACES;
+    }
+  };
+
+  private final String prefix;
+  private final int capacity;
+  private final ConcurrentMap<String, ISourceLocation> locations = new ConcurrentHashMap<String, ISourceLocation>();
+
+  /**
+   * @param workspace
+   *          the path of the workspace, encoded, not ending with a / or \
+   * @param capacity
+   *          the number of locations that is kept.
+   */
+  public ResourceLocations(String workspace, int capacity) {
+    this.prefix = workspace + "/";
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return the locations of the workspace, made the first time they are asked for.
+   */
+  public static ResourceLocations forWorkspace(String workspace) {
+    synchronized (workspaces) {
+      ResourceLocations factory = workspaces.get(workspace);
+      if (factory == null) {
+        factory = new ResourceLocations(workspace, DEFAULT_CAPACITY);
+        workspaces.put(workspace, factory);
+      }
+      return factory;
+    }
+  }
+
+  /**
+   * @param filePath
+   *          the path of the file in the workspace, not starting with a / or \
+   * @return the location of the file, see {@link Versions#createResourceId(String, String)}.
+   */
+  public ISourceLocation get(String filePath) {
+    ISourceLocation location = locations.get(filePath);
+    if (location == null) {
+      location = ScmTypes.VF.sourceLocation(prefix + Versions.encodePath(filePath));
+      if (locations.size() >= capacity) {
+        locations.clear();
+      }
+      locations.put(filePath, location);
+    }
+    return location;
+  }
+
+  public int size() {
+    return locations.size();
+  }
+}
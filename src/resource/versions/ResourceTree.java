@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.ISet;
+import org.eclipse.imp.pdb.facts.ISetWriter;
+import org.eclipse.imp.pdb.facts.ISourceLocation;
+import org.eclipse.imp.pdb.facts.IValue;
+
+import resource.versions.ScmTypes.Resource;
+
+/**
+ * The folders of a set of files as a trie of path segments, from which the nested folder resources
+ * are built.
+ *
+ * Every folder keeps the resource it was built as until a file below it changes, so a tree that is
+ * updated with the changes of a revision only builds the folders on the paths of the changes again,
+ * the other folders are the same values as in the previous tree. A tree that starts from a
+ * previous tree only reads the folders that the changes go through.
+ *
+ * files: /A/readme.txt /A/B/file.txt /A/C/D/k.txt /B/help.txt
+ *
+ * tree: folder(/A, {file(/A/readme.txt), folder(/A/B, {file(/A/B/file.txt)}),
+ * folder(/A/C, {folder(/A/C/D, {file(/A/C/D/k.txt)})})}), folder(/B, {file(/B/help.txt)})
+ */
+class ResourceTree {
+
+  private static class Folder {
+    final String path;
+    // the folder as it was last built, null if something below it changed
+    IConstructor value;
+    // the content, null until the content of the value is read
+    Map<String, Folder> folders;
+    Map<String, IConstructor> files;
+
+    Folder(String path, IConstructor value) {
+      this.path = path;
+      this.value = value;
+    }
+  }
+
+  // every segment name once, files and folders in many revisions share them
+  private final Map<String, String> segments = new HashMap<String, String>();
+  // the folders from the root to the last file that was added or removed
+  private final List<Folder> walk = new ArrayList<Folder>();
+  private final Folder root = new Folder("", null);
+
+  ResourceTree() {
+    root.folders = new HashMap<String, Folder>();
+    root.files = new HashMap<String, IConstructor>();
+  }
+
+  /**
+   * Continues from a tree that was built before, its folders are shared with the new tree.
+   */
+  ResourceTree(ISet tree) {
+    this();
+    for (IValue iValue : tree) {
+      addContent(root, (IConstructor) iValue);
+    }
+  }
+
+  void add(IConstructor file) {
+    String path = Resource.getId(file).getURI().getPath();
+    int name = walkTo(path, true);
+    Folder folder = walk.get(walk.size() - 1);
+    String fileName = intern(path.substring(name));
+    IConstructor previous = folder.files.get(fileName);
+    if (previous == null || !previous.isEqual(file)) {
+      folder.files.put(fileName, file);
+      changed();
+    }
+  }
+
+  void remove(ISourceLocation id) {
+    String path = id.getURI().getPath();
+    int name = walkTo(path, false);
+    if (name < 0) {
+      return;
+    }
+    Folder folder = walk.get(walk.size() - 1);
+    if (folder.files.remove(path.substring(name)) == null) {
+      return;
+    }
+    changed();
+    // the folders that are empty now are gone
+    for (int i = walk.size() - 1; i > 0; i--) {
+      Folder empty = walk.get(i);
+      if (!empty.files.isEmpty() || !empty.folders.isEmpty()) {
+        break;
+      }
+      Folder parent = walk.get(i - 1);
+      parent.folders.remove(empty.path.substring(parent.path.length() + 1));
+    }
+  }
+
+  /**
+   * Builds the folders that changed, the children before their parent.
+   *
+   * @return the top folders, and the files that aren't in a folder.
+   */
+  ISet done() {
+    List<Folder> changed = new ArrayList<Folder>();
+    Deque<Folder> todo = new ArrayDeque<Folder>();
+    todo.push(root);
+    while (!todo.isEmpty()) {
+      Folder folder = todo.pop();
+      changed.add(folder);
+      for (Folder child : folder.folders.values()) {
+        if (child.value == null) {
+          todo.push(child);
+        }
+      }
+    }
+
+    // the parents come before their children
+    for (int i = changed.size() - 1; i > 0; i--) {
+      Folder folder = changed.get(i);
+      ISet content = content(folder);
+      ISourceLocation id = ScmTypes.VF.sourceLocation(Versions.encodePath(folder.path));
+      folder.value = content.size() > 0 ? Resource.FOLDER_CONTENT.make(id, content) : Resource.FOLDER.make(id);
+    }
+    return content(root);
+  }
+
+  private ISet content(Folder folder) {
+    ISetWriter writer = ScmTypes.VF.setWriter(ScmTypes.AbstractDataType.RESOURCE.getType());
+    for (IConstructor file : folder.files.values()) {
+      writer.insert(file);
+    }
+    for (Folder child : folder.folders.values()) {
+      writer.insert(child.value);
+    }
+    return writer.done();
+  }
+
+  /**
+   * Walks to the folder of the path, the folders on the way are in {@link #walk}.
+   *
+   * @return where the file name starts in the path, or -1 if a folder isn't there and isn't
+   *         created.
+   */
+  private int walkTo(String path, boolean create) {
+    walk.clear();
+    Folder folder = root;
+    walk.add(folder);
+    int start = path.startsWith("/") ? 1 : 0;
+    for (int end = path.indexOf('/', start); end >= 0; end = path.indexOf('/', start)) {
+      if (end > start) {
+        expand(folder);
+        String segment = path.substring(start, end);
+        Folder child = folder.folders.get(segment);
+        if (child == null) {
+          if (!create) {
+            return -1;
+          }
+          segment = intern(segment);
+          child = new Folder(folder.path + "/" + segment, null);
+          child.folders = new HashMap<String, Folder>();
+          child.files = new HashMap<String, IConstructor>();
+          folder.folders.put(segment, child);
+        }
+        folder = child;
+        walk.add(folder);
+      }
+      start = end + 1;
+    }
+    expand(folder);
+    return start;
+  }
+
+  private void changed() {
+    for (Folder folder : walk) {
+      folder.value = null;
+    }
+  }
+
+  private void expand(Folder folder) {
+    if (folder.folders != null) {
+      return;
+    }
+    folder.folders = new HashMap<String, Folder>();
+    folder.files = new HashMap<String, IConstructor>();
+    if (Resource.hasResources(folder.value)) {
+      for (IValue iValue : Resource.getResources(folder.value)) {
+        addContent(folder, (IConstructor) iValue);
+      }
+    }
+  }
+
+  private void addContent(Folder folder, IConstructor resource) {
+    String path = Resource.getId(resource).getURI().getPath();
+    String name = intern(path.substring(path.lastIndexOf('/') + 1));
+    if (Resource.from(resource) == Resource.FILE) {
+      folder.files.put(name, resource);
+    } else {
+      folder.folders.put(name, new Folder(folder.path + "/" + name, resource));
+    }
+  }
+
+  private String intern(String segment) {
+    String interned = segments.get(segment);
+    if (interned == null) {
+      segments.put(segment, segment);
+      interned = segment;
+    }
+    return interned;
+  }
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.IList;
+import org.eclipse.imp.pdb.facts.ISet;
+import org.eclipse.imp.pdb.facts.ISetWriter;
+import org.eclipse.imp.pdb.facts.IValue;
+
+import resource.versions.ScmTypes.Annotation;
+import resource.versions.ScmTypes.ChangeSet;
+import resource.versions.ScmTypes.Revision;
+import resource.versions.ScmTypes.RevisionId;
+
+/**
+ * The parents of the revisions of a log, with the revisions numbered so the graph is a few int
+ * arrays instead of a relation of revision ids. The parents of revision <code>r</code> are
+ * <code>parents[parentStart[r]]</code> up to <code>parents[parentStart[r + 1]]</code>, the
+ * children the same way. A set of revisions is a bit set of their numbers.
+ *
+ * The parents of a revision are its parent and the parents of its merge details. A parent that
+ * isn't in the log gets a number as well, it has no parents of its own.
+ */
+public class RevisionGraph {
+
+  private final IConstructor[] ids;
+  private final Map<IConstructor, Integer> ordinals;
+  private final int[] parentStart;
+  private final int[] parents;
+  private final int[] childStart;
+  private final int[] children;
+
+  private RevisionGraph(IConstructor[] ids, Map<IConstructor, Integer> ordinals, int[] edgeChildren, int[] edgeParents, int edges) {
+    this.ids = ids;
+    this.ordinals = ordinals;
+    parentStart = new int[ids.length + 1];
+    parents = new int[edges];
+    childStart = new int[ids.length + 1];
+    children = new int[edges];
+    fill(edgeChildren, edgeParents, edges, parentStart, parents);
+    fill(edgeParents, edgeChildren, edges, childStart, children);
+  }
+
+  /**
+   * Sorts the edges on their source by counting, into the start offsets and targets.
+   */
+  private static void fill(int[] sources, int[] targets, int edges, int[] start, int[] sorted) {
+    for (int i = 0; i < edges; i++) {
+      start[sources[i] + 1]++;
+    }
+    for (int i = 1; i < start.length; i++) {
+      start[i] += start[i - 1];
+    }
+    int[] next = Arrays.copyOf(start, start.length - 1);
+    for (int i = 0; i < edges; i++) {
+      sorted[next[sources[i]]++] = targets[i];
+    }
+  }
+
+  /**
+   * @return the graph of the parents of the changesets.
+   */
+  public static RevisionGraph of(IList changeSets) {
+    Builder builder = new Builder();
+    for (IValue changeSet : changeSets) {
+      builder.add((IConstructor) changeSet);
+    }
+    return builder.done();
+  }
+
+  /**
+   * @return the number of revisions, the ones of the log and their parents.
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  /**
+   * @return the number of the revision id, or -1 if it isn't in the graph.
+   */
+  public int ordinalOf(IConstructor revisionId) {
+    Integer ordinal = ordinals.get(revisionId);
+    return ordinal == null ? -1 : ordinal;
+  }
+
+  /**
+   * @return the revisions of the set of revision ids, the ones that aren't in the graph are left
+   *         out.
+   */
+  public BitSet toBits(ISet revisionIds) {
+    BitSet bits = new BitSet(ids.length);
+    for (IValue id : revisionIds) {
+      int ordinal = ordinalOf((IConstructor) id);
+      if (ordinal >= 0) {
+        bits.set(ordinal);
+      }
+    }
+    return bits;
+  }
+
+  /**
+   * @return the revision ids of the revisions.
+   */
+  public ISet toSet(BitSet revisions) {
+    ISetWriter writer = ScmTypes.VF.setWriter(RevisionId.getAbstractType());
+    for (int i = revisions.nextSetBit(0); i >= 0; i = revisions.nextSetBit(i + 1)) {
+      writer.insert(ids[i]);
+    }
+    return writer.done();
+  }
+
+  /**
+   * @return the start revisions and every revision they reach through their parents without
+   *         passing an excluded one. Excluded revisions aren't in it, not even the start ones,
+   *         whose parents are still followed.
+   */
+  public BitSet reach(BitSet start, BitSet exclude) {
+    BitSet reached = (BitSet) start.clone();
+    traverse(reached, parentStart, parents, exclude);
+    reached.andNot(exclude);
+    return reached;
+  }
+
+  /**
+   * @return the revisions the revision descends from, without the revision itself.
+   */
+  public BitSet ancestors(int revision) {
+    BitSet reached = new BitSet(ids.length);
+    reached.set(revision);
+    traverse(reached, parentStart, parents, null);
+    reached.clear(revision);
+    return reached;
+  }
+
+  /**
+   * @return the revisions that descend from the revision, without the revision itself.
+   */
+  public BitSet descendants(int revision) {
+    BitSet reached = new BitSet(ids.length);
+    reached.set(revision);
+    traverse(reached, childStart, children, null);
+    reached.clear(revision);
+    return reached;
+  }
+
+  /**
+   * @return the best common ancestors of the two revisions, like git merge-base --all: the
+   *         revisions both descend from, or are, that aren't an ancestor of another one of them.
+   *         There is more than one after criss-cross merges, and none for unrelated histories.
+   */
+  public BitSet mergeBases(int a, int b) {
+    BitSet common = new BitSet(ids.length);
+    common.set(a);
+    traverse(common, parentStart, parents, null);
+    BitSet ofB = new BitSet(ids.length);
+    ofB.set(b);
+    traverse(ofB, parentStart, parents, null);
+    common.and(ofB);
+
+    //the ancestors of the common ones are not the best
+    BitSet older = new BitSet(ids.length);
+    for (int i = common.nextSetBit(0); i >= 0; i = common.nextSetBit(i + 1)) {
+      for (int p = parentStart[i]; p < parentStart[i + 1]; p++) {
+        older.set(parents[p]);
+      }
+    }
+    traverse(older, parentStart, parents, null);
+    common.andNot(older);
+    return common;
+  }
+
+  /**
+   * Adds every revision the reached ones lead to over the edges, without going through the
+   * excluded ones. The reached revisions are followed even when excluded.
+   */
+  private void traverse(BitSet reached, int[] start, int[] edges, BitSet exclude) {
+    int[] stack = new int[Math.max(16, reached.cardinality())];
+    int top = 0;
+    for (int i = reached.nextSetBit(0); i >= 0; i = reached.nextSetBit(i + 1)) {
+      stack[top++] = i;
+    }
+    while (top > 0) {
+      int revision = stack[--top];
+      for (int e = start[revision]; e < start[revision + 1]; e++) {
+        int next = edges[e];
+        if (reached.get(next) || (exclude != null && exclude.get(next))) {
+          continue;
+        }
+        reached.set(next);
+        if (top == stack.length) {
+          stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top++] = next;
+      }
+    }
+  }
+
+  /**
+   * Collects the parents of the changesets as they are extracted, see
+   * {@link AbstractScmLogEntryHandler#setGraph(Builder)}.
+   */
+  public static class Builder {
+
+    private final Map<IConstructor, Integer> ordinals = new HashMap<IConstructor, Integer>();
+    private IConstructor[] ids = new IConstructor[1024];
+    private int[] edgeChildren = new int[1024];
+    private int[] edgeParents = new int[1024];
+    private int edges = 0;
+
+    public synchronized void add(IConstructor changeSet) {
+      IConstructor revision = ChangeSet.CHANGE_SET.getRevision(changeSet);
+      int child = ordinal(Revision.getId(revision));
+      if (revision.getConstructorType() == Revision.REVISION_PARENT.getType()) {
+        addEdge(child, ordinal(Revision.getId(Revision.getParent(revision))));
+      }
+      if (Annotation.MERGE_DETAIL.has(revision)) {
+        for (IValue detail : Annotation.MERGE_DETAIL.get(revision, IList.class)) {
+          IConstructor parent = (IConstructor) ((IConstructor) detail).get("parent");
+          addEdge(child, ordinal(Revision.getId(parent)));
+        }
+      }
+    }
+
+    private int ordinal(IConstructor id) {
+      Integer ordinal = ordinals.get(id);
+      if (ordinal == null) {
+        ordinal = ordinals.size();
+        if (ordinal == ids.length) {
+          ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[ordinal] = id;
+        ordinals.put(id, ordinal);
+      }
+      return ordinal;
+    }
+
+    private void addEdge(int child, int parent) {
+      //the parent of a merge is its first merge parent as well
+      for (int e = edges - 1; e >= 0 && edgeChildren[e] == child; e--) {
+        if (edgeParents[e] == parent) {
+          return;
+        }
+      }
+      if (edges == edgeChildren.length) {
+        edgeChildren = Arrays.copyOf(edgeChildren, edges * 2);
+        edgeParents = Arrays.copyOf(edgeParents, edges * 2);
+      }
+      edgeChildren[edges] = child;
+      edgeParents[edges] = parent;
+      edges++;
+    }
+
+    public synchronized RevisionGraph done() {
+      return new RevisionGraph(Arrays.copyOf(ids, ordinals.size()), ordinals, edgeChildren, edgeParents, edges);
+    }
+  }
+}
@@ -18,6 +18,7 @@ import org.rascalmpl.interpreter.result.RascalFunction;
 
 import resource.versions.ScmTypes.Info;
 import resource.versions.ScmTypes.Repository;
+import resource.versions.ScmTypes.Resource;
 import resource.versions.ScmTypes.Revision;
 import resource.versions.ScmTypes.WcResource;
 
@@ -42,4 +43,13 @@ public interface ScmProvider<E extends ScmLogEntryHandler<?>> {
 	 * @throws ScmProviderException when something goes wrong during the listing of the resources.
 	 */
 	public ISet getResources(IConstructor repository) throws ScmProviderException;
+
+	/**
+	 * Reads the contents of files at revisions from the repository, without checking them out.
+	 * @param files of type {@link Resource}, the files to read.
+	 * @param revisions of type {@link Revision}, the revision every file is read at.
+	 * @return the contents of every file, or null for a file that isn't there at its revision.
+	 * @throws ScmProviderException when the repository can't be read.
+	 */
+	public byte[][] readContents(IConstructor repository, IConstructor[] files, IConstructor[] revisions) throws ScmProviderException;
 }
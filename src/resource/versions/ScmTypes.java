@@ -39,6 +39,14 @@ public interface ScmTypes {
 	public enum Annotation {
 		LOG_FILE("logFile",
 			TF.sourceLocationType(), Connection.getAbstractType()),
+		WATERMARK("watermark",
+			TF.sourceLocationType(), Connection.getAbstractType()),
+		JOURNAL("journal",
+			TF.sourceLocationType(), Connection.getAbstractType()),
+		LOG_CACHE("logCache",
+			TF.sourceLocationType(), Connection.getAbstractType()),
+		LINE_COUNTS("lineCounts",
+			TF.sourceLocationType(), Connection.getAbstractType()),
 		AUTHOR("author",
 			Info.getAbstractType(), ChangeSet.getAbstractType()),
 		ORIGIN_PERCENT("originPercent", 
@@ -50,7 +58,9 @@ public interface ScmTypes {
 		MERGE_DETAIL("mergeDetails",
 			TF.listType(MergeDetail.getAbstractType()), Revision.getAbstractType()),
 		TAGS("tags",
-			TF.setType(Tag.getAbstractType()), Revision.getAbstractType());
+			TF.setType(Tag.getAbstractType()), Revision.getAbstractType()),
+		SIZE("size",
+			TF.integerType(), WcResource.getAbstractType());
 		private final String label;
 		
 		private Annotation(String label, Type valueType, Type onType) {
@@ -86,7 +96,8 @@ public interface ScmTypes {
 		CHANGE_SET("ChangeSet"),
 		CHECKOUT_UNIT("CheckoutUnit"),
 		WC_RESOURCE("WcResource"),
-		MERGE_DETAIL("MergeDetail");
+		MERGE_DETAIL("MergeDetail"),
+		COMMIT_GRAPH("CommitGraph");
 		
 		private final Type type;
 
@@ -262,6 +273,10 @@ public interface ScmTypes {
 			return (ISourceLocation) repository.get("workspace");
 		}
 		
+		public static IConstructor setWorkspace(IConstructor repository, ISourceLocation workspace) {
+			return repository.set("workspace", workspace);
+		}
+		
 		public static ISet getOptions(IConstructor repository) {
 			return (ISet) repository.get("options");
 		}
@@ -277,10 +292,23 @@ public interface ScmTypes {
 			CheckoutUnit.getAbstractType(), "to"),
 		MERGE_DETAILS("mergeDetails"),
 		FILE_DETAILS("fileDetails"),
+		NAME_DETAILS("nameDetails"),
+		RAW_DETAILS("rawDetails"),
+		LINE_DETAILS("lineDetails"),
+		RENAME_DETAILS("renameDetails",
+			TF.integerType(), "limit"),
+		COPY_DETAILS("copyDetails"),
 		ONLY_MERGES("onlyMerges"),
 		NO_MERGES("noMerges"),
 		REVERSE("reverse"),
-		ALL_BRANCHES("allBranches");
+		ALL_BRANCHES("allBranches"),
+		PIPELINED("pipelined",
+			TF.integerType(), "workers"),
+		PARALLEL("parallel",
+			TF.integerType(), "workers"),
+		CHECKPOINT("checkpoint",
+			TF.sourceLocationType(), "dir",
+			TF.integerType(), "everyN");
 
 		private final Type type;
 		
@@ -308,6 +336,22 @@ public interface ScmTypes {
 			return (IConstructor) project.get("to");
 		}
 		
+		public static IInteger getWorkers(IConstructor option) {
+			return (IInteger) option.get("workers");
+		}
+		
+		public static IInteger getLimit(IConstructor option) {
+			return (IInteger) option.get("limit");
+		}
+		
+		public static ISourceLocation getDir(IConstructor option) {
+			return (ISourceLocation) option.get("dir");
+		}
+		
+		public static IInteger getEveryN(IConstructor option) {
+			return (IInteger) option.get("everyN");
+		}
+		
 		public static LogOption from(IConstructor value) {
 			Type type = value.getConstructorType();
 			for (LogOption option : values()) {
@@ -335,6 +379,16 @@ public interface ScmTypes {
 			return (IString) revision.get("name");
 		}
 
+		public static Tag from(IConstructor value) {
+			Type type = value.getConstructorType();
+			for (Tag tag : values()) {
+				if (tag.getType() == type) {
+					return tag;
+				}
+			}
+			throw new IllegalArgumentException("No Tag type for '" + value + "'");
+		}
+
 		public Type getType() {
 			return type;
 		}
@@ -970,4 +1024,31 @@ public interface ScmTypes {
 		}
 		
 	}
+
+	public enum CommitGraph {
+		COMMIT_GRAPH("commitGraph",
+			TF.integerType(), "id");
+
+		private final Type type;
+
+		private CommitGraph(String name, Object... childrenAndLabels) {
+			type = TF.constructor(store, getAbstractType(), name, childrenAndLabels);
+		}
+
+		public static IInteger getId(IConstructor commitGraph) {
+			return (IInteger) commitGraph.get("id");
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public static Type getAbstractType() {
+			return AbstractDataType.COMMIT_GRAPH.getType();
+		}
+
+		public IConstructor make(int id) {
+			return VF.constructor(type, VF.integer(id));
+		}
+	}
 }
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.ISet;
+import org.junit.Before;
+import org.junit.Test;
+
+import resource.versions.ScmTypes.Annotation;
+import resource.versions.ScmTypes.ChangeSet;
+import resource.versions.ScmTypes.Info;
+import resource.versions.ScmTypes.MergeDetail;
+import resource.versions.ScmTypes.Revision;
+import resource.versions.ScmTypes.RevisionId;
+import resource.versions.ScmTypes.Sha;
+
+public class TestRevisionGraph {
+  private RevisionGraph graph;
+
+  /**
+   * root <- left <- merge <- tip, and root <- right <- merge, where right is a merge parent of
+   * merge. The root has a parent that isn't in the log.
+   */
+  @Before
+  public void setUp() {
+    RevisionGraph.Builder builder = new RevisionGraph.Builder();
+    builder.add(changeSet(Revision.REVISION_PARENT.make(id("root"), revision("outside"))));
+    builder.add(changeSet(Revision.REVISION_PARENT.make(id("left"), revision("root"))));
+    builder.add(changeSet(Revision.REVISION_PARENT.make(id("right"), revision("root"))));
+    IConstructor merge = Revision.REVISION_PARENT.make(id("merge"), revision("left"));
+    merge = Annotation.MERGE_DETAIL.set(merge, ScmTypes.VF.list(
+      MergeDetail.PARENT.make(revision("left")),
+      MergeDetail.PARENT.make(revision("right"))));
+    builder.add(changeSet(merge));
+    builder.add(changeSet(Revision.REVISION_PARENT.make(id("tip"), revision("merge"))));
+    graph = builder.done();
+  }
+
+  private static IConstructor changeSet(IConstructor revision) {
+    return ChangeSet.CHANGE_SET.make(revision, ScmTypes.VF.set(), Info.makeInfo(ScmTypes.VF.datetime(0L), null, null));
+  }
+
+  private static IConstructor id(String sha) {
+    return RevisionId.HASH.make(Sha.COMMIT.make(sha));
+  }
+
+  private static IConstructor revision(String sha) {
+    return Revision.REVISION.make(id(sha));
+  }
+
+  private int ordinal(String sha) {
+    return graph.ordinalOf(id(sha));
+  }
+
+  private ISet ids(String... shas) {
+    IConstructor[] ids = new IConstructor[shas.length];
+    for (int i = 0; i < shas.length; i++) {
+      ids[i] = id(shas[i]);
+    }
+    return ScmTypes.VF.set(ids);
+  }
+
+  private BitSet bits(String... shas) {
+    return graph.toBits(ids(shas));
+  }
+
+  @Test
+  public void testOrdinals() {
+    //the parent that isn't in the log is in the graph as well
+    assertEquals(6, graph.size());
+    assertTrue(ordinal("outside") >= 0);
+    assertEquals(-1, ordinal("unknown"));
+    assertEquals(ids("tip", "root"), graph.toSet(bits("tip", "root", "unknown")));
+  }
+
+  @Test
+  public void testAncestors() {
+    assertEquals(bits("left", "right", "root", "outside"), graph.ancestors(ordinal("merge")));
+    assertTrue(graph.ancestors(ordinal("outside")).isEmpty());
+  }
+
+  @Test
+  public void testDescendants() {
+    assertEquals(bits("left", "right", "merge", "tip"), graph.descendants(ordinal("root")));
+    assertEquals(bits("merge", "tip"), graph.descendants(ordinal("right")));
+    assertTrue(graph.descendants(ordinal("tip")).isEmpty());
+  }
+
+  @Test
+  public void testReach() {
+    assertEquals(bits("tip", "merge", "left", "right", "root", "outside"), graph.reach(bits("tip"), bits()));
+    //the ancestors of an excluded revision are still reached over another path
+    assertEquals(bits("tip", "merge", "right", "root", "outside"), graph.reach(bits("tip"), bits("left")));
+    assertEquals(bits("tip", "merge", "right"), graph.reach(bits("tip"), bits("left", "root")));
+    //an excluded start isn't reached, its parents are
+    assertEquals(bits("left", "root", "outside"), graph.reach(bits("merge"), bits("merge", "right")));
+  }
+
+  @Test
+  public void testMergeBases() {
+    assertEquals(bits("root"), graph.mergeBases(ordinal("left"), ordinal("right")));
+    assertEquals(bits("right"), graph.mergeBases(ordinal("tip"), ordinal("right")));
+    assertEquals(bits("merge"), graph.mergeBases(ordinal("merge"), ordinal("merge")));
+  }
+}
@@ -13,17 +13,29 @@ package resource.versions;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import org.eclipse.imp.pdb.facts.IBool;
 import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.IInteger;
 import org.eclipse.imp.pdb.facts.IList;
 import org.eclipse.imp.pdb.facts.IListWriter;
 import org.eclipse.imp.pdb.facts.IMap;
@@ -32,8 +44,10 @@ import org.eclipse.imp.pdb.facts.ISet;
 import org.eclipse.imp.pdb.facts.ISetWriter;
 import org.eclipse.imp.pdb.facts.ISourceLocation;
 import org.eclipse.imp.pdb.facts.IString;
+import org.eclipse.imp.pdb.facts.ITuple;
 import org.eclipse.imp.pdb.facts.IValue;
 import org.eclipse.imp.pdb.facts.IValueFactory;
+import org.eclipse.imp.pdb.facts.type.Type;
 import org.rascalmpl.interpreter.control_exceptions.Throw;
 import org.rascalmpl.interpreter.result.RascalFunction;
 import resource.versions.ScmProvider;
@@ -41,6 +55,7 @@ import resource.versions.ScmProviderException;
 import resource.versions.ScmTypes;
 import resource.versions.Versions;
 import resource.versions.cvs.CvsProvider;
+import resource.versions.git.ChangesetStore;
 import resource.versions.git.GitProvider;
 import resource.versions.svn.SvnProvider;
 import org.rascalmpl.values.ValueFactoryFactory;
@@ -49,9 +64,16 @@ import resource.versions.ScmTypes.*;
 
 
 public class Versions {
-  private static GitProvider gitProvider;
-  private static SvnProvider svnProvider;
-  private static CvsProvider cvsProvider;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  //the providers are shared by every thread, they are only made once
+  private static final ConcurrentMap<Repository, ScmProvider<?>> providers = new ConcurrentHashMap<Repository, ScmProvider<?>>();
+  //the working copies of checkoutWorkspaces, by the canonical path of their root
+  private static final ConcurrentMap<String, CheckoutPool> checkoutPools = new ConcurrentHashMap<String, CheckoutPool>();
+  //the opened changeset stores, by the canonical path of their directory
+  private static final ConcurrentMap<String, ChangesetStore> changesetStores = new ConcurrentHashMap<String, ChangesetStore>();
+  //the commit graphs Rascal has a handle of, by the id of the handle
+  private static final ConcurrentMap<Integer, RevisionGraph> commitGraphs = new ConcurrentHashMap<Integer, RevisionGraph>();
+  private static final AtomicInteger nextCommitGraph = new AtomicInteger();
   private final IValueFactory values;
 
   public Versions(IValueFactory factory) {
@@ -60,22 +82,28 @@ public class Versions {
 
   private static ScmProvider<?> getProviderFor(IConstructor repository) {
     Repository type = Repository.from(repository);
+    ScmProvider<?> provider = providers.get(type);
+    if (provider != null) {
+      return provider;
+    }
+    synchronized (providers) {
+      provider = providers.get(type);
+      if (provider == null) {
+        provider = createProvider(type);
+        providers.put(type, provider);
+      }
+      return provider;
+    }
+  }
+
+  private static ScmProvider<?> createProvider(Repository type) {
     switch (type) {
     case GIT:
-      if (gitProvider == null) {
-        gitProvider = new GitProvider(ValueFactoryFactory.getValueFactory());
-      }
-      return (ScmProvider<?>) gitProvider;
+      return new GitProvider(ValueFactoryFactory.getValueFactory());
     case SVN:
-      if (svnProvider == null) {
-        svnProvider = new SvnProvider(ValueFactoryFactory.getValueFactory());
-      }
-      return (ScmProvider<?>) svnProvider;
+      return new SvnProvider(ValueFactoryFactory.getValueFactory());
     case CVS:
-      if (cvsProvider == null) {
-        cvsProvider = new CvsProvider(ValueFactoryFactory.getValueFactory());
-      }
-      return (ScmProvider<?>) cvsProvider;
+      return new CvsProvider(ValueFactoryFactory.getValueFactory());
     
     default:
       throw new IllegalArgumentException("Can't find the right repository configuration for '" + type + "'");
@@ -111,6 +139,70 @@ public class Versions {
     return getProviderFor(repository).getResources(repository);
   }
 
+  /**
+   * Gets the resources of the checkout unit from the repository, without checking it out. Only git
+   * repositories can do that.
+   * 
+   * @return a set of resources as an {@link WcResource} with the {@link Revision} of their content.
+   */
+  public static ISet getResources(IConstructor repository, IConstructor checkoutUnit) throws ScmProviderException {
+    if (Repository.from(repository) != Repository.GIT) {
+      throw new IllegalArgumentException("Can only get the resources of a checkout unit from a git repository");
+    }
+    return ((GitProvider) getProviderFor(repository)).getResources(repository, checkoutUnit);
+  }
+
+  /**
+   * Reads the content of a file at a revision from the repository, without checking it out.
+   * 
+   * @return the content as UTF-8 text.
+   */
+  public IString readContent(IConstructor repository, IConstructor file, IConstructor revision) {
+    byte[][] contents = readContents(repository, new IConstructor[] { file }, new IConstructor[] { revision });
+    if (contents[0] == null) {
+      throw new Throw(values.string(Resource.getId(file) + " isn't there at " + revision), (ISourceLocation) null, null);
+    }
+    return values.string(new String(contents[0], UTF8));
+  }
+
+  /**
+   * Reads the contents of many files at their revisions, the files that aren't there at their
+   * revision are left out.
+   * 
+   * @param files
+   *          a relation of {@link Resource} and {@link Revision}.
+   */
+  public IMap readContents(IConstructor repository, ISet files) {
+    IConstructor[] resources = new IConstructor[files.size()];
+    IConstructor[] revisions = new IConstructor[files.size()];
+    ITuple[] tuples = new ITuple[files.size()];
+    int i = 0;
+    for (IValue iValue : files) {
+      tuples[i] = (ITuple) iValue;
+      resources[i] = (IConstructor) tuples[i].get(0);
+      revisions[i] = (IConstructor) tuples[i].get(1);
+      i++;
+    }
+    byte[][] contents = readContents(repository, resources, revisions);
+
+    IMapWriter writer = ScmTypes.VF.mapWriter(
+        ScmTypes.TF.tupleType(Resource.getAbstractType(), Revision.getAbstractType()), ScmTypes.TF.stringType());
+    for (i = 0; i < tuples.length; i++) {
+      if (contents[i] != null) {
+        writer.put(tuples[i], values.string(new String(contents[i], UTF8)));
+      }
+    }
+    return writer.done();
+  }
+
+  private byte[][] readContents(IConstructor repository, IConstructor[] files, IConstructor[] revisions) {
+    try {
+      return getProviderFor(repository).readContents(repository, files, revisions);
+    } catch (ScmProviderException e) {
+      throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
+    }
+  }
+
   public static void getChangesets(IConstructor repository, IValue callBack) throws ScmProviderException {
     if (!(repository.getType().isSubtypeOf(ScmTypes.AbstractDataType.REPOSITORY.getType()))) {
       throw new IllegalArgumentException("configuration should be of the type REPOSITORY");
@@ -127,148 +219,564 @@ public class Versions {
     }
     
     try {
+      return extractChangesets(repository);
+    } catch (ScmProviderException e) {
+      throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
+    }
+  }
+
+  /**
+   * Extracts the changesets of the repository into a list. With the checkpoint option of git they
+   * are written to a store already, the list reads them from the store when they are asked for.
+   */
+  private IList extractChangesets(IConstructor repository) throws ScmProviderException {
+    IConstructor checkpoint = null;
+    if (Repository.from(repository) == Repository.GIT) {
+      for (IValue option : Repository.getOptions(repository)) {
+        if (LogOption.from((IConstructor) option) == LogOption.CHECKPOINT) {
+          checkpoint = (IConstructor) option;
+        }
+      }
+    }
+    if (checkpoint == null) {
       IListWriter writer = ScmTypes.VF.listWriter(ChangeSet.getAbstractType());
       getProviderFor(repository).extractLogs(repository, null, writer);
       return writer.done();
+    }
+
+    getProviderFor(repository).extractLogs(repository, null, null);
+    ISourceLocation directory = LogOption.getDir(checkpoint);
+    try {
+      //the store that was opened before is the one of the last checkpoint
+      changesetStores.remove(new File(directory.getURI().getPath()).getCanonicalPath());
+    } catch (IOException e) {
+      throw new ScmProviderException(e.getMessage(), e);
+    }
+    return openChangesetStore(directory);
+  }
+
+  /**
+   * Extracts the changesets of many repositories at the same time, on as many threads as there are
+   * processors.
+   */
+  public ITuple getChangesets(ISet repositories) {
+    return getChangesets(repositories, values.integer(Runtime.getRuntime().availableProcessors()));
+  }
+
+  /**
+   * Extracts the changesets of many repositories at the same time, one repository per thread. A
+   * repository that fails doesn't stop the others, it is left out of the changesets and its error
+   * is in the failures instead.
+   * 
+   * @param threads
+   *          the number of repositories that are extracted at the same time.
+   * @return a map from {@link Repository} to its list of {@link ChangeSet}, and a map from every
+   *         {@link Repository} that failed to its error message.
+   */
+  public ITuple getChangesets(ISet repositories, IInteger threads) {
+    IMapWriter writer = ScmTypes.VF.mapWriter(Repository.getAbstractType(), ScmTypes.TF.listType(ChangeSet.getAbstractType()));
+    IMapWriter failures = ScmTypes.VF.mapWriter(Repository.getAbstractType(), ScmTypes.TF.stringType());
+    if (repositories.isEmpty()) {
+      return ScmTypes.VF.tuple(writer.done(), failures.done());
+    }
+    int poolSize = Math.max(1, Math.min(threads.intValue(), repositories.size()));
+    ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+    Map<IConstructor, Future<IList>> changesets = new LinkedHashMap<IConstructor, Future<IList>>();
+    try {
+      for (IValue iValue : repositories) {
+        final IConstructor repository = (IConstructor) iValue;
+        changesets.put(repository, pool.submit(new Callable<IList>() {
+          public IList call() throws ScmProviderException {
+            return extractChangesets(repository);
+          }
+        }));
+      }
+
+      for (Map.Entry<IConstructor, Future<IList>> entry : changesets.entrySet()) {
+        try {
+          writer.put(entry.getKey(), entry.getValue().get());
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+          failures.put(entry.getKey(), ScmTypes.VF.string(message));
+        }
+      }
+      return ScmTypes.VF.tuple(writer.done(), failures.done());
+    } catch (InterruptedException e) {
+      throw new Throw(values.string("Interrupted while getting the changesets"), (ISourceLocation) null, null);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Extracts the changesets of a git repository into a store in the directory, see
+   * {@link ChangesetStore}. The changesets go to disk as they are extracted, a log that doesn't fit
+   * in memory can be stored.
+   */
+  public void writeChangesetStore(IConstructor repository, ISourceLocation directory) {
+    if (Repository.from(repository) != Repository.GIT) {
+      throw new Throw(values.string("Only the changesets of a git repository can be stored"), (ISourceLocation) null, null);
+    }
+    try {
+      File file = new File(directory.getURI().getPath());
+      changesetStores.remove(file.getCanonicalPath());
+      ((GitProvider) getProviderFor(repository)).writeChangesetStore(repository, file);
+    } catch (IOException e) {
+      throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
     } catch (ScmProviderException e) {
       throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
     }
   }
 
-  public ISet mergeRevisions(ISet resources) {
-    return null;
+  /**
+   * @return the changesets of the store in the directory, in the order they were extracted. They
+   *         are read from the store when they are asked for.
+   */
+  public IList openChangesetStore(ISourceLocation directory) {
+    ChangesetStore store = getChangesetStore(directory, true);
+    return store.get(0, store.size());
   }
 
-  public ISet buildResourceTree(ISet resourceFiles) {
-    return buildResourceTree(resourceFiles,
-        ScmTypes.VF.map(ScmTypes.TF.sourceLocationType(), ScmTypes.Resource.getAbstractType()));
+  /**
+   * @return the changeset with the number in the store, counting from 0, without reading the
+   *         others.
+   */
+  public IConstructor changesetAt(ISourceLocation directory, IInteger ordinal) {
+    ChangesetStore store = getChangesetStore(directory, false);
+    int i = ordinal.intValue();
+    if (i < 0 || i >= store.size()) {
+      throw new Throw(values.string("There are " + store.size() + " changesets in " + directory + ", not " + i), (ISourceLocation) null, null);
+    }
+    return store.get(i);
   }
 
-  public ISet buildResourceTree(ISet resourceFiles, IMap resourceDirs) {
-    Map<String, Set<IConstructor>> directoryFiles = new HashMap<String, Set<IConstructor>>();
-
-    for (IValue iValue : resourceFiles) {
-      IConstructor file = (IConstructor) iValue;
-      String path = Resource.getId(file).getURI().getPath();
-      int dirIndex = path.lastIndexOf(File.separatorChar);
+  /**
+   * @return the changeset of the commit in the store.
+   */
+  public IConstructor changesetOf(ISourceLocation directory, IString sha) {
+    ChangesetStore store = getChangesetStore(directory, false);
+    int i = store.ordinalOf(sha.getValue());
+    if (i < 0) {
+      throw new Throw(values.string("There is no changeset of " + sha.getValue() + " in " + directory), (ISourceLocation) null, null);
+    }
+    return store.get(i);
+  }
 
-      path = path.substring(0, dirIndex);
+  /**
+   * Reads the changesets between two checkout units from the store, without the changeset of
+   * from and with the one of to, like the log of from..to. When the store has the newest
+   * changesets first, those are the ones from to up to from. A date is the changeset committed
+   * last at or before it.
+   */
+  public IList readChangesets(ISourceLocation directory, IConstructor from, IConstructor to) {
+    ChangesetStore store = getChangesetStore(directory, true);
+    int start = store.ordinalOf(from);
+    int end = store.ordinalOf(to);
+    if (start < 0 || end < 0) {
+      IConstructor missing = start < 0 ? from : to;
+      throw new Throw(values.string("There is no changeset of " + missing + " in " + directory), (ISourceLocation) null, null);
+    }
+    if (start <= end) {
+      return store.get(start + 1, end + 1);
+    }
+    return store.get(end, start);
+  }
 
-      Set<IConstructor> dirFiles = directoryFiles.get(path);
-      if (dirFiles == null) {
-        dirFiles = new HashSet<IConstructor>();
-        directoryFiles.put(path, dirFiles);
-      }
-      dirFiles.add(file);
-    }
-
-    Map<String, Set<String>> subDirectories = new HashMap<String, Set<String>>();
-    Set<String> roots = new HashSet<String>();
-    for (String subDir : directoryFiles.keySet()) {
-      String parent;
-      String child = subDir;
-      int dirIndex;
-      while (true) {
-        dirIndex = child.lastIndexOf(File.separatorChar);
-        // if (dirIndex < 0) {
-        // roots.add(child);
-        // break;
-        // }
-        parent = child.substring(0, dirIndex);
-        if (parent.equals("")) {
-          roots.add(child);
-          break;
+  /**
+   * @param refresh
+   *          if true, a store that got a checkpoint since it was opened is opened again. Reading its
+   *          header costs a file read, the calls that read one changeset don't.
+   */
+  private ChangesetStore getChangesetStore(ISourceLocation directory, boolean refresh) {
+    try {
+      File file = new File(directory.getURI().getPath());
+      String key = file.getCanonicalPath();
+      ChangesetStore store = changesetStores.get(key);
+      //a store with checkpoints grows while it is extracted
+      if (store == null || (refresh && store.isOutdated())) {
+        ChangesetStore opened = ChangesetStore.open(file);
+        if (store == null ? changesetStores.putIfAbsent(key, opened) == null : changesetStores.replace(key, store, opened)) {
+          store = opened;
+        } else {
+          store = changesetStores.get(key);
         }
+      }
+      return store;
+    } catch (IOException e) {
+      throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
+    }
+  }
 
-        Set<String> childs = subDirectories.get(parent);
-        if (childs == null) {
-          childs = new HashSet<String>();
-          subDirectories.put(parent, childs);
-        }
+  /**
+   * @return a handle of the graph of the parents of the changesets, see {@link RevisionGraph}.
+   */
+  public IConstructor commitGraph(IList changesets) {
+    return registerCommitGraph(RevisionGraph.of(changesets));
+  }
 
-        childs.add(child);
-        child = parent;
-      }
+  /**
+   * @return a handle of the graph of the parents of the changesets of the repository. The graph
+   *         is built while the log is extracted, the changesets themselves aren't kept.
+   */
+  public IConstructor commitGraph(IConstructor repository) {
+    RevisionGraph.Builder builder = new RevisionGraph.Builder();
+    try {
+      extractGraph(getProviderFor(repository), repository, builder);
+    } catch (ScmProviderException e) {
+      throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
+    }
+    return registerCommitGraph(builder.done());
+  }
+
+  private static <E extends ScmLogEntryHandler<?>> void extractGraph(ScmProvider<E> provider, IConstructor repository,
+      RevisionGraph.Builder builder) throws ScmProviderException {
+    E handler = provider.createLogEntryHandler(repository, null, null);
+    ((AbstractScmLogEntryHandler<?>) handler).setGraph(builder);
+    provider.extractLogs(repository, handler);
+  }
+
+  private static IConstructor registerCommitGraph(RevisionGraph graph) {
+    int id = nextCommitGraph.incrementAndGet();
+    commitGraphs.put(id, graph);
+    return CommitGraph.COMMIT_GRAPH.make(id);
+  }
+
+  /**
+   * Forgets the graph, the handle can't be used anymore.
+   */
+  public void releaseCommitGraph(IConstructor graph) {
+    commitGraphs.remove(CommitGraph.getId(graph).intValue());
+  }
+
+  /**
+   * @return the start revisions and every revision they reach through their parents without
+   *         passing an excluded one, see {@link RevisionGraph#reach(java.util.BitSet, java.util.BitSet)}.
+   *         Unlike git rev-list start --not exclude, the ancestors of an excluded revision are
+   *         still reached over another path. Revision ids that aren't in the graph are ignored.
+   */
+  public ISet reach(IConstructor graph, ISet start, ISet exclude) {
+    RevisionGraph revisions = getCommitGraph(graph);
+    return revisions.toSet(revisions.reach(revisions.toBits(start), revisions.toBits(exclude)));
+  }
+
+  /**
+   * @return the revisions the revision descends from, without the revision itself.
+   */
+  public ISet ancestors(IConstructor graph, IConstructor revisionId) {
+    RevisionGraph revisions = getCommitGraph(graph);
+    return revisions.toSet(revisions.ancestors(getOrdinal(revisions, revisionId)));
+  }
+
+  /**
+   * @return the revisions that descend from the revision, without the revision itself.
+   */
+  public ISet descendants(IConstructor graph, IConstructor revisionId) {
+    RevisionGraph revisions = getCommitGraph(graph);
+    return revisions.toSet(revisions.descendants(getOrdinal(revisions, revisionId)));
+  }
+
+  /**
+   * @return the best common ancestors of the two revisions, empty when they have none.
+   */
+  public ISet mergeBase(IConstructor graph, IConstructor a, IConstructor b) {
+    RevisionGraph revisions = getCommitGraph(graph);
+    BitSet bases = revisions.mergeBases(getOrdinal(revisions, a), getOrdinal(revisions, b));
+    return revisions.toSet(bases);
+  }
+
+  private RevisionGraph getCommitGraph(IConstructor graph) {
+    RevisionGraph revisions = commitGraphs.get(CommitGraph.getId(graph).intValue());
+    if (revisions == null) {
+      throw new Throw(values.string(graph + " was released or isn't a commit graph"), (ISourceLocation) null, null);
     }
+    return revisions;
+  }
 
-    ISetWriter rootResources = ScmTypes.VF.setWriter(ScmTypes.AbstractDataType.RESOURCE.getType());
-    for (String root : roots) {
-      IConstructor rootResource = buildResourceTree(root, resourceDirs, directoryFiles, subDirectories);
-      rootResources.insert(rootResource);
+  private int getOrdinal(RevisionGraph revisions, IConstructor revisionId) {
+    int ordinal = revisions.ordinalOf(revisionId);
+    if (ordinal < 0) {
+      throw new Throw(values.string("There is no revision " + revisionId + " in the commit graph"), (ISourceLocation) null, null);
     }
-    return rootResources.done();
+    return ordinal;
   }
 
   /**
-   * files: A/readme.txt A/B/file.txt A/B/readme.txt A/C/info.txt A/C/D/k.txt
-   * B/help.txt
-   * 
-   * directoryFiles: A -> A/readme.txt A/B -> A/B/file.txt A/B/readme.txt A/C ->
-   * A/C/info.txt A/C/D -> A/C/D/k.txt B -> B/help.txt
+   * Checks out many units at the same time, every unit in a working copy of its own under the root
+   * directory. The working copies are used until {@link #releaseWorkspace(ISourceLocation)}; then
+   * they are checked out again for other units, as long as the released ones fit in the disk
+   * budget.
    * 
-   * roots: A B
-   * 
-   * subDirectories: A -> A/B A/C B A/C -> A/C/D
+   * @param threads
+   *          the number of units that are checked out at the same time.
+   * @param diskBudget
+   *          the number of megabytes the released working copies can take.
+   * @return the directory of the working copy of every unit.
+   */
+  public IMap checkoutWorkspaces(IConstructor repository, ISet units, ISourceLocation root, IInteger threads, IInteger diskBudget) {
+    return forEachCheckout(repository, units, root, threads, diskBudget, ScmTypes.TF.sourceLocationType(), false,
+        new CheckoutWorker() {
+          public IValue work(IConstructor repository, IConstructor unit, File workspace) {
+            return location(workspace.toPath());
+          }
+        });
+  }
+
+  /**
+   * Gives a working copy of {@link #checkoutWorkspaces} back.
+   */
+  public void releaseWorkspace(ISourceLocation workspace) {
+    File directory = new File(workspace.getURI().getPath());
+    for (CheckoutPool pool : checkoutPools.values()) {
+      if (pool.contains(directory)) {
+        try {
+          pool.release(directory);
+        } catch (ScmProviderException e) {
+          throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
+        }
+        return;
+      }
+    }
+    throw new Throw(values.string(workspace + " isn't a checked out workspace"), (ISourceLocation) null, null);
+  }
+
+  /**
+   * Removes the working copies under the root directory, the ones that are in use are removed when
+   * they are released.
+   */
+  public void removeWorkspaces(ISourceLocation root) {
+    try {
+      CheckoutPool pool = checkoutPools.remove(new File(root.getURI().getPath()).getCanonicalPath());
+      if (pool != null) {
+        pool.close();
+      }
+    } catch (IOException e) {
+      throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
+    } catch (ScmProviderException e) {
+      throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
+    }
+  }
+
+  /**
+   * Counts the lines of the files of many units at the same time, every unit is checked out in a
+   * working copy under the root directory, counted, and released.
    * 
-   * resourceTree A -> A/readme.txt A/B A/C A/B -> A/B/file.txt A/B/readme.txt
-   * A/C -> A/C/info.txt A/C/D -> A/C/D/k.txt B -> B/help.txt
+   * @return the lines per file of every unit, the files are located in the workspace of the
+   *         repository.
    */
-  private IConstructor buildResourceTree(String root, IMap resourceDirs, Map<String, Set<IConstructor>> directoryFiles,
-      Map<String, Set<String>> subDirectories) {
+  public IMap linesCount(IConstructor repository, ISet units, ISourceLocation root, IInteger threads, IInteger diskBudget) {
+    final String workspace = getWorkspacePath(repository);
+    return forEachCheckout(repository, units, root, threads, diskBudget,
+        ScmTypes.TF.mapType(Resource.getAbstractType(), ScmTypes.TF.integerType()), true,
+        new CheckoutWorker() {
+          public IValue work(IConstructor repository, IConstructor unit, File directory) throws IOException {
+            IListWriter found = ScmTypes.VF.listWriter(ScmTypes.TF.sourceLocationType());
+            new FileWalker("glob:**", true, 0).walk(directory.toPath(), found);
+            IList locations = found.done();
+            File[] files = new File[locations.length()];
+            for (int i = 0; i < files.length; i++) {
+              files[i] = new File(((ISourceLocation) locations.get(i)).getURI().getPath());
+            }
+
+            LineCounter.Counts[] counts = new LineCounter(false).count(files);
+            IMapWriter writer = ScmTypes.VF.mapWriter(Resource.getAbstractType(), ScmTypes.TF.integerType());
+            Path base = directory.toPath();
+            for (int i = 0; i < files.length; i++) {
+              if (counts[i].skipped == null) {
+                String relative = base.relativize(files[i].toPath()).toString().replace(File.separatorChar, '/');
+                writer.put(Resource.FILE.make(createResourceId(workspace, relative)), ScmTypes.VF.integer(counts[i].lines));
+              }
+            }
+            return writer.done();
+          }
+        });
+  }
+
+  private interface CheckoutWorker {
+    IValue work(IConstructor repository, IConstructor unit, File workspace) throws IOException, ScmProviderException;
+  }
 
-    ISetWriter rootResources = ScmTypes.VF.setWriter(ScmTypes.AbstractDataType.RESOURCE.getType());
+  /**
+   * Checks out every unit in a working copy of the pool of the root directory, and hands it to the
+   * worker, on a fixed number of threads. When a unit fails the others are still done, and then
+   * the error is thrown.
+   */
+  private IMap forEachCheckout(final IConstructor repository, ISet units, ISourceLocation root, IInteger threads,
+      IInteger diskBudget, Type resultType, final boolean release, final CheckoutWorker worker) {
+    final CheckoutPool pool = getCheckoutPool(repository, root, diskBudget.longValue() * 1024 * 1024);
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads.intValue(), Math.max(1, units.size()))));
+    Map<IConstructor, Future<IValue>> results = new LinkedHashMap<IConstructor, Future<IValue>>();
+    try {
+      for (IValue iValue : units) {
+        final IConstructor unit = (IConstructor) iValue;
+        results.put(unit, executor.submit(new Callable<IValue>() {
+          public IValue call() throws IOException, ScmProviderException {
+            File workspace = pool.checkout(unit);
+            boolean done = false;
+            try {
+              IValue result = worker.work(repository, unit, workspace);
+              done = true;
+              return result;
+            } finally {
+              if (release || !done) {
+                pool.release(workspace);
+              }
+            }
+          }
+        }));
+      }
 
-    if (directoryFiles.containsKey(root)) {
-      for (IConstructor file : directoryFiles.get(root)) {
-        rootResources.insert(file);
+      IMapWriter writer = ScmTypes.VF.mapWriter(CheckoutUnit.getAbstractType(), resultType);
+      Throwable failure = null;
+      List<IValue> kept = new ArrayList<IValue>();
+      for (Map.Entry<IConstructor, Future<IValue>> entry : results.entrySet()) {
+        try {
+          IValue result = entry.getValue().get();
+          writer.put(entry.getKey(), result);
+          kept.add(result);
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+      if (failure != null) {
+        if (!release) {
+          for (IValue workspace : kept) {
+            releaseWorkspace((ISourceLocation) workspace);
+          }
+        }
+        throw new Throw(values.string(failure.getMessage()), (ISourceLocation) null, null);
       }
+      return writer.done();
+    } catch (InterruptedException e) {
+      throw new Throw(values.string("Interrupted while checking out"), (ISourceLocation) null, null);
+    } finally {
+      executor.shutdown();
     }
+  }
 
-    if (subDirectories.containsKey(root)) {
-      for (String subDir : subDirectories.get(root)) {
-        IConstructor subDirConstructor = buildResourceTree(subDir, resourceDirs, directoryFiles, subDirectories);
-        rootResources.insert(subDirConstructor);
+  private static CheckoutPool getCheckoutPool(IConstructor repository, ISourceLocation root, long diskBudget) {
+    File directory = new File(root.getURI().getPath());
+    String key;
+    try {
+      key = directory.getCanonicalPath();
+    } catch (IOException e) {
+      key = directory.getAbsolutePath();
+    }
+    CheckoutPool pool = checkoutPools.get(key);
+    if (pool == null) {
+      directory.mkdirs();
+      pool = new CheckoutPool(getProviderFor(repository), repository, directory, diskBudget);
+      CheckoutPool existing = checkoutPools.putIfAbsent(key, pool);
+      if (existing != null) {
+        pool = existing;
       }
     }
-    ISourceLocation rootLocation = ScmTypes.VF.sourceLocation(Versions.encodePath(root));
-    ISet content = rootResources.done();
-    // if (resourceDirs.containsKey(rootLocation)) {
-    // IConstructor resource = (IConstructor)resourceDirs.get(rootLocation);
-    // IConstructor revision = ScmTypes.Resource.getRevision(resource);
-    // IConstructor change = ScmTypes.Resource.getChange(resource);
-    // return Resource.FOLDER_REV_CONTENT.make(rootLocation, revision,
-    // change, content);
-    // } else {
+    pool.setDiskBudget(diskBudget);
+    return pool;
+  }
 
-    // }
+  /**
+   * @return where a checkout of the repository puts its files, without a / at the end.
+   */
+  private static String getWorkspacePath(IConstructor repository) {
+    String path;
+    if (Repository.from(repository) == Repository.GIT) {
+      path = new File(Connection.getUrl(Repository.getConnection(repository)).getValue()).getAbsolutePath();
+    } else {
+      path = Repository.getWorkspace(repository).getURI().getPath();
+    }
+    while (path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    return encodePath(path);
+  }
 
-    return content.size() > 0 ? Resource.FOLDER_CONTENT.make(rootLocation, content) : Resource.FOLDER
-        .make(rootLocation);
+  public ISet mergeRevisions(ISet resources) {
+    return null;
+  }
+
+  public ISet buildResourceTree(ISet resourceFiles) {
+    return buildResourceTree(resourceFiles,
+        ScmTypes.VF.map(ScmTypes.TF.sourceLocationType(), ScmTypes.Resource.getAbstractType()));
+  }
+
+  /**
+   * Nests the files in folders, see {@link ResourceTree}.
+   * 
+   * @return the top folders, and the files that aren't in a folder.
+   */
+  public ISet buildResourceTree(ISet resourceFiles, IMap resourceDirs) {
+    ResourceTree tree = new ResourceTree();
+    for (IValue iValue : resourceFiles) {
+      tree.add((IConstructor) iValue);
+    }
+    return tree.done();
+  }
+
+  /**
+   * The tree of the next revision: the files that were removed or renamed in the changes are taken
+   * out of the tree, the others are put in. The folders without changes are the same values as in
+   * the tree that was given.
+   * 
+   * @param tree
+   *          as built by {@link #buildResourceTree(ISet)} or by an earlier update.
+   * @param changes
+   *          the resources of a changeset, a relation of {@link Resource} and
+   *          {@link RevisionChange}.
+   */
+  public ISet updateResourceTree(ISet tree, ISet changes) {
+    ResourceTree next = new ResourceTree(tree);
+    for (IValue iValue : changes) {
+      ITuple change = (ITuple) iValue;
+      IConstructor resource = (IConstructor) change.get(0);
+      IConstructor revisionChange = (IConstructor) change.get(1);
+      Type changeType = revisionChange.getConstructorType();
+      if (changeType == RevisionChange.REMOVED.getType()) {
+        next.remove(Resource.getId(resource));
+        continue;
+      }
+      if (changeType == RevisionChange.RENAMED_ORIGIN.getType()) {
+        next.remove(Resource.getId(RevisionChange.getOrigin(revisionChange)));
+      }
+      next.add(resource);
+    }
+    return next.done();
   }
 
   public static String encodePath(String path) {
-    if (path.indexOf('{') >= 0 || path.indexOf('}') >= 0 || path.indexOf(' ') >= 0) {
-      StringBuilder builder = new StringBuilder();
-      for (int i = 0; i < path.length(); i++) {
-        char c = path.charAt(i);
-        switch (c) {
-        case '{':
-          builder.append("%7B");
-          break;
-        case '}':
-          builder.append("%7D");
-          break;
-        case ' ':
-          builder.append("%20");
-          break;
-        default:
-          builder.append(c);
-          break;
-        }
+    int i = 0;
+    while (i < path.length() && !needsEncoding(path.charAt(i))) {
+      i++;
+    }
+    if (i == path.length()) {
+      return path;
+    }
+    StringBuilder builder = new StringBuilder(path.length() + 8);
+    builder.append(path, 0, i);
+    for (; i < path.length(); i++) {
+      char c = path.charAt(i);
+      switch (c) {
+      case '{':
+        builder.append("%7B");
+        break;
+      case '}':
+        builder.append("%7D");
+        break;
+      case ' ':
+        builder.append("%20");
+        break;
+      default:
+        builder.append(c);
+        break;
       }
-      return builder.toString();
     }
-    return path;
+    return builder.toString();
+  }
+
+  private static boolean needsEncoding(char c) {
+    return c == '{' || c == '}' || c == ' ';
   }
 
   /**
@@ -281,7 +789,7 @@ public class Versions {
    * @return the full path to the file as an ISourceLocation
    */
   public static ISourceLocation createResourceId(String workspace, String filePath) {
-    return ScmTypes.VF.sourceLocation(workspace + "/" + Versions.encodePath(filePath));
+    return ResourceLocations.forWorkspace(workspace).get(filePath);
   }
 
   public IBool isDirectory(ISourceLocation location) {
@@ -310,15 +818,10 @@ public class Versions {
 
   public IList listFiles(ISourceLocation directory, IString filterRegex) {
 
-    final String regex = filterRegex.getValue();
+    final Pattern regex = Pattern.compile(filterRegex.getValue());
     FileFilter fileFilter = new FileFilter() {
       public boolean accept(File pathname) {
-        /*
-         * System.out.println("File:" + pathname + " has path '" +
-         * pathname.getPath() + "' and abs: '" + pathname.getAbsolutePath() +
-         * "'");
-         */
-        return !pathname.isDirectory() && pathname.getPath().matches(regex);
+        return !pathname.isDirectory() && regex.matcher(pathname.getPath()).matches();
       }
     };
 
@@ -327,16 +830,69 @@ public class Versions {
 
   public IList listDirs(ISourceLocation directory, IString filterRegex) {
 
-    final String regex = filterRegex.getValue();
+    final Pattern regex = Pattern.compile(filterRegex.getValue());
     FileFilter fileFilter = new FileFilter() {
       public boolean accept(File pathname) {
-        return pathname.isDirectory() && pathname.getPath().matches(regex);
+        return pathname.isDirectory() && regex.matcher(pathname.getPath()).matches();
       }
     };
 
     return listFilesAndDirs(directory, fileFilter);
   }
 
+  /**
+   * Lists the files below the directory whose path matches, see {@link FileWalker}.
+   * 
+   * @param pattern
+   *          "glob:&lt;pattern&gt;" or "regex:&lt;pattern&gt;", a regular expression without a
+   *          syntax. A glob is matched against the path below the directory, a regular expression
+   *          against the whole path.
+   * @param maxDepth
+   *          how many levels are listed, 1 only lists the directory itself, 0 doesn't limit the
+   *          walk.
+   */
+  public IList walkFiles(ISourceLocation directory, IString pattern, IInteger maxDepth) {
+    return walk(directory, new FileWalker(pattern.getValue(), true, maxDepth.intValue()), false);
+  }
+
+  public IList walkFiles(ISourceLocation directory, IString pattern, IInteger maxDepth, IBool parallel) {
+    return walk(directory, new FileWalker(pattern.getValue(), true, maxDepth.intValue()), parallel.getValue());
+  }
+
+  /**
+   * Lists the directories below the directory whose path matches, like
+   * {@link #walkFiles(ISourceLocation, IString, IInteger)}.
+   */
+  public IList walkDirs(ISourceLocation directory, IString pattern, IInteger maxDepth) {
+    return walk(directory, new FileWalker(pattern.getValue(), false, maxDepth.intValue()), false);
+  }
+
+  public IList walkDirs(ISourceLocation directory, IString pattern, IInteger maxDepth, IBool parallel) {
+    return walk(directory, new FileWalker(pattern.getValue(), false, maxDepth.intValue()), parallel.getValue());
+  }
+
+  private IList walk(ISourceLocation directory, FileWalker walker, boolean parallel) {
+    Path path = Paths.get(directory.getURI().getPath());
+    if (!Files.isDirectory(path)) {
+      throw new IllegalArgumentException(directory + " is not a directory.");
+    }
+    IListWriter writer = ScmTypes.VF.listWriter(ScmTypes.TF.sourceLocationType());
+    if (parallel) {
+      walker.walkParallel(path, writer);
+    } else {
+      try {
+        walker.walk(path, writer);
+      } catch (IOException e) {
+        throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
+      }
+    }
+    return writer.done();
+  }
+
+  static ISourceLocation location(Path path) {
+    return ScmTypes.VF.sourceLocation(Versions.encodePath(path.toAbsolutePath().toString()));
+  }
+
   /**
    * Lists the content of the given directory.
    * 
@@ -361,51 +917,90 @@ public class Versions {
     return writer.done();
   }
 
-  public IMap linesCount(ISet locations) throws ScmProviderException {
-    IMapWriter results = ScmTypes.VF.mapWriter(Resource.getAbstractType(), ScmTypes.TF.integerType());
+  /**
+   * Counts the lines of the files, see {@link LineCounter}. The files that can't be counted
+   * (directories, missing files) are left out, {@link #linesCountReport(ISet)} says why.
+   */
+  public IMap linesCount(ISet locations) {
+    return (IMap) linesCountReport(locations).get(0);
+  }
 
-    for (IValue iValue : locations) {
-      IConstructor resource = (IConstructor) iValue;
-      ISourceLocation loc = Resource.getId(resource);
-      FileReader fr = null;
-      LineNumberReader lnr = null;
-      try {
-        File file = new File(loc.getURI());
-        if (file.isDirectory()) {
-          System.err.println("Skipping " + file + " because it's directory");
-          continue;
-        }
-        fr = new FileReader(file);
-        lnr = new LineNumberReader(fr);
+  /**
+   * Counts the lines of the files of a revision or tag without checking it out, every blob is only
+   * counted once across calls. Only git repositories can do that.
+   * 
+   * @return the lines per file, the files are located in the workspace of the repository.
+   */
+  public IMap linesCount(IConstructor repository, IConstructor checkoutUnit) {
+    if (Repository.from(repository) != Repository.GIT) {
+      throw new IllegalArgumentException("Can only count the lines of a checkout unit in a git repository");
+    }
+    try {
+      return ((GitProvider) getProviderFor(repository)).linesCount(repository, checkoutUnit);
+    } catch (ScmProviderException e) {
+      throw new Throw(values.string(e.getMessage()), (ISourceLocation) null, null);
+    }
+  }
 
-        while (lnr.readLine() != null) {
-        }
+  /**
+   * @return the lines per file, and the reason per file that was skipped.
+   */
+  public ITuple linesCountReport(ISet locations) {
+    IConstructor[] resources = toArray(locations);
+    LineCounter.Counts[] counts = new LineCounter(false).count(toFiles(resources));
 
-        results.put(resource, ScmTypes.VF.integer(lnr.getLineNumber()));
-      } catch (FileNotFoundException e) {
-        System.err.println("Cannot find the file, just skipping it:" + e.getMessage());
-        // throw new ScmProviderException(e.getMessage(), e);
-      } catch (IOException e) {
-        System.err.println("IO Exception, just skipping the current file:" + e.getMessage());
-        // throw new ScmProviderException(e.getMessage(), e);
-      } finally {
-        if (fr != null) {
-          try {
-            fr.close();
-          } catch (IOException e) {
-            throw new ScmProviderException(e.getMessage(), e);
-          }
-        }
-        if (lnr != null) {
-          try {
-            lnr.close();
-          } catch (IOException e) {
-            throw new ScmProviderException(e.getMessage(), e);
-          }
-        }
+    IMapWriter results = ScmTypes.VF.mapWriter(Resource.getAbstractType(), ScmTypes.TF.integerType());
+    IMapWriter skipped = ScmTypes.VF.mapWriter(Resource.getAbstractType(), ScmTypes.TF.stringType());
+    for (int i = 0; i < resources.length; i++) {
+      if (counts[i].skipped != null) {
+        skipped.put(resources[i], ScmTypes.VF.string(counts[i].skipped));
+      } else {
+        results.put(resources[i], ScmTypes.VF.integer(counts[i].lines));
       }
     }
-    return results.done();
+    return ScmTypes.VF.tuple(results.done(), skipped.done());
+  }
+
+  /**
+   * Counts the bytes, the lines and the lines with more than whitespace of the files, in one pass.
+   * 
+   * @return the sizes per file, and the reason per file that was skipped.
+   */
+  public ITuple fileSizes(ISet locations) {
+    IConstructor[] resources = toArray(locations);
+    LineCounter.Counts[] counts = new LineCounter(true).count(toFiles(resources));
+
+    Type sizeType = ScmTypes.TF.tupleType(ScmTypes.TF.integerType(), "bytes", ScmTypes.TF.integerType(), "lines",
+        ScmTypes.TF.integerType(), "nonBlankLines");
+    IMapWriter results = ScmTypes.VF.mapWriter(Resource.getAbstractType(), sizeType);
+    IMapWriter skipped = ScmTypes.VF.mapWriter(Resource.getAbstractType(), ScmTypes.TF.stringType());
+    for (int i = 0; i < resources.length; i++) {
+      LineCounter.Counts count = counts[i];
+      if (count.skipped != null) {
+        skipped.put(resources[i], ScmTypes.VF.string(count.skipped));
+      } else {
+        results.put(resources[i], ScmTypes.VF.tuple(ScmTypes.VF.integer(count.bytes),
+            ScmTypes.VF.integer(count.lines), ScmTypes.VF.integer(count.nonBlankLines)));
+      }
+    }
+    return ScmTypes.VF.tuple(results.done(), skipped.done());
+  }
+
+  private static IConstructor[] toArray(ISet resources) {
+    IConstructor[] result = new IConstructor[resources.size()];
+    int i = 0;
+    for (IValue iValue : resources) {
+      result[i++] = (IConstructor) iValue;
+    }
+    return result;
+  }
+
+  private static File[] toFiles(IConstructor[] resources) {
+    File[] files = new File[resources.length];
+    for (int i = 0; i < resources.length; i++) {
+      files[i] = new File(Resource.getId(resources[i]).getURI());
+    }
+    return files;
   }
 
 }
\ No newline at end of file
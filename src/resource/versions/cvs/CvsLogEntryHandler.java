@@ -15,7 +15,9 @@
 *******************************************************************************/
 package resource.versions.cvs;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.imp.pdb.facts.IConstructor;
 import org.eclipse.imp.pdb.facts.IListWriter;
@@ -39,6 +41,7 @@ import org.netbeans.lib.cvsclient.event.TerminationEvent;
 import org.rascalmpl.interpreter.result.RascalFunction;
 
 import resource.versions.AbstractScmLogEntryHandler;
+import resource.versions.ResourceLocations;
 import resource.versions.ScmEntryChangeKind;
 import resource.versions.ScmTypes;
 import resource.versions.Versions;
@@ -51,6 +54,9 @@ public class CvsLogEntryHandler extends AbstractScmLogEntryHandler<LogInformatio
 	private final String host;
 	private final String url;
 	private final String workspace;
+	private final ResourceLocations locations;
+	//the files of an interrupted extraction that were called back already
+	private Set<String> done = Collections.emptySet();
 	
 	public CvsLogEntryHandler(IConstructor repository, RascalFunction factExtractor, IListWriter logEntriesWriter) {
 		super(repository, factExtractor, logEntriesWriter);
@@ -59,6 +65,7 @@ public class CvsLogEntryHandler extends AbstractScmLogEntryHandler<LogInformatio
 		host = ScmTypes.Connection.hasHost(connection) ? ScmTypes.Connection.getHost(connection).getValue() : null;
 		url = ScmTypes.Connection.getUrl(connection).getValue();
 		workspace = ScmTypes.Repository.getWorkspace(repository).getURI().getPath();
+		locations = ResourceLocations.forWorkspace(workspace);
 	}
 
 	public void handleLogEntry(LogInformation logInfo) {
@@ -68,8 +75,12 @@ public class CvsLogEntryHandler extends AbstractScmLogEntryHandler<LogInformatio
 		//We will use the substring of the filename, starting after the repository url part (if matched)
 		//and ended at length - 2, since we don't need the ',v' part of the filename.
 		fileName = fileName.substring(fileName.startsWith(url) ? url.length() : 0, fileName.length() - 2);
-		ISourceLocation sourceLocation = ScmTypes.VF.sourceLocation(workspace + Versions.encodePath(fileName));
+		ISourceLocation sourceLocation = fileName.startsWith("/") ? locations.get(fileName.substring(1)) 
+			: ScmTypes.VF.sourceLocation(workspace + Versions.encodePath(fileName));
 	
+		if (done.contains(sourceLocation.getURI().toString())) {
+			return;
+		}
 		IConstructor resource = Resource.FILE.make(sourceLocation);
 		ISetWriter revisions = ScmTypes.VF.relationWriter(ScmTypes.TF.tupleType(ScmTypes.RevisionChange.getAbstractType(), ScmTypes.Info.getAbstractType()));
 		ISetWriter revTags = ScmTypes.VF.relationWriter(ScmTypes.TF.tupleType(ScmTypes.Revision.getAbstractType(), ScmTypes.Tag.getAbstractType()));
@@ -100,6 +111,22 @@ public class CvsLogEntryHandler extends AbstractScmLogEntryHandler<LogInformatio
 		IConstructor result = callBack(changeSet);
 	}
 	
+	/**
+	 * The location of the file, a changeset has all the revisions of one file.
+	 */
+	@Override
+	protected String getJournalEntry(IConstructor changeSet) {
+		return Resource.getId(ScmTypes.ChangeSet.RESOURCE.getResource(changeSet)).getURI().toString();
+	}
+	
+	/**
+	 * Leaves the files out that an interrupted extraction called back already, see 
+	 * {@link #getJournalEntry(IConstructor)}.
+	 */
+	void resumeAfter(Set<String> files) {
+		done = files;
+	}
+	
 	private ScmTypes.RevisionChange getRevisionKind(Revision revision) {
 		ScmEntryChangeKind changeKind;
 		String state = revision.getState();
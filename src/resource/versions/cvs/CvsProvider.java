@@ -20,9 +20,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.eclipse.imp.pdb.facts.IConstructor;
 import org.eclipse.imp.pdb.facts.IDateTime;
@@ -46,8 +54,14 @@ import org.netbeans.lib.cvsclient.connection.AuthenticationException;
 import org.netbeans.lib.cvsclient.connection.Connection;
 import org.netbeans.lib.cvsclient.connection.LocalConnection;
 import org.netbeans.lib.cvsclient.connection.PServerConnection;
+import org.netbeans.lib.cvsclient.event.CVSAdapter;
+import org.netbeans.lib.cvsclient.event.EnhancedMessageEvent;
+import org.netbeans.lib.cvsclient.event.MessageEvent;
 import org.rascalmpl.interpreter.result.RascalFunction;
 
+import resource.versions.ExtractionJournal;
+import resource.versions.RawOutputCache;
+import resource.versions.RawOutputCache.Recording;
 import resource.versions.ScmProvider;
 import resource.versions.ScmProviderException;
 import resource.versions.ScmTypes;
@@ -200,27 +214,49 @@ public class CvsProvider implements ScmProvider<CvsLogEntryHandler> {
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	public byte[][] readContents(IConstructor repository, IConstructor[] files, IConstructor[] revisions) throws ScmProviderException {
+		throw new ScmProviderException("Can't read the contents of files at a revision from a CVS repository");
+	}
+	
 	private void extractLogsFromFile(ISourceLocation logsExport, Client client) throws ScmProviderException {
-		LogBuilder parser = new LogBuilder(client.getEventManager(), new RlogCommand());
-
 	    BufferedReader br;
 		try {
 			br = new BufferedReader(new FileReader(logsExport.getURI().getPath()));
 		} catch (FileNotFoundException e1) {
 			throw new ScmProviderException(e1.getMessage(), e1);
 		}
-	    while (true) {
-	      try {
-	        String str = br.readLine();
-	        if (null == str) {
-	          break;
-	        }
-	        parser.parseLine(str, false);
-	      } catch (IOException e) {
-	        throw new ScmProviderException(e.getMessage(), e);
-	      }
-	    }
-	    parser.outputDone();
+		replayLog(br, client);
+	}
+	
+	/**
+	 * Parses rlog output that was written down before, the listeners of the client get the same
+	 * events as from the server.
+	 */
+	private void replayLog(BufferedReader br, Client client) throws ScmProviderException {
+		LogBuilder parser = new LogBuilder(client.getEventManager(), new RlogCommand());
+		try {
+		    while (true) {
+		      try {
+		        String str = br.readLine();
+		        if (null == str) {
+		          break;
+		        }
+		        parser.parseLine(str, false);
+		      } catch (IOException e) {
+		        throw new ScmProviderException(e.getMessage(), e);
+		      }
+		    }
+		    parser.outputDone();
+		} finally {
+			try {
+				br.close();
+			} catch (IOException e) {
+				//everything was read
+			}
+		}
 	}
 	
 	public void extractLogs(IConstructor repository, CvsLogEntryHandler handler) throws ScmProviderException {
@@ -247,6 +283,8 @@ public class CvsProvider implements ScmProvider<CvsLogEntryHandler> {
 		
 		Date start = new Date(0);
 		Date end = new Date();
+		//without an end date the log ends at the time it runs, and can't be cached
+		boolean endFixed = false;
 			
 		
 		ISet logOptions = Repository.getOptions(repository);
@@ -262,6 +300,7 @@ public class CvsProvider implements ScmProvider<CvsLogEntryHandler> {
 					break;
 				case END:
 					endCheckoutUnit = LogOption.getUnit(logOption);
+					endFixed = true;
 					break;
 			}
 			if (startCheckoutUnit != null) {
@@ -280,19 +319,156 @@ public class CvsProvider implements ScmProvider<CvsLogEntryHandler> {
 			}
 		}
 		
+		ExtractionJournal journal = null;
+		if (Annotation.JOURNAL.has(conn)) {
+			if (handler.isCollecting()) {
+				ExtractionJournal.checkNoJournal(repository, "the list");
+			}
+			File journalFile = new File(Annotation.JOURNAL.get(conn, ISourceLocation.class).getURI().getPath());
+			try {
+				journal = ExtractionJournal.open(journalFile, ExtractionJournal.fingerprint(repository));
+				Map<String, String> range = new HashMap<String, String>();
+				range.put("start", Long.toString(start.getTime()));
+				//the log ends at the time the first run ended at, not at the time of the next run
+				String pinnedEnd = journal.getState().get("end");
+				if (journal.size() > 0 && pinnedEnd != null) {
+					end = new Date(Long.parseLong(pinnedEnd));
+					endFixed = true;
+				}
+				range.put("end", Long.toString(end.getTime()));
+				if (journal.size() > 0 && journal.getState().equals(range)) {
+					//rlog gives the files one by one, the ones that were done are left out
+					handler.resumeAfter(journal.readEntries());
+				} else {
+					journal.restart(range);
+				}
+				handler.setJournal(journal);
+			} catch (IOException e) {
+				throw new ScmProviderException(e.getMessage(), e);
+			}
+		}
+		
 		command.setDateFilter(dateFormat.format(end) + " > " + dateFormat.format(start));
 		
+		RawOutputCache cache = null;
+		String key = null;
+		if (Annotation.LOG_CACHE.has(conn) && endFixed) {
+			cache = new RawOutputCache(new File(Annotation.LOG_CACHE.get(conn, ISourceLocation.class).getURI().getPath()));
+			key = RawOutputCache.key("cvs", ScmTypes.Connection.getUrl(conn).getValue(), ScmTypes.Repository.getModule(repository).getValue(), 
+				Long.toString(start.getTime()), Long.toString(end.getTime()));
+		} else if (Annotation.LOG_CACHE.has(conn)) {
+			System.err.println("The rlog of " + ScmTypes.Repository.getModule(repository).getValue() + " has no end date, it isn't cached");
+		}
+		
+		boolean done = false;
+		LogRecorder recorder = null;
 		try {
-			client.executeCommand(command, gtx);
+			InputStream recorded = cache == null ? null : cache.open(key);
+			if (recorded != null) {
+				replayLog(new BufferedReader(new InputStreamReader(recorded, LogRecorder.UTF8)), client);
+			} else {
+				if (cache != null) {
+					recorder = new LogRecorder(cache.record(key));
+					client.getEventManager().addCVSListener(recorder);
+				}
+				client.executeCommand(command, gtx);
+				if (recorder != null) {
+					recorder.commit();
+				}
+			}
+			done = true;
+		} catch (IOException e) {
+			throw new ScmProviderException(e.getMessage(), e);
 		} catch (CommandAbortedException e1) {
 			e1.printStackTrace();
 		} catch (CommandException e1) {
 			e1.printStackTrace();
 		} catch (AuthenticationException e1) {
 			e1.printStackTrace();
+		} finally {
+			if (recorder != null) {
+				client.getEventManager().removeCVSListener(recorder);
+				if (!done) {
+					recorder.abort();
+				}
+			}
+			if (journal != null) {
+				handler.setJournal(null);
+				handler.resumeAfter(Collections.<String> emptySet());
+				if (done) {
+					try {
+						journal.finish();
+					} catch (IOException e) {
+						throw new ScmProviderException(e.getMessage(), e);
+					}
+				} else {
+					journal.close();
+				}
+			}
 		}
 	}
 	
 	
 	
+	/**
+	 * Writes the lines of the rlog output down while the command runs, the way the command hands
+	 * them to its builder.
+	 */
+	private static class LogRecorder extends CVSAdapter {
+		static final Charset UTF8 = Charset.forName("UTF-8");
+		
+		private final Recording recording;
+		private final Writer writer;
+		private final StringBuffer taggedLine = new StringBuffer();
+		private IOException failure = null;
+		
+		LogRecorder(Recording recording) {
+			this.recording = recording;
+			this.writer = new OutputStreamWriter(recording, UTF8);
+		}
+		
+		@Override
+		public void messageSent(MessageEvent e) {
+			if (e.isError() || e instanceof EnhancedMessageEvent) {
+				//the builder skips them
+				return;
+			}
+			if (e.isTagged()) {
+				String line = MessageEvent.parseTaggedMessage(taggedLine, e.getMessage());
+				if (line != null) {
+					write(line);
+					taggedLine.setLength(0);
+				}
+			} else {
+				if (taggedLine.length() > 0) {
+					write(taggedLine.toString());
+					taggedLine.setLength(0);
+				}
+				write(e.getMessage());
+			}
+		}
+		
+		private void write(String line) {
+			if (failure == null) {
+				try {
+					writer.write(line);
+					writer.write('\n');
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		}
+		
+		void commit() throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+			writer.flush();
+			recording.commit();
+		}
+		
+		void abort() {
+			recording.abort();
+		}
+	}
 }
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import resource.versions.RawOutputCache;
+import resource.versions.ScmLogEntryHandler;
+import resource.versions.RawOutputCache.Recording;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.commands.GitLogOptions;
+import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
+import edu.nyu.cs.javagit.client.ClientManager;
+import edu.nyu.cs.javagit.client.ClientManager.ClientType;
+import edu.nyu.cs.javagit.client.cli.CliGitLog;
+import edu.nyu.cs.javagit.client.odb.ObjectDatabase;
+
+/**
+ * A git log that is read from the {@link RawOutputCache} when git gave it before. The output is
+ * the same as long as every ref points to the same commit and git log gets the same command, so
+ * those are the key. Otherwise a single git log runs, and its output goes to the cache while it
+ * is parsed.
+ */
+class CachedGitLog implements GitLogSource {
+
+	private final File repositoryPath;
+	private final GitLogOptions options;
+	private final RawOutputCache cache;
+	private final String key;
+	private final CliGitLog gitLog;
+
+	private CachedGitLog(File repositoryPath, GitLogOptions options, RawOutputCache cache, String key, CliGitLog gitLog) {
+		this.repositoryPath = repositoryPath;
+		this.options = options;
+		this.cache = cache;
+		this.key = key;
+		this.gitLog = gitLog;
+	}
+
+	/**
+	 * @return the log of the cache, or null if the refs can't be read without git.
+	 */
+	static CachedGitLog create(File repositoryPath, GitLogOptions options, RawOutputCache cache)
+			throws JavaGitException, IOException {
+		Map<String, String> tips;
+		ObjectDatabase db = new ObjectDatabase(repositoryPath);
+		try {
+			tips = GitWatermark.readTips(db, "HEAD", true);
+		} finally {
+			db.close();
+		}
+		if (tips == null) {
+			return null;
+		}
+
+		//the output is git log output, so it is always parsed by the command-line client
+		CliGitLog gitLog = (CliGitLog) ClientManager.getInstance().getClientInstance(ClientType.CLI).getGitLogInstance();
+		List<String> parts = new ArrayList<String>();
+		parts.add("git");
+		parts.add(repositoryPath.getCanonicalPath());
+		for (Map.Entry<String, String> tip : tips.entrySet()) {
+			parts.add(tip.getKey() + " " + tip.getValue());
+		}
+		parts.addAll(gitLog.getCommand(repositoryPath, options));
+		return new CachedGitLog(repositoryPath, options, cache, RawOutputCache.key(parts.toArray(new String[parts.size()])), gitLog);
+	}
+
+	public void log(ScmLogEntryHandler<Commit> handler) throws JavaGitException, IOException {
+		InputStream recorded = cache.open(key);
+		if (recorded != null) {
+			try {
+				gitLog.replay(recorded, options, handler);
+			} finally {
+				recorded.close();
+			}
+			return;
+		}
+
+		Recording recording = cache.record(key);
+		boolean done = false;
+		try {
+			gitLog.log(repositoryPath, options, handler, recording);
+			done = true;
+		} finally {
+			if (!done) {
+				recording.abort();
+			}
+		}
+		recording.commit();
+	}
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.IList;
+import org.eclipse.imp.pdb.facts.IListWriter;
+import org.eclipse.imp.pdb.facts.IValue;
+import org.eclipse.imp.pdb.facts.type.Type;
+import org.eclipse.imp.pdb.facts.visitors.IValueVisitor;
+import org.eclipse.imp.pdb.facts.visitors.VisitorException;
+
+import resource.versions.ScmTypes;
+import resource.versions.ScmTypes.ChangeSet;
+
+/**
+ * The changesets of a {@link ChangesetStore} as a list, that reads a changeset from the store when
+ * it is asked for. The length, a sublist or one changeset cost about as much for the whole history
+ * as for a few commits. The last changesets that were asked for by their index are kept, the ones
+ * an iterator gives aren't, so going over the whole list doesn't keep it in memory.
+ *
+ * Changing the list, by appending to it or reversing it for instance, gives a list of the standard
+ * implementation, with every changeset read.
+ */
+public class ChangesetList implements IList {
+
+	private static final int DECODED_CAPACITY = 256;
+	private static final Type TYPE = ScmTypes.TF.listType(ChangeSet.getAbstractType());
+
+	private final ChangesetStore store;
+	private final Decoded decoded;
+	private final int from;
+	private final int to;
+	private int hash = 0;
+
+	/**
+	 * The changesets of the store from the first up to the last, the last one excluded.
+	 */
+	public ChangesetList(ChangesetStore store, int from, int to) {
+		this(store, new Decoded(), Math.max(0, from), Math.max(Math.max(0, from), Math.min(to, store.size())));
+	}
+
+	private ChangesetList(ChangesetStore store, Decoded decoded, int from, int to) {
+		this.store = store;
+		this.decoded = decoded;
+		this.from = from;
+		this.to = to;
+	}
+
+	public Type getType() {
+		return TYPE;
+	}
+
+	public Type getElementType() {
+		return ChangeSet.getAbstractType();
+	}
+
+	public int length() {
+		return to - from;
+	}
+
+	public boolean isEmpty() {
+		return to == from;
+	}
+
+	public IValue get(int i) {
+		if (i < 0 || i >= length()) {
+			throw new IndexOutOfBoundsException("Changeset " + i + " of " + length());
+		}
+		int ordinal = from + i;
+		IConstructor changeSet = decoded.get(ordinal);
+		if (changeSet == null) {
+			changeSet = store.get(ordinal);
+			decoded.put(ordinal, changeSet);
+		}
+		return changeSet;
+	}
+
+	/**
+	 * @return the changesets of the part of the list, read from the same store.
+	 */
+	public IList sublist(int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > length()) {
+			throw new IndexOutOfBoundsException("Sublist " + offset + " of " + length + " of a list of " + length());
+		}
+		return new ChangesetList(store, decoded, from + offset, from + offset + length);
+	}
+
+	public Iterator<IValue> iterator() {
+		return new Iterator<IValue>() {
+			private int next = from;
+
+			public boolean hasNext() {
+				return next < to;
+			}
+
+			public IValue next() {
+				if (next >= to) {
+					throw new NoSuchElementException();
+				}
+				//a changeset that is still kept isn't read again
+				IConstructor changeSet = decoded.get(next);
+				if (changeSet == null) {
+					changeSet = store.get(next);
+				}
+				next++;
+				return changeSet;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	public boolean contains(IValue e) {
+		for (IValue changeSet : this) {
+			if (changeSet.isEqual(e)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public IList reverse() {
+		return read().reverse();
+	}
+
+	public IList append(IValue e) {
+		return read().append(e);
+	}
+
+	public IList insert(IValue e) {
+		return read().insert(e);
+	}
+
+	public IList concat(IList o) {
+		return read().concat(o);
+	}
+
+	public IList put(int i, IValue e) {
+		return read().put(i, e);
+	}
+
+	public IList delete(int i) {
+		return read().delete(i);
+	}
+
+	public IList delete(IValue e) {
+		return read().delete(e);
+	}
+
+	/**
+	 * @return the list with every changeset read, in the standard implementation.
+	 */
+	private IList read() {
+		IListWriter writer = ScmTypes.VF.listWriter(ChangeSet.getAbstractType());
+		for (IValue changeSet : this) {
+			writer.append(changeSet);
+		}
+		return writer.done();
+	}
+
+	public <T> T accept(IValueVisitor<T> v) throws VisitorException {
+		return v.visitList(this);
+	}
+
+	public boolean isEqual(IValue other) {
+		if (other == this) {
+			return true;
+		}
+		if (!(other instanceof IList) || ((IList) other).length() != length()) {
+			return false;
+		}
+		Iterator<IValue> others = ((IList) other).iterator();
+		for (IValue changeSet : this) {
+			if (!changeSet.isEqual(others.next())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof IList) || ((IList) o).length() != length()) {
+			return false;
+		}
+		Iterator<IValue> others = ((IList) o).iterator();
+		for (IValue changeSet : this) {
+			if (!changeSet.equals(others.next())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The hash code of the standard implementation, so the list can be found in a set or a map
+	 * with the lists of it. It reads every changeset, once.
+	 */
+	@Override
+	public int hashCode() {
+		if (hash == 0) {
+			hash = read().hashCode();
+		}
+		return hash;
+	}
+
+	/**
+	 * The list the way the standard implementation writes it, one changeset at a time.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		boolean first = true;
+		for (IValue changeSet : this) {
+			if (!first) {
+				builder.append(',');
+			}
+			builder.append(changeSet.toString());
+			first = false;
+		}
+		return builder.append(']').toString();
+	}
+
+	/**
+	 * The changesets that were read last by their number, shared by the sublists of a list.
+	 */
+	private static class Decoded {
+		private final Map<Integer, IConstructor> changeSets = new LinkedHashMap<Integer, IConstructor>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, IConstructor> eldest) {
+				return size() > DECODED_CAPACITY;
+			}
+		};
+
+		synchronized IConstructor get(int ordinal) {
+			return changeSets.get(ordinal);
+		}
+
+		synchronized void put(int ordinal, IConstructor changeSet) {
+			changeSets.put(ordinal, changeSet);
+		}
+	}
+}
@@ -0,0 +1,1095 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.IDateTime;
+import org.eclipse.imp.pdb.facts.IInteger;
+import org.eclipse.imp.pdb.facts.IList;
+import org.eclipse.imp.pdb.facts.IListWriter;
+import org.eclipse.imp.pdb.facts.ISet;
+import org.eclipse.imp.pdb.facts.ISetWriter;
+import org.eclipse.imp.pdb.facts.ISourceLocation;
+import org.eclipse.imp.pdb.facts.IString;
+import org.eclipse.imp.pdb.facts.ITuple;
+import org.eclipse.imp.pdb.facts.IValue;
+
+import resource.versions.ScmTypes;
+import resource.versions.ScmTypes.Annotation;
+import resource.versions.ScmTypes.CheckoutUnit;
+import resource.versions.ScmTypes.Info;
+import resource.versions.ScmTypes.MergeDetail;
+import resource.versions.ScmTypes.Resource;
+import resource.versions.ScmTypes.Revision;
+import resource.versions.ScmTypes.RevisionChange;
+import resource.versions.ScmTypes.RevisionId;
+import resource.versions.ScmTypes.Sha;
+import resource.versions.ScmTypes.Tag;
+import edu.nyu.cs.javagit.api.ObjectId;
+
+/**
+ * The changesets of a git log on disk, in columns instead of one value per changeset, so they are
+ * written while the log is extracted and read back one by one without reading the rest.
+ *
+ * A store is a directory with a file per column:
+ * <ul>
+ * <li><code>changesets</code>: a record per changeset, its commit, dates, names, and where its
+ * parents, changes, tags and message are.</li>
+ * <li><code>parents</code>: the parent of the revision and the merge parents.</li>
+ * <li><code>changes</code>: a record per changed file, of the changeset or of one of its merge
+ * details.</li>
+ * <li><code>tags</code>, <code>messages</code>: the tags and the messages of the commits.</li>
+ * <li><code>paths</code>, <code>names</code>: the dictionaries, every location and every name
+ * (identities, tags) is written once, the records refer to it by number.</li>
+ * <li><code>index.&lt;size&gt;</code>: the commits sorted by sha, to find a changeset by its
+ * commit.</li>
+ * <li><code>dates.&lt;size&gt;</code>: the changesets sorted by committer date, to find the one of a
+ * date.</li>
+ * <li><code>header</code>: the number of changesets, the lengths of the columns and the generation
+ * of the store. It is written last, a store without it wasn't finished.</li>
+ * </ul>
+ * The records have a fixed size, a changeset is found by its number without reading the ones
+ * before it. The columns are mapped in memory when the store is opened.
+ *
+ * A writer with checkpoints writes the indexes and the header again every so many changesets, so a
+ * store that is still being written, or whose extraction failed, can be read up to its last
+ * checkpoint. The columns only grow, the changesets after the checkpoint are past the lengths of
+ * the header. Every header that is written gets the next generation, a store that is open tells
+ * from it whether there is a newer one.
+ *
+ * A writer makes new column files instead of truncating the old ones, which may still be mapped by
+ * the store that was opened before.
+ */
+public class ChangesetStore {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String MAGIC = "rascal-msr changesets 1";
+
+	static final String HEADER = "header";
+	static final String CHANGESETS = "changesets";
+	static final String PARENTS = "parents";
+	static final String CHANGES = "changes";
+	static final String TAGS = "tags";
+	static final String MESSAGES = "messages";
+	static final String PATHS = "paths";
+	static final String NAMES = "names";
+	static final String INDEX = "index";
+	static final String DATES = "dates";
+	static final String GENERATION = "generation";
+
+	private static final int SHA = ObjectId.NAME_LENGTH / 2;
+	//a committer date and the number of its changeset
+	private static final int DATE_RECORD = 12;
+	//an optional number that isn't there
+	private static final int NONE = Integer.MIN_VALUE;
+
+	//the changesets column
+	private static final int CS_SHA = 0;
+	private static final int CS_FLAGS = 20;
+	private static final int CS_COMMITTER_DATE = 24;
+	private static final int CS_COMMITTER_NAME = 32;
+	private static final int CS_MESSAGE = 36;
+	private static final int CS_MESSAGE_LENGTH = 44;
+	private static final int CS_AUTHOR_DATE = 48;
+	private static final int CS_AUTHOR_NAME = 56;
+	private static final int CS_PARENTS = 60;
+	private static final int CS_PARENT_COUNT = 64;
+	private static final int CS_CHANGES = 68;
+	private static final int CS_CHANGE_COUNT = 76;
+	private static final int CS_TAGS = 80;
+	private static final int CS_TAG_COUNT = 84;
+	static final int CHANGESET_RECORD = 88;
+
+	private static final int F_PARENT = 1;
+	private static final int F_MERGE_DETAILS = 2;
+	private static final int F_AUTHOR = 4;
+	private static final int F_COMMITTER_NAME = 8;
+	private static final int F_MESSAGE = 16;
+	private static final int F_AUTHOR_NAME = 32;
+	private static final int F_TAGS = 64;
+	private static final int F_NAMED_SHA = 128;
+
+	//the parents column, the parent of the revision first, then the merge details
+	private static final int P_SHA = 0;
+	private static final int P_FLAGS = 20;
+	static final int PARENT_RECORD = 24;
+
+	private static final int P_NAMED_SHA = 1;
+	private static final int P_RESOURCES = 2;
+
+	//the changes column
+	private static final int C_KIND = 0;
+	private static final int C_RESOURCE = 1;
+	private static final int C_ORIGIN_RESOURCE = 2;
+	private static final int C_FLAGS = 3;
+	//0 for the resources of the changeset, i for the resources of the i-th merge detail
+	private static final int C_GROUP = 4;
+	private static final int C_PATH = 8;
+	private static final int C_ORIGIN_PATH = 12;
+	private static final int C_SHA = 16;
+	private static final int C_PARENT_SHA = 36;
+	private static final int C_ORIGIN_PERCENT = 56;
+	private static final int C_LINES_ADDED = 60;
+	private static final int C_LINES_REMOVED = 64;
+	static final int CHANGE_RECORD = 68;
+
+	private static final int R_BLOB = 1;
+	private static final int R_PARENT = 2;
+	private static final int R_PARENT_BLOB = 4;
+	private static final int R_NAMED_SHA = 8;
+	private static final int R_PARENT_NAMED_SHA = 16;
+
+	//the tags column, the number of the changeset is in there to find a changeset by its tag
+	private static final int T_KIND = 0;
+	private static final int T_NAME = 1;
+	private static final int T_CHANGESET = 5;
+	static final int TAG_RECORD = 9;
+
+	private final int size;
+	private final Column changesets;
+	private final Column parents;
+	private final Column changes;
+	private final Column tags;
+	private final Column messages;
+	private final Column index;
+	//null for a store of before the dates index
+	private final Column dates;
+	private final String[] paths;
+	private final String[] names;
+	//the locations of the paths, made when they are first read
+	private final ISourceLocation[] locations;
+	//the number of the changeset of every tag, made when a tag is first looked for
+	private Map<String, Integer> tagged;
+	//to see whether a checkpoint came after this one
+	private final File directory;
+	private final long generation;
+
+	private ChangesetStore(File directory, Map<String, Long> header) throws IOException {
+		this.directory = directory;
+		generation = generation(header);
+		size = header.get(CHANGESETS).intValue();
+		changesets = new Column(new File(directory, CHANGESETS), (long) size * CHANGESET_RECORD);
+		parents = new Column(new File(directory, PARENTS), header.get(PARENTS) * PARENT_RECORD);
+		changes = new Column(new File(directory, CHANGES), header.get(CHANGES) * CHANGE_RECORD);
+		tags = new Column(new File(directory, TAGS), header.get(TAGS) * TAG_RECORD);
+		messages = new Column(new File(directory, MESSAGES), header.get(MESSAGES));
+		index = new Column(new File(directory, indexName(size)), header.get(INDEX) * (SHA + 4));
+		dates = header.containsKey(DATES) ? new Column(new File(directory, datesName(size)), header.get(DATES) * DATE_RECORD) : null;
+		paths = readDictionary(new File(directory, PATHS), header.get(PATHS).intValue());
+		names = readDictionary(new File(directory, NAMES), header.get(NAMES).intValue());
+		locations = new ISourceLocation[paths.length];
+	}
+
+	/**
+	 * Opens a store that was written by a {@link Writer}.
+	 *
+	 * @throws IOException
+	 *             if it isn't there or wasn't finished.
+	 */
+	public static ChangesetStore open(File directory) throws IOException {
+		return new ChangesetStore(directory, readHeader(directory));
+	}
+
+	/**
+	 * @return the number of changesets.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the store was written again, or got a checkpoint, since it was opened.
+	 */
+	public boolean isOutdated() {
+		try {
+			return generation(readHeader(directory)) != generation;
+		} catch (IOException e) {
+			//it is being written again
+			return true;
+		}
+	}
+
+	/**
+	 * @return the generation of the header, 0 for a store of before the generations.
+	 */
+	private static long generation(Map<String, Long> header) {
+		Long generation = header.get(GENERATION);
+		return generation == null ? 0 : generation.longValue();
+	}
+
+	static String indexName(int size) {
+		return INDEX + "." + size;
+	}
+
+	static String datesName(int size) {
+		return DATES + "." + size;
+	}
+
+	/**
+	 * @return the number of the changeset of the checkout unit, or -1 if it isn't in the store. A
+	 *         date is the changeset that was committed last at or before the date.
+	 */
+	public int ordinalOf(IConstructor checkoutUnit) {
+		if (CheckoutUnit.hasRevision(checkoutUnit)) {
+			IConstructor id = Revision.getId(CheckoutUnit.getRevision(checkoutUnit));
+			return ordinalOf(Sha.getSha(RevisionId.getSha(id)).getValue());
+		}
+		if (CheckoutUnit.hasSymname(checkoutUnit)) {
+			IConstructor tag = CheckoutUnit.getSymname(checkoutUnit);
+			Integer ordinal = tagged().get(tagKey(Tag.from(tag), Tag.getName(tag).getValue()));
+			return ordinal == null ? -1 : ordinal;
+		}
+		return ordinalAt(CheckoutUnit.getDate(checkoutUnit).getInstant());
+	}
+
+	/**
+	 * The dates index is sorted by date and, for the same date, by the number of the changeset from
+	 * the last to the first, so the last entry at or before the date is the first changeset of the
+	 * latest date.
+	 */
+	private int ordinalAt(long instant) {
+		if (dates == null) {
+			return scanDates(instant);
+		}
+		long count = dates.length() / DATE_RECORD;
+		byte[] raw = new byte[DATE_RECORD];
+		long low = 0;
+		long high = count - 1;
+		int found = -1;
+		while (low <= high) {
+			long middle = (low + high) >>> 1;
+			dates.read(middle * DATE_RECORD, raw, 0, DATE_RECORD);
+			ByteBuffer record = ByteBuffer.wrap(raw);
+			if (record.getLong(0) <= instant) {
+				found = record.getInt(8);
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	private int scanDates(long instant) {
+		int found = -1;
+		long foundDate = Long.MIN_VALUE;
+		byte[] date = new byte[8];
+		for (int i = 0; i < size; i++) {
+			changesets.read((long) i * CHANGESET_RECORD + CS_COMMITTER_DATE, date, 0, 8);
+			long committed = ByteBuffer.wrap(date).getLong();
+			if (committed <= instant && (found < 0 || committed > foundDate)) {
+				found = i;
+				foundDate = committed;
+			}
+		}
+		return found;
+	}
+
+	private synchronized Map<String, Integer> tagged() {
+		if (tagged == null) {
+			Map<String, Integer> ordinals = new HashMap<String, Integer>();
+			long count = tags.length() / TAG_RECORD;
+			for (long i = 0; i < count; i++) {
+				ByteBuffer tag = tags.record(i * TAG_RECORD, TAG_RECORD);
+				String key = tagKey(Tag.values()[tag.get(T_KIND)], names[tag.getInt(T_NAME)]);
+				if (!ordinals.containsKey(key)) {
+					ordinals.put(key, tag.getInt(T_CHANGESET));
+				}
+			}
+			tagged = ordinals;
+		}
+		return tagged;
+	}
+
+	private static String tagKey(Tag kind, String name) {
+		return kind.ordinal() + ":" + name;
+	}
+
+	/**
+	 * @return the number of the changeset of the commit, or -1 if it isn't in the store.
+	 */
+	public int ordinalOf(String sha) {
+		ObjectId id = ObjectId.fromString(sha);
+		if (id == null) {
+			return -1;
+		}
+		int entry = SHA + 4;
+		long count = index.length() / entry;
+		byte[] raw = new byte[entry];
+		long low = 0;
+		long high = count - 1;
+		while (low <= high) {
+			long middle = (low + high) >>> 1;
+			index.read(middle * entry, raw, 0, entry);
+			int compared = ObjectId.fromRaw(raw, 0).compareTo(id);
+			if (compared < 0) {
+				low = middle + 1;
+			} else if (compared > 0) {
+				high = middle - 1;
+			} else {
+				return ByteBuffer.wrap(raw).getInt(SHA);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the changeset as the log extraction made it, with its annotations.
+	 */
+	public IConstructor get(int ordinal) {
+		if (ordinal < 0 || ordinal >= size) {
+			throw new IndexOutOfBoundsException("Changeset " + ordinal + " of " + size);
+		}
+		ByteBuffer record = changesets.record((long) ordinal * CHANGESET_RECORD, CHANGESET_RECORD);
+		int flags = record.getInt(CS_FLAGS);
+
+		int parentStart = record.getInt(CS_PARENTS);
+		int parentCount = record.getInt(CS_PARENT_COUNT);
+		int details = parentCount - ((flags & F_PARENT) != 0 ? 1 : 0);
+		ISetWriter[] resources = new ISetWriter[details + 1];
+		for (int i = 0; i < resources.length; i++) {
+			resources[i] = ScmTypes.VF.relationWriter(GitLogEntryHandler.RESOURCE_CHANGE);
+		}
+		long changeStart = record.getLong(CS_CHANGES);
+		int changeCount = record.getInt(CS_CHANGE_COUNT);
+		for (int i = 0; i < changeCount; i++) {
+			ByteBuffer change = changes.record((changeStart + i) * CHANGE_RECORD, CHANGE_RECORD);
+			resources[change.getInt(C_GROUP)].insert(readChange(change));
+		}
+
+		IConstructor id = RevisionId.HASH.make(Sha.COMMIT.make(readSha(record, CS_SHA, (flags & F_NAMED_SHA) != 0)));
+		IConstructor revision;
+		int nextParent = parentStart;
+		if ((flags & F_PARENT) != 0) {
+			ByteBuffer parent = parents.record((long) nextParent++ * PARENT_RECORD, PARENT_RECORD);
+			revision = Revision.REVISION_PARENT.make(id, readParent(parent));
+		} else {
+			revision = Revision.REVISION.make(id);
+		}
+
+		if ((flags & F_TAGS) != 0) {
+			ISetWriter tagSet = ScmTypes.VF.setWriter(Tag.getAbstractType());
+			int tagStart = record.getInt(CS_TAGS);
+			int tagCount = record.getInt(CS_TAG_COUNT);
+			for (int i = 0; i < tagCount; i++) {
+				ByteBuffer tag = tags.record((long) (tagStart + i) * TAG_RECORD, TAG_RECORD);
+				tagSet.insert(Tag.values()[tag.get(T_KIND)].make(names[tag.getInt(T_NAME)]));
+			}
+			revision = Annotation.TAGS.set(revision, tagSet.done());
+		}
+
+		if ((flags & F_MERGE_DETAILS) != 0) {
+			IListWriter mergeDetails = ScmTypes.VF.listWriter(MergeDetail.getAbstractType());
+			for (int i = 1; i <= details; i++) {
+				ByteBuffer parent = parents.record((long) nextParent++ * PARENT_RECORD, PARENT_RECORD);
+				IConstructor parentRevision = readParent(parent);
+				if ((parent.getInt(P_FLAGS) & P_RESOURCES) != 0) {
+					mergeDetails.append(MergeDetail.RESOURCES.make(parentRevision, resources[i].done()));
+				} else {
+					mergeDetails.append(MergeDetail.PARENT.make(parentRevision));
+				}
+			}
+			revision = Annotation.MERGE_DETAIL.set(revision, mergeDetails.done());
+		}
+
+		String message = null;
+		if ((flags & F_MESSAGE) != 0) {
+			byte[] bytes = new byte[record.getInt(CS_MESSAGE_LENGTH)];
+			messages.read(record.getLong(CS_MESSAGE), bytes, 0, bytes.length);
+			message = new String(bytes, UTF8);
+		}
+		IConstructor committer = Info.makeInfo(ScmTypes.VF.datetime(record.getLong(CS_COMMITTER_DATE)),
+			(flags & F_COMMITTER_NAME) != 0 ? names[record.getInt(CS_COMMITTER_NAME)] : null, message);
+		IConstructor changeSet = ScmTypes.ChangeSet.CHANGE_SET.make(revision, resources[0].done(), committer);
+		if ((flags & F_AUTHOR) != 0) {
+			IConstructor author = Info.makeInfo(ScmTypes.VF.datetime(record.getLong(CS_AUTHOR_DATE)),
+				(flags & F_AUTHOR_NAME) != 0 ? names[record.getInt(CS_AUTHOR_NAME)] : null, null);
+			changeSet = Annotation.AUTHOR.set(changeSet, author);
+		}
+		return changeSet;
+	}
+
+	/**
+	 * @return the changesets from the first up to the last, the last one excluded. They are read
+	 *         when the list is asked for them, see {@link ChangesetList}.
+	 */
+	public IList get(int from, int to) {
+		return new ChangesetList(this, from, to);
+	}
+
+	private IConstructor readParent(ByteBuffer parent) {
+		String sha = readSha(parent, P_SHA, (parent.getInt(P_FLAGS) & P_NAMED_SHA) != 0);
+		return Revision.REVISION.make(RevisionId.HASH.make(Sha.COMMIT.make(sha)));
+	}
+
+	private ITuple readChange(ByteBuffer change) {
+		int flags = change.get(C_FLAGS);
+		Sha type = (flags & R_BLOB) != 0 ? Sha.BLOB : Sha.COMMIT;
+		IConstructor id = RevisionId.HASH.make(type.make(readSha(change, C_SHA, (flags & R_NAMED_SHA) != 0)));
+		IConstructor revision;
+		if ((flags & R_PARENT) != 0) {
+			Sha parentType = (flags & R_PARENT_BLOB) != 0 ? Sha.BLOB : Sha.COMMIT;
+			String parentSha = readSha(change, C_PARENT_SHA, (flags & R_PARENT_NAMED_SHA) != 0);
+			revision = Revision.REVISION_PARENT.make(id, Revision.REVISION.make(RevisionId.HASH.make(parentType.make(parentSha))));
+		} else {
+			revision = Revision.REVISION.make(id);
+		}
+
+		RevisionChange kind = RevisionChange.values()[change.get(C_KIND)];
+		IConstructor revisionChange;
+		if (change.get(C_ORIGIN_RESOURCE) >= 0) {
+			IConstructor origin = Resource.values()[change.get(C_ORIGIN_RESOURCE)].make(location(change.getInt(C_ORIGIN_PATH)));
+			revisionChange = kind.make(revision, origin);
+		} else {
+			revisionChange = kind.make(revision);
+		}
+		if (change.getInt(C_ORIGIN_PERCENT) != NONE) {
+			revisionChange = Annotation.ORIGIN_PERCENT.set(revisionChange, ScmTypes.VF.integer(change.getInt(C_ORIGIN_PERCENT)));
+		}
+		if (change.getInt(C_LINES_ADDED) != NONE) {
+			revisionChange = Annotation.LINES_ADDED.set(revisionChange, ScmTypes.VF.integer(change.getInt(C_LINES_ADDED)));
+		}
+		if (change.getInt(C_LINES_REMOVED) != NONE) {
+			revisionChange = Annotation.LINES_REMOVED.set(revisionChange, ScmTypes.VF.integer(change.getInt(C_LINES_REMOVED)));
+		}
+		IConstructor resource = Resource.values()[change.get(C_RESOURCE)].make(location(change.getInt(C_PATH)));
+		return ScmTypes.VF.tuple(resource, revisionChange);
+	}
+
+	private ISourceLocation location(int path) {
+		ISourceLocation location = locations[path];
+		if (location == null) {
+			location = ScmTypes.VF.sourceLocation(URI.create(paths[path]));
+			locations[path] = location;
+		}
+		return location;
+	}
+
+	private String readSha(ByteBuffer record, int offset, boolean named) {
+		if (named) {
+			return names[record.getInt(offset)];
+		}
+		byte[] raw = new byte[SHA];
+		record.position(offset);
+		record.get(raw);
+		return ObjectId.fromRaw(raw, 0).name();
+	}
+
+	static Map<String, Long> readHeader(File directory) throws IOException {
+		File file = new File(directory, HEADER);
+		if (!file.exists()) {
+			throw new IOException(directory + " isn't a finished changeset store");
+		}
+		Map<String, Long> header = new HashMap<String, Long>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		try {
+			if (!MAGIC.equals(reader.readLine())) {
+				throw new IOException(file + " isn't the header of a changeset store");
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int equals = line.indexOf('=');
+				if (equals > 0) {
+					header.put(line.substring(0, equals), Long.valueOf(line.substring(equals + 1)));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException(file + " isn't the header of a changeset store");
+		} finally {
+			reader.close();
+		}
+		for (String column : new String[] { CHANGESETS, PARENTS, CHANGES, TAGS, MESSAGES, PATHS, NAMES, INDEX }) {
+			if (!header.containsKey(column)) {
+				throw new IOException(file + " has no length for " + column);
+			}
+		}
+		return header;
+	}
+
+	private static String[] readDictionary(File file, int count) throws IOException {
+		String[] entries = new String[count];
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			for (int i = 0; i < count; i++) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				entries[i] = new String(bytes, UTF8);
+			}
+		} catch (EOFException e) {
+			throw new IOException(file + " has less than the " + count + " entries of the header");
+		} finally {
+			in.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * A column file mapped in memory, in parts of at most a gigabyte since a mapping can't be
+	 * larger than 2GB.
+	 */
+	static class Column {
+		private static final int PART = 1 << 30;
+		private final MappedByteBuffer[] parts;
+		private final long length;
+
+		Column(File file, long length) throws IOException {
+			this.length = length;
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				if (raf.length() < length) {
+					throw new IOException(file + " is shorter than the header says");
+				}
+				FileChannel channel = raf.getChannel();
+				parts = new MappedByteBuffer[(int) ((length + PART - 1) / PART)];
+				for (int i = 0; i < parts.length; i++) {
+					long start = (long) i * PART;
+					parts[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(PART, length - start));
+				}
+			} finally {
+				//the mappings stay valid without the file
+				raf.close();
+			}
+		}
+
+		long length() {
+			return length;
+		}
+
+		void read(long position, byte[] into, int offset, int count) {
+			while (count > 0) {
+				ByteBuffer part = parts[(int) (position / PART)].duplicate();
+				int start = (int) (position % PART);
+				int n = Math.min(count, part.capacity() - start);
+				part.position(start);
+				part.get(into, offset, n);
+				position += n;
+				offset += n;
+				count -= n;
+			}
+		}
+
+		ByteBuffer record(long position, int size) {
+			byte[] bytes = new byte[size];
+			read(position, bytes, 0, size);
+			return ByteBuffer.wrap(bytes);
+		}
+	}
+
+	/**
+	 * Writes the changesets to a store as they are extracted, they are all on disk when
+	 * {@link #close()} is done. A new store replaces the one that was in the directory.
+	 */
+	public static class Writer {
+		private final File directory;
+		private final OutputStream changesets;
+		private final OutputStream parents;
+		private final OutputStream changes;
+		private final OutputStream tags;
+		private final OutputStream messages;
+		private final OutputStream paths;
+		private final OutputStream names;
+
+		private final Map<String, Integer> pathIds = new HashMap<String, Integer>();
+		private final Map<String, Integer> nameIds = new HashMap<String, Integer>();
+		//the commit of every changeset, for the index
+		private final List<ObjectId> commits = new ArrayList<ObjectId>();
+		//the committer date of every changeset, for the dates index
+		private long[] committed = new long[1024];
+
+		private int size = 0;
+		private int parentCount = 0;
+		private long changeCount = 0;
+		private int tagCount = 0;
+		private long messageLength = 0;
+		//a checkpoint every so many changesets, none if 0
+		private int checkpoint = 0;
+		//the generation of the last header that was written
+		private long generation;
+		//the size of the index the header refers to, -1 before the first checkpoint
+		private int indexed = -1;
+
+		private final ByteBuffer changeset = ByteBuffer.allocate(CHANGESET_RECORD);
+		private final ByteBuffer parent = ByteBuffer.allocate(PARENT_RECORD);
+		private final ByteBuffer change = ByteBuffer.allocate(CHANGE_RECORD);
+		private final ByteBuffer tag = ByteBuffer.allocate(TAG_RECORD);
+		private final ByteBuffer entry = ByteBuffer.allocate(4);
+		//the first error, the extraction that calls append can't be stopped by it
+		private IOException failure;
+
+		public Writer(File directory) throws IOException {
+			this.directory = directory;
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Can't make the directory " + directory);
+			}
+			//the generations go on from the store this one replaces; without one they start anywhere, so
+			//a store that is still open from an earlier directory doesn't take this one for itself
+			try {
+				generation = generation(readHeader(directory));
+			} catch (IOException e) {
+				generation = new Random().nextInt(Integer.MAX_VALUE);
+			}
+			//a store without header isn't finished, the old one is gone as soon as this one starts
+			new File(directory, HEADER).delete();
+			File[] indexes = directory.listFiles();
+			for (File file : indexes == null ? new File[0] : indexes) {
+				if (file.getName().startsWith(INDEX + ".") || file.getName().startsWith(DATES + ".")) {
+					file.delete();
+				}
+			}
+			changesets = create(CHANGESETS);
+			parents = create(PARENTS);
+			changes = create(CHANGES);
+			tags = create(TAGS);
+			messages = create(MESSAGES);
+			paths = create(PATHS);
+			names = create(NAMES);
+		}
+
+		private OutputStream create(String column) throws IOException {
+			File file = new File(directory, column);
+			//a store that is open maps the old file, truncating it would take the pages from under the
+			//mapping; removed, it stays there for the mapping until the store is gone
+			if (file.exists() && !file.delete()) {
+				throw new IOException("Can't replace " + file + ", it may still be in use");
+			}
+			return new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+		}
+
+		/**
+		 * Makes the changesets that are written readable every so many changesets, 0 only makes
+		 * them readable when the store is closed.
+		 */
+		public synchronized void setCheckpoint(int everyN) {
+			this.checkpoint = Math.max(0, everyN);
+		}
+
+		/**
+		 * Writes the changeset after the others.
+		 *
+		 * @throws IllegalArgumentException
+		 *             if it isn't a changeset of a git log.
+		 */
+		public synchronized void append(IConstructor changeSet) {
+			if (failure != null) {
+				return;
+			}
+			try {
+				write(changeSet);
+			} catch (IOException e) {
+				failure = e;
+			} catch (IllegalArgumentException e) {
+				//part of it is written already, the store can't be finished
+				failure = new IOException(e.getMessage(), e);
+				throw e;
+			}
+		}
+
+		private void write(IConstructor changeSet) throws IOException {
+			IConstructor revision = ScmTypes.ChangeSet.CHANGE_SET.getRevision(changeSet);
+			IConstructor committer = ScmTypes.ChangeSet.CHANGE_SET.getCommitter(changeSet);
+			int flags = 0;
+			clear(changeset);
+
+			String sha = commitSha(revision);
+			boolean named = putSha(changeset, CS_SHA, sha);
+			if (named) {
+				flags |= F_NAMED_SHA;
+			}
+
+			changeset.putInt(CS_PARENTS, parentCount);
+			int parentsBefore = parentCount;
+			if (revision.getConstructorType() == Revision.REVISION_PARENT.getType()) {
+				flags |= F_PARENT;
+				writeParent(Revision.getParent(revision), 0);
+			}
+
+			long changesBefore = changeCount;
+			changeset.putLong(CS_CHANGES, changeCount);
+			writeChanges(ScmTypes.ChangeSet.CHANGE_SET.getResources(changeSet), 0);
+
+			if (Annotation.MERGE_DETAIL.has(revision)) {
+				flags |= F_MERGE_DETAILS;
+				int group = 1;
+				for (IValue iValue : Annotation.MERGE_DETAIL.get(revision, IList.class)) {
+					IConstructor detail = (IConstructor) iValue;
+					IConstructor parentRevision = (IConstructor) detail.get("parent");
+					if (detail.getConstructorType() == MergeDetail.RESOURCES.getType()) {
+						writeParent(parentRevision, P_RESOURCES);
+						writeChanges(MergeDetail.getResources(detail), group);
+					} else {
+						writeParent(parentRevision, 0);
+					}
+					group++;
+				}
+			}
+			changeset.putInt(CS_PARENT_COUNT, parentCount - parentsBefore);
+			changeset.putInt(CS_CHANGE_COUNT, (int) (changeCount - changesBefore));
+
+			changeset.putInt(CS_TAGS, tagCount);
+			if (Annotation.TAGS.has(revision)) {
+				flags |= F_TAGS;
+				int tagsBefore = tagCount;
+				for (IValue iValue : Annotation.TAGS.get(revision, ISet.class)) {
+					IConstructor value = (IConstructor) iValue;
+					clear(tag);
+					tag.put(T_KIND, (byte) Tag.from(value).ordinal());
+					tag.putInt(T_NAME, nameId(Tag.getName(value).getValue()));
+					tag.putInt(T_CHANGESET, size);
+					tags.write(tag.array());
+					tagCount++;
+				}
+				changeset.putInt(CS_TAG_COUNT, tagCount - tagsBefore);
+			}
+
+			changeset.putLong(CS_COMMITTER_DATE, ((IDateTime) committer.get("date")).getInstant());
+			if (committer.has("name")) {
+				flags |= F_COMMITTER_NAME;
+				changeset.putInt(CS_COMMITTER_NAME, nameId(Info.getAuthorName(committer).getValue()));
+			}
+			if (committer.has("message")) {
+				flags |= F_MESSAGE;
+				byte[] message = Info.getMessage(committer).getValue().getBytes(UTF8);
+				changeset.putLong(CS_MESSAGE, messageLength);
+				changeset.putInt(CS_MESSAGE_LENGTH, message.length);
+				messages.write(message);
+				messageLength += message.length;
+			}
+			if (Annotation.AUTHOR.has(changeSet)) {
+				IConstructor author = Annotation.AUTHOR.get(changeSet, IConstructor.class);
+				if (author.has("message")) {
+					throw new IllegalArgumentException("The author of a changeset can't have a message: " + author);
+				}
+				flags |= F_AUTHOR;
+				changeset.putLong(CS_AUTHOR_DATE, ((IDateTime) author.get("date")).getInstant());
+				if (author.has("name")) {
+					flags |= F_AUTHOR_NAME;
+					changeset.putInt(CS_AUTHOR_NAME, nameId(Info.getAuthorName(author).getValue()));
+				}
+			}
+
+			changeset.putInt(CS_FLAGS, flags);
+			changesets.write(changeset.array());
+			commits.add(named ? null : ObjectId.fromString(sha));
+			if (size == committed.length) {
+				committed = Arrays.copyOf(committed, size * 2);
+			}
+			committed[size] = changeset.getLong(CS_COMMITTER_DATE);
+			size++;
+			if (checkpoint > 0 && size % checkpoint == 0) {
+				for (OutputStream column : new OutputStream[] { changesets, parents, changes, tags, messages, paths, names }) {
+					column.flush();
+				}
+				commit();
+			}
+		}
+
+		private void writeParent(IConstructor revision, int flags) throws IOException {
+			clear(parent);
+			if (putSha(parent, P_SHA, commitSha(revision))) {
+				flags |= P_NAMED_SHA;
+			}
+			parent.putInt(P_FLAGS, flags);
+			parents.write(parent.array());
+			parentCount++;
+		}
+
+		private void writeChanges(ISet resources, int group) throws IOException {
+			for (IValue iValue : resources) {
+				ITuple tuple = (ITuple) iValue;
+				IConstructor resource = (IConstructor) tuple.get(0);
+				IConstructor revisionChange = (IConstructor) tuple.get(1);
+				IConstructor revision = RevisionChange.getRevision(revisionChange);
+
+				clear(change);
+				change.put(C_KIND, (byte) changeKind(revisionChange).ordinal());
+				change.put(C_RESOURCE, (byte) resourceKind(resource).ordinal());
+				change.putInt(C_PATH, pathId(Resource.getId(resource)));
+				if (RevisionChange.hasOrigin(revisionChange)) {
+					IConstructor origin = RevisionChange.getOrigin(revisionChange);
+					change.put(C_ORIGIN_RESOURCE, (byte) resourceKind(origin).ordinal());
+					change.putInt(C_ORIGIN_PATH, pathId(Resource.getId(origin)));
+				} else {
+					change.put(C_ORIGIN_RESOURCE, (byte) -1);
+					change.putInt(C_ORIGIN_PATH, -1);
+				}
+
+				int flags = 0;
+				IConstructor sha = sha(revision);
+				if (sha.getConstructorType() == Sha.BLOB.getType()) {
+					flags |= R_BLOB;
+				}
+				if (putSha(change, C_SHA, Sha.getSha(sha).getValue())) {
+					flags |= R_NAMED_SHA;
+				}
+				if (revision.getConstructorType() == Revision.REVISION_PARENT.getType()) {
+					flags |= R_PARENT;
+					IConstructor parentSha = sha(Revision.getParent(revision));
+					if (parentSha.getConstructorType() == Sha.BLOB.getType()) {
+						flags |= R_PARENT_BLOB;
+					}
+					if (putSha(change, C_PARENT_SHA, Sha.getSha(parentSha).getValue())) {
+						flags |= R_PARENT_NAMED_SHA;
+					}
+				}
+				change.put(C_FLAGS, (byte) flags);
+				change.putInt(C_GROUP, group);
+				change.putInt(C_ORIGIN_PERCENT, annotation(Annotation.ORIGIN_PERCENT, revisionChange));
+				change.putInt(C_LINES_ADDED, annotation(Annotation.LINES_ADDED, revisionChange));
+				change.putInt(C_LINES_REMOVED, annotation(Annotation.LINES_REMOVED, revisionChange));
+				changes.write(change.array());
+				changeCount++;
+			}
+		}
+
+		private static int annotation(Annotation annotation, IConstructor change) {
+			return annotation.has(change) ? annotation.get(change, IInteger.class).intValue() : NONE;
+		}
+
+		private static String commitSha(IConstructor revision) {
+			IConstructor sha = sha(revision);
+			if (sha.getConstructorType() != Sha.COMMIT.getType()) {
+				throw new IllegalArgumentException("Not the revision of a commit: " + revision);
+			}
+			if (revision.getConstructorType() == Revision.REVISION_PARENT.getType()
+					&& Revision.getParent(revision).getConstructorType() != Revision.REVISION.getType()) {
+				throw new IllegalArgumentException("Only one parent revision can be stored: " + revision);
+			}
+			return Sha.getSha(sha).getValue();
+		}
+
+		private static IConstructor sha(IConstructor revision) {
+			IConstructor id = Revision.getId(revision);
+			if (id.getConstructorType() != RevisionId.HASH.getType()) {
+				throw new IllegalArgumentException("Not a git revision: " + revision);
+			}
+			return RevisionId.getSha(id);
+		}
+
+		private static Resource resourceKind(IConstructor resource) {
+			Resource kind = Resource.from(resource);
+			if (kind == Resource.FOLDER_CONTENT) {
+				throw new IllegalArgumentException("The contents of a folder can't be stored: " + resource);
+			}
+			return kind;
+		}
+
+		private static RevisionChange changeKind(IConstructor change) {
+			for (RevisionChange kind : RevisionChange.values()) {
+				if (kind.getType() == change.getConstructorType()) {
+					return kind;
+				}
+			}
+			throw new IllegalArgumentException("No RevisionChange type for '" + change + "'");
+		}
+
+		/**
+		 * @return true if the sha isn't 40 hexadecimal digits and is kept in the names instead.
+		 */
+		private boolean putSha(ByteBuffer record, int offset, String sha) throws IOException {
+			ObjectId id = ObjectId.fromString(sha);
+			if (id != null && id.name().equals(sha)) {
+				id.copyRawTo(record.array(), offset);
+				return false;
+			}
+			record.putInt(offset, nameId(sha));
+			return true;
+		}
+
+		private int pathId(ISourceLocation location) throws IOException {
+			return id(pathIds, paths, location.getURI().toString());
+		}
+
+		private int nameId(String name) throws IOException {
+			return id(nameIds, names, name);
+		}
+
+		private int id(Map<String, Integer> ids, OutputStream dictionary, String value) throws IOException {
+			Integer id = ids.get(value);
+			if (id == null) {
+				id = ids.size();
+				ids.put(value, id);
+				byte[] bytes = value.getBytes(UTF8);
+				clear(entry);
+				entry.putInt(0, bytes.length);
+				dictionary.write(entry.array());
+				dictionary.write(bytes);
+			}
+			return id;
+		}
+
+		private static void clear(ByteBuffer record) {
+			Arrays.fill(record.array(), (byte) 0);
+		}
+
+		/**
+		 * Writes the index and the header, the store can be opened after this.
+		 *
+		 * @throws IOException
+		 *             the first error of the appends, or of the close.
+		 */
+		public synchronized void close() throws IOException {
+			IOException error = closeColumns(failure);
+			if (error != null) {
+				throw error;
+			}
+			if (indexed != size) {
+				commit();
+			}
+		}
+
+		/**
+		 * Writes the indexes and then the header of the changesets that are written, the store that
+		 * was there before stays readable until the new header replaces it.
+		 */
+		private void commit() throws IOException {
+			int count = writeIndex();
+			writeDates();
+
+			File header = new File(directory, HEADER);
+			File temporary = new File(directory, HEADER + ".tmp");
+			java.io.Writer text = new OutputStreamWriter(new FileOutputStream(temporary), UTF8);
+			try {
+				text.write(MAGIC + "\n");
+				text.write(CHANGESETS + "=" + size + "\n");
+				text.write(PARENTS + "=" + parentCount + "\n");
+				text.write(CHANGES + "=" + changeCount + "\n");
+				text.write(TAGS + "=" + tagCount + "\n");
+				text.write(MESSAGES + "=" + messageLength + "\n");
+				text.write(PATHS + "=" + pathIds.size() + "\n");
+				text.write(NAMES + "=" + nameIds.size() + "\n");
+				text.write(INDEX + "=" + count + "\n");
+				text.write(DATES + "=" + size + "\n");
+				text.write(GENERATION + "=" + (generation + 1) + "\n");
+			} finally {
+				text.close();
+			}
+			//renameTo doesn't replace the header on every platform
+			if (!temporary.renameTo(header) && !(header.delete() && temporary.renameTo(header))) {
+				throw new IOException("Can't write " + header);
+			}
+			generation++;
+			if (indexed >= 0 && indexed != size) {
+				new File(directory, indexName(indexed)).delete();
+				new File(directory, datesName(indexed)).delete();
+			}
+			indexed = size;
+		}
+
+		/**
+		 * Stops writing without finishing the store, it can only be opened up to its last
+		 * checkpoint.
+		 */
+		public synchronized void abort() {
+			closeColumns(null);
+		}
+
+		private IOException closeColumns(IOException error) {
+			for (OutputStream column : new OutputStream[] { changesets, parents, changes, tags, messages, paths, names }) {
+				try {
+					column.close();
+				} catch (IOException e) {
+					if (error == null) {
+						error = e;
+					}
+				}
+			}
+			return error;
+		}
+
+		/**
+		 * @return the number of commits in the index, the ones with a full sha.
+		 */
+		private int writeIndex() throws IOException {
+			List<Integer> order = new ArrayList<Integer>(size);
+			for (int i = 0; i < size; i++) {
+				if (commits.get(i) != null) {
+					order.add(i);
+				}
+			}
+			Collections.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return commits.get(a).compareTo(commits.get(b));
+				}
+			});
+			OutputStream out = create(indexName(size));
+			try {
+				ByteBuffer record = ByteBuffer.allocate(SHA + 4);
+				for (Integer ordinal : order) {
+					commits.get(ordinal).copyRawTo(record.array(), 0);
+					record.putInt(SHA, ordinal);
+					out.write(record.array());
+				}
+			} finally {
+				out.close();
+			}
+			return order.size();
+		}
+
+		/**
+		 * Writes every changeset to the dates index, sorted by date and then from the last to the
+		 * first.
+		 */
+		private void writeDates() throws IOException {
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					long first = committed[a];
+					long second = committed[b];
+					if (first != second) {
+						return first < second ? -1 : 1;
+					}
+					return b.compareTo(a);
+				}
+			});
+			OutputStream out = create(datesName(size));
+			try {
+				ByteBuffer record = ByteBuffer.allocate(DATE_RECORD);
+				for (Integer ordinal : order) {
+					record.putLong(0, committed[ordinal]);
+					record.putInt(8, ordinal);
+					out.write(record.array());
+				}
+			} finally {
+				out.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+
+import resource.versions.ContentCache;
+import resource.versions.ScmProviderException;
+import resource.versions.ScmTypes.Resource;
+import resource.versions.ScmTypes.Revision;
+import resource.versions.ScmTypes.RevisionId;
+import resource.versions.ScmTypes.Sha;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.client.cli.GitCatFileBatch;
+import edu.nyu.cs.javagit.client.cli.GitCommandServer;
+
+/**
+ * Reads the contents of files at revisions of one repository through the
+ * <code>git cat-file --batch</code> processes of the {@link GitCommandServer}, which keeps them
+ * running between reads. The names of many files are sent to git before their contents are read,
+ * and the contents that were read recently are kept in a cache.
+ *
+ * A file at a revision with a blob id is read as that blob, at a commit it is read as
+ * <code>&lt;commit&gt;:&lt;path&gt;</code>.
+ */
+class GitContents {
+	//the names that are sent before their contents are read, they have to fit in the pipe to git
+	private static final int REQUEST_BYTES = 16 * 1024;
+
+	private final File repositoryPath;
+	private final List<String> workspaces = new ArrayList<String>();
+	private final ContentCache cache;
+
+	/**
+	 * @param url
+	 *            the url of the connection, the files of the changesets are in there.
+	 */
+	GitContents(File repositoryPath, String url, ContentCache cache) {
+		this.repositoryPath = repositoryPath;
+		this.cache = cache;
+		//the resources of getResources and linesCount are in the absolute path
+		workspaces.add(url);
+		workspaces.add(repositoryPath.getAbsolutePath());
+	}
+
+	byte[][] read(IConstructor[] files, IConstructor[] revisions) throws ScmProviderException {
+		byte[][] contents = new byte[files.length][];
+		String[] names = new String[files.length];
+		String[] keys = new String[files.length];
+		List<Integer> misses = new ArrayList<Integer>();
+		for (int i = 0; i < files.length; i++) {
+			names[i] = getObjectName(files[i], revisions[i]);
+			keys[i] = repositoryPath.getAbsolutePath() + "\0" + names[i];
+			contents[i] = cache.get(keys[i]);
+			if (contents[i] == null) {
+				misses.add(i);
+			}
+		}
+		if (misses.isEmpty()) {
+			return contents;
+		}
+
+		GitCatFileBatch catFile = null;
+		try {
+			catFile = GitCommandServer.acquireCatFile(repositoryPath);
+			int next = 0;
+			while (next < misses.size()) {
+				int first = next;
+				int bytes = 0;
+				while (next < misses.size() && bytes < REQUEST_BYTES) {
+					String objectName = names[misses.get(next)];
+					catFile.request(objectName);
+					bytes += objectName.length() + 1;
+					next++;
+				}
+				for (int j = first; j < next; j++) {
+					int i = misses.get(j);
+					InputStream in = catFile.next();
+					//a folder is a tree, it has no contents
+					if (in != null && "blob".equals(catFile.getType())) {
+						contents[i] = readFully(in, catFile.getSize());
+						cache.put(keys[i], contents[i]);
+					}
+				}
+			}
+			GitCommandServer.releaseCatFile(repositoryPath, catFile);
+			return contents;
+		} catch (JavaGitException e) {
+			close(catFile);
+			throw new ScmProviderException(e.getMessage(), e);
+		} catch (IOException e) {
+			close(catFile);
+			throw new ScmProviderException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Stops a cat-file that failed, it may be in the middle of an object.
+	 */
+	private static void close(GitCatFileBatch catFile) {
+		if (catFile != null) {
+			catFile.close();
+		}
+	}
+
+	private String getObjectName(IConstructor file, IConstructor revision) throws ScmProviderException {
+		IConstructor id = Revision.getId(revision);
+		if (id.getConstructorType() != RevisionId.HASH.getType()) {
+			throw new ScmProviderException("Not a git revision: " + revision);
+		}
+		IConstructor sha = RevisionId.getSha(id);
+		if (sha.getConstructorType() == Sha.BLOB.getType()) {
+			return Sha.getSha(sha).getValue();
+		}
+		return Sha.getSha(sha).getValue() + ":" + getPath(file);
+	}
+
+	/**
+	 * @return the path of the file in the working tree.
+	 */
+	private String getPath(IConstructor file) throws ScmProviderException {
+		String path = Resource.getId(file).getURI().getPath();
+		for (String workspace : workspaces) {
+			if (path.startsWith(workspace)) {
+				String relative = path.substring(workspace.length());
+				if (relative.startsWith("/") || workspace.endsWith("/")) {
+					while (relative.startsWith("/")) {
+						relative = relative.substring(1);
+					}
+					return relative;
+				}
+			}
+		}
+		throw new ScmProviderException(path + " isn't in the repository " + repositoryPath);
+	}
+
+	private static byte[] readFully(InputStream in, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Can't read a file of " + size + " bytes");
+		}
+		byte[] content = new byte[(int) size];
+		int offset = 0;
+		while (offset < content.length) {
+			int read = in.read(content, offset, content.length - offset);
+			if (read < 0) {
+				throw new IOException("git cat-file --batch ended in the middle of a file");
+			}
+			offset += read;
+		}
+		return content;
+	}
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.imp.pdb.facts.IMap;
+import org.eclipse.imp.pdb.facts.IMapWriter;
+
+import resource.versions.LineCounter;
+import resource.versions.ScmProviderException;
+import resource.versions.ScmTypes;
+import resource.versions.ScmTypes.Resource;
+import resource.versions.Versions;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.ObjectId;
+import edu.nyu.cs.javagit.client.cli.GitCatFileBatch;
+import edu.nyu.cs.javagit.client.cli.GitCommandServer;
+
+/**
+ * The line counts of the files of a revision, read from the repository instead of a checkout.
+ *
+ * The files of the revision are listed with <code>git ls-tree</code>, and every blob is counted
+ * only once: the counts are kept in a cache file keyed by the blob id, so the next revision only
+ * counts the blobs that changed. The blobs that aren't in the cache yet are read through a
+ * <code>git cat-file --batch</code> of the {@link GitCommandServer}.
+ *
+ * The cache file is a sequence of records of the 20 bytes of a blob id and the count, new counts
+ * are appended after every run. A record that was only partly written is dropped when the cache is
+ * read.
+ */
+class GitLineCounts {
+	private static final int RECORD_LENGTH = 24;
+
+	private final File cacheFile;
+	private final Map<ObjectId, Integer> counts = new HashMap<ObjectId, Integer>();
+
+	private GitLineCounts(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * @return the cache in the file, an empty one if it doesn't exist yet.
+	 */
+	static GitLineCounts read(File cacheFile) throws IOException {
+		GitLineCounts lineCounts = new GitLineCounts(cacheFile);
+		if (!cacheFile.isFile()) {
+			return lineCounts;
+		}
+		RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			long records = channel.size() / RECORD_LENGTH;
+			//so the next records are appended at a record boundary
+			channel.truncate(records * RECORD_LENGTH);
+			ByteBuffer buffer = ByteBuffer.allocate(RECORD_LENGTH * 4096);
+			byte[] id = new byte[20];
+			long remaining = records * RECORD_LENGTH;
+			while (remaining > 0) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), remaining));
+				while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+				}
+				buffer.flip();
+				remaining -= buffer.remaining();
+				while (buffer.remaining() >= RECORD_LENGTH) {
+					buffer.get(id);
+					lineCounts.counts.put(ObjectId.fromRaw(id, 0), buffer.getInt());
+				}
+			}
+		} finally {
+			file.close();
+		}
+		return lineCounts;
+	}
+
+	/**
+	 * The cache of a repository when its connection doesn't name one, in the git directory.
+	 */
+	static File defaultCacheFile(File repositoryPath) {
+		File gitDirectory = new File(repositoryPath, ".git");
+		if (!gitDirectory.isDirectory()) {
+			//a bare repository
+			gitDirectory = repositoryPath;
+		}
+		return new File(gitDirectory, "rascal-msr-line-counts");
+	}
+
+	/**
+	 * Counts the lines of the regular files of the revision. Symbolic links and submodules aren't
+	 * files with lines, they are left out.
+	 *
+	 * @return the lines per file, the files are located in the working tree.
+	 */
+	synchronized IMap count(File repositoryPath, String revision) throws ScmProviderException {
+		Map<String, ObjectId> blobs = listBlobs(repositoryPath, revision);
+		Map<ObjectId, Integer> counted = new HashMap<ObjectId, Integer>();
+		GitCatFileBatch catFile = null;
+		boolean read = false;
+		try {
+			for (ObjectId blob : blobs.values()) {
+				if (counts.containsKey(blob) || counted.containsKey(blob)) {
+					continue;
+				}
+				if (catFile == null) {
+					catFile = GitCommandServer.acquireCatFile(repositoryPath);
+				}
+				InputStream content = catFile.open(blob.name());
+				if (content == null) {
+					throw new ScmProviderException("Can't read the blob " + blob.name() + " of " + revision);
+				}
+				counted.put(blob, LineCounter.countLines(content));
+			}
+			read = true;
+		} catch (JavaGitException e) {
+			throw new ScmProviderException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new ScmProviderException(e.getMessage(), e);
+		} finally {
+			if (catFile != null && !read) {
+				//it may be in the middle of an object, it can't be used anymore
+				catFile.close();
+			}
+		}
+		if (catFile != null) {
+			try {
+				GitCommandServer.releaseCatFile(repositoryPath, catFile);
+			} catch (IOException e) {
+				throw new ScmProviderException(e.getMessage(), e);
+			}
+		}
+
+		if (!counted.isEmpty()) {
+			try {
+				append(counted);
+			} catch (IOException e) {
+				throw new ScmProviderException("Can't write the line counts to " + cacheFile + ": " + e.getMessage(), e);
+			}
+			counts.putAll(counted);
+		}
+
+		String workspace = Versions.encodePath(repositoryPath.getAbsolutePath());
+		IMapWriter writer = ScmTypes.VF.mapWriter(Resource.getAbstractType(), ScmTypes.TF.integerType());
+		for (Map.Entry<String, ObjectId> blob : blobs.entrySet()) {
+			writer.put(Resource.FILE.make(Versions.createResourceId(workspace, blob.getKey())),
+				ScmTypes.VF.integer(counts.get(blob.getValue())));
+		}
+		return writer.done();
+	}
+
+	private void append(Map<ObjectId, Integer> counted) throws IOException {
+		File directory = cacheFile.getAbsoluteFile().getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can't create the directory " + directory);
+		}
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(cacheFile, true));
+		try {
+			byte[] record = new byte[RECORD_LENGTH];
+			for (Map.Entry<ObjectId, Integer> count : counted.entrySet()) {
+				count.getKey().copyRawTo(record, 0);
+				int lines = count.getValue();
+				record[20] = (byte) (lines >>> 24);
+				record[21] = (byte) (lines >>> 16);
+				record[22] = (byte) (lines >>> 8);
+				record[23] = (byte) lines;
+				out.write(record);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the blob of every regular file of the revision, by path.
+	 */
+	static Map<String, ObjectId> listBlobs(File repositoryPath, String revision) throws ScmProviderException {
+		final Map<String, ObjectId> blobs = new LinkedHashMap<String, ObjectId>();
+		GitTree.list(repositoryPath, revision, false, new GitTree.EntryHandler() {
+			public void handle(GitTree.Entry entry) {
+				if (entry.isRegularFile()) {
+					blobs.put(entry.path, entry.id);
+				}
+			}
+		});
+		return blobs;
+	}
+}
@@ -12,19 +12,25 @@
 package resource.versions.git;
 
 import java.text.ParseException;
-import java.util.HashSet;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.IList;
 import org.eclipse.imp.pdb.facts.IListWriter;
 import org.eclipse.imp.pdb.facts.ISet;
 import org.eclipse.imp.pdb.facts.ISetWriter;
 import org.eclipse.imp.pdb.facts.ITuple;
+import org.eclipse.imp.pdb.facts.IValue;
 import org.eclipse.imp.pdb.facts.type.Type;
 import org.rascalmpl.interpreter.result.RascalFunction;
 
 import resource.versions.AbstractScmLogEntryHandler;
+import resource.versions.ResourceLocations;
 import resource.versions.ScmEntryChangeKind;
 import resource.versions.ScmEntryChangeKind.ChangeCodeValue;
 import resource.versions.ScmTypes;
@@ -36,7 +42,7 @@ import resource.versions.ScmTypes.Revision;
 import resource.versions.ScmTypes.RevisionId;
 import resource.versions.ScmTypes.Sha;
 import resource.versions.ScmTypes.Tag;
-import resource.versions.Versions;
+import edu.nyu.cs.javagit.api.ObjectId;
 import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
 import edu.nyu.cs.javagit.api.commands.GitLogResponse.CommitFile;
 
@@ -46,23 +52,72 @@ public class GitLogEntryHandler extends AbstractScmLogEntryHandler<Commit> {
 	private static final String TAG_START = "refs/tags/";
 	private static final int TAG_OFFSET = TAG_START.length();
 	
-	private static final Type RESOURCE_CHANGE = 
+	static final Type RESOURCE_CHANGE = 
 		ScmTypes.TF.tupleType(ScmTypes.Resource.getAbstractType(), ScmTypes.RevisionChange.getAbstractType());
 	//private static final Type REV_RESOURCE_CHANGE =
 	//	ScmTypes.TF.tupleType(ScmTypes.Revision.getAbstractType(), ScmTypes.Resource.getAbstractType(), ScmTypes.RevisionChange.getAbstractType());
 	
+	//SimpleDateFormat isn't thread safe, and changesets are made on several threads when pipelined
+	private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat(GitProvider.DATE_FORMAT.toPattern());
+		}
+	};
+	
 	private final String repositoryUrl;
+	//the locations of the files, every path is only turned into a location once
+	private final ResourceLocations locations;
+	
+	//the merge git log -m is giving the per parent commits of, they are added to it as they come
+	private MergeAssembler todoMerge = null;
+	//gets every changeset as well when the changesets of the extraction are stored, see GitWatermark
+	private GitWatermark.Recorder recorder = null;
+	//writes every changeset to a store as well, see ChangesetStore
+	private ChangesetStore.Writer store = null;
+	//the file details that were asked for, the changes only get those
+	private boolean contentDetails = true;
+	private boolean lineDetails = true;
 	
-	//this set holds the previous merge commits with the same commit sha! 
-	private final Set<Commit> todoMerges;
+	//one revision value per commit and per blob, shared by every changeset that refers to it. Only
+	//kept when the changesets are collected, a callback alone doesn't keep them.
+	private final ObjectId.Table<IConstructor> commitRevisions;
+	private final ObjectId.Table<IConstructor> blobRevisions;
 	//private final Map<String, Set<Commit>> merges;
 	
 	public GitLogEntryHandler(IConstructor repository, RascalFunction factExtractor, IListWriter logEntriesWriter) {
 		super(repository, factExtractor, logEntriesWriter);
 		IConstructor connection = ScmTypes.Repository.getConnection(repository);
 		repositoryUrl = ScmTypes.Connection.getUrl(connection).getValue();
+		locations = ResourceLocations.forWorkspace(repositoryUrl);
 		
-		todoMerges = new HashSet<Commit>();
+		commitRevisions = logEntriesWriter != null ? new ObjectId.Table<IConstructor>() : null;
+		blobRevisions = logEntriesWriter != null ? new ObjectId.Table<IConstructor>() : null;
+	}
+	
+	/**
+	 * @return the revision of a commit, <code>revision(hash(commit(sha)))</code>.
+	 */
+	private IConstructor commitRevision(ObjectId id, String sha) {
+		return revision(commitRevisions, Sha.COMMIT, id, sha);
+	}
+	
+	/**
+	 * @return the revision of the contents of a file, <code>revision(hash(blob(sha)))</code>.
+	 */
+	private IConstructor blobRevision(ObjectId id, String sha) {
+		return revision(blobRevisions, Sha.BLOB, id, sha);
+	}
+	
+	private IConstructor revision(ObjectId.Table<IConstructor> revisions, Sha type, ObjectId id, String sha) {
+		if (id == null || revisions == null) {
+			return Revision.REVISION.make(RevisionId.HASH.make(type.make(sha)));
+		}
+		IConstructor revision = revisions.get(id);
+		if (revision == null) {
+			revision = revisions.intern(id, Revision.REVISION.make(RevisionId.HASH.make(type.make(id.name()))));
+		}
+		return revision;
 	}
 	
 	/**
@@ -74,16 +129,22 @@ public class GitLogEntryHandler extends AbstractScmLogEntryHandler<Commit> {
 	 */
 	private IConstructor processInfo(Commit commit, boolean author) {
 		String name = null;
-		String date = null;
+		long time;
 		
 		if (author) {
 			name = commit.getAuthor();
-			date = commit.getDateString();
+			time = commit.getAuthorTime();
 		} else {
 			name = commit.getCommitter();
-			date = commit.getCommitDate();
+			time = commit.getCommitTime();
+		}
+		
+		if (time != Commit.UNKNOWN_TIME) {
+			//the client already knows the instant, no need to (format and) parse the date string
+			return ScmTypes.Info.makeInfo(ScmTypes.VF.datetime(time), name, (author == true ? null : commit.getMessage()));
 		}
 		
+		String date = author ? commit.getDateString() : commit.getCommitDate();
 		if (date == null) {
 			return null; //we don't have any committer info!
 			//throw new IllegalArgumentException("Can't process any " +
@@ -91,15 +152,14 @@ public class GitLogEntryHandler extends AbstractScmLogEntryHandler<Commit> {
 		}
 
 		try {
-			long dateInstance = GitProvider.DATE_FORMAT.parse(date).getTime();
+			long dateInstance = DATE_FORMAT.get().parse(date).getTime();
 			return ScmTypes.Info.makeInfo(ScmTypes.VF.datetime(dateInstance), name, (author == true ? null : commit.getMessage()));
 		} catch (ParseException e) {
 			throw new IllegalArgumentException(e.getMessage(), e);
 		}
 	}
 	
-	private ISet processTags(Commit commit) {
-		String[] tagNames = commit.getTags();
+	private ISet processTags(String[] tagNames) {
 		if (tagNames == null || tagNames.length == 0) {
 			return null;
 		}
@@ -125,86 +185,154 @@ public class GitLogEntryHandler extends AbstractScmLogEntryHandler<Commit> {
 	}
 	
 	private IConstructor processRevision(Commit commit) {
-		IConstructor sha = Sha.COMMIT.make(commit.getSha());
+		IConstructor revision = commitRevision(commit.getId(), commit.getSha());
 		IConstructor commitRevision;
-		if (commit.getParentSha() != null) {
-			IConstructor oldSha = Sha.COMMIT.make(commit.getParentSha());
-			commitRevision = Revision.REVISION_PARENT.make(RevisionId.HASH.make(sha), Revision.REVISION.make(RevisionId.HASH.make(oldSha)));
+		if (commit.getParentId() != null || commit.getParentSha() != null) {
+			IConstructor parent = commitRevision(commit.getParentId(), commit.getParentSha());
+			commitRevision = Revision.REVISION_PARENT.make(Revision.getId(revision), parent);
 		} else {
-			commitRevision = Revision.REVISION.make(RevisionId.HASH.make(sha));
+			commitRevision = revision;
 		}
 		
-		ISet tags = processTags(commit);
+		ISet tags = processTags(commit.getTags());
 		if (tags != null) {
 			commitRevision = Annotation.TAGS.set(commitRevision, tags);
 		}
 		return commitRevision;
 	}
 	
-	/**
-	 * TODO remove the code duplication with {@link #handleLogEntry(Commit)}
-	 * @return
-	 */
 	public boolean callBackToDoMerges() {
-		if (todoMerges.size() == 0) {
+		if (todoMerge == null) {
 			return false;
 		}
-		List<String> todoMergeParents = null;
-		Commit random = null;
-		IListWriter mergeDetails = ScmTypes.VF.listWriter(MergeDetail.getAbstractType());
-		for (Commit mergeCommit : todoMerges) {
-			if (random == null) {
-				random = mergeCommit;
-				todoMergeParents = random.getMergeDetails();
-			}
-			String mergeOrigin = mergeCommit.getMergeOrigin();
-			boolean removed = todoMergeParents.remove(mergeOrigin);
-			if (!removed) {
-				System.err.println("The merge origin '" + mergeOrigin + "' was not in the mergeDetails list: '" + mergeDetails + "'");
-			}
-			IConstructor mergeOriginRevision = Revision.REVISION.make(RevisionId.HASH.make(Sha.COMMIT.make(mergeOrigin)));
-			ISetWriter resources = ScmTypes.VF.relationWriter(RESOURCE_CHANGE);
-			for (CommitFile file : mergeCommit.getFiles()) {
-				resources.insert(processCommitFile(file));
-			}
-			mergeDetails.append(MergeDetail.RESOURCES.make(mergeOriginRevision, resources.done()));
-		}
-		
-		for (String todoParent : todoMergeParents) {
-			mergeDetails.append(MergeDetail.PARENT.make(Revision.REVISION.make(RevisionId.HASH.make(Sha.COMMIT.make(todoParent)))));
-		}
-		
-		IConstructor commitRevision = processRevision(random);
-		commitRevision = Annotation.MERGE_DETAIL.set(commitRevision, mergeDetails.done());
-		
-		IConstructor author = processInfo(random, true);
-		IConstructor committer = processInfo(random, false);
-		if (committer == null) { 
-			//if we don't have any committer info, lets copy it from the author and set the commit message, since the author doesn't have it
-			committer = Info.makeInfo(Info.getDate(author), Info.getAuthorName(author).getValue(), random.getMessage());
-		}
-		
-		IConstructor changeSet = ScmTypes.ChangeSet.CHANGE_SET.make(commitRevision, ScmTypes.VF.relation(RESOURCE_CHANGE), committer);
-		if (author != null) {
-			changeSet = Annotation.AUTHOR.set(changeSet, author);
-		}
-		
-		callBack(changeSet);
-		
-		todoMerges.clear();
+		MergeAssembler merge = todoMerge;
+		todoMerge = null;
+		callBack(merge.done());
 		return true;
 	}
 	
 	public void handleLogEntry(Commit c) {
 		if (c.getMergeOrigin() != null) {
-			if (todoMerges.size() > 0 && !todoMerges.iterator().next().getSha().equals(c.getSha())) {
+			if (todoMerge != null && !todoMerge.isMergeOf(c)) {
 				//this is another merge, lets process the previous merge commits first!
 				callBackToDoMerges();
 			}
-			todoMerges.add(c);
+			if (todoMerge == null) {
+				todoMerge = startMerge(c);
+			}
+			//only the resources of this parent are kept, not the commit
+			todoMerge.merged(c);
+			todoMerge.add(todoMerge.makeDetail(c));
 			return; //we may have more merge commits with the same sha to process
 		}
+		//the merge before this commit is complete, keep git's order
+		callBackToDoMerges();
+		callBack(makeChangeSet(c));
+	}
+	
+	@Override
+	protected IConstructor callBack(IConstructor changeSet) {
+		if (recorder != null) {
+			recorder.append(changeSet);
+		}
+		if (store != null) {
+			store.append(changeSet);
+		}
+		return super.callBack(changeSet);
+	}
+	
+	void setRecorder(GitWatermark.Recorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	void setStore(ChangesetStore.Writer store) {
+		this.store = store;
+	}
+	
+	ChangesetStore.Writer getStore() {
+		return store;
+	}
+	
+	/**
+	 * The sha of the commit, merges are only called back when all their parents are in.
+	 */
+	@Override
+	protected String getJournalEntry(IConstructor changeSet) {
+		IConstructor id = Revision.getId(ScmTypes.ChangeSet.CHANGE_SET.getRevision(changeSet));
+		return Sha.getSha(RevisionId.getSha(id)).getValue();
+	}
+	
+	/**
+	 * Limits the changes to the file details the log was asked for. Without the contents ids the 
+	 * revision of a change is the revision of its commit, without line counts the changes don't get
+	 * the linesAdded and linesRemoved annotations.
+	 */
+	void setFileDetails(boolean contents, boolean lines) {
+		this.contentDetails = contents;
+		this.lineDetails = lines;
+	}
+	
+	/**
+	 * Adds changesets of an earlier extraction to the collected changesets and to the store, without
+	 * calling back. Their tags are made again from the decorations of the refs as they are now, the
+	 * refs may have moved since the changesets were stored.
+	 */
+	void appendStored(IList changeSets, Map<String, List<String>> decorations) {
+		for (IValue value : changeSets) {
+			IConstructor changeSet = redecorate((IConstructor) value, decorations);
+			if (logEntriesWriter != null) {
+				logEntriesWriter.append(changeSet);
+			}
+			if (store != null) {
+				store.append(changeSet);
+			}
+		}
+	}
+	
+	private IConstructor redecorate(IConstructor changeSet, Map<String, List<String>> decorations) {
+		IConstructor revision = ScmTypes.ChangeSet.CHANGE_SET.getRevision(changeSet);
+		IConstructor id = Revision.getId(revision);
+		List<String> refs = decorations.get(Sha.getSha(RevisionId.getSha(id)).getValue());
+		ISet tags = processTags(refs == null ? null : refs.toArray(new String[refs.size()]));
+		boolean tagged = Annotation.TAGS.has(revision);
+		if (tags == null ? !tagged : tagged && tags.isEqual(Annotation.TAGS.get(revision, ISet.class))) {
+			return changeSet;
+		}
 		
+		//the revision again without its tags, an annotation can't be taken off
+		IConstructor decorated;
+		if (revision.getConstructorType() == Revision.REVISION_PARENT.getType()) {
+			decorated = Revision.REVISION_PARENT.make(id, Revision.getParent(revision));
+		} else {
+			decorated = Revision.REVISION.make(id);
+		}
+		if (Annotation.MERGE_DETAIL.has(revision)) {
+			decorated = Annotation.MERGE_DETAIL.set(decorated, Annotation.MERGE_DETAIL.get(revision, IList.class));
+		}
+		if (tags != null) {
+			decorated = Annotation.TAGS.set(decorated, tags);
+		}
+		IConstructor result = ScmTypes.ChangeSet.CHANGE_SET.make(decorated, 
+			ScmTypes.ChangeSet.CHANGE_SET.getResources(changeSet), ScmTypes.ChangeSet.CHANGE_SET.getCommitter(changeSet));
+		if (Annotation.AUTHOR.has(changeSet)) {
+			result = Annotation.AUTHOR.set(result, Annotation.AUTHOR.get(changeSet, IConstructor.class));
+		}
+		return result;
+	}
+	
+	/**
+	 * Hands a changeset made by {@link #makeChangeSet(Commit)} or {@link #makeMergeChangeSet(Collection)} 
+	 * to the callback.
+	 */
+	void emit(IConstructor changeSet) {
+		callBack(changeSet);
+	}
+	
+	/**
+	 * Makes the changeset of a commit without merge origin. It only reads the commit, so changesets
+	 * can be made on several threads at once.
+	 */
+	IConstructor makeChangeSet(Commit c) {
 		IConstructor author = processInfo(c, true);
 		IConstructor committer = processInfo(c, false);
 		if (committer == null && author != null) { 
@@ -215,17 +343,23 @@ public class GitLogEntryHandler extends AbstractScmLogEntryHandler<Commit> {
 		ISetWriter resources = ScmTypes.VF.relationWriter(RESOURCE_CHANGE);
 		if (c.getFiles() != null) {
 			for (CommitFile file : c.getFiles()) {
-				resources.insert(processCommitFile(file));
+				resources.insert(processCommitFile(c, file));
 			}
 		}
 		
 		IConstructor commitRevision = processRevision(c);
 		
-		if (c.getMergeDetails() != null) {
+		if (c.isMerge()) {
 			//we don't have the detailed merge origin info, but we do know the merge parents!
 			IListWriter mergeDetails = ScmTypes.VF.listWriter(MergeDetail.getAbstractType());
-			for (String parent : c.getMergeDetails()) {
-				mergeDetails.append(MergeDetail.PARENT.make(Revision.REVISION.make(RevisionId.HASH.make(Sha.COMMIT.make(parent)))));
+			if (c.getMergeParentIds() != null) {
+				for (ObjectId parent : c.getMergeParentIds()) {
+					mergeDetails.append(MergeDetail.PARENT.make(commitRevision(parent, null)));
+				}
+			} else {
+				for (String parent : c.getMergeDetails()) {
+					mergeDetails.append(MergeDetail.PARENT.make(commitRevision(null, parent)));
+				}
 			}
 			commitRevision = Annotation.MERGE_DETAIL.set(commitRevision, mergeDetails.done());
 		}
@@ -234,194 +368,150 @@ public class GitLogEntryHandler extends AbstractScmLogEntryHandler<Commit> {
 		if (author != null) {
 			changeSet = Annotation.AUTHOR.set(changeSet, author);
 		}
-		
-		callBack(changeSet);
+		return changeSet;
 	}
-
-	public void handleLogEntryOld(Commit c) {
-		String commitSha = c.getSha();
-		
-//		Set<Commit> mergesFrom = null;
-//		if (c.getMergeDetails() != null && c.getMergeOrigin() != null) {
-//			List<String> mergeDetails = c.getMergeDetails();
-//			
-//			if (merges.containsKey(commitSha)) {
-//				mergesFrom = merges.get(commitSha);
-//			} else {
-//				mergesFrom = new HashSet<Commit>(mergeDetails.size());
-//				merges.put(commitSha, mergesFrom);
-//			}
-//			mergesFrom.add(c);
-//			
-//			if (mergesFrom.size() < mergeDetails.size()) {
-//				//we are not ready yet to handle the logentry
-//				return;
-//			} else {
-//				//we have all the merge from commits, so lets hande it!
-//				merges.remove(commitSha);
-//			}
-//		}
-		
-//		if (DEBUG) {
-//			System.out.println("\ncommit " + c.getSha() + "(" + c.getTags() + ")");
-//			if (c.getMergeDetails() != null) {
-//				System.out.println("\ncommit " + c.getSha() + "(" + c.getTags() + ")");
-//				StringBuilder builder = new StringBuilder();
-//				for (String part : c.getMergeDetails()) {
-//					builder.append(part);
-//					builder.append(" ");
-//				}
-//				System.out.println("Merge: " + builder.toString());
-//			}
-//			System.out.println("Author: " + c.getAuthor());
-//			System.out.println("Date: " + c.getDateString());
-//			System.out.println("\n" + c.getMessage() + "\n");
-//		}
-		
-		
-		
-		
-//		Type resRelType;
-//		if (mergesFrom != null) {
-//			resRelType = ScmTypes.TF.tupleType(ScmTypes.Revision.getAbstractType(), ScmTypes.Resource.getAbstractType(), ScmTypes.RevisionChange.getAbstractType());
-//		}
-		
-		
-		IConstructor sha = Sha.COMMIT.make(c.getSha());
-		IConstructor commitRevision;
-		if (c.getParentSha() != null) {
-			IConstructor oldSha = Sha.COMMIT.make(c.getParentSha());
-			commitRevision = Revision.REVISION_PARENT.make(RevisionId.HASH.make(sha), Revision.REVISION.make(RevisionId.HASH.make(oldSha)));
-		} else {
-			commitRevision = Revision.REVISION.make(RevisionId.HASH.make(sha));
+	
+	/**
+	 * Makes the changeset of a merge out of the commits git log -m gave for it, one per merge parent
+	 * that has changes. Like {@link #makeChangeSet(Commit)} it only reads the commits.
+	 */
+	IConstructor makeMergeChangeSet(Collection<Commit> merges) {
+		MergeAssembler merge = null;
+		for (Commit mergeCommit : merges) {
+			if (merge == null) {
+				merge = startMerge(mergeCommit);
+			}
+			merge.merged(mergeCommit);
+			merge.add(merge.makeDetail(mergeCommit));
 		}
-		
-		
-//			if (DEBUG) {
-//				for (CommitFile file : c.getFiles()) {
-//					System.out.println(":" + (file.getOldPermissions() != null ? file.getOldPermissions() : "000000") + 
-//						" " + file.getPermissions() + " " + 
-//						(file.getOldSha() != null ? file.getOldSha() + "... " : "0000000...") +
-//						file.getSha() + "... " + file.getChangeStatus() + " " + 
-//						(file.getOriginName() != null ? file.getOriginName() + " " : "") + 
-//						file.getName());
-//				}
-//				for (CommitFile file : c.getFiles()) {
-//					System.out.println(+ file.getLinesAdded() + "       " + file.getLinesDeleted() + 
-//						"       " + (file.getOriginName() != null ? file.getOriginName() + " => " : "") + file.getName());
-//				}
-//			}
+		return merge.done();
+	}
+	
+	/**
+	 * Starts the changeset of a merge, from the first of the commits git log -m gives for it.
+	 */
+	MergeAssembler startMerge(Commit first) {
+		return new MergeAssembler(first);
+	}
+	
+	/**
+	 * Puts the changeset of a merge together while git log -m gives the diff against every merge
+	 * parent. The diff of a parent becomes its <code>MergeDetail.RESOURCES</code> as soon as it is 
+	 * read, so the commits of the parents (and their files) don't have to be kept until the merge 
+	 * is complete. Only the revision, the author and the committer of the merge are kept.
+	 * 
+	 * {@link #makeDetail(Commit)} only reads the commit, so the details can be made on several 
+	 * threads. The other methods are called by one thread at a time.
+	 */
+	class MergeAssembler {
+		private final ObjectId id;
+		private final String sha;
+		private final IConstructor revision;
+		private final IConstructor author;
+		private final IConstructor committer;
+		//the merge parents that have no resources yet, in the order of the commit
+		private final Set<String> todoMergeParents;
+		private final IListWriter mergeDetails = ScmTypes.VF.listWriter(MergeDetail.getAbstractType());
+		
+		private MergeAssembler(Commit first) {
+			id = first.getId();
+			sha = first.getSha();
+			revision = processRevision(first);
 			
-		
-		//FIXME somehow merge changesets have no parent :|, but they do have the mergeparents
-//		if (c.getMergeDetails() != null) {
-//			IListWriter mergeParents = ScmTypes.VF.listWriter(Revision.getAbstractType());
-//			
-//			//System.out.println("\ncommit " + c.getSha() + "(" + c.getTags() + ")");
-//			StringBuilder builder = new StringBuilder();
-//			for (String parent : c.getMergeDetails()) {
-//				mergeParents.append(Revision.REVISION.make(RevisionId.HASH.make(Sha.COMMIT.make(parent))));
-//				builder.append(parent);
-//				builder.append(" ");
-//			}
-//			//System.out.println("Merge: " + builder.toString());
-//			revision = ScmTypes.Annotation.MERGE_PARENTS.set(revision, mergeParents.done());
-//		}
-//		
-//		if (c.getMergeOrigin() != null) {
-//			revision = Annotation.MERGE_ORIGIN.set(revision, ScmTypes.Revision.REVISION.make(RevisionId.HASH.make(Sha.COMMIT.make(c.getMergeOrigin()))));
-//		}
-		ISet tags = processTags(c);
-		if (tags != null) {
-			commitRevision = Annotation.TAGS.set(commitRevision, tags);
+			IConstructor author = processInfo(first, true);
+			IConstructor committer = processInfo(first, false);
+			if (committer == null && author != null) { 
+				//if we don't have any committer info, lets copy it from the author and set the commit message, since the author doesn't have it
+				committer = Info.makeInfo(Info.getDate(author), Info.getAuthorName(author).getValue(), first.getMessage());
+			}
+			this.author = author;
+			this.committer = committer;
+			
+			List<String> parents = first.getMergeDetails();
+			todoMergeParents = parents != null ? new LinkedHashSet<String>(parents) : new LinkedHashSet<String>();
 		}
 		
-		IConstructor author = processInfo(c, true);
-		IConstructor committer = processInfo(c, false);
-		if (committer == null && author != null) { 
-			//if we don't have any committer info, lets copy it from the author and set the commit message, since the author doesn't have it
-			committer = Info.makeInfo(Info.getDate(author), Info.getAuthorName(author).getValue(), c.getMessage());
+		/**
+		 * @return true if the commit is one of the commits git log -m gives for this merge.
+		 */
+		boolean isMergeOf(Commit c) {
+			if (id != null && c.getId() != null) {
+				return id.equals(c.getId());
+			}
+			return sha != null && sha.equals(c.getSha());
 		}
 		
-		if (c.getMergeOrigin() != null) {
-			if (todoMerges.size() > 0 && !todoMerges.iterator().next().getSha().equals(commitSha)) {
-				//this is another merge, lets process the previous merge commits first!
-				callBackToDoMerges();
-			}
-			todoMerges.add(c);
-		} else {
+		/**
+		 * @return the resources the merge changed compared to the merge origin of the commit.
+		 */
+		IConstructor makeDetail(Commit mergeCommit) {
+			IConstructor mergeOriginRevision = commitRevision(mergeCommit.getMergeOriginId(), mergeCommit.getMergeOrigin());
 			ISetWriter resources = ScmTypes.VF.relationWriter(RESOURCE_CHANGE);
-			if (c.getFiles() != null) {
-				for (CommitFile file : c.getFiles()) {
-					resources.insert(processCommitFile(file));
-				}
+			for (CommitFile file : mergeCommit.getFiles()) {
+				resources.insert(processCommitFile(mergeCommit, file));
 			}
-			if (c.getMergeDetails() != null) {
-				//we don't have the detailed merge origin info, but we do know the merge parents!
-				IListWriter mergeDetails = ScmTypes.VF.listWriter(MergeDetail.getAbstractType());
-				for (String parent : c.getMergeDetails()) {
-					mergeDetails.append(MergeDetail.PARENT.make(Revision.REVISION.make(RevisionId.HASH.make(Sha.COMMIT.make(parent)))));
-				}
-				commitRevision = Annotation.MERGE_DETAIL.set(commitRevision, mergeDetails.done());
+			return MergeDetail.RESOURCES.make(mergeOriginRevision, resources.done());
+		}
+		
+		/**
+		 * Marks the merge origin of the commit as a parent that has its resources.
+		 */
+		void merged(Commit mergeCommit) {
+			String mergeOrigin = mergeCommit.getMergeOrigin();
+			boolean removed = todoMergeParents.remove(mergeOrigin);
+			if (!removed) {
+				System.err.println("The merge origin '" + mergeOrigin + "' was not in the mergeDetails list: '" + todoMergeParents + "'");
+			}
+		}
+		
+		/**
+		 * Adds a detail made by {@link #makeDetail(Commit)}, in the order git gave the commits.
+		 */
+		void add(IConstructor detail) {
+			mergeDetails.append(detail);
+		}
+		
+		/**
+		 * @return the changeset of the merge, the parents without resources are added after the 
+		 *         parents with resources.
+		 */
+		IConstructor done() {
+			for (String todoParent : todoMergeParents) {
+				mergeDetails.append(MergeDetail.PARENT.make(commitRevision(ObjectId.fromString(todoParent), todoParent)));
 			}
-			IConstructor changeSet = ScmTypes.ChangeSet.CHANGE_SET.make(commitRevision, resources.done(), committer);
+			
+			IConstructor commitRevision = Annotation.MERGE_DETAIL.set(revision, mergeDetails.done());
+			IConstructor changeSet = ScmTypes.ChangeSet.CHANGE_SET.make(commitRevision, ScmTypes.VF.relation(RESOURCE_CHANGE), committer);
 			if (author != null) {
 				changeSet = Annotation.AUTHOR.set(changeSet, author);
 			}
-			callBack(changeSet);
+			return changeSet;
 		}
-		
-		
-//		IConstructor changeSet;
-//		if (mergesFrom != null) {
-//			IListWriter mergeDetails = ScmTypes.VF.listWriter(MergeDetail.getAbstractType());
-//			for (Commit other : mergesFrom) { //for each merge partner
-//				IRelationWriter resources = ScmTypes.VF.relationWriter(RESOURCE_CHANGE); //the merged resources;
-//				IConstructor mergeOriginRevision = Revision.REVISION.make(RevisionId.HASH.make(Sha.COMMIT.make(other.getMergeOrigin())));
-//				for (CommitFile file : other.getFiles()) {
-//					resources.insert(processCommitFile(file));
-//				}
-//				mergeDetails.append(MergeDetail.RESOURCES.make(mergeOriginRevision, resources.done()));
-//			}
-//			commitRevision = Annotation.MERGE_DETAIL.set(commitRevision, mergeDetails.done());
-//			changeSet = ScmTypes.ChangeSet.CHANGE_SET.make(commitRevision, ScmTypes.VF.relation(RESOURCE_CHANGE), committer);
-//			mergesFrom = null;
-//		} else {
-//			IRelationWriter resources = ScmTypes.VF.relationWriter(RESOURCE_CHANGE);
-//			if (c.getFiles() != null) {
-//				for (CommitFile file : c.getFiles()) {
-//					resources.insert(processCommitFile(file));
-//				}
-//			}
-//			if (c.getMergeDetails() != null) {
-//				IListWriter mergeDetails = ScmTypes.VF.listWriter(MergeDetail.getAbstractType());
-//				//IListWriter mergeParents = ScmTypes.VF.listWriter(Revision.getAbstractType());
-//				for (String parent : c.getMergeDetails()) {
-//					mergeDetails.append(MergeDetail.PARENT.make(Revision.REVISION.make(RevisionId.HASH.make(Sha.COMMIT.make(parent)))));
-//				}
-//				commitRevision = Annotation.MERGE_DETAIL.set(commitRevision, mergeDetails.done());
-//			}
-//			changeSet = ScmTypes.ChangeSet.CHANGE_SET.make(commitRevision, resources.done(), committer);
-//		}
-//		
-//		changeSet = ScmTypes.Annotation.AUTHOR.set(changeSet, author);
-//		
-//		IConstructor result = callBack(changeSet);
 	}
 	
-	private ITuple processCommitFile(CommitFile file) {
-		String shaHash = file.getSha();
-		if (shaHash == null) {
-			shaHash = "0000000";
+	/**
+	 * @param commit the commit that changed the file, its revision is the revision of the change 
+	 *        when the contents ids weren't asked for.
+	 */
+	private ITuple processCommitFile(Commit commit, CommitFile file) {
+		IConstructor revision;
+		if (!contentDetails) {
+			revision = commitRevision(commit.getId(), commit.getSha());
+		} else if (file.getId() != null) {
+			revision = blobRevision(file.getId(), null);
+		} else {
+			String shaHash = file.getSha();
+			revision = blobRevision(null, shaHash == null ? "0000000" : shaHash);
 		}
-		IConstructor blobSha = Sha.BLOB.make(shaHash);
 		
 		IConstructor blobRevision;
-		if (file.getOldSha() != null) {
-			IConstructor oldSha = Sha.BLOB.make(file.getOldSha());
-			blobRevision = Revision.REVISION_PARENT.make(RevisionId.HASH.make(blobSha), Revision.REVISION.make(RevisionId.HASH.make(oldSha)));
+		if (!contentDetails) {
+			blobRevision = revision;
+		} else if (file.getOldId() != null || file.getOldSha() != null) {
+			IConstructor oldRevision = blobRevision(file.getOldId(), file.getOldSha());
+			blobRevision = Revision.REVISION_PARENT.make(Revision.getId(revision), oldRevision);
 		} else {
-			blobRevision = Revision.REVISION.make(RevisionId.HASH.make(blobSha));
+			blobRevision = revision;
 		}
 		boolean hasOrigin = (file.getOriginName() != null);
 		
@@ -430,7 +520,7 @@ public class GitLogEntryHandler extends AbstractScmLogEntryHandler<Commit> {
 		
 		IConstructor revisionChange;
 		if (hasOrigin) {
-			revisionChange = changeType.make(blobRevision, Resource.FILE.make(Versions.createResourceId(repositoryUrl, file.getOriginName())));	
+			revisionChange = changeType.make(blobRevision, Resource.FILE.make(locations.get(file.getOriginName())));	
 			if (changeStatus instanceof ChangeCodeValue) {
 				try {
 					int percent = Integer.parseInt(((ChangeCodeValue) changeStatus).getStatusValue());
@@ -443,15 +533,15 @@ public class GitLogEntryHandler extends AbstractScmLogEntryHandler<Commit> {
 			revisionChange = changeType.make(blobRevision);
 		}
 		int linesAdded = file.getLinesAdded();
-		if (linesAdded >= 0) {
+		if (lineDetails && linesAdded >= 0) {
 			revisionChange = Annotation.LINES_ADDED.set(revisionChange, ScmTypes.VF.integer(linesAdded));
 		}
 		int linesDeleted = file.getLinesDeleted();
-		if (linesAdded >= 0) {
+		if (lineDetails && linesAdded >= 0) {
 			revisionChange = Annotation.LINES_REMOVED.set(revisionChange, ScmTypes.VF.integer(linesDeleted));
 		}
 		
-		IConstructor fileResource = Resource.FILE.make(Versions.createResourceId(repositoryUrl, file.getName()));
+		IConstructor fileResource = Resource.FILE.make(locations.get(file.getName()));
 		
 		return ScmTypes.VF.tuple(fileResource, revisionChange);	
 	}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+
+import resource.versions.ScmLogEntryHandler;
+import resource.versions.ScmProviderException;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
+
+/**
+ * Extracts the log in three stages: a reader thread runs git log and parses its output (the
+ * {@link GitLogSource}), a pool of workers makes the changesets, and the calling thread hands them
+ * to the callback of the {@link GitLogEntryHandler}. The callback stays on the calling thread (the Rascal interpreter is
+ * not thread safe) and gets the changesets in the order git gave the commits.
+ *
+ * The stages are connected by a bounded queue of pending changesets, in git's order. When the
+ * callback falls behind, the reader waits and git waits for the reader.
+ */
+public class GitLogPipeline implements ScmLogEntryHandler<Commit> {
+
+	//pending changesets per worker, before the reader has to wait
+	private static final int QUEUE_PER_WORKER = 64;
+
+	//marks the end of the log in the queue, never run
+	private static final Future<IConstructor> END = new FutureTask<IConstructor>(new Callable<IConstructor>() {
+		public IConstructor call() {
+			return null;
+		}
+	});
+
+	private final GitLogEntryHandler handler;
+	private final ExecutorService workers;
+	private final BlockingQueue<Future<IConstructor>> queue;
+
+	//the merge git log -m is giving the commits of, and the details made of them so far. Only used
+	//by the reader thread.
+	private GitLogEntryHandler.MergeAssembler merge = null;
+	private final List<Future<IConstructor>> mergeDetails = new ArrayList<Future<IConstructor>>();
+
+	private volatile Throwable readerFailure = null;
+
+	public GitLogPipeline(GitLogEntryHandler handler, int workerCount) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("At least one worker is needed, not " + workerCount);
+		}
+		this.handler = handler;
+		this.workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "git log worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.queue = new ArrayBlockingQueue<Future<IConstructor>>(workerCount * QUEUE_PER_WORKER);
+	}
+
+	/**
+	 * Reads the log from the source and hands all changesets to the handler's callback before 
+	 * returning.
+	 */
+	public void extract(final GitLogSource source) throws ScmProviderException, JavaGitException, IOException {
+		Thread reader = new Thread("git log reader") {
+			@Override
+			public void run() {
+				try {
+					source.log(GitLogPipeline.this);
+					flushMerges();
+				} catch (Throwable e) {
+					readerFailure = e;
+				} finally {
+					try {
+						queue.put(END);
+					} catch (InterruptedException e) {
+						//the emitter stopped, nobody is waiting for the end
+					}
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+
+		boolean done = false;
+		try {
+			emit();
+			done = true;
+		} finally {
+			if (!done) {
+				//stops the reader, interrupting it closes the output of git
+				reader.interrupt();
+			}
+			workers.shutdownNow();
+		}
+
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Throwable failure = readerFailure;
+		if (failure instanceof JavaGitException) {
+			throw (JavaGitException) failure;
+		} else if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new ScmProviderException(failure.getMessage(), failure);
+		}
+	}
+
+	/**
+	 * The last stage, takes the changesets in git's order and calls back with them.
+	 */
+	private void emit() throws ScmProviderException {
+		try {
+			while (true) {
+				Future<IConstructor> next = queue.take();
+				if (next == END) {
+					return;
+				}
+				handler.emit(next.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ScmProviderException("Interrupted while extracting the log", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new ScmProviderException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Called by the reader thread for every parsed commit. The commits git log -m gives once per
+	 * merge parent each get a worker for their merge detail right away, the changeset of the merge
+	 * is put together from the details when the merge is complete.
+	 */
+	public void handleLogEntry(final Commit c) {
+		if (c.getMergeOrigin() != null) {
+			if (merge != null && !merge.isMergeOf(c)) {
+				flushMerges();
+			}
+			if (merge == null) {
+				merge = handler.startMerge(c);
+			}
+			merge.merged(c);
+			final GitLogEntryHandler.MergeAssembler detailMerge = merge;
+			mergeDetails.add(workers.submit(new Callable<IConstructor>() {
+				public IConstructor call() {
+					return detailMerge.makeDetail(c);
+				}
+			}));
+			return;
+		}
+		flushMerges();
+		submit(new Callable<IConstructor>() {
+			public IConstructor call() {
+				return handler.makeChangeSet(c);
+			}
+		});
+	}
+
+	private void flushMerges() {
+		if (merge == null) {
+			return;
+		}
+		final GitLogEntryHandler.MergeAssembler done = merge;
+		final List<Future<IConstructor>> details = new ArrayList<Future<IConstructor>>(mergeDetails);
+		merge = null;
+		mergeDetails.clear();
+		//the details were submitted before, so the workers have already taken them when this runs
+		submit(new Callable<IConstructor>() {
+			public IConstructor call() throws Exception {
+				for (Future<IConstructor> detail : details) {
+					try {
+						done.add(detail.get());
+					} catch (ExecutionException e) {
+						//the failure of the detail is the failure of the merge
+						Throwable cause = e.getCause();
+						throw cause instanceof Exception ? (Exception) cause : e;
+					}
+				}
+				return done.done();
+			}
+		});
+	}
+
+	private void submit(Callable<IConstructor> task) {
+		try {
+			queue.put(workers.submit(task));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("The log extraction was stopped");
+		}
+	}
+}
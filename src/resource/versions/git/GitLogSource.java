@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.IOException;
+
+import resource.versions.ScmLogEntryHandler;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
+
+/**
+ * Something that produces the commits of a git log, in the order git log gives them.
+ */
+public interface GitLogSource {
+
+	/**
+	 * Calls the handler for every commit of the log, before returning.
+	 */
+	public void log(ScmLogEntryHandler<Commit> handler) throws JavaGitException, IOException;
+}
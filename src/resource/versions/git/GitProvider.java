@@ -18,11 +18,15 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.imp.pdb.facts.IConstructor;
 import org.eclipse.imp.pdb.facts.IDateTime;
+import org.eclipse.imp.pdb.facts.IList;
 import org.eclipse.imp.pdb.facts.IListWriter;
+import org.eclipse.imp.pdb.facts.IMap;
 import org.eclipse.imp.pdb.facts.ISet;
 import org.eclipse.imp.pdb.facts.ISetWriter;
 import org.eclipse.imp.pdb.facts.ISourceLocation;
@@ -31,11 +35,16 @@ import org.eclipse.imp.pdb.facts.IValue;
 import org.eclipse.imp.pdb.facts.IValueFactory;
 import org.rascalmpl.interpreter.result.RascalFunction;
 
+import resource.versions.ContentCache;
+import resource.versions.ExtractionJournal;
+import resource.versions.RawOutputCache;
 import resource.versions.ScmProvider;
 import resource.versions.ScmProviderException;
 import resource.versions.ScmTypes;
 import resource.versions.ScmTypes.Annotation;
+import resource.versions.ScmTypes.ChangeSet;
 import resource.versions.ScmTypes.CheckoutUnit;
+import resource.versions.ScmTypes.Connection;
 import resource.versions.ScmTypes.LogOption;
 import resource.versions.ScmTypes.Repository;
 import resource.versions.ScmTypes.Resource;
@@ -56,9 +65,11 @@ import edu.nyu.cs.javagit.api.commands.GitCheckoutOptions;
 import edu.nyu.cs.javagit.api.commands.GitLog;
 import edu.nyu.cs.javagit.api.commands.GitLogOptions;
 import edu.nyu.cs.javagit.client.ClientManager;
+import edu.nyu.cs.javagit.client.ClientManager.ClientType;
 import edu.nyu.cs.javagit.client.IClient;
 import edu.nyu.cs.javagit.client.cli.CliGitLog;
 import edu.nyu.cs.javagit.client.cli.CliGitLog.GitLogParser;
+import edu.nyu.cs.javagit.client.odb.ObjectDatabase;
 import edu.nyu.cs.javagit.utilities.ExceptionMessageMap;
 
 public class GitProvider implements ScmProvider<GitLogEntryHandler> {
@@ -66,6 +77,11 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 	private static final String GIT_PATH = "/usr/local/bin/";  // migod: OSX
 	// private static final String GIT_PATH = "/usr/bin/";
 
+	//the line count caches that were read, by file
+	private final Map<File, GitLineCounts> lineCounts = new HashMap<File, GitLineCounts>();
+	//the readers of contents at a revision, by repository
+	private final Map<File, GitContents> contents = new HashMap<File, GitContents>();
+	private final ContentCache contentCache = new ContentCache(64 * 1024 * 1024);
 	
 	
 	public GitProvider() {
@@ -89,7 +105,8 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 	private void extractLogsFromFile(ISourceLocation logsExport, GitLogEntryHandler handler) throws ScmProviderException {
 		//GitLogEntryHandler handler = new GitLogEntryHandler(repository, (RascalFunction) factExtractor, null);
 		
-		IClient client = ClientManager.getInstance().getPreferredClient();
+		// the export is git log output, so it is always parsed by the command-line client
+		IClient client = ClientManager.getInstance().getClientInstance(ClientType.CLI);
 	    CliGitLog gitLog = (CliGitLog) client.getGitLogInstance();
 	    GitLogParser parser = gitLog.new GitLogParser(handler);
 
@@ -120,6 +137,39 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 		return handler;
 	}
 	
+	/**
+	 * Extracts the changesets of the repository into a {@link ChangesetStore} in the directory, 
+	 * without keeping them in memory. With a watermark on the connection only the commits since the
+	 * last extraction are read from git, the others come from the watermark.
+	 */
+	public void writeChangesetStore(IConstructor repository, File directory) throws ScmProviderException {
+		checkNoJournal(repository, "the store");
+		GitLogEntryHandler handler = createLogEntryHandler(repository, null, null);
+		ChangesetStore.Writer store;
+		try {
+			store = new ChangesetStore.Writer(directory);
+		} catch (IOException e) {
+			throw new ScmProviderException(e.getMessage(), e);
+		}
+		handler.setStore(store);
+		boolean extracted = false;
+		try {
+			extractLogs(repository, handler);
+			extracted = true;
+		} finally {
+			handler.setStore(null);
+			if (!extracted) {
+				//readable up to the last checkpoint, if there was one
+				store.abort();
+			}
+		}
+		try {
+			store.close();
+		} catch (IOException e) {
+			throw new ScmProviderException("Can't write the changesets to " + directory + ": " + e.getMessage(), e);
+		}
+	}
+	
 	public GitLogEntryHandler createLogEntryHandler(IConstructor repository,
 			RascalFunction factExtractor, IListWriter logEntriesWriter) {
 		return new GitLogEntryHandler(repository, factExtractor, logEntriesWriter);
@@ -141,17 +191,7 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 	
 	public void checkoutResources(IConstructor checkoutUnit, IConstructor repository) throws ScmProviderException {
 		
-		String val;
-		if (CheckoutUnit.hasRevision(checkoutUnit)) {
-			IConstructor revisionId = Revision.getId(CheckoutUnit.getRevision(checkoutUnit));
-			IString sha = Sha.getSha(RevisionId.getSha(revisionId));
-			val = sha.getValue();
-		} else if (CheckoutUnit.hasSymname(checkoutUnit)) {
-			IString tag = Tag.getName(CheckoutUnit.getSymname(checkoutUnit));
-			val = tag.getValue();
-		} else {
-			throw new ScmProviderException("Don't support any other checkoutUnit then Revision or Tag");
-		}
+		String val = getRevisionName(checkoutUnit);
 		
 		//IConstructor revisionId = Revision.getId(CheckoutUnit.getRevision(checkoutUnit));
 		
@@ -170,6 +210,68 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 		}
 	}
 	
+	/**
+	 * Checks the checkout unit out in a worktree of its own, see {@link GitWorktrees}, so the working 
+	 * tree of the repository and the other worktrees can be at other revisions at the same time.
+	 */
+	public void checkoutWorktree(IConstructor checkoutUnit, IConstructor repository, File worktree) throws ScmProviderException {
+		GitWorktrees.checkout(getDotGitInstance(repository).getPath(), worktree, getRevisionName(checkoutUnit));
+	}
+	
+	public void removeWorktree(IConstructor repository, File worktree) throws ScmProviderException {
+		GitWorktrees.remove(getDotGitInstance(repository).getPath(), worktree);
+	}
+	
+	public void pruneWorktrees(IConstructor repository) throws ScmProviderException {
+		GitWorktrees.prune(getDotGitInstance(repository).getPath());
+	}
+	
+	private String getRevisionName(IConstructor checkoutUnit) throws ScmProviderException {
+		if (CheckoutUnit.hasRevision(checkoutUnit)) {
+			IConstructor revisionId = Revision.getId(CheckoutUnit.getRevision(checkoutUnit));
+			IString sha = Sha.getSha(RevisionId.getSha(revisionId));
+			return sha.getValue();
+		} else if (CheckoutUnit.hasSymname(checkoutUnit)) {
+			IString tag = Tag.getName(CheckoutUnit.getSymname(checkoutUnit));
+			return tag.getValue();
+		} else {
+			throw new ScmProviderException("Don't support any other checkoutUnit then Revision or Tag");
+		}
+	}
+	
+	/**
+	 * Counts the lines of the files of the checkout unit without checking it out, see 
+	 * {@link GitLineCounts}. The counts are cached in the file of the @lineCounts annotation of the 
+	 * connection, or in the git directory of the repository.
+	 */
+	public IMap linesCount(IConstructor repository, IConstructor checkoutUnit) throws ScmProviderException {
+		String revision = getRevisionName(checkoutUnit);
+		IConstructor connection = Repository.getConnection(repository);
+		File repositoryDirectory = new File(Connection.getUrl(connection).getValue());
+		File cacheFile;
+		if (Annotation.LINE_COUNTS.has(connection)) {
+			cacheFile = new File(Annotation.LINE_COUNTS.get(connection, ISourceLocation.class).getURI().getPath());
+		} else {
+			cacheFile = GitLineCounts.defaultCacheFile(repositoryDirectory);
+		}
+		return getLineCounts(cacheFile).count(repositoryDirectory, revision);
+	}
+	
+	private GitLineCounts getLineCounts(File cacheFile) throws ScmProviderException {
+		synchronized (lineCounts) {
+			GitLineCounts counts = lineCounts.get(cacheFile.getAbsoluteFile());
+			if (counts == null) {
+				try {
+					counts = GitLineCounts.read(cacheFile);
+				} catch (IOException e) {
+					throw new ScmProviderException("Can't read the line counts in " + cacheFile + ": " + e.getMessage(), e);
+				}
+				lineCounts.put(cacheFile.getAbsoluteFile(), counts);
+			}
+			return counts;
+		}
+	}
+	
 	private void seekEntries(File[] files, ISetWriter writer) throws JavaGitException {		
 		for (File file : files) {
 			IConstructor child;
@@ -205,13 +307,124 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 		}
 	}
 	
+	/**
+	 * Gets the files of the checkout unit from the repository, without checking it out. Every file has
+	 * the revision of its blob and its size in bytes as @size. Submodules aren't listed.
+	 */
+	public ISet getResources(IConstructor repository, IConstructor checkoutUnit) throws ScmProviderException {
+		String revision = getRevisionName(checkoutUnit);
+		File repositoryDirectory = new File(Connection.getUrl(Repository.getConnection(repository)).getValue());
+		final String workspace = Versions.encodePath(repositoryDirectory.getAbsolutePath());
+		final ISetWriter entriesWriter = ScmTypes.VF.setWriter(WcResource.getAbstractType());
+		GitTree.list(repositoryDirectory, revision, true, new GitTree.EntryHandler() {
+			public void handle(GitTree.Entry entry) {
+				IConstructor file = Resource.FILE.make(Versions.createResourceId(workspace, entry.path));
+				IConstructor blob = Revision.REVISION.make(RevisionId.HASH.make(Sha.BLOB.make(entry.id.name())));
+				IConstructor resource = WcResource.RESOURCE_REVISION.make(file, blob);
+				entriesWriter.insert(Annotation.SIZE.set(resource, ScmTypes.VF.integer(entry.size)));
+			}
+		});
+		return entriesWriter.done();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The files are read through the git cat-file --batch processes of the repository, see {@link GitContents}.
+	 */
+	public byte[][] readContents(IConstructor repository, IConstructor[] files, IConstructor[] revisions) throws ScmProviderException {
+		String url = Connection.getUrl(Repository.getConnection(repository)).getValue();
+		File repositoryDirectory = new File(url).getAbsoluteFile();
+		GitContents reader;
+		synchronized (contents) {
+			reader = contents.get(repositoryDirectory);
+			if (reader == null) {
+				reader = new GitContents(repositoryDirectory, url, contentCache);
+				contents.put(repositoryDirectory, reader);
+			}
+		}
+		return reader.read(files, revisions);
+	}
+	
+	//a SimpleDateFormat can't be used by two threads at the same time
+	private static String formatDate(long instant) {
+		synchronized (DATE_FORMAT) {
+			return DATE_FORMAT.format(new Date(instant));
+		}
+	}
+
 	private DotGit getDotGitInstance(IConstructor repository) {
 		IConstructor connection = ScmTypes.Repository.getConnection(repository);
 		File repositoryDirectory = new File(ScmTypes.Connection.getUrl(connection).getValue());
 		return DotGit.getInstance(repositoryDirectory);
 	}
 	
+	/**
+	 * Extracts the changesets of the repository for the handler. With the checkpoint option they are
+	 * written to a {@link ChangesetStore} as well, that can be read up to the last checkpoint while
+	 * the extraction goes on, or after it failed.
+	 */
 	public void extractLogs(IConstructor repository, GitLogEntryHandler handler) throws ScmProviderException {
+		IConstructor checkpoint = null;
+		for (IValue iValue : Repository.getOptions(repository)) {
+			if (LogOption.from((IConstructor) iValue) == LogOption.CHECKPOINT) {
+				checkpoint = (IConstructor) iValue;
+			}
+		}
+		if (handler.isCollecting()) {
+			checkNoJournal(repository, "the list");
+		} else if (checkpoint != null && handler.getStore() == null) {
+			checkNoJournal(repository, "the checkpoint store");
+		}
+		ChangesetStore.Writer store = handler.getStore();
+		if (checkpoint == null) {
+			extractLogsWithOptions(repository, handler);
+			return;
+		}
+		if (store != null) {
+			//writeChangesetStore, its store gets the checkpoints
+			store.setCheckpoint(LogOption.getEveryN(checkpoint).intValue());
+			extractLogsWithOptions(repository, handler);
+			return;
+		}
+		
+		File directory = new File(LogOption.getDir(checkpoint).getURI().getPath());
+		try {
+			store = new ChangesetStore.Writer(directory);
+		} catch (IOException e) {
+			throw new ScmProviderException(e.getMessage(), e);
+		}
+		store.setCheckpoint(LogOption.getEveryN(checkpoint).intValue());
+		handler.setStore(store);
+		boolean extracted = false;
+		try {
+			extractLogsWithOptions(repository, handler);
+			extracted = true;
+		} finally {
+			handler.setStore(null);
+			if (!extracted) {
+				//readable up to the last checkpoint
+				store.abort();
+			}
+		}
+		try {
+			store.close();
+		} catch (IOException e) {
+			throw new ScmProviderException("Can't write the changesets to " + directory + ": " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * See {@link ExtractionJournal#checkNoJournal(IConstructor, String)}. The segments of a 
+	 * watermark keep the changesets of the earlier runs, a journal can be resumed with them.
+	 */
+	private static void checkNoJournal(IConstructor repository, String target) throws ScmProviderException {
+		if (!Annotation.WATERMARK.has(Repository.getConnection(repository))) {
+			ExtractionJournal.checkNoJournal(repository, target);
+		}
+	}
+	
+	private void extractLogsWithOptions(IConstructor repository, GitLogEntryHandler handler) throws ScmProviderException {
 		IConstructor connection = Repository.getConnection(repository);
 		if (Annotation.LOG_FILE.has(connection)) {
 			extractLogsFromFile(Annotation.LOG_FILE.get(connection, ISourceLocation.class), handler);
@@ -222,8 +435,11 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 			
 			GitLogOptions options = new GitLogOptions();
 			options.setOptLimitFullHistory(true);
+			options.setOptMachineFormat(true);
 			IConstructor startOption = null;
 			IConstructor endOption = null;
+			int pipelineWorkers = 0;
+			int parallelWorkers = 1;
 			
 			ISet logOptions = Repository.getOptions(repository);
 			for (IValue iValue : logOptions) {
@@ -244,6 +460,22 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 						options.setOptFileDetails(true);
 						options.setOptFindCopiesHarder(true);
 						break;
+					case NAME_DETAILS:
+						options.setOptNameStatus(true);
+						break;
+					case RAW_DETAILS:
+						options.setOptRaw(true);
+						break;
+					case LINE_DETAILS:
+						options.setOptNumstat(true);
+						break;
+					case RENAME_DETAILS:
+						options.setOptDetectRenames(true);
+						options.setOptRenameLimit(true, LogOption.getLimit(logOption).intValue());
+						break;
+					case COPY_DETAILS:
+						options.setOptFindCopiesHarder(true);
+						break;
 					case NO_MERGES:
 						options.setOptLimitNoMerges(true);
 						break;
@@ -259,6 +491,15 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 					case ALL_BRANCHES:
 						options.setOptLimitAll(true);
 						break;
+					case PIPELINED:
+						pipelineWorkers = LogOption.getWorkers(logOption).intValue();
+						break;
+					case PARALLEL:
+						parallelWorkers = LogOption.getWorkers(logOption).intValue();
+						break;
+					case CHECKPOINT:
+						//see extractLogs
+						break;
 					default:
 						System.err.println("don't know what to do with " + 
 							logOption + " of type " + optionType);
@@ -267,10 +508,12 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 			}
 			
 			String optLimitRange = null;
+			//where the log starts, the ref the watermark follows
+			String tipRevision = "HEAD";
 			if (startOption != null) {
 				if (CheckoutUnit.hasDate(startOption)) {
 					IDateTime start = CheckoutUnit.getDate(startOption);
-					options.setOptLimitCommitAfter(true, GitProvider.DATE_FORMAT.format(new Date(start.getInstant())));
+					options.setOptLimitCommitAfter(true, formatDate(start.getInstant()));
 				} else if (CheckoutUnit.hasSymname(startOption)) {
 					IConstructor symname = CheckoutUnit.getSymname(startOption);
 					optLimitRange = Tag.getName(symname).getValue() + "..";
@@ -283,22 +526,45 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 			if (endOption != null) {
 				if (CheckoutUnit.hasDate(endOption)) {
 					IDateTime end = CheckoutUnit.getDate(endOption);
-					options.setOptLimitCommitBefore(true, GitProvider.DATE_FORMAT.format(new Date(end.getInstant())));
+					options.setOptLimitCommitBefore(true, formatDate(end.getInstant()));
 				} else if (CheckoutUnit.hasSymname(endOption)) {
 					IConstructor symname = CheckoutUnit.getSymname(endOption);
 					optLimitRange = (optLimitRange == null ? ".." : optLimitRange) + Tag.getName(symname).getValue();
+					tipRevision = Tag.getName(symname).getValue();
 				} else if (CheckoutUnit.hasRevision(endOption)) {
 					IConstructor revision = CheckoutUnit.getRevision(endOption);
 					optLimitRange = (optLimitRange == null ? ".." : optLimitRange) + Sha.getSha(RevisionId.getSha(Revision.getId(revision))).getValue();
+					tipRevision = Sha.getSha(RevisionId.getSha(Revision.getId(revision))).getValue();
 				}
 			}
 			
 			if (optLimitRange != null) {
 				options.setOptLimitRange(true, optLimitRange);
 			}
-			GitLog logger = new GitLog();
-			logger.log(dotGit.getPath(), options, handler);
-			handler.callBackToDoMerges();
+			if ((options.isOptDetectRenames() || options.isOptFindCopiesHarder()) && !options.hasFileDetails()) {
+				//the renames and copies are only in the file details
+				options.setOptNameStatus(true);
+			}
+			handler.setFileDetails(options.isOptFileDetails() || options.isOptRaw() || options.isOptNumstat(),
+				options.isOptFileDetails() || options.isOptNumstat());
+			RawOutputCache cache = null;
+			if (Annotation.LOG_CACHE.has(connection)) {
+				cache = new RawOutputCache(new File(Annotation.LOG_CACHE.get(connection, ISourceLocation.class).getURI().getPath()));
+			}
+			if (Annotation.WATERMARK.has(connection)) {
+				if (Annotation.JOURNAL.has(connection)) {
+					System.err.println("The journal of " + dotGit.getPath() + " is ignored, the watermark already extracts only what is new");
+				}
+				File watermarkFile = new File(Annotation.WATERMARK.get(connection, ISourceLocation.class).getURI().getPath());
+				extractIncrementally(dotGit.getPath(), watermarkFile, ExtractionJournal.fingerprint(repository), tipRevision, 
+					options, parallelWorkers, pipelineWorkers, cache, handler);
+			} else if (Annotation.JOURNAL.has(connection)) {
+				File journalFile = new File(Annotation.JOURNAL.get(connection, ISourceLocation.class).getURI().getPath());
+				extractJournaled(dotGit.getPath(), journalFile, ExtractionJournal.fingerprint(repository), tipRevision, 
+					options, parallelWorkers, pipelineWorkers, cache, handler);
+			} else {
+				extractLogs(dotGit.getPath(), options, parallelWorkers, pipelineWorkers, cache, handler);
+			}
 		} catch (JavaGitException e) {
 			throw new ScmProviderException(e.getMessage(), e);
 		} catch (IOException e) {
@@ -308,6 +574,163 @@ public class GitProvider implements ScmProvider<GitLogEntryHandler> {
 		}
 	}
 	
+	private void extractLogs(File repositoryPath, GitLogOptions options, int parallelWorkers, int pipelineWorkers, 
+			RawOutputCache cache, GitLogEntryHandler handler) throws ScmProviderException, JavaGitException, IOException {
+		GitLogSource source = cache == null ? null : CachedGitLog.create(repositoryPath, options, cache);
+		if (source == null) {
+			source = new PartitionedGitLog(repositoryPath, options, parallelWorkers);
+		}
+		if (pipelineWorkers > 0) {
+			new GitLogPipeline(handler, pipelineWorkers).extract(source);
+		} else {
+			source.log(handler);
+			handler.callBackToDoMerges();
+		}
+	}
+	
+	/**
+	 * Only extracts the commits that were added since the run that left the watermark, the changesets
+	 * of earlier runs come from the store next to the watermark. The callback only gets the new 
+	 * changesets, the list and the store get the stored ones as well, with the tags of the refs as
+	 * they are now. Without a watermark for the same options, or when a ref was deleted or rewritten
+	 * since, the whole log is extracted again.
+	 */
+	private void extractIncrementally(File repositoryPath, File watermarkFile, String fingerprint, String tipRevision, 
+			GitLogOptions options, int parallelWorkers, int pipelineWorkers, RawOutputCache cache, GitLogEntryHandler handler) 
+			throws ScmProviderException, JavaGitException, IOException {
+		Map<String, String> tips;
+		GitWatermark watermark;
+		//the stored changesets get the tags of the refs as they are now
+		Map<String, List<String>> decorations;
+		ObjectDatabase db = new ObjectDatabase(repositoryPath);
+		try {
+			tips = GitWatermark.readTips(db, tipRevision, options.isOptLimitAll());
+			watermark = tips == null ? null : GitWatermark.read(watermarkFile, fingerprint);
+			if (watermark != null && watermark.isRewrittenBy(db, tips)) {
+				System.err.println("The history of " + repositoryPath + " was rewritten since the last extraction, extracting it again");
+				watermark = null;
+			}
+			decorations = db.readDecorations();
+		} finally {
+			db.close();
+		}
+		if (tips == null) {
+			//nothing to compare with next time
+			extractLogs(repositoryPath, options, parallelWorkers, pipelineWorkers, cache, handler);
+			return;
+		}
+		
+		GitLogOptions runOptions = options;
+		if (watermark == null) {
+			watermark = GitWatermark.create(watermarkFile, fingerprint);
+		} else {
+			runOptions = options.copy();
+			runOptions.setOptLimitExclude(true, watermark.getTipShas());
+		}
+		
+		//git gives the new commits before the stored ones, or after them with --reverse
+		boolean reverse = options.isOptOrderingReverse();
+		boolean keeping = handler.isCollecting() || handler.getStore() != null;
+		if (reverse && keeping) {
+			appendStored(watermark, true, decorations, handler);
+		}
+		GitWatermark.Recorder recorder = watermark.record();
+		handler.setRecorder(recorder);
+		try {
+			if (!tips.equals(watermark.getTips())) {
+				extractLogs(repositoryPath, runOptions, parallelWorkers, pipelineWorkers, cache, handler);
+			}
+		} finally {
+			handler.setRecorder(null);
+		}
+		if (!reverse && keeping) {
+			appendStored(watermark, false, decorations, handler);
+		}
+		watermark.update(recorder, tips);
+	}
+	
+	/**
+	 * Hands the stored changesets to the list or the store of the handler, a segment at a time.
+	 */
+	private static void appendStored(GitWatermark watermark, boolean oldestFirst, 
+			final Map<String, List<String>> decorations, final GitLogEntryHandler handler) throws IOException {
+		watermark.readChangeSets(oldestFirst, new GitWatermark.SegmentHandler() {
+			public void handle(IList changeSets) {
+				handler.appendStored(changeSets, decorations);
+			}
+		});
+	}
+	
+	/**
+	 * Goes on with the extraction the journal was left by, when the refs still point to the same
+	 * commits. Git gives the commits in the same order again, so the commits the journal has are 
+	 * skipped with --skip, or left out with -n when the log is reversed. A merge whose changeset
+	 * wasn't given yet is extracted again with all its parents. The changesets only go to a callback,
+	 * see {@link #checkNoJournal(IConstructor, String)}.
+	 */
+	private void extractJournaled(File repositoryPath, File journalFile, String fingerprint, String tipRevision, 
+			GitLogOptions options, int parallelWorkers, int pipelineWorkers, RawOutputCache cache, GitLogEntryHandler handler) 
+			throws ScmProviderException, JavaGitException, IOException {
+		Map<String, String> tips;
+		ObjectDatabase db = new ObjectDatabase(repositoryPath);
+		try {
+			tips = GitWatermark.readTips(db, tipRevision, options.isOptLimitAll());
+		} finally {
+			db.close();
+		}
+		if (tips == null) {
+			//can't tell if the log is still the same one
+			System.err.println("Can't read the refs of " + repositoryPath + ", extracting it without a journal");
+			extractLogs(repositoryPath, options, parallelWorkers, pipelineWorkers, cache, handler);
+			return;
+		}
+		
+		ExtractionJournal journal = ExtractionJournal.open(journalFile, fingerprint);
+		try {
+			if (journal.size() > 0 && !tips.equals(journal.getState())) {
+				System.err.println("The refs of " + repositoryPath + " moved since the extraction was interrupted, extracting it again");
+				journal.restart(tips);
+			} else if (journal.size() == 0) {
+				journal.restart(tips);
+			}
+			
+			GitLogOptions runOptions = options;
+			int done = journal.size();
+			if (done > 0) {
+				runOptions = options.copy();
+				if (options.isOptOrderingReverse()) {
+					//git skips from the newest commit, the oldest ones come first in reverse
+					int remaining = new GitLog().count(repositoryPath, options) - done;
+					if (remaining <= 0) {
+						journal.finish();
+						return;
+					}
+					runOptions.setOptLimitCommitMax(true, remaining);
+				} else {
+					int skip = options.isOptLimitCommitSkip() ? options.getOptLimitSkip() : 0;
+					runOptions.setOptLimitCommitSkip(true, skip + done);
+					if (options.isOptLimitCommitMax()) {
+						if (options.getOptLimitMax() - done <= 0) {
+							journal.finish();
+							return;
+						}
+						runOptions.setOptLimitCommitMax(true, options.getOptLimitMax() - done);
+					}
+				}
+			}
+			
+			handler.setJournal(journal);
+			try {
+				extractLogs(repositoryPath, runOptions, parallelWorkers, pipelineWorkers, cache, handler);
+			} finally {
+				handler.setJournal(null);
+			}
+			journal.finish();
+		} finally {
+			journal.close();
+		}
+	}
+	
 	/**
 	 * @return the string representation of the tag or revision, or an empty String if none.
 	 */
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import resource.versions.ScmProviderException;
+import edu.nyu.cs.javagit.api.JavaGitConfiguration;
+import edu.nyu.cs.javagit.api.ObjectId;
+import edu.nyu.cs.javagit.client.cli.ProcessUtilities;
+
+/**
+ * The files of a revision as <code>git ls-tree -r</code> lists them, read from the repository
+ * instead of a working tree. The entries are handed out while git lists them.
+ */
+class GitTree {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] BLOB = "blob".getBytes(UTF8);
+
+	static final String REGULAR_FILE = "100644";
+	static final String EXECUTABLE_FILE = "100755";
+	static final String SYMBOLIC_LINK = "120000";
+
+	/**
+	 * One file of the tree, submodules aren't listed.
+	 */
+	static class Entry {
+		String mode;
+		ObjectId id;
+		//-1 when the sizes aren't listed
+		long size;
+		//relative to the top of the working tree
+		String path;
+
+		boolean isRegularFile() {
+			return mode.equals(REGULAR_FILE) || mode.equals(EXECUTABLE_FILE);
+		}
+	}
+
+	interface EntryHandler {
+		void handle(Entry entry) throws ScmProviderException;
+	}
+
+	/**
+	 * Lists the files of the revision.
+	 *
+	 * @param revision
+	 *            a sha, a tag or anything else git resolves to a commit or a tree.
+	 * @param sizes
+	 *            if true the size of every file is listed as well, which costs git a read of every
+	 *            blob header.
+	 */
+	static void list(File repositoryPath, String revision, boolean sizes, EntryHandler handler) throws ScmProviderException {
+		List<String> command = new ArrayList<String>();
+		command.add(JavaGitConfiguration.getGitCommand());
+		command.add("ls-tree");
+		command.add("-r");
+		command.add("-z");
+		command.add("--full-tree");
+		if (sizes) {
+			command.add("-l");
+		}
+		command.add(revision);
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.directory(repositoryPath);
+
+		try {
+			Process process = ProcessUtilities.startProcess(pb);
+			//git blocks when the pipe of its errors is full, before it ends the listing
+			ProcessUtilities.ErrorReader errorReader = new ProcessUtilities.ErrorReader(process.getErrorStream());
+			errorReader.start();
+			boolean ended = false;
+			try {
+				InputStream in = new BufferedInputStream(process.getInputStream(), 64 * 1024);
+				ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+				try {
+					int b;
+					while ((b = in.read()) >= 0) {
+						if (b != 0) {
+							line.write(b);
+							continue;
+						}
+						Entry entry = parse(line.toByteArray(), sizes);
+						line.reset();
+						if (entry != null) {
+							handler.handle(entry);
+						}
+					}
+				} finally {
+					in.close();
+				}
+				String errors = errorReader.getOutput();
+				int exitValue = process.waitFor();
+				ended = true;
+				if (exitValue != 0) {
+					throw new ScmProviderException("git ls-tree " + revision + " failed: " + errors.trim());
+				}
+			} finally {
+				//the listing wasn't read to the end, git would wait for a reader that is gone
+				if (!ended) {
+					process.destroy();
+				}
+			}
+		} catch (IOException e) {
+			throw new ScmProviderException(e.getMessage(), e);
+		} catch (InterruptedException e) {
+			throw new ScmProviderException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * <mode> SP <type> SP <object> TAB <path>, or with the sizes
+	 * <mode> SP <type> SP <object> SP+ <size> TAB <path>
+	 */
+	private static Entry parse(byte[] line, boolean sizes) {
+		int mode = indexOf(line, (byte) ' ', 0);
+		int type = indexOf(line, (byte) ' ', mode + 1);
+		int tab = indexOf(line, (byte) '\t', 0);
+		if (mode < 0 || type < 0 || tab < type + ObjectId.NAME_LENGTH + 1) {
+			return null;
+		}
+		//only blobs are files, submodules are commits
+		if (!regionEquals(line, mode + 1, type, BLOB)) {
+			return null;
+		}
+		Entry entry = new Entry();
+		entry.mode = new String(line, 0, mode, UTF8);
+		entry.id = ObjectId.fromHex(line, type + 1);
+		entry.size = -1;
+		if (sizes) {
+			int size = type + 1 + ObjectId.NAME_LENGTH;
+			while (size < tab && line[size] == ' ') {
+				size++;
+			}
+			try {
+				entry.size = Long.parseLong(new String(line, size, tab - size, UTF8));
+			} catch (NumberFormatException e) {
+				//"-" is only given for trees and submodules
+			}
+		}
+		entry.path = new String(line, tab + 1, line.length - tab - 1, UTF8);
+		return entry.id == null ? null : entry;
+	}
+
+	private static boolean regionEquals(byte[] bytes, int from, int to, byte[] expected) {
+		if (to - from != expected.length) {
+			return false;
+		}
+		for (int i = 0; i < expected.length; i++) {
+			if (bytes[from + i] != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(byte[] bytes, byte b, int from) {
+		for (int i = from; i < bytes.length; i++) {
+			if (bytes[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,392 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.IList;
+import org.eclipse.imp.pdb.facts.IListWriter;
+import org.eclipse.imp.pdb.facts.io.BinaryValueReader;
+import org.eclipse.imp.pdb.facts.io.BinaryValueWriter;
+
+import resource.versions.ScmTypes;
+import resource.versions.ScmTypes.ChangeSet;
+import edu.nyu.cs.javagit.client.odb.ObjectDatabase;
+import edu.nyu.cs.javagit.client.odb.RawObject;
+import edu.nyu.cs.javagit.client.odb.RevCommit;
+import edu.nyu.cs.javagit.client.odb.RevWalk;
+
+/**
+ * What an earlier extraction of a repository has already seen, so the next extraction only has to
+ * read the commits that were added since.
+ *
+ * The watermark file holds a fingerprint of the log options and the commit every ref the log started
+ * from pointed at. The changesets of every extraction are appended next to it in segment files
+ * (<code>&lt;watermark&gt;.0</code>, <code>&lt;watermark&gt;.1</code>, ...) in the order git gave
+ * them, a segment per {@link #SEGMENT_SIZE} changesets, so neither a run nor the stored changesets
+ * are held in memory as a whole. The watermark file says how many segments every run wrote. A
+ * segment is written before the watermark file that counts it, and both are replaced by renaming,
+ * so a run that doesn't finish leaves the previous watermark intact. The tags in the segments are
+ * the ones of the run that wrote them, the refs can move without adding commits.
+ */
+class GitWatermark {
+	private static final String FINGERPRINT = "fingerprint ";
+	private static final String SEGMENTS = "segments ";
+	private static final String RUN = "run ";
+	private static final String TIP = "tip ";
+	private static final int SEGMENT_SIZE = 10000;
+	//how far a commit date can be before the date of its parent, see isAncestor
+	private static final long CLOCK_SKEW = 24 * 60 * 60;
+
+	private final File file;
+	private final String fingerprint;
+	private Map<String, String> tips;
+	private int segments;
+	//the number of segments of every run, the first run first
+	private List<Integer> runs;
+
+	private GitWatermark(File file, String fingerprint, Map<String, String> tips, int segments, List<Integer> runs) {
+		this.file = file;
+		this.fingerprint = fingerprint;
+		this.tips = tips;
+		this.segments = segments;
+		this.runs = runs;
+	}
+
+	/**
+	 * Starts a new watermark for a full run, the watermark of an earlier run is deleted right away so
+	 * it can't be combined with the segments of this one.
+	 */
+	static GitWatermark create(File file, String fingerprint) throws IOException {
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Can't delete the watermark " + file);
+		}
+		return new GitWatermark(file, fingerprint, new TreeMap<String, String>(), 0, new ArrayList<Integer>());
+	}
+
+	/**
+	 * @return the watermark in the file, or null if there is none, it was left with other options or
+	 *         its segments are missing.
+	 */
+	static GitWatermark read(File file, String fingerprint) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		String storedFingerprint = null;
+		int segments = -1;
+		List<Integer> runs = new ArrayList<Integer>();
+		Map<String, String> tips = new TreeMap<String, String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(FINGERPRINT)) {
+					storedFingerprint = line.substring(FINGERPRINT.length());
+				} else if (line.startsWith(SEGMENTS)) {
+					segments = Integer.parseInt(line.substring(SEGMENTS.length()));
+				} else if (line.startsWith(RUN)) {
+					runs.add(Integer.parseInt(line.substring(RUN.length())));
+				} else if (line.startsWith(TIP) && line.length() > TIP.length() + 41) {
+					//ref names can't contain spaces
+					tips.put(line.substring(TIP.length() + 41), line.substring(TIP.length(), TIP.length() + 40));
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		} finally {
+			reader.close();
+		}
+
+		if (!fingerprint.equals(storedFingerprint) || segments < 0) {
+			return null;
+		}
+		if (runs.isEmpty()) {
+			//a watermark that was written before runs had more than one segment
+			runs.addAll(Collections.nCopies(segments, 1));
+		}
+		int counted = 0;
+		for (int run : runs) {
+			counted += run;
+		}
+		if (counted != segments) {
+			return null;
+		}
+		GitWatermark watermark = new GitWatermark(file, fingerprint, tips, segments, runs);
+		for (int i = 0; i < segments; i++) {
+			if (!watermark.getSegment(i).isFile()) {
+				return null;
+			}
+		}
+		return watermark;
+	}
+
+	/**
+	 * Reads the commits the log starts from: the tip revision, and with allRefs every ref.
+	 *
+	 * @return the commit per ref name, or null if the tip revision can't be resolved without git.
+	 */
+	static Map<String, String> readTips(ObjectDatabase db, String tipRevision, boolean allRefs) throws IOException {
+		Map<String, String> tips = new TreeMap<String, String>();
+		if (allRefs) {
+			for (Map.Entry<String, String> ref : db.readRefs().entrySet()) {
+				String sha = peelToCommit(db, ref.getValue());
+				if (sha != null) {
+					tips.put(ref.getKey(), sha);
+				}
+			}
+		}
+		String sha = db.resolve(tipRevision);
+		if (sha == null || (sha = peelToCommit(db, sha)) == null) {
+			return null;
+		}
+		tips.put(tipRevision, sha);
+		return tips;
+	}
+
+	private static String peelToCommit(ObjectDatabase db, String sha) throws IOException {
+		String peeled = db.peel(sha);
+		if (peeled == null) {
+			return null;
+		}
+		RawObject object = db.open(peeled);
+		return object.getType() == RawObject.OBJ_COMMIT ? peeled : null;
+	}
+
+	/**
+	 * @return true if a ref the watermark knows was deleted, or now points at a commit that doesn't
+	 *         descend from the one it pointed at (a force-push or a rewrite). The stored changesets
+	 *         then hold commits that are no longer in the history.
+	 */
+	boolean isRewrittenBy(ObjectDatabase db, Map<String, String> current) throws IOException {
+		for (Map.Entry<String, String> tip : tips.entrySet()) {
+			String sha = current.get(tip.getKey());
+			if (sha == null || (!sha.equals(tip.getValue()) && !isAncestor(db, tip.getValue(), sha))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Walks back from the descendant until the commits are older than the ancestor. A commit that is
+	 * dated more than a day before its parent can stop the walk early, the watermark is then taken
+	 * for rewritten and the log is extracted again: slower, but never wrong.
+	 */
+	private static boolean isAncestor(ObjectDatabase db, String ancestor, String descendant) throws IOException {
+		RawObject object = db.open(ancestor);
+		if (object == null || object.getType() != RawObject.OBJ_COMMIT) {
+			//it was rewritten and pruned
+			return false;
+		}
+		long ancestorTime = RevCommit.parse(ancestor, object.getData()).getCommitTime();
+		//the walk is newest first, so the ancestor is found after the commits added since
+		RevWalk walk = new RevWalk(db);
+		walk.setSince(ancestorTime - CLOCK_SKEW);
+		walk.markStart(descendant);
+		RevCommit commit;
+		while ((commit = walk.next()) != null) {
+			if (commit.getSha().equals(ancestor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	Map<String, String> getTips() {
+		return tips;
+	}
+
+	/**
+	 * @return the commits the earlier runs started from, their history is in the stored changesets.
+	 */
+	List<String> getTipShas() {
+		Set<String> shas = new LinkedHashSet<String>(tips.values());
+		return new ArrayList<String>(shas);
+	}
+
+	/**
+	 * Gets the segments of the changesets of earlier runs one by one.
+	 */
+	interface SegmentHandler {
+		void handle(IList changeSets) throws IOException;
+	}
+
+	/**
+	 * Reads the changesets of all earlier runs, the newest run first, or with oldestFirst the oldest
+	 * run first. The changesets of a run are in the order git gave them; only one segment is in
+	 * memory at a time.
+	 */
+	void readChangeSets(boolean oldestFirst, SegmentHandler handler) throws IOException {
+		int[] starts = new int[runs.size()];
+		for (int run = 1; run < starts.length; run++) {
+			starts[run] = starts[run - 1] + runs.get(run - 1);
+		}
+		for (int n = 0; n < starts.length; n++) {
+			int run = oldestFirst ? n : starts.length - 1 - n;
+			for (int i = starts[run]; i < starts[run] + runs.get(run); i++) {
+				handler.handle(readSegment(getSegment(i)));
+			}
+		}
+	}
+
+	/**
+	 * @return a recorder that writes the changesets of a run to segments after the ones of the
+	 *         earlier runs, they count once {@link #update(Recorder, Map)} moves the watermark.
+	 */
+	Recorder record() {
+		return new Recorder(segments);
+	}
+
+	/**
+	 * Writes the changesets of a run to segments as they are given.
+	 */
+	class Recorder {
+		private final int first;
+		private int written = 0;
+		private IListWriter segment = null;
+		private int size = 0;
+		//the first write that failed, the run can't be stored then
+		private IOException failure = null;
+
+		private Recorder(int first) {
+			this.first = first;
+		}
+
+		synchronized void append(IConstructor changeSet) {
+			if (failure != null) {
+				return;
+			}
+			if (segment == null) {
+				segment = ScmTypes.VF.listWriter(ChangeSet.getAbstractType());
+			}
+			segment.append(changeSet);
+			if (++size == SEGMENT_SIZE) {
+				try {
+					flush();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		}
+
+		/**
+		 * @return the number of segments of the run.
+		 */
+		synchronized int finish() throws IOException {
+			if (failure == null) {
+				flush();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return written;
+		}
+
+		private void flush() throws IOException {
+			if (size == 0) {
+				return;
+			}
+			IList changeSets = segment.done();
+			segment = null;
+			size = 0;
+			writeSegment(getSegment(first + written), changeSets);
+			written++;
+		}
+	}
+
+	/**
+	 * Counts the segments the recorder wrote as a new run, and moves the watermark to the tips that
+	 * run started from.
+	 */
+	void update(Recorder recorder, Map<String, String> newTips) throws IOException {
+		int written = recorder.finish();
+		int count = segments + written;
+		List<Integer> newRuns = new ArrayList<Integer>(runs);
+		if (written > 0) {
+			newRuns.add(written);
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		Writer writer = new FileWriter(temp);
+		try {
+			writer.write(FINGERPRINT + fingerprint + "\n");
+			writer.write(SEGMENTS + count + "\n");
+			for (int run : newRuns) {
+				writer.write(RUN + run + "\n");
+			}
+			for (Map.Entry<String, String> tip : newTips.entrySet()) {
+				writer.write(TIP + tip.getValue() + " " + tip.getKey() + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		replace(temp, file);
+		segments = count;
+		runs = newRuns;
+		tips = newTips;
+
+		//segments of a replaced watermark, or of a run that didn't finish
+		for (int i = count; getSegment(i).exists(); i++) {
+			getSegment(i).delete();
+		}
+	}
+
+	private File getSegment(int index) {
+		return new File(file.getPath() + "." + index);
+	}
+
+	private static IList readSegment(File segment) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(segment));
+		try {
+			return (IList) new BinaryValueReader().read(ScmTypes.VF, ScmTypes.store,
+				ScmTypes.TF.listType(ChangeSet.getAbstractType()), in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeSegment(File segment, IList changeSets) throws IOException {
+		File temp = new File(segment.getPath() + ".tmp");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+		try {
+			new BinaryValueWriter().write(changeSets, out);
+		} finally {
+			out.close();
+		}
+		replace(temp, segment);
+	}
+
+	private static void replace(File temp, File target) throws IOException {
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import resource.versions.ScmProviderException;
+import edu.nyu.cs.javagit.api.JavaGitConfiguration;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.commands.CommandResponse;
+import edu.nyu.cs.javagit.client.cli.IParser;
+import edu.nyu.cs.javagit.client.cli.ProcessUtilities;
+
+/**
+ * Working trees next to the one of the repository, made with <code>git worktree add</code>. They
+ * share the objects of the repository, so a revision is checked out without cloning it, and
+ * every worktree can be at another revision.
+ */
+class GitWorktrees {
+
+	/**
+	 * Checks the revision out in the worktree, the worktree is added when it isn't there yet. A
+	 * worktree that is reused gets the revision with nothing else: the changes and the untracked
+	 * files of the previous checkout are removed.
+	 */
+	static void checkout(File repositoryPath, File worktree, String revision) throws ScmProviderException {
+		if (new File(worktree, ".git").exists()) {
+			run(worktree, "checkout", "--detach", "--force", "--quiet", revision);
+			run(worktree, "clean", "-d", "-x", "--force", "--quiet");
+		} else {
+			run(repositoryPath, "worktree", "add", "--detach", "--force", "--quiet", worktree.getAbsolutePath(), revision);
+		}
+	}
+
+	/**
+	 * Removes the worktree, and what the repository knows of it.
+	 */
+	static void remove(File repositoryPath, File worktree) throws ScmProviderException {
+		run(repositoryPath, "worktree", "remove", "--force", worktree.getAbsolutePath());
+	}
+
+	/**
+	 * Forgets the worktrees whose directory is gone, like the ones of an add that failed or was
+	 * aborted, so they don't pile up in the git directory.
+	 */
+	static void prune(File repositoryPath) throws ScmProviderException {
+		run(repositoryPath, "worktree", "prune");
+	}
+
+	private static void run(File directory, String... arguments) throws ScmProviderException {
+		List<String> command = new ArrayList<String>();
+		command.add(JavaGitConfiguration.getGitCommand());
+		for (String argument : arguments) {
+			command.add(argument);
+		}
+		OutputParser parser = new OutputParser();
+		try {
+			ProcessUtilities.runCommand(directory, command, parser);
+		} catch (IOException e) {
+			throw new ScmProviderException(e.getMessage(), e);
+		} catch (JavaGitException e) {
+			throw new ScmProviderException(e.getMessage(), e);
+		}
+		if (parser.exitCode != 0) {
+			throw new ScmProviderException("git " + arguments[0] + " in " + directory + " failed: " + parser.output.toString().trim());
+		}
+	}
+
+	/**
+	 * Keeps the output, git only says something when it fails.
+	 */
+	private static class OutputParser implements IParser {
+		private final StringBuilder output = new StringBuilder();
+		private int exitCode = -1;
+
+		public void parseLine(String line) {
+			output.append(line).append('\n');
+		}
+
+		public void processExitCode(int code) {
+			exitCode = code;
+		}
+
+		public CommandResponse getResponse() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+import resource.versions.ScmLogEntryHandler;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.api.commands.GitLog;
+import edu.nyu.cs.javagit.api.commands.GitLogOptions;
+import edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
+import edu.nyu.cs.javagit.client.odb.OdbGitLog;
+
+/**
+ * Runs several git logs at the same time, each over a part of the commits, and puts their commits
+ * together in the order of a single git log.
+ *
+ * The order comes from a walk of the object database ({@link OdbGitLog#revList}), which only reads
+ * the commits and is cheap next to the diffs of the log. The commits are cut in chunks that are
+ * dealt out to the workers in turn. Every worker runs one <code>git log --no-walk=unsorted</code>
+ * that shows exactly the commits of its chunks, in that order, and the chunks are read back from
+ * the workers in the same turns. Commits with the same commit time therefore keep git's order too.
+ * Histories that are too small to split, and logs whose commits can't be found without git, are
+ * read with a single git log.
+ */
+public class PartitionedGitLog implements GitLogSource {
+
+	//fewer commits than this per chunk aren't worth the switching between the workers
+	private static final int COMMITS_PER_CHUNK = 1000;
+	private static final int QUEUE_CAPACITY = 1024;
+
+	//marks the end of the commits of a worker in its queue
+	private static final Commit END = new Commit("", null, null, null, null, null, null, null, null, null, null);
+
+	private final File repositoryPath;
+	private final GitLogOptions options;
+	private final int workers;
+
+	/**
+	 * @param workers the number of git logs that may run at the same time, 1 runs a single git log.
+	 */
+	public PartitionedGitLog(File repositoryPath, GitLogOptions options, int workers) {
+		this.repositoryPath = repositoryPath;
+		this.options = options;
+		this.workers = workers;
+	}
+
+	public void log(ScmLogEntryHandler<Commit> handler) throws JavaGitException, IOException {
+		List<String> order = workers > 1 ? new OdbGitLog().revList(repositoryPath, options) : null;
+		int chunks = order == null ? 0 : (order.size() + COMMITS_PER_CHUNK - 1) / COMMITS_PER_CHUNK;
+		if (chunks < 2) {
+			new GitLog().log(repositoryPath, options, handler);
+			return;
+		}
+
+		int count = Math.min(workers, chunks);
+		List<ChunkReader> readers = new ArrayList<ChunkReader>(count);
+		for (int i = 0; i < count; i++) {
+			List<String> commits = new ArrayList<String>();
+			for (int chunk = i; chunk < chunks; chunk += count) {
+				commits.addAll(order.subList(chunk * COMMITS_PER_CHUNK, Math.min((chunk + 1) * COMMITS_PER_CHUNK, order.size())));
+			}
+			ChunkReader reader = new ChunkReader(i, chunkOptions(commits));
+			readers.add(reader);
+			reader.start();
+		}
+		try {
+			merge(order, readers, handler);
+		} finally {
+			for (ChunkReader reader : readers) {
+				//stops the readers that are still running after a failure, interrupting closes git's output
+				reader.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Takes the commits from the workers in the order of the walk, a chunk at a time.
+	 */
+	private void merge(List<String> order, List<ChunkReader> readers, ScmLogEntryHandler<Commit> handler) throws JavaGitException, IOException {
+		for (int position = 0; position < order.size(); position++) {
+			ChunkReader reader = readers.get(position / COMMITS_PER_CHUNK % readers.size());
+			Commit commit = reader.next();
+			if (commit == END || !commit.getSha().equals(order.get(position))) {
+				throw new JavaGitException(420001, "git log gave " + (commit == END ? "no commit" : commit.getSha())
+						+ " where " + order.get(position) + " was expected");
+			}
+			handler.handleLogEntry(commit);
+			//the commits git log -m gives per merge parent stay together
+			while (commit.getMergeOrigin() != null && reader.peek() != END && reader.peek().isSameCommit(commit)) {
+				commit = reader.next();
+				handler.handleLogEntry(commit);
+			}
+		}
+	}
+
+	/**
+	 * @return the options of a git log that shows the given commits the way this log shows them.
+	 */
+	private GitLogOptions chunkOptions(List<String> commits) {
+		GitLogOptions chunkOptions = options.copy();
+		//the walk picked and ordered the commits already
+		chunkOptions.setOptLimitRange(false, null);
+		chunkOptions.setOptLimitAll(false);
+		chunkOptions.setOptLimitExclude(false, null);
+		chunkOptions.setOptLimitCommitSince(false, null);
+		chunkOptions.setOptLimitCommitAfter(false, null);
+		chunkOptions.setOptLimitComitUntil(false, null);
+		chunkOptions.setOptLimitCommitBefore(false, null);
+		chunkOptions.setOptLimitNoMerges(false);
+		chunkOptions.setOptLimitOnlyMerges(false);
+		chunkOptions.setOptLimitCommitMax(false, 0);
+		chunkOptions.setOptLimitCommitSkip(false, 0);
+		chunkOptions.setOptOrderingReverse(false);
+		chunkOptions.setOptLimitCommits(true, commits);
+		return chunkOptions;
+	}
+
+	/**
+	 * Runs git log for the chunks of one worker and queues their commits for the merge.
+	 */
+	private class ChunkReader extends Thread implements ScmLogEntryHandler<Commit> {
+		private final GitLogOptions chunkOptions;
+		private final BlockingQueue<Commit> queue = new ArrayBlockingQueue<Commit>(QUEUE_CAPACITY);
+		private volatile Throwable failure = null;
+		//the commit peek took from the queue, only used by the merging thread
+		private Commit head = null;
+
+		ChunkReader(int worker, GitLogOptions chunkOptions) {
+			super("git log worker " + worker);
+			this.chunkOptions = chunkOptions;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				new GitLog().log(repositoryPath, chunkOptions, this);
+			} catch (Throwable e) {
+				failure = e;
+			} finally {
+				try {
+					queue.put(END);
+				} catch (InterruptedException e) {
+					//the merge stopped, nobody is waiting for the end
+				}
+			}
+		}
+
+		public void handleLogEntry(Commit commit) {
+			try {
+				queue.put(commit);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("The log extraction was stopped");
+			}
+		}
+
+		/**
+		 * @return the next commit of the worker, or END.
+		 */
+		Commit next() throws JavaGitException, IOException {
+			Commit commit = peek();
+			if (commit != END) {
+				head = null;
+			}
+			return commit;
+		}
+
+		/**
+		 * @return the next commit of the worker without taking it, or END.
+		 */
+		Commit peek() throws JavaGitException, IOException {
+			if (head != null) {
+				return head;
+			}
+			try {
+				head = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("The log extraction was stopped");
+			}
+			if (head == END) {
+				Throwable e = failure;
+				if (e instanceof JavaGitException) {
+					throw (JavaGitException) e;
+				} else if (e instanceof IOException) {
+					throw (IOException) e;
+				} else if (e instanceof RuntimeException) {
+					throw (RuntimeException) e;
+				} else if (e instanceof Error) {
+					throw (Error) e;
+				}
+			}
+			return head;
+		}
+	}
+}
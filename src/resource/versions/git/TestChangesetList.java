@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.IList;
+import org.eclipse.imp.pdb.facts.IValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import resource.versions.ScmTypes;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.test.utilities.FileUtilities;
+
+public class TestChangesetList {
+	private File directory;
+	private IConstructor[] changeSets;
+	private IList list;
+	//the same changesets in the standard implementation
+	private IList expected;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = FileUtilities.createTempDirectory("ChangesetListTest");
+		changeSets = TestChangesetStore.history();
+		ChangesetStore store = TestChangesetStore.write(directory, changeSets);
+		list = store.get(0, store.size());
+		expected = ScmTypes.VF.list(changeSets);
+	}
+
+	@After
+	public void tearDown() throws JavaGitException {
+		FileUtilities.removeDirectoryRecursivelyAndForcefully(directory);
+	}
+
+	@Test
+	public void testGet() {
+		assertEquals(3, list.length());
+		assertFalse(list.isEmpty());
+		for (int i = 0; i < changeSets.length; i++) {
+			assertEquals(changeSets[i], list.get(i));
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetPastEnd() {
+		list.get(3);
+	}
+
+	@Test
+	public void testSublist() {
+		IList sublist = list.sublist(1, 2);
+		assertEquals(2, sublist.length());
+		assertEquals(changeSets[1], sublist.get(0));
+		assertEquals(changeSets[2], sublist.get(1));
+		assertTrue(list.sublist(3, 0).isEmpty());
+	}
+
+	@Test
+	public void testRange() throws IOException {
+		ChangesetStore store = ChangesetStore.open(directory);
+		//a range past the end of the store stops at its end
+		assertEquals(1, store.get(2, 10).length());
+		assertTrue(store.get(2, 1).isEmpty());
+	}
+
+	@Test
+	public void testIterator() {
+		Iterator<IValue> iterator = list.iterator();
+		for (IConstructor changeSet : changeSets) {
+			assertTrue(iterator.hasNext());
+			assertEquals(changeSet, iterator.next());
+		}
+		assertFalse(iterator.hasNext());
+		try {
+			iterator.next();
+			fail("An iterator past the end gives no changeset");
+		} catch (NoSuchElementException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testEqualToStandardList() {
+		assertTrue(list.isEqual(expected));
+		assertTrue(expected.isEqual(list));
+		assertEquals(expected, list);
+		assertEquals(expected.hashCode(), list.hashCode());
+		assertEquals(expected.toString(), list.toString());
+		assertFalse(list.sublist(0, 2).isEqual(expected));
+	}
+
+	@Test
+	public void testChangedList() {
+		assertEquals(expected.reverse(), list.reverse());
+		assertEquals(expected.delete(1), list.delete(1));
+		assertEquals(4, list.append(changeSets[0]).length());
+		assertTrue(list.contains(changeSets[2]));
+	}
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   * Waruzjan Shahbazian - waruzjan@gmail.com
+ *   * Jurgen J. Vinju - Jurgen.Vinju@cwi.nl - CWI
+*******************************************************************************/
+package resource.versions.git;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import org.eclipse.imp.pdb.facts.IConstructor;
+import org.eclipse.imp.pdb.facts.ISet;
+import org.eclipse.imp.pdb.facts.ISetWriter;
+import org.eclipse.imp.pdb.facts.ISourceLocation;
+import org.eclipse.imp.pdb.facts.ITuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import resource.versions.ScmTypes;
+import resource.versions.ScmTypes.Annotation;
+import resource.versions.ScmTypes.ChangeSet;
+import resource.versions.ScmTypes.CheckoutUnit;
+import resource.versions.ScmTypes.Info;
+import resource.versions.ScmTypes.MergeDetail;
+import resource.versions.ScmTypes.Resource;
+import resource.versions.ScmTypes.Revision;
+import resource.versions.ScmTypes.RevisionChange;
+import resource.versions.ScmTypes.RevisionId;
+import resource.versions.ScmTypes.Sha;
+import resource.versions.ScmTypes.Tag;
+import edu.nyu.cs.javagit.api.JavaGitException;
+import edu.nyu.cs.javagit.test.utilities.FileUtilities;
+
+public class TestChangesetStore {
+	static final String FIRST = "1111111111111111111111111111111111111111";
+	static final String SECOND = "2222222222222222222222222222222222222222";
+	static final String MERGE = "3333333333333333333333333333333333333333";
+	static final String BLOB = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+	static final String OLD_BLOB = "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+	//a converted repository keeps the revisions of the other system as names
+	static final String NAMED = "r1024";
+
+	private File directory;
+	private IConstructor[] changeSets;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = FileUtilities.createTempDirectory("ChangesetStoreTest");
+		changeSets = history();
+	}
+
+	@After
+	public void tearDown() throws JavaGitException {
+		FileUtilities.removeDirectoryRecursivelyAndForcefully(directory);
+	}
+
+	/**
+	 * A root with a tag, its child and a merge of the child and a named revision, with the lines
+	 * and origins of the changes. The child and the merge are committed at the same time.
+	 */
+	static IConstructor[] history() {
+		IConstructor first = changeSet(revision(FIRST), 1000L, "alice", "first",
+			change("a.txt", RevisionChange.ADDED.make(blob(BLOB)), 10, 0));
+		first = tag(first, Tag.LABEL.make("v1"), Tag.BRANCH.make("master"));
+		first = Annotation.AUTHOR.set(first, Info.makeInfo(ScmTypes.VF.datetime(900L), "bob", null));
+
+		IConstructor moved = Annotation.ORIGIN_PERCENT.set(
+			RevisionChange.RENAMED_ORIGIN.make(blobParent(BLOB, OLD_BLOB), Resource.FILE.make(location("a.txt"))),
+			ScmTypes.VF.integer(90));
+		IConstructor second = changeSet(Revision.REVISION_PARENT.make(id(SECOND), revision(FIRST)), 2000L, null, null,
+			change("b.txt", moved, 1, 2));
+
+		IConstructor mergeRevision = Revision.REVISION_PARENT.make(id(MERGE), revision(SECOND));
+		mergeRevision = Annotation.MERGE_DETAIL.set(mergeRevision, ScmTypes.VF.list(
+			MergeDetail.PARENT.make(revision(SECOND)),
+			MergeDetail.RESOURCES.make(revision(NAMED), resources(change("c.txt", RevisionChange.MODIFIED.make(blob(BLOB)), 3, 4)))));
+		IConstructor merge = changeSet(mergeRevision, 2000L, "alice", "merge\n\nof the other one",
+			change("d.txt", RevisionChange.REMOVED.make(blob(OLD_BLOB)), -1, -1));
+
+		return new IConstructor[] { first, second, merge };
+	}
+
+	static IConstructor changeSet(IConstructor revision, long date, String name, String message, ITuple... changes) {
+		return ChangeSet.CHANGE_SET.make(revision, resources(changes),
+			Info.makeInfo(ScmTypes.VF.datetime(date), name, message));
+	}
+
+	private static ISet resources(ITuple... changes) {
+		ISetWriter writer = ScmTypes.VF.relationWriter(GitLogEntryHandler.RESOURCE_CHANGE);
+		for (ITuple change : changes) {
+			writer.insert(change);
+		}
+		return writer.done();
+	}
+
+	private static ITuple change(String path, IConstructor revisionChange, int added, int removed) {
+		if (added >= 0) {
+			revisionChange = Annotation.LINES_ADDED.set(revisionChange, ScmTypes.VF.integer(added));
+			revisionChange = Annotation.LINES_REMOVED.set(revisionChange, ScmTypes.VF.integer(removed));
+		}
+		return ScmTypes.VF.tuple(Resource.FILE.make(location(path)), revisionChange);
+	}
+
+	private static IConstructor tag(IConstructor changeSet, IConstructor... tags) {
+		IConstructor revision = ChangeSet.CHANGE_SET.getRevision(changeSet);
+		revision = Annotation.TAGS.set(revision, ScmTypes.VF.set(tags));
+		return ChangeSet.CHANGE_SET.make(revision, ChangeSet.CHANGE_SET.getResources(changeSet),
+			ChangeSet.CHANGE_SET.getCommitter(changeSet));
+	}
+
+	static IConstructor id(String sha) {
+		return RevisionId.HASH.make(Sha.COMMIT.make(sha));
+	}
+
+	static IConstructor revision(String sha) {
+		return Revision.REVISION.make(id(sha));
+	}
+
+	private static IConstructor blob(String sha) {
+		return Revision.REVISION.make(RevisionId.HASH.make(Sha.BLOB.make(sha)));
+	}
+
+	private static IConstructor blobParent(String sha, String parentSha) {
+		return Revision.REVISION_PARENT.make(RevisionId.HASH.make(Sha.BLOB.make(sha)), blob(parentSha));
+	}
+
+	private static ISourceLocation location(String path) {
+		return ScmTypes.VF.sourceLocation(URI.create("file:///workspace/" + path));
+	}
+
+	static ChangesetStore write(File directory, IConstructor... changeSets) throws IOException {
+		ChangesetStore.Writer writer = new ChangesetStore.Writer(directory);
+		for (IConstructor changeSet : changeSets) {
+			writer.append(changeSet);
+		}
+		writer.close();
+		return ChangesetStore.open(directory);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		ChangesetStore store = write(directory, changeSets);
+		assertEquals(3, store.size());
+		for (int i = 0; i < changeSets.length; i++) {
+			//equals compares the annotations as well
+			assertEquals(changeSets[i], store.get(i));
+		}
+	}
+
+	@Test
+	public void testOrdinalOfSha() throws IOException {
+		ChangesetStore store = write(directory, changeSets);
+		assertEquals(0, store.ordinalOf(FIRST));
+		assertEquals(1, store.ordinalOf(SECOND));
+		assertEquals(2, store.ordinalOf(MERGE));
+		assertEquals(-1, store.ordinalOf(BLOB));
+		assertEquals(-1, store.ordinalOf(NAMED));
+		assertEquals(2, store.ordinalOf(CheckoutUnit.REVISION.make(revision(MERGE))));
+	}
+
+	@Test
+	public void testOrdinalOfTag() throws IOException {
+		ChangesetStore store = write(directory, changeSets);
+		assertEquals(0, store.ordinalOf(CheckoutUnit.SYM_NAME.make(Tag.LABEL.make("v1"))));
+		assertEquals(0, store.ordinalOf(CheckoutUnit.SYM_NAME.make(Tag.BRANCH.make("master"))));
+		//a label and a branch of the same name are different tags
+		assertEquals(-1, store.ordinalOf(CheckoutUnit.SYM_NAME.make(Tag.BRANCH.make("v1"))));
+	}
+
+	@Test
+	public void testOrdinalOfDate() throws IOException {
+		ChangesetStore store = write(directory, changeSets);
+		assertEquals(-1, store.ordinalOf(CheckoutUnit.DATE.make(ScmTypes.VF.datetime(999L))));
+		assertEquals(0, store.ordinalOf(CheckoutUnit.DATE.make(ScmTypes.VF.datetime(1000L))));
+		assertEquals(0, store.ordinalOf(CheckoutUnit.DATE.make(ScmTypes.VF.datetime(1999L))));
+		//of two changesets of the same date the first one is taken
+		assertEquals(1, store.ordinalOf(CheckoutUnit.DATE.make(ScmTypes.VF.datetime(2000L))));
+		assertEquals(1, store.ordinalOf(CheckoutUnit.DATE.make(ScmTypes.VF.datetime(5000L))));
+	}
+
+	@Test
+	public void testAbortedCheckpoint() throws IOException {
+		ChangesetStore.Writer writer = new ChangesetStore.Writer(directory);
+		writer.setCheckpoint(2);
+		for (IConstructor changeSet : changeSets) {
+			writer.append(changeSet);
+		}
+		writer.abort();
+
+		//the store is readable up to its last checkpoint
+		ChangesetStore store = ChangesetStore.open(directory);
+		assertEquals(2, store.size());
+		assertEquals(changeSets[0], store.get(0));
+		assertEquals(changeSets[1], store.get(1));
+		assertEquals(1, store.ordinalOf(SECOND));
+		assertEquals(-1, store.ordinalOf(MERGE));
+	}
+
+	@Test
+	public void testCheckpointOutdatesOpenStore() throws IOException {
+		ChangesetStore.Writer writer = new ChangesetStore.Writer(directory);
+		writer.setCheckpoint(1);
+		writer.append(changeSets[0]);
+		ChangesetStore store = ChangesetStore.open(directory);
+		assertEquals(1, store.size());
+		assertFalse(store.isOutdated());
+
+		writer.append(changeSets[1]);
+		assertTrue(store.isOutdated());
+		writer.close();
+		assertEquals(2, ChangesetStore.open(directory).size());
+	}
+
+	@Test
+	public void testReplaceOpenStore() throws IOException {
+		ChangesetStore old = write(directory, changeSets);
+
+		IConstructor other = changeSet(revision(MERGE), 3000L, "carol", "other",
+			change("e.txt", RevisionChange.ADDED.make(blob(BLOB)), 5, 0));
+		ChangesetStore replacement = write(directory, other);
+		assertEquals(1, replacement.size());
+		assertEquals(other, replacement.get(0));
+		assertEquals(-1, replacement.ordinalOf(FIRST));
+
+		//the store that was open still reads the files it mapped
+		assertTrue(old.isOutdated());
+		assertEquals(3, old.size());
+		assertEquals(changeSets[2], old.get(2));
+		assertEquals(0, old.ordinalOf(FIRST));
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpenUnfinished() throws IOException {
+		ChangesetStore.Writer writer = new ChangesetStore.Writer(directory);
+		writer.append(changeSets[0]);
+		writer.abort();
+		ChangesetStore.open(directory);
+	}
+}
@@ -27,9 +27,9 @@ import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.io.SVNRepository;
 
 import resource.versions.AbstractScmLogEntryHandler;
+import resource.versions.ResourceLocations;
 import resource.versions.ScmEntryChangeKind;
 import resource.versions.ScmTypes;
-import resource.versions.Versions;
 import resource.versions.ScmEntryChangeKind.SvnChangeKind;
 import resource.versions.ScmTypes.Annotation;
 import resource.versions.ScmTypes.LogOption;
@@ -44,6 +44,7 @@ public class SvnLogEntryHandler extends AbstractScmLogEntryHandler<SVNLogEntry>
   private static final boolean DEBUG = true;
 
   private final String workspace;
+  private final ResourceLocations locations;
   private boolean fileDetails;
 
   private IConstructor lastRevisionId;
@@ -55,6 +56,7 @@ public class SvnLogEntryHandler extends AbstractScmLogEntryHandler<SVNLogEntry>
   public SvnLogEntryHandler(IConstructor repository, RascalFunction factExtractor, IListWriter logEntriesWriter) {
     super(repository, factExtractor, logEntriesWriter);
     workspace = ScmTypes.Repository.getWorkspace(repository).getURI().getPath();
+    locations = ResourceLocations.forWorkspace(workspace);
 
     ISet logOptions = Repository.getOptions(repository);
 
@@ -103,7 +105,7 @@ public class SvnLogEntryHandler extends AbstractScmLogEntryHandler<SVNLogEntry>
           revisionChange = changeType.make(
               resRevision,
               getResourceType(entryPath).make(
-                  Versions.createResourceId(workspace, entryPath.getCopyPath().substring(1))));
+                  locations.get(entryPath.getCopyPath().substring(1))));
           if (DEBUG) {
             System.err.println("!Revision with parent:" + revisionChange);
           }
@@ -112,7 +114,7 @@ public class SvnLogEntryHandler extends AbstractScmLogEntryHandler<SVNLogEntry>
         }
 
         IConstructor resource = getResourceType(entryPath).make(
-            Versions.createResourceId(workspace, entryPath.getPath().substring(1)));
+            locations.get(entryPath.getPath().substring(1)));
         resources.insert(ScmTypes.VF.tuple(resource, revisionChange));
 
         if (DEBUG) {
@@ -134,6 +136,23 @@ public class SvnLogEntryHandler extends AbstractScmLogEntryHandler<SVNLogEntry>
     callBack(ScmTypes.ChangeSet.CHANGE_SET.make(revision, resources.done(), committer));
   }
 
+  /**
+   * The number of the revision, the merged revisions are part of the changeset of their merge.
+   */
+  @Override
+  protected String getJournalEntry(IConstructor changeSet) {
+    IConstructor id = Revision.getId(ScmTypes.ChangeSet.CHANGE_SET.getRevision(changeSet));
+    return RevisionId.getId(id).toString();
+  }
+
+  /**
+   * Goes on after the revision of an extraction that was interrupted, the next changeset gets it
+   * as its parent like it would have.
+   */
+  void resumeAfter(long revision) {
+    lastRevisionId = RevisionId.ID.make(revision);
+  }
+
   private Resource getResourceType(SVNLogEntryPath entryPath) {
     SVNNodeKind kind = entryPath.getKind();
     if (kind == SVNNodeKind.DIR) {
@@ -11,18 +11,31 @@
 *******************************************************************************/
 package resource.versions.svn;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.URI;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.imp.pdb.facts.IConstructor;
 import org.eclipse.imp.pdb.facts.IListWriter;
 import org.eclipse.imp.pdb.facts.ISet;
+import org.eclipse.imp.pdb.facts.ISourceLocation;
 import org.eclipse.imp.pdb.facts.IValue;
 import org.eclipse.imp.pdb.facts.IValueFactory;
 import org.rascalmpl.interpreter.result.RascalFunction;
+import org.tmatesoft.svn.core.ISVNLogEntryHandler;
 import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
 import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
@@ -37,18 +50,24 @@ import org.tmatesoft.svn.core.wc.SVNRevision;
 import org.tmatesoft.svn.core.wc.SVNUpdateClient;
 import org.tmatesoft.svn.core.wc.SVNWCClient;
 
+import resource.versions.ContentCache;
+import resource.versions.ExtractionJournal;
+import resource.versions.RawOutputCache;
+import resource.versions.RawOutputCache.Recording;
 import resource.versions.ScmProvider;
 import resource.versions.ScmProviderException;
 import resource.versions.ScmTypes;
+import resource.versions.ScmTypes.Annotation;
 import resource.versions.ScmTypes.CheckoutUnit;
 import resource.versions.ScmTypes.LogOption;
 import resource.versions.ScmTypes.Repository;
+import resource.versions.ScmTypes.Resource;
 import resource.versions.ScmTypes.Revision;
 import resource.versions.ScmTypes.RevisionId;
 
 public class SvnProvider implements ScmProvider<SvnLogEntryHandler> {
 	
-	
+	private final ContentCache contentCache = new ContentCache(64 * 1024 * 1024);
 
 	public SvnProvider() {
 		SVNRepositoryFactoryImpl.setup();
@@ -111,6 +130,54 @@ public class SvnProvider implements ScmProvider<SvnLogEntryHandler> {
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The files are read from the repository with one session, the paths of the files in the 
+	 * workspace are the paths in the repository.
+	 */
+	public byte[][] readContents(IConstructor repositoryConfig, IConstructor[] files, IConstructor[] revisions) throws ScmProviderException {
+		String workspace = ScmTypes.Repository.getWorkspace(repositoryConfig).getURI().getPath();
+		String url = ScmTypes.Connection.getUrl(ScmTypes.Repository.getConnection(repositoryConfig)).getValue();
+		byte[][] contents = new byte[files.length][];
+		SVNRepository repository = null;
+		try {
+			for (int i = 0; i < files.length; i++) {
+				String path = Resource.getId(files[i]).getURI().getPath();
+				if (!path.startsWith(workspace)) {
+					throw new ScmProviderException(path + " isn't in the workspace " + workspace);
+				}
+				path = path.substring(workspace.length());
+				if (!path.startsWith("/")) {
+					path = "/" + path;
+				}
+				long revision = RevisionId.getId(Revision.getId(revisions[i])).longValue();
+				String key = url + "\0" + revision + "\0" + path;
+				contents[i] = contentCache.get(key);
+				if (contents[i] != null) {
+					continue;
+				}
+				if (repository == null) {
+					repository = createConnection(repositoryConfig);
+				}
+				if (repository.checkPath(path, revision) != SVNNodeKind.FILE) {
+					continue;
+				}
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				repository.getFile(path, revision, null, out);
+				contents[i] = out.toByteArray();
+				contentCache.put(key, contents[i]);
+			}
+			return contents;
+		} catch (SVNException e) {
+			throw new ScmProviderException(e.getMessage(), e);
+		} finally {
+			if (repository != null) {
+				repository.closeSession();
+			}
+		}
+	}
+	
 	private String getWorkspaceModulePath(IConstructor repositoryConfig) {
 		String workspacePath = ScmTypes.Repository.getWorkspace(repositoryConfig).getURI().getPath();
 		String module = ScmTypes.Repository.getModule(repositoryConfig).getValue().trim();
@@ -228,7 +295,54 @@ public class SvnProvider implements ScmProvider<SvnLogEntryHandler> {
 				}
 			}
 
-			repository.log(new String[] {""}, startRevision, endRevision, true, true, -1, includeMergedRevisions, null, handler);
+			IConstructor connection = Repository.getConnection(repositoryConfig);
+			RawOutputCache cache = null;
+			if (Annotation.LOG_CACHE.has(connection)) {
+				cache = new RawOutputCache(new File(Annotation.LOG_CACHE.get(connection, ISourceLocation.class).getURI().getPath()));
+			}
+			if (!Annotation.JOURNAL.has(connection)) {
+				log(repository, cache, startRevision, endRevision, includeMergedRevisions, handler);
+				return;
+			}
+			
+			if (handler.isCollecting()) {
+				ExtractionJournal.checkNoJournal(repositoryConfig, "the list");
+			}
+			File journalFile = new File(Annotation.JOURNAL.get(connection, ISourceLocation.class).getURI().getPath());
+			ExtractionJournal journal = ExtractionJournal.open(journalFile, ExtractionJournal.fingerprint(repositoryConfig));
+			try {
+				//the log ends at the revision the first run ended at, not at the head of the next run
+				if (endRevision < 0) {
+					String pinnedEnd = journal.getState().get("end");
+					if (journal.size() > 0 && pinnedEnd != null) {
+						endRevision = Long.parseLong(pinnedEnd);
+					} else {
+						endRevision = repository.getLatestRevision();
+					}
+				}
+				Map<String, String> range = new HashMap<String, String>();
+				range.put("start", Long.toString(startRevision));
+				range.put("end", Long.toString(endRevision));
+				if (journal.size() > 0 && journal.getState().equals(range)) {
+					long last = Long.parseLong(journal.last());
+					startRevision = last + 1;
+					handler.resumeAfter(last);
+				} else {
+					journal.restart(range);
+				}
+				
+				if (startRevision <= endRevision) {
+					handler.setJournal(journal);
+					try {
+						log(repository, cache, startRevision, endRevision, includeMergedRevisions, handler);
+					} finally {
+						handler.setJournal(null);
+					}
+				}
+				journal.finish();
+			} finally {
+				journal.close();
+			}
 			
 //			repository = SVNRepositoryFactory.create(SVNURL.parseURIDecoded("http://pffan.shahbazian.nl/svn/poker"), null );
 //			repository.setAuthenticationManager(new BasicAuthenticationManager("dekkers", "finest"));
@@ -240,10 +354,73 @@ public class SvnProvider implements ScmProvider<SvnLogEntryHandler> {
 
 		} catch (SVNException e) {
 			throw new ScmProviderException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new ScmProviderException(e.getMessage(), e);
 		}
 		
 	}
 	
+	/**
+	 * Runs the log, or reads it from the cache when the server gave the log of the same revisions
+	 * before. SVNKit doesn't hand out what the server sent, so the cache keeps the log entries.
+	 */
+	private void log(SVNRepository repository, RawOutputCache cache, long startRevision, long endRevision, 
+			boolean includeMergedRevisions, SvnLogEntryHandler handler) throws SVNException, IOException {
+		if (cache == null) {
+			repository.log(new String[] {""}, startRevision, endRevision, true, true, -1, includeMergedRevisions, null, handler);
+			return;
+		}
+		if (endRevision < 0) {
+			endRevision = repository.getLatestRevision();
+		}
+		String key = RawOutputCache.key("svn", repository.getLocation().toString(), Long.toString(startRevision), 
+			Long.toString(endRevision), Boolean.toString(includeMergedRevisions));
+		
+		InputStream recorded = cache.open(key);
+		if (recorded != null) {
+			ObjectInputStream in = new ObjectInputStream(recorded);
+			try {
+				SVNLogEntry entry;
+				while ((entry = (SVNLogEntry) in.readObject()) != null) {
+					handler.handleLogEntry(entry);
+				}
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e.getMessage(), e);
+			} finally {
+				in.close();
+			}
+			return;
+		}
+		
+		Recording recording = cache.record(key);
+		final ObjectOutputStream out = new ObjectOutputStream(recording);
+		final SvnLogEntryHandler logHandler = handler;
+		boolean done = false;
+		try {
+			repository.log(new String[] {""}, startRevision, endRevision, true, true, -1, includeMergedRevisions, null, 
+				new ISVNLogEntryHandler() {
+					public void handleLogEntry(SVNLogEntry entry) throws SVNException {
+						try {
+							out.writeObject(entry);
+							//the entries that were written aren't referred to again
+							out.reset();
+						} catch (IOException e) {
+							throw new SVNException(SVNErrorMessage.create(SVNErrorCode.IO_ERROR, e.getMessage()), e);
+						}
+						logHandler.handleLogEntry(entry);
+					}
+				});
+			out.writeObject(null);
+			out.flush();
+			done = true;
+		} finally {
+			if (!done) {
+				recording.abort();
+			}
+		}
+		recording.commit();
+	}
+	
 //	public static IConstructor createResource(String workspace, SVNLogEntryPath entry, IConstructor revision) {
 //		ScmEntryChangeKind changeKind = SvnChangeKind.from(entry.getType()); //ChangeCodeValue.from(Character.toString(entry.getType()));
 //		Resource resType = (entry.getKind() == SVNNodeKind.FILE) ? Resource.FILE_REV_CHANGE : Resource.FOLDER_REV_CHANGE;